@@ -0,0 +1,691 @@
+package org.palettelabs.iumls.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates reflection-free dispatcher for every library class
+ * (class implements <i>org.palettelabs.iumls.computer.Library</i> and has annotated members).
+ * <br>
+ * Dispatcher is named after the library class with '_Dispatcher' suffix
+ * (<i>SystemLibrary_Dispatcher</i>, nested <i>Outer.MyLibrary</i> gets <i>Outer_MyLibrary_Dispatcher</i>),
+ * it switches on notation names and calls annotated members directly. Lookup rules are the same
+ * as reflection based ones:
+ * <ul>
+ * 	<li>only public instance members returning <i>VariableValue</i> (or <i>double</i>, <i>long</i>, <i>boolean</i>) are taken;</li>
+ * 	<li>member returning <i>VariableValue</i> goes first, member of the same name taking and returning primitives
+ * 		becomes its primitive form;</li>
+ * 	<li>method with exact number of parameters goes first, then vararg method, then default method handler;</li>
+ * 	<li>variable field goes first, then variable method, then default variable handler.</li>
+ * </ul>
+ * Calls of methods marked with <i>Cacheable</i> are wrapped with <i>MethodCache</i>, methods marked with <i>Batched</i>
+ * are called through <i>BatchedCall</i>, as reflection based ones are.
+ * 'Computer' picks generated dispatcher up on library registration.
+ * Classes which are not accessible from their package (e.g. private nested ones) are skipped,
+ * reflection is used for them.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class LibraryProcessor extends AbstractProcessor {
+
+	private static final String PACKAGE = "org.palettelabs.iumls.computer";
+	private static final String LIBRARY = PACKAGE + ".Library";
+	private static final String METHOD = PACKAGE + ".Method";
+	private static final String VARIABLE = PACKAGE + ".Variable";
+	private static final String OPERATOR = PACKAGE + ".Operator";
+	private static final String PURE = PACKAGE + ".Pure";
+	private static final String CACHEABLE = PACKAGE + ".Cacheable";
+	private static final String BATCHED = PACKAGE + ".Batched";
+	private static final String DEFAULT_METHOD_HANDLER = PACKAGE + ".DefaultMethodHandler";
+	private static final String DEFAULT_VARIABLE_HANDLER = PACKAGE + ".DefaultVariableHandler";
+
+	private static final String VALUE = "org.palettelabs.iumls.VariableValue";
+	private static final String MEMBER = PACKAGE + ".LibraryMember";
+	private static final String CALL = PACKAGE + ".LibraryCall";
+	private static final String ASYNC_CALL = PACKAGE + ".AsyncLibraryCall";
+	private static final String METHOD_CACHE = PACKAGE + ".MethodCache";
+	private static final String BATCHED_CALL = PACKAGE + ".BatchedCall";
+	private static final String FUTURE = "java.util.concurrent.CompletableFuture";
+
+	private static final String SUFFIX = "_Dispatcher";
+
+	private Set<String> generated = new HashSet<String>();
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		Set<String> types = new HashSet<String>();
+		types.add(METHOD);
+		types.add(VARIABLE);
+		types.add(OPERATOR);
+		types.add(DEFAULT_METHOD_HANDLER);
+		types.add(DEFAULT_VARIABLE_HANDLER);
+		return types;
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		Set<TypeElement> libraries = new LinkedHashSet<TypeElement>();
+		for (TypeElement annotation : annotations) {
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				Element enclosing = element.getEnclosingElement();
+				if ((enclosing != null) && (enclosing.getKind() == ElementKind.CLASS))
+					libraries.add((TypeElement) enclosing);
+			}
+		}
+		for (TypeElement library : libraries) {
+			if (isLibrary(library) && this.generated.add(library.getQualifiedName().toString()))
+				generate(library);
+		}
+		// annotations are not claimed, they are runtime ones anyway
+		return false;
+	}
+
+	//============= library checks =============
+
+	private boolean isLibrary(TypeElement type) {
+		TypeElement library = this.processingEnv.getElementUtils().getTypeElement(LIBRARY);
+		if ((library == null) || type.getModifiers().contains(Modifier.ABSTRACT)
+				|| !this.processingEnv.getTypeUtils().isAssignable(type.asType(), library.asType()))
+			return false;
+		// generated class lives in the same package, so the library must be reachable from there
+		Element element = type;
+		while (element.getKind() == ElementKind.CLASS) {
+			if (element.getModifiers().contains(Modifier.PRIVATE))
+				return false;
+			Element enclosing = element.getEnclosingElement();
+			if ((enclosing.getKind() != ElementKind.PACKAGE) && !element.getModifiers().contains(Modifier.STATIC))
+				return false;
+			element = enclosing;
+		}
+		return element.getKind() == ElementKind.PACKAGE;
+	}
+
+	private static boolean isValue(TypeMirror type) {
+		return type.toString().equals(VALUE);
+	}
+
+	/**
+	 * @return true if type is a future of value (methods only, see <i>AsyncLibraryCall</i>)
+	 */
+	private static boolean isAsyncResult(TypeMirror type) {
+		return type.toString().equals(FUTURE + "<" + VALUE + ">");
+	}
+
+	/**
+	 * @return true if method takes and returns arrays of values (see <i>Batched</i>)
+	 */
+	private static boolean isBulk(ExecutableElement method) {
+		List<? extends VariableElement> parameters = method.getParameters();
+		return method.getReturnType().toString().equals(VALUE + "[]") && (parameters.size() == 1)
+				&& parameters.get(0).asType().toString().equals(VALUE + "[]");
+	}
+
+	private static boolean isPrimitiveResult(TypeMirror type) {
+		String name = type.toString();
+		return name.equals("double") || name.equals("long") || name.equals("boolean");
+	}
+
+	private static boolean isSupportedType(TypeMirror type) {
+		String name = type.toString();
+		return name.equals("int") || name.equals("java.lang.Integer") || name.equals("boolean") || name.equals("java.lang.Boolean")
+				|| name.equals("long") || name.equals("java.lang.Long") || name.equals("double") || name.equals("java.lang.Double")
+				|| name.equals("java.lang.String") || name.equals(VALUE);
+	}
+
+	private static boolean isLastVararg(List<? extends VariableElement> parameters) {
+		if (parameters.isEmpty())
+			return false;
+		TypeMirror last = parameters.get(parameters.size() - 1).asType();
+		return (last.getKind() == TypeKind.ARRAY) && isSupportedType(((ArrayType) last).getComponentType());
+	}
+
+	private static boolean isSupportedSignature(List<? extends VariableElement> parameters) {
+		boolean isLastVararg = isLastVararg(parameters);
+		for (int n = 0; n < parameters.size(); n++) {
+			if (!isSupportedType(parameters.get(n).asType()) && !((n == parameters.size() - 1) && isLastVararg))
+				return false;
+		}
+		return true;
+	}
+
+	private static AnnotationMirror annotation(Element element, String annotationName) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (mirror.getAnnotationType().toString().equals(annotationName))
+				return mirror;
+		}
+		return null;
+	}
+
+	private static String annotatedName(AnnotationMirror mirror, String javaName) {
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals("value")) {
+				String value = (String) entry.getValue().getValue();
+				if (!value.isEmpty())
+					return value;
+			}
+		}
+		return javaName;
+	}
+
+	//============= generation =============
+
+	private void generate(TypeElement library) {
+		PackageElement packageElement = this.processingEnv.getElementUtils().getPackageOf(library);
+		String packageName = packageElement.getQualifiedName().toString();
+		String binaryName = this.processingEnv.getElementUtils().getBinaryName(library).toString();
+		String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)).replace('$', '_') + SUFFIX;
+		String libraryType = library.getQualifiedName().toString();
+
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		for (VariableElement field : ElementFilter.fieldsIn(this.processingEnv.getElementUtils().getAllMembers(library))) {
+			if (isInstanceMember(field))
+				fields.add(field);
+		}
+		// methods returning VariableValue go first, so they take precedence over primitive ones of the same name
+		List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+		List<ExecutableElement> primitiveMethods = new ArrayList<ExecutableElement>();
+		List<ExecutableElement> bulkMethods = new ArrayList<ExecutableElement>();
+		for (ExecutableElement method : ElementFilter.methodsIn(this.processingEnv.getElementUtils().getAllMembers(library))) {
+			if (isInstanceMember(method) && (isValue(method.getReturnType()) || isAsyncResult(method.getReturnType())))
+				methods.add(method);
+			else if (isInstanceMember(method) && isPrimitiveResult(method.getReturnType()))
+				primitiveMethods.add(method);
+			else if (isInstanceMember(method) && isBulk(method) && (annotation(method, BATCHED) != null))
+				bulkMethods.add(method);
+		}
+		methods.addAll(primitiveMethods);
+
+		// primitive forms of members: name/arity (operator name) -> function
+		Map<String, String> methodFunctions = new HashMap<String, String>();
+		Map<String, String> operatorFunctions = new HashMap<String, String>();
+		for (ExecutableElement method : primitiveMethods) {
+			String function = function(method);
+			if (function == null)
+				continue;
+			AnnotationMirror annotation = annotation(method, METHOD);
+			if (annotation != null) {
+				String key = annotatedName(annotation, method.getSimpleName().toString()) + "/" + method.getParameters().size();
+				if (!methodFunctions.containsKey(key))
+					methodFunctions.put(key, function);
+			}
+			annotation = annotation(method, OPERATOR);
+			if (annotation != null) {
+				String key = annotatedName(annotation, "");
+				if (!operatorFunctions.containsKey(key))
+					operatorFunctions.put(key, function);
+			}
+		}
+
+		StringBuilder members = new StringBuilder();
+		StringBuilder initializers = new StringBuilder();
+		Map<String, List<Case>> methodCases = new LinkedHashMap<String, List<Case>>();
+		Map<String, List<Case>> varargCases = new LinkedHashMap<String, List<Case>>();
+		Map<String, String> variableCases = new LinkedHashMap<String, String>();
+		Map<String, String> variableMethodCases = new LinkedHashMap<String, String>();
+		Map<String, String> operatorCases = new LinkedHashMap<String, String>();
+		Set<String> packedTypes = new LinkedHashSet<String>();
+		ExecutableElement defaultMethodHandler = null;
+		ExecutableElement defaultVariableHandler = null;
+		int count = 0;
+
+		for (VariableElement field : fields) {
+			AnnotationMirror variable = annotation(field, VARIABLE);
+			if ((variable != null) && isValue(field.asType())) {
+				String name = annotatedName(variable, field.getSimpleName().toString());
+				if (!variableCases.containsKey(name)) {
+					String member = "member" + count++;
+					declare(members, initializers, member, "VARIABLE", name, null, isPure(field),
+							"\t\t\t\t" + VALUE + " value = library." + field.getSimpleName() + ";\n"
+							+ "\t\t\t\tString name = libraryName + " + literal("." + name) + ";\n"
+							// value is shared by threads, it's written only once
+							+ "\t\t\t\tif (!name.equals(value.getName()))\n"
+							+ "\t\t\t\t\tvalue.setName(name);\n"
+							+ "\t\t\t\treturn value;\n");
+					variableCases.put(name, member);
+				}
+			}
+		}
+
+		for (ExecutableElement method : methods) {
+			List<? extends VariableElement> parameters = method.getParameters();
+
+			AnnotationMirror annotation = annotation(method, METHOD);
+			if ((annotation != null) && isSupportedSignature(parameters)) {
+				String name = annotatedName(annotation, method.getSimpleName().toString());
+				String member = "member" + count++;
+				String cache = cache(method);
+				// primitive form would bypass cache
+				declare(members, initializers, member, "METHOD", name,
+						isLastVararg(parameters) || (cache != null) ? null : methodFunctions.get(name + "/" + parameters.size()), isPure(method),
+						isAsyncResult(method.getReturnType()), cache, "\t\t\t\treturn " + invocation(method, packedTypes) + ";\n");
+				if (isLastVararg(parameters))
+					addCase(varargCases, name, "arity >= " + (parameters.size() - 1), member);
+				else
+					addCase(methodCases, name, "arity == " + parameters.size(), member);
+			}
+
+			annotation = annotation(method, VARIABLE);
+			if ((annotation != null) && parameters.isEmpty() && !isAsyncResult(method.getReturnType())) {
+				String name = annotatedName(annotation, method.getSimpleName().toString());
+				if (!variableMethodCases.containsKey(name)) {
+					String member = "member" + count++;
+					declare(members, initializers, member, "VARIABLE", name, null, isPure(method),
+							"\t\t\t\treturn " + invocation(method, packedTypes) + ";\n");
+					variableMethodCases.put(name, member);
+				}
+			}
+
+			annotation = annotation(method, OPERATOR);
+			if ((annotation != null) && (parameters.size() == 2) && !isAsyncResult(method.getReturnType())
+					&& isSupportedType(parameters.get(0).asType()) && isSupportedType(parameters.get(1).asType())) {
+				String name = annotatedName(annotation, "");
+				if (!operatorCases.containsKey(name)) {
+					String member = "member" + count++;
+					declare(members, initializers, member, "OPERATOR", name, operatorFunctions.get(name), isPure(method),
+							"\t\t\t\treturn " + invocation(method, packedTypes) + ";\n");
+					operatorCases.put(name, member);
+				}
+			}
+
+			if ((annotation(method, DEFAULT_METHOD_HANDLER) != null) && (defaultMethodHandler == null)
+					&& isValue(method.getReturnType()) && (parameters.size() == 2)
+					&& parameters.get(0).asType().toString().equals("java.lang.String")
+					&& parameters.get(1).asType().toString().equals(VALUE + "[]")) {
+				defaultMethodHandler = method;
+			}
+
+			if ((annotation(method, DEFAULT_VARIABLE_HANDLER) != null) && (defaultVariableHandler == null)
+					&& isValue(method.getReturnType()) && (parameters.size() == 1)
+					&& parameters.get(0).asType().toString().equals("java.lang.String")) {
+				defaultVariableHandler = method;
+			}
+		}
+
+		// batched method takes a single key in notation, method of the same name taking one argument goes first
+		for (ExecutableElement method : bulkMethods) {
+			AnnotationMirror annotation = annotation(method, METHOD);
+			if (annotation != null) {
+				String name = annotatedName(annotation, method.getSimpleName().toString());
+				String member = "member" + count++;
+				declareBatched(members, initializers, member, name, method);
+				addCase(methodCases, name, "arity == 1", member);
+			}
+		}
+
+		// fields take precedence over methods of the same name
+		for (Map.Entry<String, String> entry : variableMethodCases.entrySet()) {
+			if (!variableCases.containsKey(entry.getKey()))
+				variableCases.put(entry.getKey(), entry.getValue());
+		}
+		// exact arity takes precedence over varargs
+		for (Map.Entry<String, List<Case>> entry : varargCases.entrySet()) {
+			for (Case c : entry.getValue()) {
+				addCase(methodCases, entry.getKey(), c.condition, c.member);
+			}
+		}
+
+		StringBuilder source = new StringBuilder();
+		if (!packageName.isEmpty())
+			source.append("package ").append(packageName).append(";\n\n");
+		source.append("/**\n");
+		source.append(" * Dispatcher of {@link ").append(libraryType).append("}, generated by {@code ").append(getClass().getName()).append("}.\n");
+		source.append(" */\n");
+		source.append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n");
+		source.append("public final class ").append(simpleName).append(" implements ").append(PACKAGE).append(".LibraryDispatcher {\n\n");
+		source.append("\tprivate final ").append(libraryType).append(" library;\n");
+		source.append(members);
+		source.append("\n");
+		source.append("\tpublic ").append(simpleName).append("(final String libraryName, final ").append(libraryType).append(" library) {\n");
+		source.append("\t\tthis.library = library;\n");
+		source.append(initializers);
+		source.append("\t}\n\n");
+
+		source.append("\t@Override\n");
+		source.append("\tpublic ").append(MEMBER).append(" getMethod(String name, int arity) {\n");
+		if (!methodCases.isEmpty()) {
+			source.append("\t\tswitch (name) {\n");
+			for (Map.Entry<String, List<Case>> entry : methodCases.entrySet()) {
+				source.append("\t\tcase ").append(literal(entry.getKey())).append(":\n");
+				for (Case c : entry.getValue()) {
+					source.append("\t\t\tif (").append(c.condition).append(")\n");
+					source.append("\t\t\t\treturn this.").append(c.member).append(";\n");
+				}
+				source.append("\t\t\tbreak;\n");
+			}
+			source.append("\t\t}\n");
+		}
+		if (defaultMethodHandler != null)
+			source.append(trap("METHOD", simpleName + ".this.library." + defaultMethodHandler.getSimpleName() + "(name, arguments)"));
+		else
+			source.append("\t\treturn null;\n");
+		source.append("\t}\n\n");
+
+		source.append("\t@Override\n");
+		source.append("\tpublic ").append(MEMBER).append(" getVariable(String name) {\n");
+		appendSwitch(source, "name", variableCases);
+		if (defaultVariableHandler != null)
+			source.append(trap("VARIABLE", simpleName + ".this.library." + defaultVariableHandler.getSimpleName() + "(name)"));
+		else
+			source.append("\t\treturn null;\n");
+		source.append("\t}\n\n");
+
+		source.append("\t@Override\n");
+		source.append("\tpublic ").append(MEMBER).append(" getOperator(String operatorString) {\n");
+		appendSwitch(source, "operatorString", operatorCases);
+		source.append("\t\treturn null;\n");
+		source.append("\t}\n");
+
+		for (String type : packedTypes) {
+			source.append("\n");
+			source.append("\tprivate static ").append(type).append("[] ").append(packName(type)).append("(").append(VALUE).append("[] arguments, int from) {\n");
+			source.append("\t\t").append(type).append("[] array = new ").append(type).append("[arguments.length - from];\n");
+			source.append("\t\tfor (int n = 0; n < array.length; n++) {\n");
+			source.append("\t\t\tarray[n] = ").append(conversion(type, "arguments[from + n]")).append(";\n");
+			source.append("\t\t}\n");
+			source.append("\t\treturn array;\n");
+			source.append("\t}\n");
+		}
+
+		source.append("\n}\n");
+
+		String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+		try {
+			Writer writer = this.processingEnv.getFiler().createSourceFile(qualifiedName, library).openWriter();
+			try {
+				writer.write(source.toString());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"IUMLS::LibraryProcessor:: could not generate " + qualifiedName + ": " + e.getMessage(), library);
+		}
+	}
+
+	private static boolean isPure(Element element) {
+		return annotation(element, PURE) != null;
+	}
+
+	/**
+	 * @return arguments of cache of method marked with <i>Cacheable</i> (size, ttl and key) or null
+	 */
+	private String cache(Element element) {
+		AnnotationMirror mirror = annotation(element, CACHEABLE);
+		if (mirror == null)
+			return null;
+		String size = null;
+		String ttl = null;
+		StringBuilder key = new StringBuilder();
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+				: this.processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+			String name = entry.getKey().getSimpleName().toString();
+			if (name.equals("size")) {
+				size = entry.getValue().getValue().toString();
+			} else if (name.equals("ttl")) {
+				ttl = entry.getValue().getValue() + "L";
+			} else if (name.equals("key")) {
+				for (Object index : (List<?>) entry.getValue().getValue()) {
+					key.append(key.length() > 0 ? ", " : "").append(((AnnotationValue) index).getValue());
+				}
+			}
+		}
+		return size + ", " + ttl + ", new int[] {" + key + "}";
+	}
+
+	private static boolean isInstanceMember(Element element) {
+		return element.getModifiers().contains(Modifier.PUBLIC) && !element.getModifiers().contains(Modifier.STATIC);
+	}
+
+	private static void addCase(Map<String, List<Case>> cases, String name, String condition, String member) {
+		List<Case> list = cases.get(name);
+		if (list == null) {
+			list = new ArrayList<Case>();
+			cases.put(name, list);
+		}
+		list.add(new Case(condition, member));
+	}
+
+	/**
+	 * @param function - expression of primitive form of member or null
+	 * @param pure - true if member is marked with <i>Pure</i>
+	 */
+	private static void declare(StringBuilder members, StringBuilder initializers, String member, String kind, String name,
+			String function, boolean pure, String body) {
+		declare(members, initializers, member, kind, name, function, pure, false, null, body);
+	}
+
+	/**
+	 * @param async - true if method returns future of value
+	 * @param cache - arguments of cache of call (see {@link #cache(Element)}) or null
+	 */
+	private static void declare(StringBuilder members, StringBuilder initializers, String member, String kind, String name,
+			String function, boolean pure, boolean async, String cache, String body) {
+		members.append("\tprivate final ").append(MEMBER).append(" ").append(member).append(";\n");
+		initializers.append("\t\tthis.").append(member).append(" = new ").append(MEMBER).append("(").append(MEMBER).append(".").append(kind)
+				.append(", ").append(literal(name)).append(", false, ");
+		if (cache != null)
+			initializers.append(METHOD_CACHE).append(".of(");
+		initializers.append("new ").append(async ? ASYNC_CALL : CALL).append("() {\n");
+		initializers.append("\t\t\t@Override\n");
+		if (async)
+			initializers.append("\t\t\tpublic ").append(FUTURE).append("<").append(VALUE).append("> callAsync(")
+					.append(VALUE).append("[] arguments) throws Exception {\n");
+		else
+			initializers.append("\t\t\tpublic ").append(VALUE).append(" call(").append(VALUE).append("[] arguments) throws Exception {\n");
+		initializers.append(body);
+		initializers.append("\t\t\t}\n");
+		initializers.append("\t\t}");
+		if (cache != null)
+			initializers.append(", ").append(cache).append(")");
+		if (pure)
+			initializers.append(", ").append(function).append(", true);\n");
+		else if (function != null)
+			initializers.append(", ").append(function).append(");\n");
+		else
+			initializers.append(");\n");
+	}
+
+	/**
+	 * Declares method member of <i>Batched</i> method, its call looks up keys through <i>BatchedCall</i>.
+	 */
+	private static void declareBatched(StringBuilder members, StringBuilder initializers, String member, String name,
+			ExecutableElement method) {
+		members.append("\tprivate final ").append(MEMBER).append(" ").append(member).append(";\n");
+		initializers.append("\t\tthis.").append(member).append(" = new ").append(MEMBER).append("(").append(MEMBER).append(".METHOD, ")
+				.append(literal(name)).append(", false, new ").append(BATCHED_CALL).append("(new ").append(BATCHED_CALL).append(".Bulk() {\n");
+		initializers.append("\t\t\t@Override\n");
+		initializers.append("\t\t\tpublic ").append(VALUE).append("[] call(").append(VALUE).append("[] keys) throws Exception {\n");
+		initializers.append("\t\t\t\treturn library.").append(method.getSimpleName()).append("(keys);\n");
+		initializers.append("\t\t\t}\n");
+		initializers.append("\t\t}));\n");
+	}
+
+	private static void appendSwitch(StringBuilder source, String variable, Map<String, String> cases) {
+		if (cases.isEmpty())
+			return;
+		source.append("\t\tswitch (").append(variable).append(") {\n");
+		for (Map.Entry<String, String> entry : cases.entrySet()) {
+			source.append("\t\tcase ").append(literal(entry.getKey())).append(":\n");
+			source.append("\t\t\treturn this.").append(entry.getValue()).append(";\n");
+		}
+		source.append("\t\t}\n");
+	}
+
+	private static String trap(String kind, String invocation) {
+		StringBuilder source = new StringBuilder();
+		source.append("\t\tfinal String trapName = name;\n");
+		source.append("\t\treturn new ").append(MEMBER).append("(").append(MEMBER).append(".").append(kind)
+				.append(", name, true, new ").append(CALL).append("() {\n");
+		source.append("\t\t\t@Override\n");
+		source.append("\t\t\tpublic ").append(VALUE).append(" call(").append(VALUE).append("[] arguments) throws Exception {\n");
+		source.append("\t\t\t\treturn ").append(invocation.replace("(name", "(trapName")).append(";\n");
+		source.append("\t\t\t}\n");
+		source.append("\t\t});\n");
+		return source.toString();
+	}
+
+	/**
+	 * @param packedTypes - collects component types of vararg parameters (helper method is generated for each)
+	 * @return java expression calling method with converted notation arguments
+	 */
+	private static String invocation(ExecutableElement method, Set<String> packedTypes) {
+		List<? extends VariableElement> parameters = method.getParameters();
+		boolean isLastVararg = isLastVararg(parameters);
+		boolean isPrimitiveResult = !isValue(method.getReturnType()) && !isAsyncResult(method.getReturnType());
+		StringBuilder call = new StringBuilder();
+		if (isPrimitiveResult)
+			call.append("new ").append(VALUE).append("(");
+		call.append("library.").append(method.getSimpleName()).append("(");
+		for (int n = 0; n < parameters.size(); n++) {
+			if (n > 0)
+				call.append(", ");
+			String type = parameters.get(n).asType().toString();
+			if ((n == parameters.size() - 1) && isLastVararg) {
+				// the tail of notation arguments is packed into array
+				String component = ((ArrayType) parameters.get(n).asType()).getComponentType().toString();
+				packedTypes.add(component);
+				call.append(packName(component)).append("(arguments, ").append(n).append(")");
+			} else {
+				call.append(conversion(type, "arguments[" + n + "]"));
+			}
+		}
+		call.append(")");
+		if (isPrimitiveResult)
+			call.append(")");
+		return call.toString();
+	}
+
+	/**
+	 * @return expression implementing function interface of primitive form with method
+	 * 	or null if method has no primitive form (see <i>LibraryMember.getFunction()</i>)
+	 */
+	private static String function(ExecutableElement method) {
+		String result = method.getReturnType().toString();
+		List<? extends VariableElement> parameters = method.getParameters();
+		String[] types = new String[parameters.size()];
+		for (int n = 0; n < types.length; n++) {
+			types[n] = parameters.get(n).asType().toString();
+		}
+		String type = null;
+		if ((types.length == 1) && result.equals(types[0])) {
+			if (result.equals("double"))
+				type = "DoubleFunction1";
+			else if (result.equals("long"))
+				type = "LongFunction1";
+			else if (result.equals("boolean"))
+				type = "BooleanFunction1";
+		} else if ((types.length == 2) && types[0].equals(types[1])) {
+			if (result.equals("double") && types[0].equals("double"))
+				type = "DoubleFunction2";
+			else if (result.equals("boolean") && types[0].equals("double"))
+				type = "DoubleComparison";
+			else if (result.equals("long") && types[0].equals("long"))
+				type = "LongFunction2";
+			else if (result.equals("boolean") && types[0].equals("boolean"))
+				type = "BooleanFunction2";
+		}
+		if (type == null)
+			return null;
+
+		StringBuilder declaration = new StringBuilder();
+		StringBuilder call = new StringBuilder();
+		for (int n = 0; n < types.length; n++) {
+			if (n > 0) {
+				declaration.append(", ");
+				call.append(", ");
+			}
+			declaration.append(types[n]).append(" a").append(n);
+			call.append("a").append(n);
+		}
+		return "new " + PACKAGE + ".LibraryBuilder." + type + "() {\n"
+				+ "\t\t\t@Override\n"
+				+ "\t\t\tpublic " + result + " " + (type.equals("DoubleComparison") ? "test" : "apply") + "(" + declaration + ") throws Exception {\n"
+				+ "\t\t\t\treturn library." + method.getSimpleName() + "(" + call + ");\n"
+				+ "\t\t\t}\n"
+				+ "\t\t}";
+	}
+
+	private static String packName(String type) {
+		return "pack_" + type.replace('.', '_');
+	}
+
+	private static String conversion(String name, String argument) {
+		if (name.equals("int") || name.equals("java.lang.Integer"))
+			return argument + ".asInteger()";
+		else if (name.equals("boolean") || name.equals("java.lang.Boolean"))
+			return argument + ".asBoolean()";
+		else if (name.equals("long") || name.equals("java.lang.Long"))
+			return argument + ".asLong()";
+		else if (name.equals("double") || name.equals("java.lang.Double"))
+			return argument + ".asDouble()";
+		else if (name.equals("java.lang.String"))
+			return argument + ".asString()";
+		else
+			return argument;
+	}
+
+	/**
+	 * Branch of method lookup.
+	 */
+	private static class Case {
+
+		final String condition;
+		final String member;
+
+		Case(String condition, String member) {
+			this.condition = condition;
+			this.member = member;
+		}
+
+	}
+
+	private static String literal(String value) {
+		return "\"" + escape(value) + "\"";
+	}
+
+	private static String escape(String value) {
+		StringBuilder result = new StringBuilder();
+		for (char c : value.toCharArray()) {
+			if ((c == '"') || (c == '\\'))
+				result.append('\\').append(c);
+			else if ((c < 0x20) || (c > 0x7e))
+				result.append(String.format("\\u%04x", (int) c));
+			else
+				result.append(c);
+		}
+		return result.toString();
+	}
+
+}
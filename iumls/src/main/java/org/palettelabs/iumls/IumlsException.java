@@ -1,9 +1,22 @@
 package org.palettelabs.iumls;
 
+import java.util.function.Supplier;
+
 import org.palettelabs.iumls.parser.NotationElement;
 import org.palettelabs.iumls.parser.Parser;
 
-
+/**
+ * Problem of parsing or computation.
+ * <br>
+ * Message of exception made for notation element is built only when it's asked for, so failures
+ * handled by callers (e.g. fallbacks of libraries) do not pay for text nobody reads.
+ * Failures expected at a high rate could be made stackless (see {@link #IumlsException(String, Throwable, NotationElement, boolean)}),
+ * they skip filling in stack trace, which is the most of the cost of exception.
+ * Runtime failures of computation wrapping stackless exceptions are stackless as well.
+ *
+ * @author Nikolay Antipov
+ *
+ */
 public class IumlsException extends Exception {
 
 	/**
@@ -18,6 +31,11 @@ public class IumlsException extends Exception {
 	private Parser parser;
 	private NotationElement element;
 
+	// text of message built on demand, location is appended to it
+	private Supplier<String> errorText;
+	private String message;
+	private boolean stackless;
+
 	public IumlsException(String message) {
 		super(message);
 		
@@ -50,19 +68,60 @@ public class IumlsException extends Exception {
 	}
 
 	public IumlsException(String errorText, NotationElement element) {
-		super(errorText + "\n at line " + element.getLine() + " column " + element.getColumn());
-		this.position = element.getPosition();
-		this.line = element.getLine();
-		this.column = element.getColumn();
-		this.element = element;
+		this(() -> errorText, null, element, true);
 	}
 
 	public IumlsException(String errorText, Throwable e, NotationElement element) {
-		super(errorText + "\n at line " + element.getLine() + " column " + element.getColumn(), e);
+		this(() -> errorText, e, element, true);
+	}
+
+	/**
+	 * @param stackTrace - false to make stackless exception
+	 */
+	public IumlsException(String errorText, Throwable e, NotationElement element, boolean stackTrace) {
+		this(() -> errorText, e, element, stackTrace);
+	}
+
+	/**
+	 * @param errorText - supplier of text of message, it's called once message is asked for
+	 * @param stackTrace - false to make stackless exception
+	 */
+	public IumlsException(Supplier<String> errorText, Throwable e, NotationElement element, boolean stackTrace) {
+		super(null, e, stackTrace, stackTrace);
 		this.position = element.getPosition();
 		this.line = element.getLine();
 		this.column = element.getColumn();
 		this.element = element;
+		this.errorText = errorText;
+		this.stackless = !stackTrace;
+	}
+
+	/**
+	 * Makes stackless exception which is not bound to notation element.
+	 */
+	public IumlsException(String message, boolean stackTrace) {
+		super(message, null, stackTrace, stackTrace);
+		this.stackless = !stackTrace;
+	}
+
+	@Override
+	public String getMessage() {
+		if (this.errorText == null)
+			return super.getMessage();
+		// threads might build it at once, they get equal text
+		String message = this.message;
+		if (message == null) {
+			message = this.errorText.get() + "\n at line " + this.line + " column " + this.column;
+			this.message = message;
+		}
+		return message;
+	}
+
+	/**
+	 * @return true if exception has no stack trace
+	 */
+	public boolean isStackless() {
+		return this.stackless;
 	}
 
 	public int getPosition() {
@@ -0,0 +1,302 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Evaluates compiled expression asynchronously (see {@link Computer#computeAsync(CompiledExpression)}).
+ * <br>
+ * Every subtree is classified by the calls it makes:
+ * <ul>
+ * 	<li>cheap - operators, pure methods and pure variables only, it is evaluated right away;</li>
+ * 	<li>async - calls of members returning futures (see {@link AsyncLibraryCall}), futures are composed;</li>
+ * 	<li>blocking - calls of other methods and reads of other variables (e.g. ones served by
+ * 		{@link DefaultVariableHandler}), which might wait for I/O.</li>
+ * </ul>
+ * If a call has several arguments which are not cheap, blocking ones are evaluated by tasks of executor
+ * (all but the last one, it's evaluated by the current thread once the others are started), the call is made
+ * once all of them are done. Arguments are not evaluated in order then.
+ * So independent slow arguments take as long as the slowest of them rather than their sum.
+ * <br>
+ * Operands of lazy forms (see {@link ConditionalNode}) are evaluated one after another and only if they are needed.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class AsyncEvaluator {
+
+	private static final int CHEAP = 0;
+	private static final int ASYNC = 1;
+	private static final int BLOCKING = 2;
+
+	private static volatile ExecutorService defaultExecutor;
+
+	private final Computer computer;
+	private final Executor executor;
+	private final EvaluationContext context;
+	// filled for the whole tree before any task starts, read only then
+	private final Map<Node, Integer> kinds = new HashMap<Node, Integer>();
+
+	/**
+	 * @param context - evaluation context the tasks run in or null
+	 */
+	AsyncEvaluator(Computer computer, Executor executor, EvaluationContext context) {
+		this.computer = computer;
+		this.executor = executor;
+		this.context = context;
+	}
+
+	/**
+	 * @return executor running a virtual thread per task if java runtime has them, otherwise cached pool of daemon threads
+	 */
+	static ExecutorService getDefaultExecutor() {
+		ExecutorService executor = defaultExecutor;
+		if (executor == null) {
+			synchronized (AsyncEvaluator.class) {
+				executor = defaultExecutor;
+				if (executor == null) {
+					try {
+						executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+					} catch (Exception e) {
+						executor = Executors.newCachedThreadPool(new ThreadFactory() {
+							@Override
+							public Thread newThread(Runnable runnable) {
+								Thread thread = new Thread(runnable, "iumls-async");
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+					}
+					defaultExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Starts evaluation of expression, expression which might block is evaluated by a task of executor.
+	 */
+	CompletableFuture<VariableValue> start(final Node root) {
+		if (kind(root) != BLOCKING)
+			return evaluate(root);
+		return offload(root);
+	}
+
+	//============= classification =============
+
+	private int kind(Node node) {
+		Integer kind = this.kinds.get(node);
+		if (kind != null)
+			return kind;
+		int k = CHEAP;
+		if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			k = Math.max(own(operator.getMember(), false), Math.max(kind(operator.getLeft()), kind(operator.getRight())));
+		} else if (node instanceof VariableNode) {
+			k = own(((VariableNode) node).getMember(), true);
+		} else if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			k = own(function.getMember(), true);
+			for (Node argument : function.getArguments()) {
+				k = Math.max(k, kind(argument));
+			}
+		} else if (node instanceof ConditionalNode) {
+			for (Node operand : ((ConditionalNode) node).getOperands()) {
+				k = Math.max(k, kind(operand));
+			}
+		}
+		this.kinds.put(node, k);
+		return k;
+	}
+
+	/**
+	 * @param method - true for methods and variables, operators are supposed to be cheap
+	 */
+	private static int own(LibraryMember member, boolean method) {
+		if ((member != null) && member.isAsync())
+			return ASYNC;
+		if (method && ((member == null) || !member.isPure()))
+			return BLOCKING;
+		return CHEAP;
+	}
+
+	//============= evaluation =============
+
+	private CompletableFuture<VariableValue> evaluate(Node node) {
+		if (kind(node) == CHEAP) {
+			try {
+				return CompletableFuture.completedFuture(node.evaluate(this.computer));
+			} catch (IumlsException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+
+		if (node instanceof ConditionalNode)
+			return evaluateConditional((ConditionalNode) node, 0);
+
+		if (node instanceof VariableNode)
+			return call(node, new CompletableFuture<?>[0]);
+
+		Node[] arguments;
+		if (node instanceof OperatorNode)
+			arguments = new Node[] {((OperatorNode) node).getLeft(), ((OperatorNode) node).getRight()};
+		else
+			arguments = ((FunctionNode) node).getArguments();
+
+		int slow = 0;
+		int last = -1;
+		for (int t = 0; t < arguments.length; t++) {
+			if (kind(arguments[t]) != CHEAP)
+				slow++;
+			if (kind(arguments[t]) == BLOCKING)
+				last = t;
+		}
+
+		final CompletableFuture<?>[] futures = new CompletableFuture<?>[arguments.length];
+		// blocking arguments go to executor and futures are started first, the last blocking argument is evaluated here
+		for (int t = 0; t < arguments.length; t++) {
+			if ((slow > 1) && (t != last) && (kind(arguments[t]) == BLOCKING))
+				futures[t] = offload(arguments[t]);
+			else if (t != last)
+				futures[t] = evaluate(arguments[t]);
+		}
+		if (last != -1)
+			futures[last] = evaluate(arguments[last]);
+
+		final Node consumer = node;
+		boolean done = true;
+		for (CompletableFuture<?> future : futures) {
+			done &= future.isDone();
+		}
+		CompletableFuture<Void> all = CompletableFuture.allOf(futures);
+		if (done)
+			return all.thenCompose(v -> call(consumer, futures));
+		// arguments are completed by other threads, blocking call must not run on them (e.g. on I/O threads of library)
+		return all.thenComposeAsync(v -> call(consumer, futures), this.executor);
+	}
+
+	/**
+	 * Evaluates lazy form starting with the operand.
+	 */
+	private CompletableFuture<VariableValue> evaluateConditional(final ConditionalNode node, final int operand) {
+		final Node[] operands = node.getOperands();
+		switch (node.getKind()) {
+			case ConditionalNode.AND:
+			case ConditionalNode.OR: {
+				final boolean or = node.getKind() == ConditionalNode.OR;
+				return then(evaluate(operands[0]), v -> {
+					if (v.asBoolean() == or)
+						return CompletableFuture.completedFuture(new VariableValue(or));
+					return evaluate(operands[1]).thenApply(w -> new VariableValue(w.asBoolean()));
+				});
+			}
+			case ConditionalNode.IF:
+				return then(evaluate(operands[0]), v -> evaluate(operands[v.asBoolean() ? 1 : 2]));
+			default:
+				return then(evaluate(operands[operand]), v -> {
+					if (!v.isNull() || (operand == operands.length - 1))
+						return CompletableFuture.completedFuture(v);
+					return evaluateConditional(node, operand + 1);
+				});
+		}
+	}
+
+	/**
+	 * Continues evaluation once the future is completed, not on the thread which completed it if it's not done yet.
+	 */
+	private CompletableFuture<VariableValue> then(CompletableFuture<VariableValue> future,
+			final Function<VariableValue, CompletableFuture<VariableValue>> next) {
+		Function<VariableValue, CompletableFuture<VariableValue>> within = v -> {
+			EvaluationContext previous = EvaluationContext.begin(this.context);
+			try {
+				return next.apply(v);
+			} finally {
+				EvaluationContext.end(previous);
+			}
+		};
+		if (future.isDone())
+			return future.thenCompose(within);
+		return future.thenComposeAsync(within, this.executor);
+	}
+
+	/**
+	 * Evaluates subtree by a task of executor.
+	 */
+	private CompletableFuture<VariableValue> offload(final Node node) {
+		return CompletableFuture.supplyAsync(() -> {
+			EvaluationContext previous = EvaluationContext.begin(this.context);
+			try {
+				return evaluate(node);
+			} finally {
+				EvaluationContext.end(previous);
+			}
+		}, this.executor).thenCompose(f -> f);
+	}
+
+	/**
+	 * Calls member of node with values of completed arguments.
+	 */
+	private CompletableFuture<VariableValue> call(Node node, CompletableFuture<?>[] futures) {
+		EvaluationContext previous = EvaluationContext.begin(this.context);
+		try {
+			VariableValue[] values = new VariableValue[futures.length];
+			for (int t = 0; t < values.length; t++) {
+				values[t] = (VariableValue) futures[t].join();
+			}
+			EvaluationContext.step(node.getElement());
+			LibraryMember member;
+			if (node instanceof OperatorNode) {
+				OperatorNode operator = (OperatorNode) node;
+				member = operator.getMember() != null ? operator.getMember()
+						: this.computer.resolveOperator(operator.getLibraryName(), operator.getOperatorString());
+			} else if (node instanceof VariableNode) {
+				VariableNode variable = (VariableNode) node;
+				member = variable.getMember() != null ? variable.getMember()
+						: this.computer.resolveVariable(variable.getLibraryName(), variable.getVariableName());
+			} else {
+				FunctionNode function = (FunctionNode) node;
+				member = function.getMember() != null ? function.getMember()
+						: this.computer.resolveMethod(function.getLibraryName(), function.getMethodName(), values.length);
+			}
+			if (!member.isAsync())
+				return CompletableFuture.completedFuture(member.getCall().call(values));
+			final Node caller = node;
+			return ((AsyncLibraryCall) member.getCall()).callAsync(values).handle((value, e) -> {
+				if (e != null)
+					throw new CompletionException(error(caller, e));
+				return value;
+			});
+		} catch (Exception e) {
+			return CompletableFuture.failedFuture(error(node, e));
+		} finally {
+			EvaluationContext.end(previous);
+		}
+	}
+
+	/**
+	 * @return exception of evaluating node
+	 */
+	static IumlsException error(Node node, Throwable e) {
+		while (((e instanceof CompletionException) || (e instanceof ExecutionException)) && (e.getCause() != null)) {
+			e = e.getCause();
+		}
+		if (e instanceof IumlsException)
+			return (IumlsException) e;
+		if (e instanceof Exception)
+			return node.error((Exception) e);
+		return node.error(new ExecutionException(e));
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Call of library method returning <i>CompletableFuture&lt;VariableValue&gt;</i> (e.g. one doing I/O).
+ * <br>
+ * {@link Computer#computeAsync(CompiledExpression)} composes the future with the rest of expression,
+ * synchronous computation just waits for it (see {@link #call(VariableValue[])}).
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public interface AsyncLibraryCall extends LibraryCall {
+
+	/**
+	 * Starts call of library member.
+	 * @param arguments - notation arguments
+	 * @return future result of call
+	 * @throws Exception any exception thrown by library member before the future is returned
+	 */
+	CompletableFuture<VariableValue> callAsync(VariableValue[] arguments) throws Exception;
+
+	/**
+	 * Calls library member and waits for its result.
+	 */
+	@Override
+	default VariableValue call(VariableValue[] arguments) throws Exception {
+		try {
+			return callAsync(arguments).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw e;
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ *
+ * Marks library method as batched: method takes an array of distinct keys and returns an array of results
+ * in the same order, it's called in notation with a single key (see {@link BatchedCall}).
+ * <br>
+ * Calls made by one evaluation wave are collected and passed to the method at once, so an I/O-backed lookup
+ * makes one round-trip per wave rather than one per call:
+ * <ul>
+ * 	<li>level of section graph (see {@link Computer#evaluate(org.palettelabs.iumls.parser.Section)}) - keys of calls every expression of the level
+ * 		makes unconditionally are evaluated ahead (keys must be pure, see {@link Pure}), deduplicated and looked up at once;</li>
+ * 	<li>column batch (see {@link Computer#compute(CompiledExpression, ColumnBatch)}) - column of keys is deduplicated
+ * 		and looked up at once.</li>
+ * </ul>
+ * Any other call looks up its single key.
+ * <br>
+ * Batched method is neither {@link Cacheable} nor {@link Pure}.
+ * <br>
+ * <b>Example 1</b>
+ * <pre>
+ * &#64;Batched
+ * &#64;Method
+ * public VariableValue[] lookup(VariableValue[] ids) {
+ *   VariableValue[] values = new VariableValue[ids.length];
+ *   ... one query for all the ids ...
+ *   return values;
+ * }
+ * </pre>
+ * called as <i>store.lookup(id)</i>.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+@Target(value = {ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Batched {
+
+}
@@ -0,0 +1,186 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Call of {@link Batched} method: notation passes a single key, method looks up an array of distinct keys at once.
+ * <br>
+ * Before a level of section graph is computed, calls of the level are collected ({@link #prefetch(Computer, Node[], int[], SectionComputation)}),
+ * their keys are deduplicated and looked up by one call of method per batched member, results are kept by
+ * {@link SectionComputation} and given to the calls of the level. Column batch looks up the whole column of keys
+ * at once ({@link #callAll(VariableValue[])}). Call which finds no result prefetched looks up its own key.
+ * <br>
+ * Keys are equal if they have the same type and value (as arguments of {@link MethodCache} are),
+ * every call gets a copy of the result.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public final class BatchedCall implements LibraryCall {
+
+	/**
+	 * Bulk lookup, results are in the order of keys.
+	 */
+	public interface Bulk {
+
+		VariableValue[] call(VariableValue[] keys) throws Exception;
+
+	}
+
+	private final Bulk bulk;
+
+	public BatchedCall(Bulk bulk) {
+		this.bulk = bulk;
+	}
+
+	@Override
+	public VariableValue call(VariableValue[] arguments) throws Exception {
+		SectionComputation computation = SectionComputation.current();
+		if (computation != null) {
+			VariableValue value = computation.batched(this, key(arguments[0]));
+			if (value != null)
+				return new VariableValue(value);
+		}
+		return lookup(new VariableValue[] {arguments[0]})[0];
+	}
+
+	/**
+	 * Looks up keys at once, duplicates are looked up once.
+	 * @return results in the order of keys
+	 */
+	VariableValue[] callAll(VariableValue[] keys) throws Exception {
+		Map<List<Object>, VariableValue> results = lookupAll(keys);
+		VariableValue[] values = new VariableValue[keys.length];
+		for (int t = 0; t < keys.length; t++) {
+			values[t] = new VariableValue(results.get(key(keys[t])));
+		}
+		return values;
+	}
+
+	/**
+	 * @return results by keys (see {@link #key(VariableValue)})
+	 */
+	private Map<List<Object>, VariableValue> lookupAll(VariableValue[] keys) throws Exception {
+		// keys are made before the call, libraries are free to change their arguments
+		Map<List<Object>, VariableValue> distinct = new LinkedHashMap<List<Object>, VariableValue>();
+		for (VariableValue key : keys) {
+			List<Object> k = key(key);
+			if (!distinct.containsKey(k))
+				distinct.put(k, key);
+		}
+		VariableValue[] values = lookup(distinct.values().toArray(new VariableValue[distinct.size()]));
+		Map<List<Object>, VariableValue> results = new HashMap<List<Object>, VariableValue>();
+		int t = 0;
+		for (List<Object> k : distinct.keySet()) {
+			results.put(k, values[t++]);
+		}
+		return results;
+	}
+
+	private VariableValue[] lookup(VariableValue[] keys) throws Exception {
+		VariableValue[] values = this.bulk.call(keys);
+		if ((values == null) || (values.length != keys.length))
+			throw new IllegalStateException("batched method returned " + (values != null ? values.length : 0)
+					+ " results for " + keys.length + " keys");
+		for (int t = 0; t < values.length; t++) {
+			if (values[t] == null)
+				values[t] = new VariableValue();
+		}
+		return values;
+	}
+
+	static List<Object> key(VariableValue value) {
+		List<Object> key = new ArrayList<Object>(2);
+		MethodCache.add(key, value);
+		return key;
+	}
+
+	//============= evaluation waves =============
+
+	/**
+	 * Looks up keys of batched calls which expressions of the level make unconditionally
+	 * (the first operand of conditional form only), keys must be pure (see {@link BooleanChain#isPure(Node)}).
+	 * Results are kept by computation until the next level, calls failing to be looked up ahead
+	 * look up their own keys, so failures are reported by expressions making them.
+	 */
+	static void prefetch(Computer computer, Node[] roots, int[] level, SectionComputation computation) throws IumlsException {
+		computation.batches = null;
+		Map<BatchedCall, List<Node>> calls = new IdentityHashMap<BatchedCall, List<Node>>();
+		for (int index : level) {
+			collect(roots[index], calls);
+		}
+		Map<BatchedCall, Map<List<Object>, VariableValue>> batches = new IdentityHashMap<BatchedCall, Map<List<Object>, VariableValue>>();
+		SectionComputation previous = SectionComputation.begin(computation);
+		EvaluationContext previousContext = EvaluationContext.begin(computation.context);
+		try {
+			for (Map.Entry<BatchedCall, List<Node>> entry : calls.entrySet()) {
+				// single call gains nothing
+				if (entry.getValue().size() < 2)
+					continue;
+				List<VariableValue> keys = new ArrayList<VariableValue>();
+				for (Node key : entry.getValue()) {
+					try {
+						keys.add(key.evaluate(computer));
+					} catch (EvaluationAbortedException e) {
+						throw e;
+					} catch (IumlsException e) {
+						// reported by evaluation of the expression
+					}
+				}
+				try {
+					batches.put(entry.getKey(), entry.getKey().lookupAll(keys.toArray(new VariableValue[keys.size()])));
+				} catch (EvaluationAbortedException e) {
+					throw e;
+				} catch (Exception e) {
+					// calls look up their own keys
+				}
+			}
+		} finally {
+			EvaluationContext.end(previousContext);
+			SectionComputation.end(previous);
+		}
+		if (!batches.isEmpty())
+			computation.batches = batches;
+	}
+
+	/**
+	 * Collects key nodes of batched calls by call.
+	 */
+	private static void collect(Node node, Map<BatchedCall, List<Node>> calls) {
+		if (node instanceof SharedNode) {
+			collect(((SharedNode) node).getNode(), calls);
+		} else if (node instanceof OperatorNode) {
+			collect(((OperatorNode) node).getLeft(), calls);
+			collect(((OperatorNode) node).getRight(), calls);
+		} else if (node instanceof ConditionalNode) {
+			// other operands might be never evaluated
+			collect(((ConditionalNode) node).getOperands()[0], calls);
+		} else if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			LibraryMember member = function.getMember();
+			if ((member != null) && !member.isTrap() && (member.getCall() instanceof BatchedCall)
+					&& (function.getArguments().length == 1) && BooleanChain.isPure(function.getArguments()[0])) {
+				BatchedCall call = (BatchedCall) member.getCall();
+				List<Node> keys = calls.get(call);
+				if (keys == null) {
+					keys = new ArrayList<Node>();
+					calls.put(call, keys);
+				}
+				keys.add(function.getArguments()[0]);
+				return;
+			}
+			for (Node argument : function.getArguments()) {
+				collect(argument, calls);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,231 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.palettelabs.iumls.IumlsException;
+
+/**
+ * Chain of <i>&amp;&amp;</i> (or <i>||</i>) operands evaluated in adaptive order (see {@link Computer#setAdaptiveOrdering(boolean)}).
+ * <br>
+ * Nested operators of the same kind are one chain, e.g. <i>a &amp;&amp; b &amp;&amp; c</i>. Every {@link #SAMPLING}th evaluation
+ * measures time of operands and counts their results, every {@link #PERIOD} evaluations operands are ordered by
+ * cost per chance to decide the chain (to be false for <i>&amp;&amp;</i>, true for <i>||</i>), so cheap and selective
+ * operands are evaluated first. Older statistics fade out, so order follows changes of data.
+ * <br>
+ * Only pure operands are moved (see {@link Pure}), they are moved within runs between operands which are not pure.
+ * Result of pure operands does not depend on order, but moved operand might fail being guarded by the one it's moved
+ * before (e.g. <i>x != 0 &amp;&amp; 10 / x &gt; 1</i>), so chain failing in adaptive order is evaluated again in source order
+ * and keeps it from then on.
+ * <br>
+ * Statistics are updated by threads without synchronization, they are hints only.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+final class BooleanChain {
+
+	static final int SAMPLING = 16;
+	static final int PERIOD = 1024;
+
+	/**
+	 * Chain of operators which have nothing to reorder.
+	 */
+	static final BooleanChain NONE = new BooleanChain(false, new Node[0], new boolean[0]);
+
+	private final boolean and;
+	// operands in source order
+	private final Node[] operands;
+	private final boolean[] movable;
+	private final int[] source;
+
+	private volatile int[] order;
+	private volatile boolean pinned = false;
+
+	// statistics by operand
+	private final long[] samples;
+	private final long[] trues;
+	private final long[] nanos;
+	private int evaluations = 0;
+
+	private BooleanChain(boolean and, Node[] operands, boolean[] movable) {
+		this.and = and;
+		this.operands = operands;
+		this.movable = movable;
+		this.source = new int[operands.length];
+		for (int t = 0; t < this.source.length; t++) {
+			this.source[t] = t;
+		}
+		this.order = this.source;
+		this.samples = new long[operands.length];
+		this.trues = new long[operands.length];
+		this.nanos = new long[operands.length];
+	}
+
+	/**
+	 * @return chain of operator or {@link #NONE} if there are no operands to reorder
+	 */
+	static BooleanChain of(ConditionalNode node) {
+		List<Node> operands = new ArrayList<Node>();
+		flatten(node, node.getKind(), operands);
+		boolean[] movable = new boolean[operands.size()];
+		// operands are moved within runs of pure ones, a run of two at least is needed
+		boolean reorderable = false;
+		for (int t = 0; t < movable.length; t++) {
+			movable[t] = isPure(operands.get(t));
+			reorderable |= movable[t] && (t > 0) && movable[t - 1];
+		}
+		if (!reorderable)
+			return NONE;
+		return new BooleanChain(node.getKind() == ConditionalNode.AND, operands.toArray(new Node[operands.size()]), movable);
+	}
+
+	private static void flatten(Node node, int kind, List<Node> operands) {
+		if ((node instanceof ConditionalNode) && (((ConditionalNode) node).getKind() == kind)) {
+			for (Node operand : ((ConditionalNode) node).getOperands()) {
+				flatten(operand, kind, operands);
+			}
+		} else {
+			operands.add(node);
+		}
+	}
+
+	/**
+	 * @return true if subtree calls pure members only
+	 */
+	static boolean isPure(Node node) {
+		if ((node instanceof ConstantNode) || (node instanceof ParameterNode) || (node instanceof ReferenceNode))
+			return true;
+		if (node instanceof SharedNode)
+			return isPure(((SharedNode) node).getNode());
+		if (node instanceof VariableNode)
+			return isPure(((VariableNode) node).getMember());
+		if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			return isPure(operator.getMember()) && isPure(operator.getLeft()) && isPure(operator.getRight());
+		}
+		if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			if (!isPure(function.getMember()))
+				return false;
+			for (Node argument : function.getArguments()) {
+				if (!isPure(argument))
+					return false;
+			}
+			return true;
+		}
+		if (node instanceof ConditionalNode) {
+			for (Node operand : ((ConditionalNode) node).getOperands()) {
+				if (!isPure(operand))
+					return false;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean isPure(LibraryMember member) {
+		return (member != null) && !member.isTrap() && member.isPure();
+	}
+
+	/**
+	 * @return value of chain
+	 */
+	boolean evaluate(Computer computer) throws IumlsException {
+		int evaluations = ++this.evaluations;
+		if (this.pinned)
+			return evaluate(computer, this.source, false);
+		int[] order = this.order;
+		boolean value;
+		try {
+			value = evaluate(computer, order, (evaluations % SAMPLING) == 0);
+		} catch (EvaluationAbortedException e) {
+			throw e;
+		} catch (IumlsException e) {
+			if (order == this.source)
+				throw e;
+			// moved operand is guarded by the source order
+			this.pinned = true;
+			this.order = this.source;
+			return evaluate(computer, this.source, false);
+		}
+		if ((evaluations % PERIOD) == 0)
+			revise();
+		return value;
+	}
+
+	private boolean evaluate(Computer computer, int[] order, boolean sampled) throws IumlsException {
+		for (int index : order) {
+			boolean value;
+			if (sampled) {
+				long start = System.nanoTime();
+				value = this.operands[index].evaluate(computer).asBoolean();
+				this.nanos[index] += System.nanoTime() - start;
+				this.samples[index]++;
+				if (value)
+					this.trues[index]++;
+			} else {
+				value = this.operands[index].evaluate(computer).asBoolean();
+			}
+			// false decides &&, true decides ||
+			if (value != this.and)
+				return value;
+		}
+		return this.and;
+	}
+
+	/**
+	 * Orders movable operands by cost per chance to decide the chain.
+	 */
+	private void revise() {
+		int size = this.operands.length;
+		long measured = 0;
+		long time = 0;
+		for (int t = 0; t < size; t++) {
+			if (this.samples[t] > 0) {
+				measured += this.samples[t];
+				time += this.nanos[t];
+			}
+		}
+		// operands which are never reached are taken for average ones
+		double average = measured > 0 ? (double) time / measured : 1;
+		final double[] rank = new double[size];
+		for (int t = 0; t < size; t++) {
+			double cost = this.samples[t] > 0 ? (double) this.nanos[t] / this.samples[t] : average;
+			double truth = (this.trues[t] + 1.0) / (this.samples[t] + 2.0);
+			rank[t] = Math.max(cost, 1) / (this.and ? 1 - truth : truth);
+			// older statistics fade out
+			this.samples[t] /= 2;
+			this.trues[t] /= 2;
+			this.nanos[t] /= 2;
+		}
+
+		// runs of movable operands are sorted, others keep their places
+		Integer[] order = new Integer[size];
+		for (int t = 0; t < size; t++) {
+			order[t] = t;
+		}
+		int from = 0;
+		while (from < size) {
+			if (!this.movable[from]) {
+				from++;
+				continue;
+			}
+			int to = from;
+			while ((to < size) && this.movable[to]) {
+				to++;
+			}
+			// stable, ties keep source order
+			Arrays.sort(order, from, to, (a, b) -> Double.compare(rank[a], rank[b]));
+			from = to;
+		}
+		int[] revised = new int[size];
+		for (int t = 0; t < size; t++) {
+			revised[t] = order[t];
+		}
+		if (!this.pinned && !Arrays.equals(revised, this.order))
+			this.order = Arrays.equals(revised, this.source) ? this.source : revised;
+	}
+
+}
@@ -0,0 +1,632 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Translates compiled expression tree into a hidden JVM class
+ * ({@link MethodHandles.Lookup#defineHiddenClass(byte[], boolean, MethodHandles.Lookup.ClassOption...)}).
+ * <br>
+ * Library members are called directly (<i>invokevirtual</i>) with argument conversions inlined,
+ * constant operands are put into constant pool already converted to parameter types. Every generated class
+ * has its own call sites, so JIT sees them monomorphic and is able to inline library code.
+ * <br>
+ * Large subtrees are moved into separate methods, so each method stays small enough to be inlined.
+ * Every lazy form (see {@link ConditionalNode}) gets a method of its own, operands which are not needed
+ * are branched over there. {@link Cacheable} methods are called through their {@link MethodCache}.
+ * Expression is left to interpreter (see {@link CompiledExpression#getBytecodeFallback()}) if:
+ * <ul>
+ * 	<li>any member is resolved by {@link DefaultMethodHandler} or {@link DefaultVariableHandler} trap,
+ * 		or not resolved at all;</li>
+ * 	<li>library class is not accessible from generated code;</li>
+ * 	<li>generated method is too big to be JIT-compiled anyway.</li>
+ * </ul>
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class BytecodeCompiler {
+
+	/**
+	 * Subtrees bigger than that (in bytes of bytecode) are split into separate methods,
+	 * matches default JIT inlining limit for hot methods (-XX:FreqInlineSize).
+	 */
+	static final int INLINE_SIZE_LIMIT = 325;
+
+	/**
+	 * Methods bigger than that are never JIT-compiled (-XX:HugeMethodLimit).
+	 */
+	static final int METHOD_SIZE_LIMIT = 8000;
+
+	private static final int CALL_SIZE = 5;
+
+	private static final String CLASS_NAME = "org/palettelabs/iumls/computer/GeneratedExpression";
+	private static final String VALUE = "org/palettelabs/iumls/VariableValue";
+	private static final String VALUE_DESCRIPTOR = "L" + VALUE + ";";
+	private static final String BODY_DESCRIPTOR = "([I)" + VALUE_DESCRIPTOR;
+
+	/**
+	 * Result of compilation.
+	 */
+	static class Result {
+		// null if expression is left to interpreter
+		Executable executable;
+		Node[] steps;
+		// why expression is left to interpreter
+		String fallback;
+	}
+
+	// unwinds compilation if expression must be left to interpreter
+	private static class FallbackException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		FallbackException(String reason) {
+			super(reason, null, false, false);
+		}
+
+	}
+
+	private final Computer computer;
+
+	private ClassFileWriter writer;
+	private List<Object> fieldValues = new ArrayList<Object>();
+	private Map<Object, String> fieldNames = new IdentityHashMap<Object, String>();
+	private List<Node> steps = new ArrayList<Node>();
+	private Map<Node, Integer> stepIndexes = new IdentityHashMap<Node, Integer>();
+	private Map<Node, Member> members = new IdentityHashMap<Node, Member>();
+	private Map<Node, Library> libraries = new IdentityHashMap<Node, Library>();
+	private Map<Node, MethodCache> caches = new IdentityHashMap<Node, MethodCache>();
+	private Map<Node, Integer> sizes = new IdentityHashMap<Node, Integer>();
+	private List<ClassFileWriter.Code> methods = new ArrayList<ClassFileWriter.Code>();
+
+	BytecodeCompiler(Computer computer) {
+		this.computer = computer;
+	}
+
+	/**
+	 * Compiles tree into bytecode.
+	 * Class files rejected by JVM (e.g. {@link VerifyError}) are bugs of compiler, they are thrown as is.
+	 * @param root - root of expression tree
+	 * @return compiled expression or result with the reason expression must be interpreted
+	 */
+	Result compile(Node root) {
+		try {
+			resolve(root);
+
+			this.writer = new ClassFileWriter(CLASS_NAME, "java/lang/Object", "org/palettelabs/iumls/computer/Executable");
+
+			ClassFileWriter.Code execute = this.writer.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", BODY_DESCRIPTOR, 2);
+			this.methods.add(execute);
+			emitBody(execute, root);
+			execute.op(ClassFileWriter.ARETURN, -1);
+
+			emitConstructor();
+
+			for (ClassFileWriter.Code code : this.methods) {
+				if (code.size() > METHOD_SIZE_LIMIT)
+					throw new FallbackException("generated method is too big to be JIT-compiled");
+			}
+			if (this.writer.getConstantPoolSize() > 0xffff)
+				throw new FallbackException("constant pool is too big");
+
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(this.writer.toByteArray(), true);
+			Object executable = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Object[].class))
+					.invoke(this.fieldValues.toArray());
+
+			Result result = new Result();
+			result.executable = (Executable) executable;
+			result.steps = this.steps.toArray(new Node[this.steps.size()]);
+			return result;
+		} catch (FallbackException e) {
+			return fallback(e.getMessage());
+		} catch (ReflectiveOperationException e) {
+			return fallback("generated class is not accessible: " + e);
+		} catch (Error e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new UndeclaredThrowableException(e);
+		}
+	}
+
+	private static Result fallback(String reason) {
+		Result result = new Result();
+		result.fallback = reason;
+		return result;
+	}
+
+	//============= resolving =============
+
+	private void resolve(Node node) throws FallbackException {
+		try {
+			if (node instanceof VariableNode) {
+				VariableNode variable = (VariableNode) node;
+				LibraryMember member = variable.getMember();
+				if (isGenerated(member))
+					member = this.computer.getReflectiveDispatcher(variable.getLibraryName()).getVariable(variable.getVariableName());
+				bind(node, member);
+			} else if (node instanceof OperatorNode) {
+				OperatorNode operator = (OperatorNode) node;
+				LibraryMember member = operator.getMember();
+				if (isGenerated(member))
+					member = this.computer.getReflectiveDispatcher(operator.getLibraryName()).getOperator(operator.getOperatorString());
+				bind(node, member);
+				resolve(operator.getLeft());
+				resolve(operator.getRight());
+			} else if (node instanceof FunctionNode) {
+				FunctionNode function = (FunctionNode) node;
+				LibraryMember member = function.getMember();
+				if (isGenerated(member))
+					member = this.computer.getReflectiveDispatcher(function.getLibraryName())
+							.getMethod(function.getMethodName(), function.getArguments().length);
+				bind(node, member);
+				// the cache of resolved member, reflective one would have a cache of its own
+				if ((function.getMember() != null) && (function.getMember().getCall() instanceof MethodCache)) {
+					if (function.getMember().getCall().getClass() != MethodCache.class)
+						throw new FallbackException("cache of asynchronous method is not supported");
+					this.caches.put(node, (MethodCache) function.getMember().getCall());
+				}
+				for (Node argument : function.getArguments()) {
+					resolve(argument);
+				}
+			} else if (node instanceof ConditionalNode) {
+				for (Node operand : ((ConditionalNode) node).getOperands()) {
+					resolve(operand);
+				}
+			} else if (!(node instanceof ConstantNode)) {
+				throw new FallbackException(node.describe() + " is not supported");
+			}
+		} catch (IumlsException e) {
+			throw new FallbackException(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return true if member comes from dispatcher generated at build time (it has no java member behind)
+	 */
+	private static boolean isGenerated(LibraryMember member) {
+		return (member != null) && !member.isTrap() && (member.getTarget() == null);
+	}
+
+	private void bind(Node node, LibraryMember libraryMember) throws FallbackException {
+		// unresolved members and default handlers are left to interpreter
+		if ((libraryMember == null) || libraryMember.isTrap() || (libraryMember.getTarget() == null))
+			throw new FallbackException(node.describe() + " is not resolved or resolved by default handler");
+		Library lib = libraryMember.getLibrary();
+		Member member = libraryMember.getTarget();
+		if (!isAccessible(lib.getClass()) || !isAccessible(member.getDeclaringClass())
+				|| member.getDeclaringClass().isInterface())
+			throw new FallbackException("library class of " + node.describe() + " is not accessible from generated code");
+		if (member instanceof Method) {
+			// generated code expects VariableValue on stack
+			if (((Method) member).getReturnType() != VariableValue.class)
+				throw new FallbackException(node.describe() + " does not return VariableValue");
+			for (Class<?> parameter : ((Method) member).getParameterTypes()) {
+				if (!isAccessible(parameter.isArray() ? parameter.getComponentType() : parameter))
+					throw new FallbackException("parameter of " + node.describe() + " is not accessible from generated code");
+			}
+		}
+		this.libraries.put(node, lib);
+		this.members.put(node, member);
+	}
+
+	private boolean isAccessible(Class<?> __class) {
+		if (__class.isPrimitive())
+			return true;
+		if (!Modifier.isPublic(__class.getModifiers()))
+			return false;
+		try {
+			return Class.forName(__class.getName(), false, BytecodeCompiler.class.getClassLoader()) == __class;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Estimates inlined size of subtree, subtrees bigger than {@link #INLINE_SIZE_LIMIT}
+	 * become separate methods and are counted as a call.
+	 */
+	private int size(Node node) {
+		Integer size = this.sizes.get(node);
+		if (size != null)
+			return size;
+		int s;
+		if (node instanceof ConstantNode) {
+			s = 11;
+		} else if (node instanceof VariableNode) {
+			s = 22;
+		} else if (node instanceof ConditionalNode) {
+			// always a method of its own
+			s = CALL_SIZE;
+		} else if (node instanceof OperatorNode) {
+			s = 13 + childSize(((OperatorNode) node).getLeft()) + childSize(((OperatorNode) node).getRight());
+		} else {
+			s = 13;
+			for (Node argument : ((FunctionNode) node).getArguments()) {
+				s += childSize(argument) + 10;
+			}
+		}
+		this.sizes.put(node, s);
+		return s;
+	}
+
+	private int childSize(Node node) {
+		// conversion and step of the consumer
+		int s = size(node) + 11;
+		return isSplit(node) ? CALL_SIZE + 6 : s;
+	}
+
+	private boolean isSplit(Node node) {
+		return size(node) > INLINE_SIZE_LIMIT;
+	}
+
+	//============= code generation =============
+
+	private void emitConstructor() {
+		ClassFileWriter.Code code = this.writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", 2);
+		code.op(ClassFileWriter.ALOAD_0, 1);
+		code.op2(ClassFileWriter.INVOKESPECIAL, this.writer.methodRef("java/lang/Object", "<init>", "()V"), -1);
+		for (int f = 0; f < this.fieldValues.size(); f++) {
+			Object value = this.fieldValues.get(f);
+			String type = internalName(value.getClass());
+			code.op(ClassFileWriter.ALOAD_0, 1);
+			code.op(ClassFileWriter.ALOAD_1, 1);
+			code.pushInt(f);
+			code.op(ClassFileWriter.AALOAD, -1);
+			code.op2(ClassFileWriter.CHECKCAST, this.writer.classRef(type), 0);
+			code.op2(ClassFileWriter.PUTFIELD, this.writer.fieldRef(CLASS_NAME, this.fieldNames.get(value), "L" + type + ";"), -2);
+		}
+		code.op(ClassFileWriter.RETURN, 0);
+	}
+
+	/**
+	 * Pushes field value (library or constant) on stack.
+	 */
+	private void emitField(ClassFileWriter.Code code, Object value) {
+		String name = this.fieldNames.get(value);
+		if (name == null) {
+			name = "f" + this.fieldValues.size();
+			this.fieldValues.add(value);
+			this.fieldNames.put(value, name);
+			this.writer.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, name, "L" + internalName(value.getClass()) + ";");
+		}
+		code.op(ClassFileWriter.ALOAD_0, 1);
+		code.op2(ClassFileWriter.GETFIELD, this.writer.fieldRef(CLASS_NAME, name, "L" + internalName(value.getClass()) + ";"), 0);
+	}
+
+	/**
+	 * Records node failing from here on, errors are reported by it (see {@link Executable#execute(int[])}).
+	 */
+	private void emitStep(ClassFileWriter.Code code, Node node) {
+		Integer index = this.stepIndexes.get(node);
+		if (index == null) {
+			index = this.steps.size();
+			this.steps.add(node);
+			this.stepIndexes.put(node, index);
+		}
+		code.op(ClassFileWriter.ALOAD_1, 1);
+		code.pushInt(0);
+		code.pushInt(index);
+		code.op(ClassFileWriter.IASTORE, -3);
+	}
+
+	/**
+	 * Pushes value of node converted to the specified type.
+	 * @param consumer - node the value is converted for, failed conversion is reported by it
+	 */
+	private void emitValue(ClassFileWriter.Code code, Node node, Class<?> type, Node consumer) {
+		if ((node instanceof ConstantNode) && (type != VariableValue.class) && !((ConstantNode) node).getValue().isNull()) {
+			emitConstant(code, ((ConstantNode) node).getValue(), type);
+		} else {
+			emitNode(code, node);
+			if (type != VariableValue.class)
+				emitStep(code, consumer);
+			emitConversion(code, type);
+		}
+	}
+
+	/**
+	 * Pushes value of node as {@link VariableValue}.
+	 */
+	private void emitNode(ClassFileWriter.Code code, Node node) {
+		if (isSplit(node))
+			emitSplitCall(code, node);
+		else
+			emitBody(code, node);
+	}
+
+	/**
+	 * Pushes value of node as {@link VariableValue}, node itself is always inlined.
+	 */
+	private void emitBody(ClassFileWriter.Code code, Node node) {
+		if (node instanceof ConstantNode) {
+			// fresh copy of constant
+			code.op2(ClassFileWriter.NEW, this.writer.classRef(VALUE), 1);
+			code.op(ClassFileWriter.DUP, 1);
+			emitField(code, ((ConstantNode) node).getValue());
+			code.op2(ClassFileWriter.INVOKESPECIAL, this.writer.methodRef(VALUE, "<init>", "(" + VALUE_DESCRIPTOR + ")V"), -2);
+		} else if (node instanceof VariableNode) {
+			VariableNode variable = (VariableNode) node;
+			Member member = this.members.get(node);
+			emitField(code, this.libraries.get(node));
+			emitStep(code, node);
+			if (member instanceof Field) {
+				code.op2(ClassFileWriter.GETFIELD,
+						this.writer.fieldRef(internalName(member.getDeclaringClass()), member.getName(), VALUE_DESCRIPTOR), 0);
+				code.pushString(variable.getLibraryName() + "." + variable.getVariableName());
+				code.op2(ClassFileWriter.INVOKESTATIC, this.writer.methodRef(internalName(BytecodeCompiler.class), "named",
+						"(" + VALUE_DESCRIPTOR + "Ljava/lang/String;)" + VALUE_DESCRIPTOR), -1);
+			} else {
+				emitInvoke(code, (Method) member);
+			}
+		} else if (node instanceof ConditionalNode) {
+			emitSplitCall(code, node);
+		} else if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			Method method = (Method) this.members.get(node);
+			emitField(code, this.libraries.get(node));
+			emitValue(code, operator.getLeft(), method.getParameterTypes()[0], node);
+			emitValue(code, operator.getRight(), method.getParameterTypes()[1], node);
+			emitStep(code, node);
+			emitInvoke(code, method);
+		} else if (this.caches.containsKey(node)) {
+			emitField(code, this.caches.get(node));
+			emitArray(code, VariableValue.class, ((FunctionNode) node).getArguments(), 0, node);
+			emitStep(code, node);
+			code.op2(ClassFileWriter.INVOKEVIRTUAL, this.writer.methodRef(internalName(MethodCache.class), "call",
+					"([" + VALUE_DESCRIPTOR + ")" + VALUE_DESCRIPTOR), -1);
+		} else {
+			FunctionNode function = (FunctionNode) node;
+			Method method = (Method) this.members.get(node);
+			Class<?>[] parameters = method.getParameterTypes();
+			Node[] arguments = function.getArguments();
+			boolean isLastVararg = MethodHandleDispatcher.isLastVararg(parameters);
+			emitField(code, this.libraries.get(node));
+			for (int n = 0; n < parameters.length; n++) {
+				if ((n == parameters.length - 1) && isLastVararg) {
+					emitArray(code, parameters[n].getComponentType(), arguments, n, node);
+				} else {
+					emitValue(code, arguments[n], parameters[n], node);
+				}
+			}
+			emitStep(code, node);
+			emitInvoke(code, method);
+		}
+	}
+
+	/**
+	 * Names value of variable field, called by generated code (it's in the same package).
+	 * Value is shared by threads, it's written only once, as by reflection based dispatcher.
+	 * @return the value
+	 */
+	static VariableValue named(VariableValue value, String name) {
+		if (!name.equals(value.getName()))
+			value.setName(name);
+		return value;
+	}
+
+	private void emitSplitCall(ClassFileWriter.Code code, Node node) {
+		String name = "s" + this.methods.size();
+		ClassFileWriter.Code method = this.writer.addMethod(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, name, BODY_DESCRIPTOR, 2);
+		this.methods.add(method);
+		if (node instanceof ConditionalNode) {
+			emitConditional(method, (ConditionalNode) node);
+		} else {
+			emitBody(method, node);
+			method.op(ClassFileWriter.ARETURN, -1);
+		}
+
+		code.op(ClassFileWriter.ALOAD_0, 1);
+		code.op(ClassFileWriter.ALOAD_1, 1);
+		code.op2(ClassFileWriter.INVOKESPECIAL, this.writer.methodRef(CLASS_NAME, name, BODY_DESCRIPTOR), -1);
+	}
+
+	/**
+	 * Emits lazy form as a whole method body, every path returns.
+	 */
+	private void emitConditional(ClassFileWriter.Code code, ConditionalNode node) {
+		Node[] operands = node.getOperands();
+		switch (node.getKind()) {
+			case ConditionalNode.AND:
+			case ConditionalNode.OR: {
+				// "&&" skips to false on the first false operand, "||" skips to true on the first true one
+				boolean or = node.getKind() == ConditionalNode.OR;
+				int skip = code.newLabel();
+				emitValue(code, operands[0], boolean.class, node);
+				code.branch(or ? ClassFileWriter.IFNE : ClassFileWriter.IFEQ, skip, -1);
+				emitValue(code, operands[1], boolean.class, node);
+				code.branch(or ? ClassFileWriter.IFNE : ClassFileWriter.IFEQ, skip, -1);
+				emitBoolean(code, !or);
+				code.op(ClassFileWriter.ARETURN, -1);
+				code.label(skip, null);
+				emitBoolean(code, or);
+				code.op(ClassFileWriter.ARETURN, -1);
+				break;
+			}
+			case ConditionalNode.IF: {
+				int otherwise = code.newLabel();
+				emitValue(code, operands[0], boolean.class, node);
+				code.branch(ClassFileWriter.IFEQ, otherwise, -1);
+				emitNode(code, operands[1]);
+				code.op(ClassFileWriter.ARETURN, -1);
+				code.label(otherwise, null);
+				emitNode(code, operands[2]);
+				code.op(ClassFileWriter.ARETURN, -1);
+				break;
+			}
+			default: {
+				for (int t = 0; t < operands.length - 1; t++) {
+					int next = code.newLabel();
+					emitNode(code, operands[t]);
+					code.op(ClassFileWriter.DUP, 1);
+					code.op2(ClassFileWriter.INVOKEVIRTUAL, this.writer.methodRef(VALUE, "isNull", "()Z"), 0);
+					code.branch(ClassFileWriter.IFNE, next, -1);
+					code.op(ClassFileWriter.ARETURN, -1);
+					code.label(next, VALUE);
+					code.op(ClassFileWriter.POP, -1);
+				}
+				emitNode(code, operands[operands.length - 1]);
+				code.op(ClassFileWriter.ARETURN, -1);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Pushes new {@link VariableValue} of boolean.
+	 */
+	private void emitBoolean(ClassFileWriter.Code code, boolean value) {
+		code.op2(ClassFileWriter.NEW, this.writer.classRef(VALUE), 1);
+		code.op(ClassFileWriter.DUP, 1);
+		code.pushInt(value ? 1 : 0);
+		code.op2(ClassFileWriter.INVOKESPECIAL, this.writer.methodRef(VALUE, "<init>", "(Z)V"), -2);
+	}
+
+	private void emitArray(ClassFileWriter.Code code, Class<?> component, Node[] arguments, int from, Node consumer) {
+		int size = arguments.length - from;
+		code.pushInt(size);
+		if (component == int.class)
+			code.op1(ClassFileWriter.NEWARRAY, ClassFileWriter.T_INT, 0);
+		else if (component == boolean.class)
+			code.op1(ClassFileWriter.NEWARRAY, ClassFileWriter.T_BOOLEAN, 0);
+		else if (component == long.class)
+			code.op1(ClassFileWriter.NEWARRAY, ClassFileWriter.T_LONG, 0);
+		else if (component == double.class)
+			code.op1(ClassFileWriter.NEWARRAY, ClassFileWriter.T_DOUBLE, 0);
+		else
+			code.op2(ClassFileWriter.ANEWARRAY, this.writer.classRef(internalName(component)), 0);
+		for (int j = 0; j < size; j++) {
+			code.op(ClassFileWriter.DUP, 1);
+			code.pushInt(j);
+			emitValue(code, arguments[from + j], component, consumer);
+			if (component == int.class)
+				code.op(ClassFileWriter.IASTORE, -3);
+			else if (component == boolean.class)
+				code.op(ClassFileWriter.BASTORE, -3);
+			else if (component == long.class)
+				code.op(ClassFileWriter.LASTORE, -4);
+			else if (component == double.class)
+				code.op(ClassFileWriter.DASTORE, -4);
+			else
+				code.op(ClassFileWriter.AASTORE, -3);
+		}
+	}
+
+	private void emitInvoke(ClassFileWriter.Code code, Method method) {
+		int delta = -1 + slots(method.getReturnType());
+		for (Class<?> parameter : method.getParameterTypes()) {
+			delta -= slots(parameter);
+		}
+		code.op2(ClassFileWriter.INVOKEVIRTUAL,
+				this.writer.methodRef(internalName(method.getDeclaringClass()), method.getName(), descriptor(method)), delta);
+	}
+
+	/**
+	 * Converts {@link VariableValue} on top of stack the same way interpreter does.
+	 */
+	private void emitConversion(ClassFileWriter.Code code, Class<?> type) {
+		if ((type == int.class) || (type == Integer.class)) {
+			code.op2(ClassFileWriter.INVOKEVIRTUAL, this.writer.methodRef(VALUE, "asInteger", "()I"), 0);
+			if (type == Integer.class)
+				code.op2(ClassFileWriter.INVOKESTATIC, this.writer.methodRef("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;"), 0);
+		} else if ((type == boolean.class) || (type == Boolean.class)) {
+			code.op2(ClassFileWriter.INVOKEVIRTUAL, this.writer.methodRef(VALUE, "asBoolean", "()Z"), 0);
+			if (type == Boolean.class)
+				code.op2(ClassFileWriter.INVOKESTATIC, this.writer.methodRef("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"), 0);
+		} else if ((type == long.class) || (type == Long.class)) {
+			code.op2(ClassFileWriter.INVOKEVIRTUAL, this.writer.methodRef(VALUE, "asLong", "()J"), 1);
+			if (type == Long.class)
+				code.op2(ClassFileWriter.INVOKESTATIC, this.writer.methodRef("java/lang/Long", "valueOf", "(J)Ljava/lang/Long;"), -1);
+		} else if ((type == double.class) || (type == Double.class)) {
+			code.op2(ClassFileWriter.INVOKEVIRTUAL, this.writer.methodRef(VALUE, "asDouble", "()D"), 1);
+			if (type == Double.class)
+				code.op2(ClassFileWriter.INVOKESTATIC, this.writer.methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"), -1);
+		} else if (type == String.class) {
+			code.op2(ClassFileWriter.INVOKEVIRTUAL, this.writer.methodRef(VALUE, "asString", "()Ljava/lang/String;"), 0);
+		}
+	}
+
+	/**
+	 * Pushes constant already converted to the specified type.
+	 */
+	private void emitConstant(ClassFileWriter.Code code, VariableValue value, Class<?> type) {
+		if ((type == int.class) || (type == Integer.class)) {
+			code.pushInt(value.asInteger());
+		} else if ((type == boolean.class) || (type == Boolean.class)) {
+			code.pushInt(value.asBoolean() ? 1 : 0);
+		} else if ((type == long.class) || (type == Long.class)) {
+			code.pushLong(value.asLong());
+		} else if ((type == double.class) || (type == Double.class)) {
+			code.pushDouble(value.asDouble());
+		} else {
+			code.pushString(value.asString());
+			return;
+		}
+		if (!type.isPrimitive()) {
+			// boxing only
+			if (type == Integer.class)
+				code.op2(ClassFileWriter.INVOKESTATIC, this.writer.methodRef("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;"), 0);
+			else if (type == Boolean.class)
+				code.op2(ClassFileWriter.INVOKESTATIC, this.writer.methodRef("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;"), 0);
+			else if (type == Long.class)
+				code.op2(ClassFileWriter.INVOKESTATIC, this.writer.methodRef("java/lang/Long", "valueOf", "(J)Ljava/lang/Long;"), -1);
+			else if (type == Double.class)
+				code.op2(ClassFileWriter.INVOKESTATIC, this.writer.methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"), -1);
+		}
+	}
+
+	//============= descriptors =============
+
+	private static String internalName(Class<?> __class) {
+		return __class.getName().replace('.', '/');
+	}
+
+	private static String descriptor(Class<?> __class) {
+		if (__class == void.class)
+			return "V";
+		else if (__class == int.class)
+			return "I";
+		else if (__class == boolean.class)
+			return "Z";
+		else if (__class == long.class)
+			return "J";
+		else if (__class == double.class)
+			return "D";
+		else if (__class.isArray())
+			return internalName(__class);
+		else
+			return "L" + internalName(__class) + ";";
+	}
+
+	private static String descriptor(Method method) {
+		StringBuilder s = new StringBuilder("(");
+		for (Class<?> parameter : method.getParameterTypes()) {
+			s.append(descriptor(parameter));
+		}
+		return s.append(")").append(descriptor(method.getReturnType())).toString();
+	}
+
+	private static int slots(Class<?> __class) {
+		if (__class == void.class)
+			return 0;
+		else if ((__class == long.class) || (__class == double.class))
+			return 2;
+		else
+			return 1;
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ *
+ * Marks library method as cacheable: results are memoized by values of arguments (see {@link MethodCache}),
+ * so a method called with a small set of distinct arguments (currency tables, geo resolution etc.)
+ * is called once per distinct arguments rather than once per evaluation.
+ * <br>
+ * Cache is bounded, least recently used results are evicted, result older than <i>ttl</i> is called for again.
+ * Every library method (and arity of vararg method) has a cache of its own, it lives as long as the library
+ * is added to 'Computer' (see {@link Computer#getMethodCache(String, String, int)}).
+ * <br>
+ * Unlike {@link Pure} member, cacheable method is never called on compilation.
+ * <br>
+ * <b>Example 1</b>
+ * <pre>
+ * &#64;Cacheable(size = 10000, ttl = 60000)
+ * &#64;Method
+ * public VariableValue rate(String from, String to) {
+ *   return new VariableValue(this.rates.lookup(from, to));
+ * }
+ * </pre>
+ *
+ * @author Nikolay Antipov
+ *
+ */
+@Target(value = {ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cacheable {
+
+	/**
+	 * @return maximum number of results kept
+	 */
+	int size() default 1000;
+
+	/**
+	 * @return milliseconds result is kept for, 0 - until it's evicted
+	 */
+	long ttl() default 0;
+
+	/**
+	 * @return indexes of arguments the result depends on, all the arguments if empty
+	 */
+	int[] key() default {};
+
+}
@@ -0,0 +1,182 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Polymorphic inline cache of operator or method call site of interpreted expression.
+ * <br>
+ * Target of call is chosen by types of arguments ({@link VariableValue#getType()}) once per combination of types
+ * seen at the call site: if all the arguments are numbers or booleans and member has primitive form
+ * ({@link LibraryMember#getFunction()}) it's called directly with primitives, otherwise member is called as usual.
+ * Call sites mostly see a single combination (e.g. double + double), so the target is found by a single comparison.
+ * Call site which has seen more than {@link #LIMIT} combinations is megamorphic, it calls member as usual from then on.
+ * <br>
+ * Cache is filled by threads evaluating the expression, it's replaced as a whole, so readers never lock.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+final class CallSite {
+
+	static final int LIMIT = 4;
+
+	// 4 bits per argument (type + 1, 0 for null), longer argument lists are not cached
+	private static final int MAX_ARITY = 15;
+	private static final long NO_KEY = -1;
+
+	private final LibraryMember member;
+	private final int arity;
+
+	private volatile Entry[] entries = new Entry[0];
+	private volatile boolean megamorphic = false;
+
+	private static final class Entry {
+
+		final long key;
+		final LibraryCall target;
+
+		Entry(long key, LibraryCall target) {
+			this.key = key;
+			this.target = target;
+		}
+
+	}
+
+	CallSite(LibraryMember member, int arity) {
+		this.member = member;
+		this.arity = arity;
+	}
+
+	/**
+	 * Calls member with arguments.
+	 * @return result of member
+	 */
+	VariableValue call(VariableValue[] arguments) throws Exception {
+		return target(arguments).call(arguments);
+	}
+
+	/**
+	 * @return true if call site has seen too many combinations of types
+	 */
+	boolean isMegamorphic() {
+		return this.megamorphic;
+	}
+
+	/**
+	 * @return keys of combinations of types seen so far (see {@link EvaluationProfile})
+	 */
+	long[] getKeys() {
+		Entry[] entries = this.entries;
+		long[] keys = new long[entries.length];
+		for (int t = 0; t < entries.length; t++) {
+			keys[t] = entries[t].key;
+		}
+		return keys;
+	}
+
+	/**
+	 * Adds target for combination of types seen before (e.g. by the previous run), nothing is done
+	 * if it's known already or call site is full.
+	 */
+	void seed(long key) {
+		Entry[] entries = this.entries;
+		for (Entry entry : entries) {
+			if (entry.key == key)
+				return;
+		}
+		if (!this.megamorphic && (entries.length < LIMIT))
+			miss(entries, key);
+	}
+
+	private LibraryCall target(VariableValue[] arguments) {
+		if (this.megamorphic)
+			return this.member.getCall();
+		long key = key(arguments);
+		if (key == NO_KEY)
+			return this.member.getCall();
+		Entry[] entries = this.entries;
+		for (Entry entry : entries) {
+			if (entry.key == key)
+				return entry.target;
+		}
+		return miss(entries, key);
+	}
+
+	private LibraryCall miss(Entry[] entries, long key) {
+		if (entries.length >= LIMIT) {
+			this.megamorphic = true;
+			// drop targets, they are never used again
+			this.entries = new Entry[0];
+			return this.member.getCall();
+		}
+		LibraryCall target = primitive(key);
+		if (target == null)
+			target = this.member.getCall();
+		Entry[] extended = new Entry[entries.length + 1];
+		System.arraycopy(entries, 0, extended, 0, entries.length);
+		extended[entries.length] = new Entry(key, target);
+		// threads missing at once might lose each other's entries, they are added again on the next miss
+		this.entries = extended;
+		return target;
+	}
+
+	private static long key(VariableValue[] arguments) {
+		if (arguments.length > MAX_ARITY)
+			return NO_KEY;
+		long key = 0;
+		for (VariableValue argument : arguments) {
+			key = (key << 4) | ((argument != null) && !argument.isNull() ? argument.getType() + 1 : 0);
+		}
+		return key;
+	}
+
+	/**
+	 * Primitive form is applicable to numbers and booleans only (e.g. "+" of strings differs),
+	 * arguments are converted the way the general form would convert them.
+	 * @return call of primitive form or null if it's not applicable to types of arguments
+	 */
+	private LibraryCall primitive(long key) {
+		Object function = this.member.isTrap() ? null : this.member.getFunction();
+		if (function == null)
+			return null;
+		for (int t = 0; t < this.arity; t++) {
+			// null values are 0 and never primitive
+			int type = (int) ((key >>> (4 * t)) & 15) - 1;
+			if ((type != VariableValue.TCP_TYPE_DOUBLE) && (type != VariableValue.TCP_TYPE_LONG) && (type != VariableValue.TCP_TYPE_BOOLEAN))
+				return null;
+		}
+		if (this.arity == 1) {
+			if (function instanceof LibraryBuilder.DoubleFunction1) {
+				final LibraryBuilder.DoubleFunction1 f = (LibraryBuilder.DoubleFunction1) function;
+				return a -> new VariableValue(f.apply(a[0].asDouble()));
+			}
+			if (function instanceof LibraryBuilder.LongFunction1) {
+				final LibraryBuilder.LongFunction1 f = (LibraryBuilder.LongFunction1) function;
+				return a -> new VariableValue(f.apply(a[0].asLong()));
+			}
+			if (function instanceof LibraryBuilder.BooleanFunction1) {
+				final LibraryBuilder.BooleanFunction1 f = (LibraryBuilder.BooleanFunction1) function;
+				return a -> new VariableValue(f.apply(a[0].asBoolean()));
+			}
+		} else if (this.arity == 2) {
+			if (function instanceof LibraryBuilder.DoubleFunction2) {
+				final LibraryBuilder.DoubleFunction2 f = (LibraryBuilder.DoubleFunction2) function;
+				return a -> new VariableValue(f.apply(a[0].asDouble(), a[1].asDouble()));
+			}
+			if (function instanceof LibraryBuilder.DoubleComparison) {
+				final LibraryBuilder.DoubleComparison f = (LibraryBuilder.DoubleComparison) function;
+				return a -> new VariableValue(f.test(a[0].asDouble(), a[1].asDouble()));
+			}
+			if (function instanceof LibraryBuilder.LongFunction2) {
+				final LibraryBuilder.LongFunction2 f = (LibraryBuilder.LongFunction2) function;
+				return a -> new VariableValue(f.apply(a[0].asLong(), a[1].asLong()));
+			}
+			if (function instanceof LibraryBuilder.BooleanFunction2) {
+				final LibraryBuilder.BooleanFunction2 f = (LibraryBuilder.BooleanFunction2) function;
+				return a -> new VariableValue(f.apply(a[0].asBoolean(), a[1].asBoolean()));
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,437 @@
+package org.palettelabs.iumls.computer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tiny class file writer, just enough for code of generated expressions: no exception handlers,
+ * forward branches only to labels where locals are the ones of method entry and the stack keeps
+ * at most one object, so stack map frames are trivial.
+ * <br>
+ * All class names are internal ones (<i>java/lang/Object</i>).
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class ClassFileWriter {
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_PRIVATE = 0x0002;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	static final int ALOAD_0 = 0x2a;
+	static final int ALOAD_1 = 0x2b;
+	static final int AALOAD = 0x32;
+	static final int IASTORE = 0x4f;
+	static final int LASTORE = 0x50;
+	static final int DASTORE = 0x52;
+	static final int AASTORE = 0x53;
+	static final int BASTORE = 0x54;
+	static final int POP = 0x57;
+	static final int DUP = 0x59;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9a;
+	static final int ARETURN = 0xb0;
+	static final int RETURN = 0xb1;
+	static final int GETFIELD = 0xb4;
+	static final int PUTFIELD = 0xb5;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int INVOKESTATIC = 0xb8;
+	static final int NEW = 0xbb;
+	static final int NEWARRAY = 0xbc;
+	static final int ANEWARRAY = 0xbd;
+	static final int CHECKCAST = 0xc0;
+
+	static final int T_BOOLEAN = 4;
+	static final int T_DOUBLE = 7;
+	static final int T_INT = 10;
+	static final int T_LONG = 11;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private final String className;
+	private final String superName;
+	private final String[] interfaces;
+
+	private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private DataOutputStream poolOutput = new DataOutputStream(pool);
+	private Map<String, Integer> poolIndexes = new HashMap<String, Integer>();
+	private int poolSize = 1;
+
+	private List<byte[]> fields = new ArrayList<byte[]>();
+	private List<Code> methods = new ArrayList<Code>();
+
+	ClassFileWriter(String className, String superName, String... interfaces) {
+		this.className = className;
+		this.superName = superName;
+		this.interfaces = interfaces;
+	}
+
+	String getClassName() {
+		return this.className;
+	}
+
+	int getConstantPoolSize() {
+		return this.poolSize;
+	}
+
+	void addField(int access, String name, String descriptor) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		this.fields.add(bytes.toByteArray());
+	}
+
+	Code addMethod(int access, String name, String descriptor, int maxLocals) {
+		Code code = new Code(access, utf8(name), utf8(descriptor), maxLocals);
+		this.methods.add(code);
+		return code;
+	}
+
+	byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			int thisClass = classRef(this.className);
+			int superClass = classRef(this.superName);
+			int[] interfaceRefs = new int[this.interfaces.length];
+			for (int f = 0; f < this.interfaces.length; f++) {
+				interfaceRefs[f] = classRef(this.interfaces[f]);
+			}
+			int codeName = utf8("Code");
+			int framesName = utf8("StackMapTable");
+
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(52);
+			out.writeShort(this.poolSize);
+			out.write(this.pool.toByteArray());
+			out.writeShort(ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaceRefs.length);
+			for (int ref : interfaceRefs) {
+				out.writeShort(ref);
+			}
+			out.writeShort(this.fields.size());
+			for (byte[] field : this.fields) {
+				out.write(field);
+			}
+			out.writeShort(this.methods.size());
+			for (Code code : this.methods) {
+				byte[] body = code.toByteArray();
+				byte[] frames = code.frames();
+				out.writeShort(code.access);
+				out.writeShort(code.name);
+				out.writeShort(code.descriptor);
+				out.writeShort(1);
+				out.writeShort(codeName);
+				out.writeInt(12 + body.length + (frames != null ? 6 + frames.length : 0));
+				out.writeShort(code.maxStack);
+				out.writeShort(code.maxLocals);
+				out.writeInt(body.length);
+				out.write(body);
+				out.writeShort(0); // exception table
+				if (frames != null) {
+					out.writeShort(1);
+					out.writeShort(framesName);
+					out.writeInt(frames.length);
+					out.write(frames);
+				} else {
+					out.writeShort(0); // attributes
+				}
+			}
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	//============= constant pool =============
+
+	int utf8(String value) {
+		String key = "U" + value;
+		Integer index = this.poolIndexes.get(key);
+		if (index == null) {
+			try {
+				this.poolOutput.writeByte(CONSTANT_UTF8);
+				this.poolOutput.writeUTF(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			index = register(key, 1);
+		}
+		return index;
+	}
+
+	int classRef(String internalName) {
+		return reference("C", CONSTANT_CLASS, utf8(internalName), -1, internalName);
+	}
+
+	int stringRef(String value) {
+		return reference("S", CONSTANT_STRING, utf8(value), -1, value);
+	}
+
+	int integerRef(int value) {
+		String key = "I" + value;
+		Integer index = this.poolIndexes.get(key);
+		if (index == null) {
+			try {
+				this.poolOutput.writeByte(CONSTANT_INTEGER);
+				this.poolOutput.writeInt(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			index = register(key, 1);
+		}
+		return index;
+	}
+
+	int longRef(long value) {
+		String key = "J" + value;
+		Integer index = this.poolIndexes.get(key);
+		if (index == null) {
+			try {
+				this.poolOutput.writeByte(CONSTANT_LONG);
+				this.poolOutput.writeLong(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			index = register(key, 2);
+		}
+		return index;
+	}
+
+	int doubleRef(double value) {
+		String key = "D" + Double.doubleToRawLongBits(value);
+		Integer index = this.poolIndexes.get(key);
+		if (index == null) {
+			try {
+				this.poolOutput.writeByte(CONSTANT_DOUBLE);
+				this.poolOutput.writeDouble(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			index = register(key, 2);
+		}
+		return index;
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		int nameAndType = reference("N", CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor), name + ":" + descriptor);
+		return reference("M" + tag, tag, classRef(owner), nameAndType, owner + "." + name + ":" + descriptor);
+	}
+
+	private int reference(String prefix, int tag, int first, int second, String value) {
+		String key = prefix + value;
+		Integer index = this.poolIndexes.get(key);
+		if (index == null) {
+			try {
+				this.poolOutput.writeByte(tag);
+				this.poolOutput.writeShort(first);
+				if (second >= 0)
+					this.poolOutput.writeShort(second);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			index = register(key, 1);
+		}
+		return index;
+	}
+
+	private int register(String key, int slots) {
+		int index = this.poolSize;
+		this.poolIndexes.put(key, index);
+		this.poolSize += slots;
+		return index;
+	}
+
+	//============= code =============
+
+	/**
+	 * Method body. Keeps track of operand stack depth, so caller passes
+	 * stack delta of every instruction.
+	 */
+	class Code {
+
+		private final int access;
+		private final int name;
+		private final int descriptor;
+		private final int maxLocals;
+
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int stack = 0;
+		private int maxStack = 0;
+
+		// label -> offset (-1 until it's placed)
+		private List<Integer> labels = new ArrayList<Integer>();
+		// {offset of branch, label}
+		private List<int[]> branches = new ArrayList<int[]>();
+		// {offset, class of the only stack item or 0 for empty stack}
+		private List<int[]> frames = new ArrayList<int[]>();
+
+		private Code(int access, int name, int descriptor, int maxLocals) {
+			this.access = access;
+			this.name = name;
+			this.descriptor = descriptor;
+			this.maxLocals = maxLocals;
+		}
+
+		int size() {
+			return this.bytes.size();
+		}
+
+		void op(int opcode, int stackDelta) {
+			this.bytes.write(opcode);
+			adjust(stackDelta);
+		}
+
+		void op1(int opcode, int operand, int stackDelta) {
+			this.bytes.write(opcode);
+			this.bytes.write(operand);
+			adjust(stackDelta);
+		}
+
+		void op2(int opcode, int operand, int stackDelta) {
+			this.bytes.write(opcode);
+			this.bytes.write(operand >> 8);
+			this.bytes.write(operand);
+			adjust(stackDelta);
+		}
+
+		/**
+		 * @return new label to branch to, it's placed by {@link #label(int, String)}
+		 */
+		int newLabel() {
+			this.labels.add(-1);
+			return this.labels.size() - 1;
+		}
+
+		/**
+		 * Writes branch to label placed further.
+		 */
+		void branch(int opcode, int label, int stackDelta) {
+			this.branches.add(new int[] {this.bytes.size(), label});
+			op2(opcode, 0, stackDelta);
+		}
+
+		/**
+		 * Places label at the current offset.
+		 * @param stackItem - class of the only value on stack there or null if stack is empty
+		 */
+		void label(int label, String stackItem) {
+			this.labels.set(label, this.bytes.size());
+			this.frames.add(new int[] {this.bytes.size(), stackItem != null ? classRef(stackItem) : 0});
+			this.stack = stackItem != null ? 1 : 0;
+		}
+
+		void pushInt(int value) {
+			if ((value >= -1) && (value <= 5))
+				op(0x03 + value, 1); // iconst_<n>
+			else if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE))
+				op1(0x10, value & 0xff, 1); // bipush
+			else if ((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE))
+				op2(0x11, value & 0xffff, 1); // sipush
+			else
+				ldc(integerRef(value), 1);
+		}
+
+		void pushLong(long value) {
+			op2(0x14, longRef(value), 2); // ldc2_w
+		}
+
+		void pushDouble(double value) {
+			op2(0x14, doubleRef(value), 2); // ldc2_w
+		}
+
+		void pushString(String value) {
+			ldc(stringRef(value), 1);
+		}
+
+		private void ldc(int index, int stackDelta) {
+			if (index <= 0xff)
+				op1(0x12, index, stackDelta); // ldc
+			else
+				op2(0x13, index, stackDelta); // ldc_w
+		}
+
+		private byte[] toByteArray() {
+			byte[] body = this.bytes.toByteArray();
+			for (int[] branch : this.branches) {
+				int offset = this.labels.get(branch[1]) - branch[0];
+				body[branch[0] + 1] = (byte) (offset >> 8);
+				body[branch[0] + 2] = (byte) offset;
+			}
+			return body;
+		}
+
+		/**
+		 * @return StackMapTable attribute body or null if there are no branches
+		 */
+		private byte[] frames() {
+			if (this.frames.isEmpty())
+				return null;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				out.writeShort(this.frames.size());
+				int previous = -1;
+				for (int[] frame : this.frames) {
+					int delta = frame[0] - previous - 1;
+					previous = frame[0];
+					if (frame[1] == 0) {
+						out.writeByte(251); // same_frame_extended
+						out.writeShort(delta);
+					} else {
+						out.writeByte(247); // same_locals_1_stack_item_frame_extended
+						out.writeShort(delta);
+						out.writeByte(7); // ITEM_Object
+						out.writeShort(frame[1]);
+					}
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return bytes.toByteArray();
+		}
+
+		private void adjust(int stackDelta) {
+			this.stack += stackDelta;
+			if (this.stack > this.maxStack)
+				this.maxStack = this.stack;
+		}
+
+	}
+
+}
@@ -0,0 +1,327 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Column of values: input of batch evaluation (see {@link ColumnBatch}) or its result
+ * (see {@link Computer#compute(CompiledExpression, ColumnBatch)}).
+ * <br>
+ * Values are kept in primitive arrays:
+ * <ul>
+ * 	<li>{@link #DOUBLE} - <i>double[]</i>;</li>
+ * 	<li>{@link #LONG} - <i>long[]</i>;</li>
+ * 	<li>{@link #BOOLEAN} - <i>boolean[]</i>;</li>
+ * 	<li>{@link #STRING} - dictionary encoded strings, <i>int[]</i> codes of <i>String[]</i> dictionary;</li>
+ * 	<li>{@link #VALUE} - {@link VariableValue}s (values of different types, dates, nulls).</li>
+ * </ul>
+ * Conversions between kinds follow the ones of {@link VariableValue}.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class Column {
+
+	public static final int DOUBLE = 0;
+	public static final int LONG = 1;
+	public static final int BOOLEAN = 2;
+	public static final int STRING = 3;
+	public static final int VALUE = 4;
+
+	final int kind;
+	final int size;
+	// single value repeated, arrays have one element
+	final boolean constant;
+
+	double[] doubles;
+	long[] longs;
+	boolean[] booleans;
+	int[] codes;
+	String[] dictionary;
+	VariableValue[] values;
+
+	private Column(int kind, int size, boolean constant) {
+		this.kind = kind;
+		this.size = size;
+		this.constant = constant;
+	}
+
+	static Column of(double[] values, int size, boolean constant) {
+		Column column = new Column(DOUBLE, size, constant);
+		column.doubles = values;
+		return column;
+	}
+
+	static Column of(long[] values, int size, boolean constant) {
+		Column column = new Column(LONG, size, constant);
+		column.longs = values;
+		return column;
+	}
+
+	static Column of(boolean[] values, int size, boolean constant) {
+		Column column = new Column(BOOLEAN, size, constant);
+		column.booleans = values;
+		return column;
+	}
+
+	static Column of(int[] codes, String[] dictionary, int size, boolean constant) {
+		Column column = new Column(STRING, size, constant);
+		column.codes = codes;
+		column.dictionary = dictionary;
+		return column;
+	}
+
+	static Column of(VariableValue[] values, int size, boolean constant) {
+		Column column = new Column(VALUE, size, constant);
+		column.values = values;
+		return column;
+	}
+
+	/**
+	 * @return column of the same value in all the rows
+	 */
+	static Column constant(VariableValue value, int size) {
+		if (!value.isNull()) {
+			if (value.getType() == VariableValue.TCP_TYPE_DOUBLE)
+				return of(new double[] {value.asDouble()}, size, true);
+			if (value.getType() == VariableValue.TCP_TYPE_LONG)
+				return of(new long[] {value.asLong()}, size, true);
+			if (value.getType() == VariableValue.TCP_TYPE_BOOLEAN)
+				return of(new boolean[] {value.asBoolean()}, size, true);
+		}
+		return of(new VariableValue[] {value}, size, true);
+	}
+
+	/**
+	 * Packs values into the narrowest column: all numbers of the same type (or booleans) become
+	 * a primitive column, all strings become dictionary encoded one.
+	 */
+	static Column narrow(VariableValue[] values, int size, boolean constant) {
+		int type = -1;
+		for (VariableValue value : values) {
+			if ((value == null) || value.isNull() || ((type != -1) && (value.getType() != type)))
+				return of(values, size, constant);
+			type = value.getType();
+		}
+		if (type == VariableValue.TCP_TYPE_DOUBLE) {
+			double[] doubles = new double[values.length];
+			for (int f = 0; f < doubles.length; f++) {
+				doubles[f] = values[f].asDouble();
+			}
+			return of(doubles, size, constant);
+		}
+		if (type == VariableValue.TCP_TYPE_LONG) {
+			long[] longs = new long[values.length];
+			for (int f = 0; f < longs.length; f++) {
+				longs[f] = values[f].asLong();
+			}
+			return of(longs, size, constant);
+		}
+		if (type == VariableValue.TCP_TYPE_BOOLEAN) {
+			boolean[] booleans = new boolean[values.length];
+			for (int f = 0; f < booleans.length; f++) {
+				booleans[f] = values[f].asBoolean();
+			}
+			return of(booleans, size, constant);
+		}
+		if (type == VariableValue.TCP_TYPE_STRING) {
+			Map<String, Integer> entries = new HashMap<String, Integer>();
+			int[] codes = new int[values.length];
+			for (int f = 0; f < codes.length; f++) {
+				Integer code = entries.get(values[f].asString());
+				if (code == null) {
+					code = entries.size();
+					entries.put(values[f].asString(), code);
+				}
+				codes[f] = code;
+			}
+			String[] dictionary = new String[entries.size()];
+			for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+				dictionary[entry.getValue()] = entry.getKey();
+			}
+			return of(codes, dictionary, size, constant);
+		}
+		return of(values, size, constant);
+	}
+
+	/**
+	 * @param rows - indexes of rows
+	 * @return column of the rows only (in their order)
+	 */
+	Column select(int[] rows) {
+		Column column = new Column(this.kind, rows.length, this.constant);
+		column.dictionary = this.dictionary;
+		if (this.constant) {
+			column.doubles = this.doubles;
+			column.longs = this.longs;
+			column.booleans = this.booleans;
+			column.codes = this.codes;
+			column.values = this.values;
+			return column;
+		}
+		switch (this.kind) {
+			case DOUBLE:
+				column.doubles = new double[rows.length];
+				for (int f = 0; f < rows.length; f++) {
+					column.doubles[f] = this.doubles[rows[f]];
+				}
+				break;
+			case LONG:
+				column.longs = new long[rows.length];
+				for (int f = 0; f < rows.length; f++) {
+					column.longs[f] = this.longs[rows[f]];
+				}
+				break;
+			case BOOLEAN:
+				column.booleans = new boolean[rows.length];
+				for (int f = 0; f < rows.length; f++) {
+					column.booleans[f] = this.booleans[rows[f]];
+				}
+				break;
+			case STRING:
+				column.codes = new int[rows.length];
+				for (int f = 0; f < rows.length; f++) {
+					column.codes[f] = this.codes[rows[f]];
+				}
+				break;
+			default:
+				column.values = new VariableValue[rows.length];
+				for (int f = 0; f < rows.length; f++) {
+					column.values[f] = this.values[rows[f]];
+				}
+				break;
+		}
+		return column;
+	}
+
+	/**
+	 * @return {@link #DOUBLE}, {@link #LONG}, {@link #BOOLEAN}, {@link #STRING} or {@link #VALUE}
+	 */
+	public int getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return value of row (new instance on each call)
+	 */
+	public VariableValue get(int row) {
+		int f = this.constant ? 0 : row;
+		switch (this.kind) {
+			case DOUBLE:
+				return new VariableValue(this.doubles[f]);
+			case LONG:
+				return new VariableValue(this.longs[f]);
+			case BOOLEAN:
+				return new VariableValue(this.booleans[f]);
+			case STRING:
+				return new VariableValue(this.dictionary[this.codes[f]]);
+			default:
+				return new VariableValue(this.values[f]);
+		}
+	}
+
+	/**
+	 * @return values as doubles (converted if column is of another kind)
+	 */
+	public double[] getDoubles() {
+		if ((this.kind == DOUBLE) && !this.constant)
+			return this.doubles;
+		double[] result = new double[this.size];
+		if (this.constant) {
+			Arrays.fill(result, get(0).asDouble());
+		} else if (this.kind == LONG) {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = this.longs[f];
+			}
+		} else if (this.kind == BOOLEAN) {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = this.booleans[f] ? 1.0 : 0.0;
+			}
+		} else {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = get(f).asDouble();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return values as longs (converted if column is of another kind)
+	 */
+	public long[] getLongs() {
+		if ((this.kind == LONG) && !this.constant)
+			return this.longs;
+		long[] result = new long[this.size];
+		if (this.constant) {
+			Arrays.fill(result, get(0).asLong());
+		} else if (this.kind == DOUBLE) {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = (long) this.doubles[f];
+			}
+		} else if (this.kind == BOOLEAN) {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = this.booleans[f] ? 1L : 0L;
+			}
+		} else {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = get(f).asLong();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return values as booleans (converted if column is of another kind)
+	 */
+	public boolean[] getBooleans() {
+		if ((this.kind == BOOLEAN) && !this.constant)
+			return this.booleans;
+		boolean[] result = new boolean[this.size];
+		if (this.constant) {
+			Arrays.fill(result, get(0).asBoolean());
+		} else if (this.kind == DOUBLE) {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = this.doubles[f] > 0;
+			}
+		} else if (this.kind == LONG) {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = this.longs[f] != 0;
+			}
+		} else {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = get(f).asBoolean();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return values as strings
+	 */
+	public String[] getStrings() {
+		String[] result = new String[this.size];
+		if (this.constant) {
+			Arrays.fill(result, get(0).asString());
+		} else if (this.kind == STRING) {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = this.dictionary[this.codes[f]];
+			}
+		} else {
+			for (int f = 0; f < result.length; f++) {
+				result[f] = get(f).asString();
+			}
+		}
+		return result;
+	}
+
+}
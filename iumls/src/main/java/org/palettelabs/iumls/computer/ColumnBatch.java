@@ -0,0 +1,96 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Batch of rows stored by columns, each column is bound to an identifier of expression
+ * (see {@link Computer#compute(CompiledExpression, ColumnBatch)}).
+ * <br>
+ * <b>Example 1</b>
+ * <pre>
+ * ColumnBatch batch = new ColumnBatch(3)
+ *   .bind("price", new double[] {10, 20, 30})
+ *   .bind("row.quantity", new long[] {1, 2, 3})
+ *   .bind("region", new int[] {0, 1, 0}, new String[] {"west", "east"});
+ * Column result = computer.compute(computer.compile(expression), batch);
+ * </pre>
+ * Identifier with no library prefix belongs to 'system' library, as usual.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class ColumnBatch {
+
+	private final int size;
+	// "library.variable" -> column
+	private final Map<String, Column> columns = new HashMap<String, Column>();
+
+	/**
+	 * @param size - number of rows
+	 */
+	public ColumnBatch(int size) {
+		this.size = size;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public ColumnBatch bind(String identifier, double[] values) {
+		check(values.length);
+		return bind(identifier, Column.of(values, this.size, false));
+	}
+
+	public ColumnBatch bind(String identifier, long[] values) {
+		check(values.length);
+		return bind(identifier, Column.of(values, this.size, false));
+	}
+
+	public ColumnBatch bind(String identifier, boolean[] values) {
+		check(values.length);
+		return bind(identifier, Column.of(values, this.size, false));
+	}
+
+	/**
+	 * Binds dictionary encoded strings.
+	 * @param identifier - identifier of expression
+	 * @param codes - indexes of strings in dictionary
+	 * @param dictionary - distinct strings
+	 */
+	public ColumnBatch bind(String identifier, int[] codes, String[] dictionary) {
+		check(codes.length);
+		return bind(identifier, Column.of(codes, dictionary, this.size, false));
+	}
+
+	/**
+	 * Binds column, e.g. the result of another batch evaluation.
+	 */
+	public ColumnBatch bind(String identifier, Column column) {
+		check(column.size());
+		this.columns.put(ExpressionCompiler.getLibraryName(identifier) + "." + ExpressionCompiler.getMemberName(identifier), column);
+		return this;
+	}
+
+	/**
+	 * @param rows - indexes of rows
+	 * @return batch of the rows only (in their order)
+	 */
+	ColumnBatch select(int[] rows) {
+		ColumnBatch batch = new ColumnBatch(rows.length);
+		for (Map.Entry<String, Column> entry : this.columns.entrySet()) {
+			batch.columns.put(entry.getKey(), entry.getValue().select(rows));
+		}
+		return batch;
+	}
+
+	Column get(String libraryName, String variableName) {
+		return this.columns.get(libraryName + "." + variableName);
+	}
+
+	private void check(int length) {
+		if (length != this.size)
+			throw new IllegalArgumentException("column of " + length + " rows is bound to batch of " + this.size + " rows");
+	}
+
+}
@@ -0,0 +1,438 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Evaluates compiled expression over {@link ColumnBatch}, the whole column at a time
+ * (see {@link Computer#compute(CompiledExpression, ColumnBatch)}).
+ * <br>
+ * Every node is evaluated once per batch giving a column, calls are made in the cheapest way applicable:
+ * <ul>
+ * 	<li>pure call of constant columns - once per batch;</li>
+ * 	<li>primitive columns - column form of member (see {@link Operator}), one call per batch,
+ * 		or primitive form (see {@link LibraryMember#getFunction()}) in a tight loop, no {@link VariableValue} created;</li>
+ * 	<li>pure call of one dictionary encoded column - once per dictionary entry;</li>
+ * 	<li>{@link Batched} call - once per batch with distinct keys of column;</li>
+ * 	<li>anything else - once per row, result is packed back into primitive column if possible.</li>
+ * </ul>
+ * Identifiers bound to no column are read once and spread over the batch.
+ * Operands of lazy forms (see {@link ConditionalNode}) are evaluated over the rows which need them only.
+ * <br>
+ * Limits of evaluation context (see {@link EvaluationContext}) are checked once per call of member made for the whole batch
+ * and once per row (dictionary entry) of calls made row by row.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class ColumnEvaluator {
+
+	private final Computer computer;
+	private final ColumnBatch batch;
+	private final int size;
+	// context of evaluation if it has limits
+	private final EvaluationContext limited;
+
+	/**
+	 * Evaluator is made by the thread evaluating, within its evaluation context.
+	 */
+	ColumnEvaluator(Computer computer, ColumnBatch batch) {
+		this.computer = computer;
+		this.batch = batch;
+		this.size = batch.size();
+		this.limited = EvaluationContext.limited();
+	}
+
+	/**
+	 * @return column of node values
+	 * @throws IumlsException throws exception in any case of problem
+	 */
+	Column evaluate(Node node) throws IumlsException {
+		if (node instanceof ConstantNode)
+			return Column.constant(((ConstantNode) node).getValue(), this.size);
+
+		if (node instanceof SharedNode)
+			return evaluate(((SharedNode) node).getNode());
+
+		if (node instanceof VariableNode) {
+			VariableNode variable = (VariableNode) node;
+			Column column = this.batch.get(variable.getLibraryName(), variable.getVariableName());
+			if (column != null)
+				return column;
+			return Column.constant(variable.evaluate(this.computer), this.size);
+		}
+
+		if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			Column[] arguments = new Column[] {evaluate(operator.getLeft()), evaluate(operator.getRight())};
+			LibraryMember member;
+			try {
+				member = operator.getMember() != null ? operator.getMember()
+						: this.computer.resolveOperator(operator.getLibraryName(), operator.getOperatorString());
+			} catch (IumlsException e) {
+				throw node.error(e);
+			}
+			return call(node, operator.getLibraryName(), member, arguments);
+		}
+
+		if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			Column[] arguments = new Column[function.getArguments().length];
+			for (int t = 0; t < arguments.length; t++) {
+				arguments[t] = evaluate(function.getArguments()[t]);
+			}
+			LibraryMember member;
+			try {
+				member = function.getMember() != null ? function.getMember()
+						: this.computer.resolveMethod(function.getLibraryName(), function.getMethodName(), arguments.length);
+			} catch (IumlsException e) {
+				throw node.error(e);
+			}
+			return call(node, function.getLibraryName(), member, arguments);
+		}
+
+		if (node instanceof ConditionalNode)
+			return evaluateConditional((ConditionalNode) node);
+
+		throw new IumlsException(node.describe() + " is not supported by batch evaluation", node.getElement());
+	}
+
+	private Column call(Node node, String libraryName, LibraryMember member, Column[] arguments) throws IumlsException {
+		try {
+			step(node);
+			boolean constant = true;
+			boolean primitive = true;
+			int dictionary = -1;
+			for (int t = 0; t < arguments.length; t++) {
+				constant &= arguments[t].constant;
+				primitive &= arguments[t].kind <= Column.BOOLEAN;
+				if (!arguments[t].constant && (arguments[t].kind == Column.STRING))
+					dictionary = dictionary == -1 ? t : -2;
+			}
+
+			if (constant && member.isPure())
+				return Column.constant(member.getCall().call(row(arguments, 0)), this.size);
+
+			if (primitive && !member.isTrap()) {
+				Column result = callColumnForm(libraryName, member, arguments);
+				if (result == null)
+					result = callFunction(member.getFunction(), arguments);
+				if (result != null)
+					return result;
+			}
+
+			if ((dictionary >= 0) && member.isPure() && isConstantExcept(arguments, dictionary))
+				return callDictionary(node, member, arguments, dictionary);
+
+			if (member.getCall() instanceof BatchedCall) {
+				VariableValue[] keys = new VariableValue[this.size];
+				for (int f = 0; f < keys.length; f++) {
+					keys[f] = row(arguments, f)[0];
+				}
+				return Column.narrow(((BatchedCall) member.getCall()).callAll(keys), this.size, false);
+			}
+
+			VariableValue[] values = new VariableValue[this.size];
+			for (int f = 0; f < values.length; f++) {
+				step(node);
+				values[f] = new VariableValue(member.getCall().call(row(arguments, f)));
+			}
+			return Column.narrow(values, this.size, false);
+		} catch (IumlsException e) {
+			throw e;
+		} catch (Exception e) {
+			throw node.error(e);
+		}
+	}
+
+	/**
+	 * Counts a step of node if evaluation context has limits.
+	 * @throws EvaluationAbortedException if evaluation exceeds limits
+	 */
+	private void step(Node node) throws EvaluationAbortedException {
+		if (this.limited != null)
+			this.limited.consume(node.getElement());
+	}
+
+	/**
+	 * @return fresh argument values of row
+	 */
+	private static VariableValue[] row(Column[] arguments, int row) {
+		VariableValue[] values = new VariableValue[arguments.length];
+		for (int t = 0; t < values.length; t++) {
+			values[t] = arguments[t].get(row);
+		}
+		return values;
+	}
+
+	private static boolean isConstantExcept(Column[] arguments, int index) {
+		for (int t = 0; t < arguments.length; t++) {
+			if ((t != index) && !arguments[t].constant)
+				return false;
+		}
+		return true;
+	}
+
+	//============= lazy forms =============
+
+	private Column evaluateConditional(ConditionalNode node) throws IumlsException {
+		Node[] operands = node.getOperands();
+		switch (node.getKind()) {
+			case ConditionalNode.AND:
+			case ConditionalNode.OR: {
+				boolean or = node.getKind() == ConditionalNode.OR;
+				boolean[] result = evaluate(operands[0]).getBooleans().clone();
+				int[] rows = rows(result, !or);
+				Column second = evaluate(operands[1], rows);
+				if (second != null) {
+					boolean[] values = second.getBooleans();
+					for (int f = 0; f < rows.length; f++) {
+						result[rows[f]] = values[f];
+					}
+				}
+				return Column.of(result, this.size, false);
+			}
+			case ConditionalNode.IF: {
+				boolean[] condition = evaluate(operands[0]).getBooleans();
+				int[] yes = rows(condition, true);
+				int[] no = rows(condition, false);
+				Column first = evaluate(operands[1], yes);
+				Column second = evaluate(operands[2], no);
+				if (second == null)
+					return first;
+				if (first == null)
+					return second;
+				VariableValue[] values = new VariableValue[this.size];
+				for (int f = 0; f < yes.length; f++) {
+					values[yes[f]] = first.get(f);
+				}
+				for (int f = 0; f < no.length; f++) {
+					values[no[f]] = second.get(f);
+				}
+				return Column.narrow(values, this.size, false);
+			}
+			default: {
+				VariableValue[] values = new VariableValue[this.size];
+				int[] rows = new int[this.size];
+				for (int f = 0; f < rows.length; f++) {
+					rows[f] = f;
+				}
+				for (int t = 0; (t < operands.length) && (rows.length > 0); t++) {
+					Column column = evaluate(operands[t], rows);
+					boolean last = t == operands.length - 1;
+					if ((rows.length == this.size) && (last || (column.constant && !column.get(0).isNull())))
+						return column;
+					// rows still null are evaluated by the next operand
+					int pending = 0;
+					for (int f = 0; f < rows.length; f++) {
+						VariableValue value = column.get(f);
+						if (value.isNull() && !last)
+							rows[pending++] = rows[f];
+						else
+							values[rows[f]] = value;
+					}
+					rows = Arrays.copyOf(rows, pending);
+				}
+				return Column.narrow(values, this.size, false);
+			}
+		}
+	}
+
+	/**
+	 * @param rows - indexes of rows in ascending order
+	 * @return column of node values for the rows or null if there are no rows
+	 */
+	private Column evaluate(Node node, int[] rows) throws IumlsException {
+		if (rows.length == 0)
+			return null;
+		if (rows.length == this.size)
+			return evaluate(node);
+		return new ColumnEvaluator(this.computer, this.batch.select(rows)).evaluate(node);
+	}
+
+	/**
+	 * @return indexes of rows having the value
+	 */
+	private static int[] rows(boolean[] values, boolean value) {
+		int count = 0;
+		for (boolean v : values) {
+			if (v == value)
+				count++;
+		}
+		int[] rows = new int[count];
+		count = 0;
+		for (int f = 0; f < values.length; f++) {
+			if (values[f] == value)
+				rows[count++] = f;
+		}
+		return rows;
+	}
+
+	//============= column forms =============
+
+	private Column callColumnForm(String libraryName, LibraryMember member, Column[] arguments) throws Exception {
+		MethodHandle handle = this.computer.getReflectiveDispatcher(libraryName).getColumnForm(member.getKind(), member.getName(), arguments.length);
+		if (handle == null)
+			return null;
+		Class<?>[] parameters = handle.type().parameterArray();
+		Object[] values = new Object[arguments.length];
+		for (int t = 0; t < values.length; t++) {
+			if (parameters[t] == double[].class)
+				values[t] = arguments[t].getDoubles();
+			else if (parameters[t] == long[].class)
+				values[t] = arguments[t].getLongs();
+			else
+				values[t] = arguments[t].getBooleans();
+		}
+		Object result;
+		try {
+			result = handle.invokeWithArguments(values);
+		} catch (Exception e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new UndeclaredThrowableException(e);
+		}
+		if (result instanceof double[])
+			return Column.of((double[]) result, this.size, false);
+		if (result instanceof long[])
+			return Column.of((long[]) result, this.size, false);
+		return Column.of((boolean[]) result, this.size, false);
+	}
+
+	/**
+	 * Calls primitive form of member for every row.
+	 * @return result column or null if member has no primitive form of that arity
+	 */
+	private Column callFunction(Object function, Column[] arguments) throws Exception {
+		if ((function instanceof LibraryBuilder.DoubleFunction1) && (arguments.length == 1)) {
+			LibraryBuilder.DoubleFunction1 f1 = (LibraryBuilder.DoubleFunction1) function;
+			double[] a = arguments[0].getDoubles();
+			double[] result = new double[this.size];
+			for (int f = 0; f < result.length; f++) {
+				result[f] = f1.apply(a[f]);
+			}
+			return Column.of(result, this.size, false);
+		}
+		if ((function instanceof LibraryBuilder.DoubleFunction2) && (arguments.length == 2)) {
+			LibraryBuilder.DoubleFunction2 f2 = (LibraryBuilder.DoubleFunction2) function;
+			double[] a = arguments[0].getDoubles();
+			double[] b = arguments[1].getDoubles();
+			double[] result = new double[this.size];
+			for (int f = 0; f < result.length; f++) {
+				result[f] = f2.apply(a[f], b[f]);
+			}
+			return Column.of(result, this.size, false);
+		}
+		if ((function instanceof LibraryBuilder.DoubleComparison) && (arguments.length == 2)) {
+			LibraryBuilder.DoubleComparison c2 = (LibraryBuilder.DoubleComparison) function;
+			double[] a = arguments[0].getDoubles();
+			double[] b = arguments[1].getDoubles();
+			boolean[] result = new boolean[this.size];
+			for (int f = 0; f < result.length; f++) {
+				result[f] = c2.test(a[f], b[f]);
+			}
+			return Column.of(result, this.size, false);
+		}
+		if ((function instanceof LibraryBuilder.LongFunction1) && (arguments.length == 1)) {
+			LibraryBuilder.LongFunction1 f1 = (LibraryBuilder.LongFunction1) function;
+			long[] a = arguments[0].getLongs();
+			long[] result = new long[this.size];
+			for (int f = 0; f < result.length; f++) {
+				result[f] = f1.apply(a[f]);
+			}
+			return Column.of(result, this.size, false);
+		}
+		if ((function instanceof LibraryBuilder.LongFunction2) && (arguments.length == 2)) {
+			LibraryBuilder.LongFunction2 f2 = (LibraryBuilder.LongFunction2) function;
+			long[] a = arguments[0].getLongs();
+			long[] b = arguments[1].getLongs();
+			long[] result = new long[this.size];
+			for (int f = 0; f < result.length; f++) {
+				result[f] = f2.apply(a[f], b[f]);
+			}
+			return Column.of(result, this.size, false);
+		}
+		if ((function instanceof LibraryBuilder.BooleanFunction1) && (arguments.length == 1)) {
+			LibraryBuilder.BooleanFunction1 f1 = (LibraryBuilder.BooleanFunction1) function;
+			boolean[] a = arguments[0].getBooleans();
+			boolean[] result = new boolean[this.size];
+			for (int f = 0; f < result.length; f++) {
+				result[f] = f1.apply(a[f]);
+			}
+			return Column.of(result, this.size, false);
+		}
+		if ((function instanceof LibraryBuilder.BooleanFunction2) && (arguments.length == 2)) {
+			LibraryBuilder.BooleanFunction2 f2 = (LibraryBuilder.BooleanFunction2) function;
+			boolean[] a = arguments[0].getBooleans();
+			boolean[] b = arguments[1].getBooleans();
+			boolean[] result = new boolean[this.size];
+			for (int f = 0; f < result.length; f++) {
+				result[f] = f2.apply(a[f], b[f]);
+			}
+			return Column.of(result, this.size, false);
+		}
+		return null;
+	}
+
+	//============= dictionary =============
+
+	/**
+	 * Calls member once per dictionary entry, rows get results by their codes.
+	 */
+	private Column callDictionary(Node node, LibraryMember member, Column[] arguments, int index) throws Exception {
+		Column strings = arguments[index];
+		VariableValue[] entries = new VariableValue[strings.dictionary.length];
+		for (int t = 0; t < entries.length; t++) {
+			step(node);
+			VariableValue[] values = row(arguments, 0);
+			values[index] = new VariableValue(strings.dictionary[t]);
+			entries[t] = new VariableValue(member.getCall().call(values));
+		}
+		Column results = Column.narrow(entries, entries.length, false);
+		int[] codes = strings.codes;
+		switch (results.kind) {
+			case Column.DOUBLE: {
+				double[] result = new double[this.size];
+				for (int f = 0; f < result.length; f++) {
+					result[f] = results.doubles[codes[f]];
+				}
+				return Column.of(result, this.size, false);
+			}
+			case Column.LONG: {
+				long[] result = new long[this.size];
+				for (int f = 0; f < result.length; f++) {
+					result[f] = results.longs[codes[f]];
+				}
+				return Column.of(result, this.size, false);
+			}
+			case Column.BOOLEAN: {
+				boolean[] result = new boolean[this.size];
+				for (int f = 0; f < result.length; f++) {
+					result[f] = results.booleans[codes[f]];
+				}
+				return Column.of(result, this.size, false);
+			}
+			case Column.STRING: {
+				int[] result = new int[this.size];
+				for (int f = 0; f < result.length; f++) {
+					result[f] = results.codes[codes[f]];
+				}
+				return Column.of(result, results.dictionary, this.size, false);
+			}
+			default: {
+				VariableValue[] result = new VariableValue[this.size];
+				for (int f = 0; f < result.length; f++) {
+					result[f] = results.values[codes[f]];
+				}
+				return Column.of(result, this.size, false);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.palettelabs.iumls.parser.Expression;
+
+/**
+ * {@link Expression} translated and linked against libraries and operators
+ * of a particular {@link Computer}.
+ * <br>
+ * Compiled expression might be computed as many times as needed,
+ * see {@link Computer#compile(Expression)} and {@link Computer#compute(CompiledExpression)}.
+ * It's relinked automatically as soon as libraries or operators of 'Computer' are changed.
+ * Compiled expression could be computed by many threads at once.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class CompiledExpression {
+
+	private final Expression expression;
+
+	// replaced as a whole on relinking, so threads computing expression always see a consistent form
+	volatile Linkage linkage;
+	// number of computations, counted while expression is cold or computer is profiling;
+	// not synchronized, lost increments only delay promotion
+	int invocations = 0;
+
+	/**
+	 * Expression linked against one version of libraries and operators.
+	 */
+	static final class Linkage {
+
+		final Computer computer;
+		final int version;
+		final Node root;
+		// bytecode backend, null if expression is interpreted
+		final Executable executable;
+		final Node[] steps;
+		// why bytecode is not generated, null if it's not asked for
+		final String fallback;
+		// stack machine program, null if tree is evaluated
+		final StackMachine machine;
+		// true if tree is interpreted until expression gets hot (see Computer#setTieredCompilation(int))
+		final boolean cold;
+		final AtomicBoolean promoting = new AtomicBoolean();
+
+		Linkage(Computer computer, int version, Node root, Executable executable, Node[] steps, String fallback,
+				StackMachine machine, boolean cold) {
+			this.computer = computer;
+			this.version = version;
+			this.root = root;
+			this.executable = executable;
+			this.steps = steps;
+			this.fallback = fallback;
+			this.machine = machine;
+			this.cold = cold;
+		}
+
+	}
+
+	CompiledExpression(Expression expression) {
+		this.expression = expression;
+	}
+
+	/**
+	 * @return source expression
+	 */
+	public Expression getExpression() {
+		return this.expression;
+	}
+
+	/**
+	 * @return true if expression is executed by generated bytecode
+	 * 	(see {@link Computer#setBytecodeGeneration(boolean)}), false if it's interpreted
+	 */
+	public boolean isBytecodeCompiled() {
+		Linkage linkage = this.linkage;
+		return (linkage != null) && (linkage.executable != null);
+	}
+
+	/**
+	 * @return true if expression is interpreted until it's computed often enough to be compiled
+	 * 	(see {@link Computer#setTieredCompilation(int)})
+	 */
+	public boolean isCold() {
+		Linkage linkage = this.linkage;
+		return (linkage != null) && linkage.cold;
+	}
+
+	/**
+	 * @return why expression is not executed by generated bytecode although it's turned on
+	 * 	(e.g. member is resolved by default handler), null if it is or bytecode generation is off
+	 */
+	public String getBytecodeFallback() {
+		Linkage linkage = this.linkage;
+		return linkage != null ? linkage.fallback : null;
+	}
+
+	/**
+	 * @return true if expression is executed by stack machine (see {@link Computer#setStackEvaluation(boolean)})
+	 */
+	public boolean isStackCompiled() {
+		Linkage linkage = this.linkage;
+		return (linkage != null) && (linkage.machine != null);
+	}
+
+}
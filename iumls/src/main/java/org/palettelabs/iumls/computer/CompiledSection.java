@@ -0,0 +1,79 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.Expression;
+import org.palettelabs.iumls.parser.Section;
+
+/**
+ * All the expressions of {@link Section} (nested sections and arrays included) compiled together,
+ * structurally identical subexpressions are shared between them (see {@link Computer#compile(Section)}).
+ * Expressions might reference each other (see {@link Computer#evaluate(Section)}).
+ * <br>
+ * It's relinked automatically as soon as libraries or operators of 'Computer' are changed.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class CompiledSection {
+
+	private final Section section;
+	private final List<Expression> expressions;
+
+	// replaced as a whole on relinking, so threads computing section always see a consistent form
+	volatile Linkage linkage;
+
+	/**
+	 * Section linked against one version of libraries and operators.
+	 */
+	static final class Linkage {
+
+		final Computer computer;
+		final int version;
+		final Node[] roots;
+		final SectionGraph graph;
+		// number of shared subtrees cached on computation
+		final int slots;
+		// values of the last computation, null if section is not computed since it was linked
+		volatile VariableValue[] values;
+
+		Linkage(Computer computer, int version, Node[] roots, SectionGraph graph, int slots) {
+			this.computer = computer;
+			this.version = version;
+			this.roots = roots;
+			this.graph = graph;
+			this.slots = slots;
+		}
+
+	}
+
+	CompiledSection(Section section) {
+		this.section = section;
+		this.expressions = Collections.unmodifiableList(new SectionGraph(section).getExpressions());
+	}
+
+	/**
+	 * @return source section
+	 */
+	public Section getSection() {
+		return this.section;
+	}
+
+	/**
+	 * @return expressions of section in document order
+	 */
+	public List<Expression> getExpressions() {
+		return this.expressions;
+	}
+
+	/**
+	 * @return number of shared subexpressions which are evaluated once per computation
+	 */
+	public int getSharedCount() {
+		Linkage linkage = this.linkage;
+		return linkage != null ? linkage.slots : 0;
+	}
+
+}
@@ -1,21 +1,34 @@
 package org.palettelabs.iumls.computer;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.palettelabs.iumls.IumlsException;
 import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.Array;
+import org.palettelabs.iumls.parser.Entity;
 import org.palettelabs.iumls.parser.Expression;
-import org.palettelabs.iumls.parser.ExpressionElement;
-import org.palettelabs.iumls.parser.NotationElement;
-import org.palettelabs.iumls.utils.NumberConverter;
+import org.palettelabs.iumls.parser.Section;
 
 /**
  * 
@@ -34,6 +47,12 @@ import org.palettelabs.iumls.utils.NumberConverter;
  * otherwise 'system' library is used (<i>a = [true, false];</i>).
  * <br>
  * <br>
+ * One 'Computer' could serve any number of threads. Libraries and operators are kept in an immutable snapshot
+ * which is replaced as a whole on any change, so computations take no locks and always see a consistent
+ * set of them. Libraries are shared by all the threads, state of a single evaluation (e.g. current time)
+ * belongs to {@link EvaluationContext} rather than to library fields.
+ * <br>
+ * <br>
  * <b>Tip 1</b>
  * <br>
  * Of course, it is possible to override library with another one.
@@ -48,12 +67,96 @@ import org.palettelabs.iumls.utils.NumberConverter;
  */
 public class Computer {
 
-	private Map<String, Library> libraries = new HashMap<String, Library>();
-	private Map<String, OperatorData> operators = new HashMap<String, Computer.OperatorData>();
+	// step cell of generated code (see Executable), one per thread
+	private static final ThreadLocal<int[]> STEP = ThreadLocal.withInitial(() -> new int[1]);
+
+	// libraries and operators, replaced as a whole on any change
+	private final AtomicReference<Registry> registry = new AtomicReference<Registry>(new Registry());
+	// compiled expression references its source expression, so it's kept softly in order not to hold the weak key
+	private final WeakCache<Expression, CompiledExpression> compiledExpressions = new WeakCache<Expression, CompiledExpression>();
+	private final WeakCache<Section, CompiledSection> compiledSections = new WeakCache<Section, CompiledSection>();
+
+	private volatile boolean bytecodeGeneration = false;
+	private volatile boolean stackEvaluation = false;
+	private volatile boolean constantFolding = true;
+	private volatile int parallelThreshold = 256;
+	// null for default one
+	private volatile Executor asyncExecutor;
+	// 0 if expressions are compiled at once
+	private volatile int tierThreshold = 0;
+	// null for common fork/join pool
+	private volatile Executor compilationExecutor;
+	private volatile boolean profiling = false;
+	private volatile boolean adaptiveOrdering = true;
+	// compiled expressions counting their computations, held weakly
+	private final Set<CompiledExpression> profiled = Collections.synchronizedSet(
+			Collections.newSetFromMap(new WeakHashMap<CompiledExpression, Boolean>()));
+
+	private static final class OperatorData {
+
+		final int priority;
+		final String libraryName;
+
+		OperatorData(int priority, String libraryName) {
+			this.priority = priority;
+			this.libraryName = libraryName;
+		}
+
+	}
+
+	/**
+	 * Immutable snapshot of libraries and operators, compiled forms are linked against one snapshot.
+	 */
+	private static final class Registry {
+
+		final Map<String, Library> libraries;
+		final Map<String, LibraryDispatcher> dispatchers;
+		final Map<String, OperatorData> operators;
+		// reflection based dispatchers of libraries with generated ones, built for bytecode backend only
+		final ConcurrentMap<String, MethodHandleDispatcher> reflectiveDispatchers;
+		// incremented on any change, compiled forms of older versions are relinked
+		final int version;
+
+		Registry() {
+			this(Collections.<String, Library>emptyMap(), Collections.<String, LibraryDispatcher>emptyMap(),
+					Collections.<String, OperatorData>emptyMap(), new ConcurrentHashMap<String, MethodHandleDispatcher>(), 0);
+		}
+
+		private Registry(Map<String, Library> libraries, Map<String, LibraryDispatcher> dispatchers, Map<String, OperatorData> operators,
+				ConcurrentMap<String, MethodHandleDispatcher> reflectiveDispatchers, int version) {
+			this.libraries = libraries;
+			this.dispatchers = dispatchers;
+			this.operators = operators;
+			this.reflectiveDispatchers = reflectiveDispatchers;
+			this.version = version;
+		}
+
+		Registry withLibrary(String name, Library library, LibraryDispatcher dispatcher) {
+			Map<String, Library> libraries = new HashMap<String, Library>(this.libraries);
+			libraries.put(name, library);
+			Map<String, LibraryDispatcher> dispatchers = new HashMap<String, LibraryDispatcher>(this.dispatchers);
+			dispatchers.put(name, dispatcher);
+			ConcurrentMap<String, MethodHandleDispatcher> reflectiveDispatchers
+					= new ConcurrentHashMap<String, MethodHandleDispatcher>(this.reflectiveDispatchers);
+			reflectiveDispatchers.remove(name);
+			return new Registry(Collections.unmodifiableMap(libraries), Collections.unmodifiableMap(dispatchers), this.operators,
+					reflectiveDispatchers, this.version + 1);
+		}
+
+		Registry withOperator(String operatorString, OperatorData data) {
+			Map<String, OperatorData> operators = new HashMap<String, OperatorData>(this.operators);
+			operators.put(operatorString, data);
+			return new Registry(this.libraries, this.dispatchers, Collections.unmodifiableMap(operators),
+					this.reflectiveDispatchers, this.version + 1);
+		}
+
+		/**
+		 * @return the same snapshot of the next version (settings of 'Computer' are changed)
+		 */
+		Registry next() {
+			return new Registry(this.libraries, this.dispatchers, this.operators, this.reflectiveDispatchers, this.version + 1);
+		}
 
-	private static class OperatorData {
-		int priority;
-		String libraryName;
 	}
 
 	/**
@@ -100,12 +203,40 @@ public class Computer {
 
 	/**
 	 * Registers new library or replaces old one with the same name.
+	 * <br>
+	 * Dispatcher generated at build time (see <i>iumls-processor</i> module) is used if it is found
+	 * next to the library class (<i>SystemLibrary_Dispatcher</i>), otherwise library class is scanned
+	 * right away with reflection. Library which implements {@link LibraryDispatcher} itself
+	 * (see {@link LibraryBuilder}) dispatches its own members.
+	 * Either way members are not looked up on evaluation.
 	 * @param name - name of library (<i>google.ImFeelingLucky("fruit")</i>,
 	 * 	where '<i>google</i>' is a name of library)
 	 * @param library - object which implements the {@link Library}
 	 */
 	public void addLibrary(String name, Library library) {
-		this.libraries.put(name, library);
+		LibraryDispatcher dispatcher = createDispatcher(name, library);
+		Registry current;
+		do {
+			current = this.registry.get();
+		} while (!this.registry.compareAndSet(current, current.withLibrary(name, library, dispatcher)));
+	}
+
+	private static LibraryDispatcher createDispatcher(String name, Library library) {
+		if (library instanceof LibraryDispatcher) {
+			// e.g. built by LibraryBuilder
+			return (LibraryDispatcher) library;
+		}
+		Class<?> __class = library.getClass();
+		String dispatcherName = __class.getName().replace('$', '_') + "_Dispatcher";
+		try {
+			Class<?> dispatcherClass = Class.forName(dispatcherName, true, __class.getClassLoader());
+			return (LibraryDispatcher) dispatcherClass.getConstructor(String.class, __class).newInstance(name, library);
+		} catch (ClassNotFoundException e) {
+			// no dispatcher generated for this class
+		} catch (Exception e) {
+			// generated for another version of library class, scan it instead
+		}
+		return new MethodHandleDispatcher(name, library);
 	}
 
 	/**
@@ -116,533 +247,776 @@ public class Computer {
 	 * @param priority - precedence of operator (greater number has a greater precedence)
 	 */
 	public void registerOperator(String operatorString, String libraryName, int priority) {
-		OperatorData data;
-		if (this.operators.containsKey(operatorString)) {
-			data = this.operators.get(operatorString);
-		} else {
-			data = new OperatorData();
-			this.operators.put(operatorString, data);
-		}
-		data.libraryName = libraryName;
-		data.priority = priority;
+		OperatorData data = new OperatorData(priority, libraryName);
+		Registry current;
+		do {
+			current = this.registry.get();
+		} while (!this.registry.compareAndSet(current, current.withOperator(operatorString, data)));
 	}
 
 	/**
-	 * Computes {@link Expression} object.
-	 * @param expression - expression to compute
-	 * @return result of expression
-	 * @throws IumlsException throws exception in any case of problem (for example, no method found or division by zero)
+	 * Makes compiled forms of the current version outdated, they are relinked on the next computation.
 	 */
-	public VariableValue compute(Expression expression) throws IumlsException {
-		return compute(expression.getBaseElement());
-	}
-
-	private VariableValue compute(ExpressionElement element) throws IumlsException {
-
-		// translate to RPN (initially designed by Edsger Dijkstra)
-		Stack<ExpressionElement> stack = new Stack<ExpressionElement>();
-		LinkedList<ExpressionElement> output = new LinkedList<ExpressionElement>();
-		for (ExpressionElement e : element.getElements()) {
-			switch (e.getType()) {
-				case ExpressionElement.NUMBER:
-				case ExpressionElement.FUNCTION:
-				case ExpressionElement.GENERIC_NODE:
-				case ExpressionElement.IDENTIFIER:
-				case ExpressionElement.STRING:
-					output.addLast(e);
-					break;
-				case ExpressionElement.OPERATOR:
-					while ((!stack.isEmpty()) && (stack.peek() != null) && (stack.peek().getType() == ExpressionElement.OPERATOR)
-							&& (getOperatorPriority(e.getData()) <= getOperatorPriority(stack.peek().getData()))) {
-						output.addLast(stack.pop());
-					}
-					stack.push(e);
-					break;
-				case ExpressionElement.SYMBOL:
-					if (e.getData().equals("("))
-						stack.push(e);
-					else if (e.getData().equals(")")) {
-						while ((stack.peek() != null) && !((stack.peek().getType() == ExpressionElement.SYMBOL) && stack.peek().getData().equals("("))) {
-							output.addLast(stack.pop());
-						}
-						if ((stack.peek() != null) && (stack.peek().getType() == ExpressionElement.SYMBOL) && stack.peek().getData().equals("(")) {
-							stack.pop();
-						}
-					} else {
-						output.addLast(e);
-					}
-					break;
-			}
-		}
-		while (!stack.isEmpty()) {
-			output.addLast(stack.pop());
-		}
-
-		// compute RPN
-		NotationElement currentNotationElement = null;
-		String currentElementName = "";
-		try {
-			LinkedList<ExpressionElement> input = output;
-			Stack<VariableValue> stackValues = new Stack<VariableValue>();
-			for (ExpressionElement e : input) {
-				currentNotationElement = e;
-				switch (e.getType()) {
-					case ExpressionElement.OPERATOR:
-						currentElementName = "an operator '" + e.getData() + "'";
-						VariableValue[] argsO = new VariableValue[2];
-						argsO[1] = stackValues.pop();
-						argsO[0] = stackValues.pop();
-						stackValues.push(evaluateOperator(e.getData(), argsO));
-						break;
-					case ExpressionElement.NUMBER:
-						currentElementName = "a number '" + e.getData() + "'";
-						stackValues.push(new VariableValue(NumberConverter.toDouble(e.getData())));
-						break;
-					case ExpressionElement.STRING:
-						currentElementName = "a string '" + e.getData() + "'";
-						stackValues.push(new VariableValue(e.getData()));
-						break;
-					case ExpressionElement.IDENTIFIER:
-						currentElementName = "an identifier '" + e.getData() + "'";
-						String libraryNameI = "system";
-						String valueI = e.getData();
-						if (e.getData().indexOf(".") > -1) {
-							libraryNameI = e.getData().substring(0, e.getData().indexOf("."));
-							valueI = e.getData().substring(e.getData().indexOf(".") + 1);
-						}
-						stackValues.push(evaluateLibraryVariable(libraryNameI, valueI));
-						break;
-					case ExpressionElement.FUNCTION:
-						currentElementName = "a function '" + e.getData() + "'";
-						String libraryNameF = "system";
-						String valueF = e.getData();
-						if (e.getData().indexOf(".") > -1) {
-							libraryNameF = e.getData().substring(0, e.getData().indexOf("."));
-							valueF = e.getData().substring(e.getData().indexOf(".") + 1);
-						}
-						// check if all function arguments have a tree
-
-						// function might has an empty argument, it's a known parser behavioral
-
-						// go through an arguments list and remove empty ones
-						// (new list implementation to obey parser immutable structure approach)
-						List<ExpressionElement> __elements = new ArrayList<ExpressionElement>(e.getElements().size());
-						for (ExpressionElement __e : e.getElements()) {
-							if (!__e.getElements().isEmpty())
-								__elements.add(__e);
-						}
-
-						VariableValue[] argsF = new VariableValue[__elements.size()];
-						int t = 0;
-						for (ExpressionElement argumentElement : __elements) {
-							argsF[t] = compute(argumentElement);
-							t++;
-						}
-						stackValues.push(executeLibraryMethod(libraryNameF, valueF, argsF));
-						break;
-					default:
-						stack.push(e);
-						break;
-				}
-			}
-			return stackValues.pop();
-		} catch (Exception exc) {
-			throw new IumlsException("runtime exception on evaluating " + currentElementName, exc, currentNotationElement.getPosition(),
-					currentNotationElement.getLine(), currentNotationElement.getColumn());
-		}
-
+	private void touch() {
+		Registry current;
+		do {
+			current = this.registry.get();
+		} while (!this.registry.compareAndSet(current, current.next()));
 	}
 
-	private Library getLibrary(String name) throws IumlsException {
-		if (libraries.containsKey(name)) {
-			return libraries.get(name);
-		} else {
-			throw new IumlsException("IUMLS::Computer:: no library '" + name + "' found");
-		}
+	/**
+	 * Turns on/off bytecode generation for compiled expressions (see {@link BytecodeCompiler}).
+	 * <br>
+	 * Expressions which could not be translated into bytecode (e.g. ones use default method/variable handlers)
+	 * are still interpreted.
+	 * @param enabled - true to generate bytecode, false to interpret expressions (default)
+	 */
+	public void setBytecodeGeneration(boolean enabled) {
+		this.bytecodeGeneration = enabled;
+		touch();
 	}
 
-	private VariableValue executeLibraryMethod(String libraryName, String methodName, VariableValue[] arguments) throws IumlsException {
-		Library lib = getLibrary(libraryName);
-		Class<?> __class = lib.getClass();
-		Method[] methods = __class.getMethods();
-
-		//System.out.println(__class.getName() + ": " + methodName + ": " + libraryName);
-
-		int f = 0;
-		Method foundMethod = null;
-		while ((foundMethod == null) && (f < methods.length)) {
-			Method method = methods[f];
-			Class<?>[] parameters = method.getParameterTypes();
-			boolean isLastVararg = (parameters.length > 0)
-					&& parameters[parameters.length - 1].isArray()
-					&& isOneOf(parameters[parameters.length - 1].getName(), "[Z", "[Lorg.palettelabs.iumls.VariableValue;", "[Ljava.lang.Integer;",
-							"[Ljava.lang.Boolean;", "[Ljava.lang.Double;", "[Ljava.lang.Long;", "[Ljava.lang.String;", "[D", "[I", "[J");
-
-			String annotatedMethodName = "";
-
-			if (method.isAnnotationPresent(org.palettelabs.iumls.computer.Method.class)) {
-				org.palettelabs.iumls.computer.Method methodAnnotation = method
-						.getAnnotation(org.palettelabs.iumls.computer.Method.class);
-				annotatedMethodName = methodAnnotation.value();
-			}
-
-			if ((annotatedMethodName == null) || annotatedMethodName.isEmpty())
-				annotatedMethodName = method.getName();
+	public boolean isBytecodeGeneration() {
+		return this.bytecodeGeneration;
+	}
 
-			if (method.isAnnotationPresent(org.palettelabs.iumls.computer.Method.class) && (annotatedMethodName.equals(methodName))
-					&& ((parameters.length == arguments.length) || ((parameters.length < arguments.length) && isLastVararg))
-					&& method.getReturnType().getName().equals("org.palettelabs.iumls.VariableValue")) {
-				boolean matched = true;
-				for (int n = 0; n < parameters.length; n++) {
+	/**
+	 * Turns on/off stack machine evaluation of compiled expressions (see {@link StackMachine}).
+	 * <br>
+	 * Numbers and booleans are kept in primitive slots of per-thread operand stacks, library members
+	 * having primitive forms (e.g. operators of {@link MathLibrary}) are called with no {@link VariableValue} created,
+	 * so purely arithmetic expressions create the result value only.
+	 * Bytecode generation (if it's turned on and expression could be translated) takes precedence.
+	 * @param enabled - true to evaluate with stack machine, false to walk expression tree (default)
+	 */
+	public void setStackEvaluation(boolean enabled) {
+		this.stackEvaluation = enabled;
+		touch();
+	}
 
-					matched = isSupportedType(parameters[n]) || ((n == parameters.length - 1) && isLastVararg);
+	public boolean isStackEvaluation() {
+		return this.stackEvaluation;
+	}
 
-					if (!matched)
-						break;
-				}
-				if (matched)
-					foundMethod = method;
-			}
-			f++;
-		}
+	/**
+	 * Turns on/off constant folding of compiled expressions (see {@link ConstantFolder}).
+	 * <br>
+	 * Calls of {@link Pure} members with constant arguments (and pure variables) are evaluated once
+	 * on compilation, e.g. <i>1/2 + math.abs(-10.5)</i> is compiled into a single number.
+	 * @param enabled - true to fold constants (default), false to evaluate everything on each computation
+	 */
+	public void setConstantFolding(boolean enabled) {
+		this.constantFolding = enabled;
+		touch();
+	}
 
-		// if no method found check if default method handler exists
-		boolean defaultMethod = false;
-		if (foundMethod == null) {
-			while ((foundMethod == null) && (f < methods.length)) {
-				Method method = methods[f];
-				if (
-						method.isAnnotationPresent(DefaultMethodHandler.class) &&
-						method.getReturnType().getName().equals("org.palettelabs.iumls.VariableValue") &&
-						method.getParameterTypes().length == 2 &&
-						method.getParameterTypes()[0].getName().equals("java.lang.String") &&
-						method.getParameterTypes()[1].getName().equals("[Lorg.palettelabs.iumls.VariableValue")
-						)
-				{
-					foundMethod = method;
-					defaultMethod = true;
-				}
-				f++;
-			}
-		}
+	/**
+	 * Turns on/off adaptive order of <i>&amp;&amp;</i> and <i>||</i> operands (see {@link BooleanChain}).
+	 * <br>
+	 * Interpreted chains like <i>a &amp;&amp; b &amp;&amp; c</i> sample cost and results of their operands
+	 * and periodically reorder {@link Pure} ones, so the cheapest and most selective are evaluated first.
+	 * Results are the same as in source order. Stack machine and bytecode evaluate operands in source order.
+	 * @param enabled - true to reorder operands (default), false to evaluate them in source order
+	 */
+	public void setAdaptiveOrdering(boolean enabled) {
+		this.adaptiveOrdering = enabled;
+	}
 
-		// if neither regular method nor default method was found 
-		if (foundMethod == null)
-			throw new IumlsException("IUMLS::Computer: no method '" + methodName + "' found in library '" + libraryName + "'");
+	public boolean isAdaptiveOrdering() {
+		return this.adaptiveOrdering;
+	}
 
-		try {
-			Class<?>[] parameters = foundMethod.getParameterTypes();
-			Object[] methodArguments = new Object[parameters.length];
-			for (int n = 0; n < parameters.length; n++) {
-				if (defaultMethod && (n == 0)) {
-					methodArguments[n] = methodName;
-				} else if (!parameters[n].isArray()) {
-					// regular argument
-					methodArguments[n] = fillWithValue(parameters[n], arguments[n]);
-
-				} else {
-					// array argument (it must be a last argument considering previous checks)
-					int arraySize = arguments.length - parameters.length + 1;
-					// create an array
-					Object o = null;
-					if (parameters[n].getName().equals("[I"))
-						o = new int[arraySize];
-					else if (parameters[n].getName().equals("[Ljava.lang.Integer;"))
-						o = new Integer[arraySize];
-					else if (parameters[n].getName().equals("[Z"))
-						o = new boolean[arraySize];
-					else if (parameters[n].getName().equals("[Ljava.lang.Boolean;"))
-						o = new Boolean[arraySize];
-					else if (parameters[n].getName().equals("[J"))
-						o = new long[arraySize];
-					else if (parameters[n].getName().equals("[Ljava.lang.Long;"))
-						o = new Long[arraySize];
-					else if (parameters[n].getName().equals("[D"))
-						o = new double[arraySize];
-					else if (parameters[n].getName().equals("[Ljava.lang.Double;"))
-						o = new Double[arraySize];
-					else if (parameters[n].getName().equals("[Ljava.lang.String;"))
-						o = new String[arraySize];
-					else if (parameters[n].getName().equals("[Lorg.palettelabs.iumls.VariableValue;"))
-						o = new VariableValue[arraySize];
-					methodArguments[n] = o;
-					// fill it with values
-					for (int j = 0; j < arraySize; j++) {
-						int argumentIndex = n + j;
-						if (parameters[n].getName().equals("[I"))
-							((int[]) o)[j] = arguments[argumentIndex].asInteger();
-						else if (parameters[n].getName().equals("[Ljava.lang.Integer;"))
-							((Integer[]) o)[j] = new Integer(arguments[argumentIndex].asInteger());
-						else if (parameters[n].getName().equals("[Z"))
-							((boolean[]) o)[j] = arguments[argumentIndex].asBoolean();
-						else if (parameters[n].getName().equals("[Ljava.lang.Boolean;"))
-							((Boolean[]) o)[j] = new Boolean(arguments[argumentIndex].asBoolean());
-						else if (parameters[n].getName().equals("[J"))
-							((long[]) o)[j] = arguments[argumentIndex].asLong();
-						else if (parameters[n].getName().equals("[Ljava.lang.Long;"))
-							((Long[]) o)[j] = new Long(arguments[argumentIndex].asLong());
-						else if (parameters[n].getName().equals("[D"))
-							((double[]) o)[j] = arguments[argumentIndex].asDouble();
-						else if (parameters[n].getName().equals("[Ljava.lang.Double;"))
-							((Double[]) o)[j] = new Double(arguments[argumentIndex].asDouble());
-						else if (parameters[n].getName().equals("[Ljava.lang.String;"))
-							((String[]) o)[j] = arguments[argumentIndex].asString();
-						else if (parameters[n].getName().equals("[Lorg.palettelabs.iumls.VariableValue;"))
-							((VariableValue[]) o)[j] = arguments[argumentIndex];
-					}
-				}
-			}
-			Object obj = foundMethod.invoke(lib, methodArguments);
-			return (VariableValue) obj;
-		} catch (InvocationTargetException e0) {
-			Throwable c = e0.getCause();
-			if (c instanceof IumlsException)
-				throw (IumlsException) c;
-			else
-				throw new IumlsException("IUMLS::Computer: couldn't invoke library method (library='" + libraryName + "', methodName='" + methodName
-						+ "')", c);
-		} catch (Exception e) {
-			throw new IumlsException("IUMLS::Computer: couldn't invoke library method (library='" + libraryName + "', methodName='" + methodName
-					+ "')", e);
-		}
+	public boolean isConstantFolding() {
+		return this.constantFolding;
 	}
 
-	private VariableValue evaluateLibraryVariable(String libraryName, String variableName) throws IumlsException {
-		Library lib = getLibrary(libraryName);
-		Class<?> __class = lib.getClass();
-		//Field[] fields = __class.getDeclaredFields();
-		Field[] fields = __class.getFields();
+	/**
+	 * Sets number of expressions {@link #evaluate(Section)} computes in one fork/join task,
+	 * sections having no more expressions are computed right on the calling thread.
+	 * @param threshold - number of expressions (256 by default), {@link Integer#MAX_VALUE} turns parallel evaluation off
+	 */
+	public void setParallelThreshold(int threshold) {
+		this.parallelThreshold = threshold;
+	}
 
-		//System.out.println(__class.getName() + ": " + variableName + ": " + libraryName);
+	public int getParallelThreshold() {
+		return this.parallelThreshold;
+	}
 
-		Field field = null;
+	/**
+	 * Sets executor running concurrent parts of {@link #computeAsync(CompiledExpression)}.
+	 * @param executor - executor or null for the default one (a virtual thread per task if java runtime has them,
+	 * 	otherwise cached pool of daemon threads)
+	 */
+	public void setAsyncExecutor(Executor executor) {
+		this.asyncExecutor = executor;
+	}
 
-		boolean found = false;
-		int t = 0;
+	/**
+	 * Turns on/off tiered compilation of compiled expressions.
+	 * <br>
+	 * Expressions are interpreted at first, so expressions computed once or twice cost no more than building
+	 * their trees. Expression computed <i>threshold</i> times is promoted: it's compiled into bytecode
+	 * (if bytecode generation is turned on) or into stack machine program (even if stack evaluation is turned off)
+	 * by a task of compilation executor (see {@link #setCompilationExecutor(Executor)}), computations go on with
+	 * the interpreter meanwhile and switch to the compiled form once it's ready.
+	 * @param threshold - number of computations expression is promoted after, 0 to compile expressions at once (default)
+	 */
+	public void setTieredCompilation(int threshold) {
+		this.tierThreshold = Math.max(0, threshold);
+		touch();
+	}
 
-		while (!found && (t < fields.length)) {
+	public int getTieredCompilation() {
+		return this.tierThreshold;
+	}
 
-			field = fields[t];
+	/**
+	 * Sets executor promoted expressions are compiled by (see {@link #setTieredCompilation(int)}).
+	 * @param executor - executor or null for the common fork/join pool (default)
+	 */
+	public void setCompilationExecutor(Executor executor) {
+		this.compilationExecutor = executor;
+	}
 
-			//System.out.println(__class.getName() + ": " + field.getName() + ": " + (field.isAnnotationPresent(Variable.class)));
+	/**
+	 * Turns on/off profiling of computations, expressions compiled while it's on count their computations
+	 * and call sites remember types of arguments (see {@link #exportProfile(OutputStream)}).
+	 * @param enabled - true to profile computations, false to not count them (default)
+	 */
+	public void setProfiling(boolean enabled) {
+		this.profiling = enabled;
+	}
 
-			if (field.isAnnotationPresent(Variable.class)) {
-				String annotatedVariableName = "";
-				Variable variableAnnotation = field.getAnnotation(Variable.class);
-				annotatedVariableName = variableAnnotation.value();
+	public boolean isProfiling() {
+		return this.profiling;
+	}
 
-				if ((annotatedVariableName == null) || annotatedVariableName.isEmpty())
-					annotatedVariableName = field.getName();
+	/**
+	 * Writes profile of computations: expressions computed while profiling was on (see {@link #setProfiling(boolean)}),
+	 * the number of computations of each of them, combinations of argument types seen at their call sites
+	 * and library members they call. The next run of application gives it to {@link #loadProfile(InputStream, Collection)}.
+	 * <br>
+	 * Profile is a compact text file, expressions are identified by their text (see {@link EvaluationProfile}).
+	 * @param out - stream to write profile to, it's not closed
+	 * @throws IOException throws exception if profile could not be written
+	 */
+	public void exportProfile(OutputStream out) throws IOException {
+		List<CompiledExpression> compiled;
+		synchronized (this.profiled) {
+			compiled = new ArrayList<CompiledExpression>(this.profiled);
+		}
+		EvaluationProfile profile = new EvaluationProfile();
+		for (CompiledExpression expression : compiled) {
+			CompiledExpression.Linkage linkage = expression.linkage;
+			if ((linkage != null) && (expression.invocations > 0))
+				profile.add(expression.getExpression(), linkage.root, expression.invocations);
+		}
+		profile.write(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
 
-				found = (annotatedVariableName.equals(variableName)) && (field.getType().getName().equals(VariableValue.class.getName()));
+	/**
+	 * Loads profile written by {@link #exportProfile(OutputStream)} and warms expressions it lists up
+	 * before they are computed: expressions are compiled ({@link #compute(Expression)} takes them), hot ones are
+	 * compiled at once even if tiered compilation is turned on (see {@link #setTieredCompilation(int)}),
+	 * call sites are given types of arguments seen by the previous run.
+	 * <br>
+	 * Profile is read on the calling thread, expressions are compiled by a task of compilation executor
+	 * (see {@link #setCompilationExecutor(Executor)}). Expressions which are not in profile are left as they are,
+	 * malformed ones are skipped (they are reported on computation).
+	 * @param in - stream to read profile from, it's not closed
+	 * @param expressions - expressions of application, e.g. all the expressions of documents
+	 * @return future number of expressions compiled
+	 * @throws IOException throws exception if profile could not be read
+	 */
+	public CompletableFuture<Integer> loadProfile(InputStream in, Collection<Expression> expressions) throws IOException {
+		final EvaluationProfile profile = EvaluationProfile.read(new InputStreamReader(in, StandardCharsets.UTF_8));
+		final List<Expression> listed = new ArrayList<Expression>(expressions);
+		Executor executor = this.compilationExecutor;
+		return CompletableFuture.supplyAsync(() -> {
+			// members are resolved by compilation, bytecode backend needs reflective dispatchers of their libraries as well
+			for (EvaluationProfile.MemberEntry member : profile.members.values()) {
+				try {
+					if (this.bytecodeGeneration)
+						getReflectiveDispatcher(member.libraryName);
+				} catch (IumlsException e) {
+					// library is not there anymore
+				}
 			}
+			int count = 0;
+			for (Expression expression : listed) {
+				EvaluationProfile.ExpressionEntry entry = profile.expressions.get(EvaluationProfile.source(expression));
+				if ((entry == null) || (this.compiledExpressions.get(expression) != null))
+					continue;
+				try {
+					CompiledExpression compiled = new CompiledExpression(expression);
+					compiled.invocations = (int) Math.min(Integer.MAX_VALUE, entry.invocations);
+					EvaluationProfile.seed(link(compiled, true).root, entry.sites);
+					if (this.profiling)
+						this.profiled.add(compiled);
+					this.compiledExpressions.put(expression, compiled);
+					count++;
+				} catch (IumlsException e) {
+					// reported on computation
+				}
+			}
+			return count;
+		}, executor != null ? executor : ForkJoinPool.commonPool());
+	}
 
-			t++;
+	/**
+	 * Gives access to memoized results of {@link Cacheable} method, e.g. to hit/miss statistics
+	 * or to invalidate them once data behind the method is changed.
+	 * @param libraryName - name library is added with
+	 * @param methodName - notation name of method
+	 * @param arity - number of arguments
+	 * @return cache of method or null if method is not cacheable
+	 * @throws IumlsException throws exception if there is no such library or method
+	 */
+	public MethodCache getMethodCache(String libraryName, String methodName, int arity) throws IumlsException {
+		LibraryCall call = resolveMethod(libraryName, methodName, arity).getCall();
+		return call instanceof MethodCache ? (MethodCache) call : null;
+	}
+
+	/**
+	 * Computes {@link Expression} object.
+	 * <br>
+	 * Expression is compiled on the first call only, compiled form is kept
+	 * by 'Computer' and reused as long as the expression is referenced.
+	 * @param expression - expression to compute
+	 * @return result of expression
+	 * @throws IumlsException throws exception in any case of problem (for example, no method found or division by zero)
+	 */
+	public VariableValue compute(Expression expression) throws IumlsException {
+		CompiledExpression compiled = this.compiledExpressions.get(expression);
+		if (compiled == null) {
+			compiled = compile(expression);
+			this.compiledExpressions.put(expression, compiled);
 		}
+		return compute(compiled);
+	}
 
-		// return value if it was founded
-		if (found) {
+	/**
+	 * Computes {@link CompiledExpression} object.
+	 * @param compiled - compiled expression to compute
+	 * @return result of expression
+	 * @throws IumlsException throws exception in any case of problem (for example, no method found or division by zero)
+	 */
+	public VariableValue compute(CompiledExpression compiled) throws IumlsException {
+		CompiledExpression.Linkage linkage = linkage(compiled);
+		if (linkage.cold || this.profiling) {
+			int invocations = ++compiled.invocations;
+			if (linkage.cold && (invocations >= this.tierThreshold))
+				promote(compiled, linkage);
+		}
+		// bytecode does not check limits of evaluation context
+		if ((linkage.executable != null) && (EvaluationContext.limited() == null)) {
+			int[] step = STEP.get();
+			// expression computed from inside of a library call takes the cell over
+			int outer = step[0];
 			try {
-				VariableValue v = (VariableValue) field.get(lib);
-				v.setName(libraryName + "." + variableName);
-				return v;
+				return linkage.executable.execute(step);
 			} catch (Exception e) {
-				Throwable c = e.getCause();
-				if (c instanceof IumlsException)
-					throw (IumlsException) c;
-				else
-					throw new IumlsException("IUMLS::Computer: couldn't extract library variable (library='" + libraryName + "', variableName='"
-							+ variableName + "')", c);
+				throw linkage.steps[step[0]].error(e);
+			} finally {
+				step[0] = outer;
 			}
 		}
+		if (linkage.machine != null)
+			return linkage.machine.execute();
+		return linkage.root.evaluate(this);
+	}
 
-		// look into methods
-		Method[] methods = __class.getMethods();
-
-		Method method = null;
-
-		t = 0;
-		while (!found && (t < methods.length)) {
-
-			method = methods[t];
-
-			if (method.isAnnotationPresent(Variable.class)) {
-				String annotatedVariableName = "";
-				Variable variableAnnotation = method.getAnnotation(Variable.class);
-				annotatedVariableName = variableAnnotation.value();
-
-				if ((annotatedVariableName == null) || annotatedVariableName.isEmpty())
-					annotatedVariableName = method.getName();
-
-				found = (annotatedVariableName.equals(variableName)) && (method.getReturnType() == VariableValue.class)
-						&& (method.getParameterTypes().length == 0);
-			}
-
-			t++;
+	/**
+	 * Computes {@link CompiledExpression} object within evaluation context.
+	 * <br>
+	 * Library members keeping per-evaluation state (e.g. <i>sysdate</i> of {@link SystemLibrary})
+	 * take it from the context (see {@link EvaluationContext#current()}).
+	 * @param compiled - compiled expression to compute
+	 * @param context - evaluation context
+	 * @return result of expression
+	 * @throws IumlsException throws exception in any case of problem (for example, no method found or division by zero)
+	 */
+	public VariableValue compute(CompiledExpression compiled, EvaluationContext context) throws IumlsException {
+		EvaluationContext previous = EvaluationContext.begin(context);
+		try {
+			return compute(compiled);
+		} finally {
+			EvaluationContext.end(previous);
 		}
+	}
 
-		// return value if it was founded
-		if (found) {
-			try {
+	/**
+	 * Computes {@link CompiledExpression} object asynchronously.
+	 * <br>
+	 * Library methods might return <i>CompletableFuture&lt;VariableValue&gt;</i> (see {@link AsyncLibraryCall}),
+	 * their futures are composed with the rest of expression. Independent arguments calling such methods
+	 * or methods which might block (ones which are not {@link Pure}) are evaluated concurrently by tasks of
+	 * executor (see {@link #setAsyncExecutor(Executor)}), operator or method consuming them is called once all of them are done.
+	 * So expression doing I/O in several arguments takes as long as the slowest argument rather than the sum of them.
+	 * <br>
+	 * Evaluation context of the calling thread (see {@link EvaluationContext#current()}) is passed to the tasks.
+	 * @param compiled - compiled expression to compute
+	 * @return future result of expression, it fails with {@link IumlsException} in any case of problem
+	 */
+	public CompletableFuture<VariableValue> computeAsync(CompiledExpression compiled) {
+		try {
+			Executor executor = this.asyncExecutor;
+			return new AsyncEvaluator(this, executor != null ? executor : AsyncEvaluator.getDefaultExecutor(), EvaluationContext.current())
+					.start(linkage(compiled).root);
+		} catch (IumlsException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
 
-				Object obj = method.invoke(lib, new Object[0]);
+	/**
+	 * Computes {@link CompiledExpression} object for every row of {@link ColumnBatch}.
+	 * <br>
+	 * Expression is evaluated column at a time: every operator and method is called once per batch
+	 * with whole columns if library has column form of it (see {@link Operator}), calls of primitive forms
+	 * run in a tight loop, pure calls of dictionary encoded strings are made once per distinct string.
+	 * Identifiers which are not bound in batch are read once.
+	 * <br>
+	 * All the rows see the same evaluation context (the same sysdate): the one of the calling thread
+	 * (see {@link EvaluationContext#current()}) or a new one.
+	 * @param compiled - compiled expression to compute
+	 * @param batch - columns bound to identifiers of expression
+	 * @return column of results, one per row
+	 * @throws IumlsException throws exception in any case of problem
+	 */
+	public Column compute(CompiledExpression compiled, ColumnBatch batch) throws IumlsException {
+		EvaluationContext context = EvaluationContext.current();
+		return compute(compiled, batch, context != null ? context : new EvaluationContext());
+	}
 
-				return (VariableValue) obj;
-			} catch (Exception e) {
-				Throwable c = e.getCause();
-				if (c instanceof IumlsException)
-					throw (IumlsException) c;
-				else
-					throw new IumlsException("IUMLS::Computer: couldn't extract library variable (library='" + libraryName + "', variableName='"
-							+ variableName + "')", c);
-			}
+	/**
+	 * Computes {@link CompiledExpression} object for every row of {@link ColumnBatch} within evaluation context
+	 * (see {@link #compute(CompiledExpression, ColumnBatch)}), limits of context are checked per call of member
+	 * made for the whole batch and per row of calls made row by row.
+	 * @param compiled - compiled expression to compute
+	 * @param batch - columns bound to identifiers of expression
+	 * @param context - evaluation context
+	 * @return column of results, one per row
+	 * @throws IumlsException throws exception in any case of problem
+	 */
+	public Column compute(CompiledExpression compiled, ColumnBatch batch, EvaluationContext context) throws IumlsException {
+		EvaluationContext previous = EvaluationContext.begin(context);
+		try {
+			return new ColumnEvaluator(this, batch).evaluate(linkage(compiled).root);
+		} finally {
+			EvaluationContext.end(previous);
 		}
+	}
+
+	/**
+	 * Compiles {@link Expression} object, so it could be computed many times
+	 * with no need to translate it again.
+	 * @param expression - expression to compile
+	 * @return compiled expression
+	 * @throws IumlsException throws exception if expression is malformed
+	 */
+	public CompiledExpression compile(Expression expression) throws IumlsException {
+		CompiledExpression compiled = new CompiledExpression(expression);
+		link(compiled);
+		if (this.profiling)
+			this.profiled.add(compiled);
+		return compiled;
+	}
 
-		// check if library has a default variable handler
-		t = 0;
-		while (!found && (t < methods.length)) {
+	/**
+	 * Prepares {@link Expression} object, its free identifiers (ones which are not library variables)
+	 * become parameters bound by the caller before every execution (see {@link PreparedExpression}).
+	 * @param expression - expression to prepare
+	 * @return prepared expression with no parameters bound
+	 * @throws IumlsException throws exception if expression is malformed
+	 */
+	public PreparedExpression prepare(Expression expression) throws IumlsException {
+		List<String> names = new ArrayList<String>();
+		new ExpressionCompiler(this, names, null).compile(expression.getBaseElement());
+		return new PreparedExpression(this, expression, names.toArray(new String[names.size()]));
+	}
 
-			method = methods[t];
+	/**
+	 * Creates empty set of rules matched against records (see {@link RuleSet}).
+	 * @return rule set
+	 */
+	public RuleSet createRuleSet() {
+		return new RuleSet(this);
+	}
 
-			if (method.isAnnotationPresent(DefaultVariableHandler.class)) {
+	/**
+	 * Infers types of {@link Expression} object against the current libraries and operators, and finds type errors
+	 * (unresolved members, pure members failing on constant arguments, strings passed to methods taking numbers)
+	 * before it's computed (see {@link ExpressionTypes}).
+	 * @param expression - expression to check
+	 * @return types of expression elements and type errors
+	 * @throws IumlsException throws exception if expression is malformed
+	 */
+	public ExpressionTypes inferTypes(Expression expression) throws IumlsException {
+		return new TypeInference(this).infer(new ExpressionCompiler(this).compile(expression.getBaseElement()));
+	}
 
-				found =	(method.getReturnType() == VariableValue.class) &&
-						(method.getParameterTypes().length == 1) &&
-						(method.getParameterTypes()[0].getName().equals("java.lang.String"));
-			}
+	/**
+	 * @return version of libraries and operators, it's changed on any change of them
+	 */
+	int getVersion() {
+		return this.registry.get().version;
+	}
 
-			t++;
-		}
+	private CompiledExpression.Linkage linkage(CompiledExpression compiled) throws IumlsException {
+		CompiledExpression.Linkage linkage = compiled.linkage;
+		if ((linkage == null) || (linkage.computer != this) || (linkage.version != this.registry.get().version))
+			linkage = link(compiled);
+		return linkage;
+	}
 
-		// return value if it was founded
-		if (found) {
-			try {
+	/**
+	 * Links expression against the current libraries and operators. Expression might be linked by several threads at once,
+	 * every one of them gets a complete form, the last one is kept.
+	 */
+	private CompiledExpression.Linkage link(CompiledExpression compiled) throws IumlsException {
+		return link(compiled, false);
+	}
 
-				Object[] args = {variableName};
-				Object obj = method.invoke(lib, args);
+	/**
+	 * @param hot - true if expression is known to be hot, tiered compilation compiles it at once
+	 */
+	private CompiledExpression.Linkage link(CompiledExpression compiled, boolean hot) throws IumlsException {
+		int version = this.registry.get().version;
+		Node root = new ExpressionCompiler(this).compile(compiled.getExpression().getBaseElement());
+		if (this.constantFolding)
+			root = ConstantFolder.fold(root);
+		CompiledExpression.Linkage linkage;
+		if ((this.tierThreshold > 0) && !hot)
+			linkage = new CompiledExpression.Linkage(this, version, root, null, null, null, null, true);
+		else
+			linkage = link(version, root, this.stackEvaluation || (this.tierThreshold > 0));
+		compiled.linkage = linkage;
+		return linkage;
+	}
 
-				return (VariableValue) obj;
-			} catch (Exception e) {
-				Throwable c = e.getCause();
-				if (c instanceof IumlsException)
-					throw (IumlsException) c;
-				else
-					throw new IumlsException("IUMLS::Computer: couldn't extract library variable (library='" + libraryName + "', variableName='" + variableName + "')", c);
-			}
+	/**
+	 * Compiles tree into bytecode (if it's turned on) or into stack machine program.
+	 * @param stack - true to compile stack machine program if there is no bytecode
+	 */
+	private CompiledExpression.Linkage link(int version, Node root, boolean stack) {
+		Executable executable = null;
+		Node[] steps = null;
+		String fallback = null;
+		StackMachine machine = null;
+		if (this.bytecodeGeneration) {
+			BytecodeCompiler.Result result = new BytecodeCompiler(this).compile(root);
+			executable = result.executable;
+			steps = result.steps;
+			fallback = result.fallback;
 		}
+		if (stack && (executable == null))
+			machine = StackMachine.compile(root);
+		return new CompiledExpression.Linkage(this, version, root, executable, steps, fallback, machine, false);
+	}
 
-		throw new IumlsException("IUMLS::Computer: no variable '" + variableName + "' found in library '" + libraryName + "'");
+	/**
+	 * Compiles hot expression on compilation executor, the first thread passing the threshold submits the task.
+	 */
+	private void promote(final CompiledExpression compiled, final CompiledExpression.Linkage cold) {
+		if (cold.promoting.get() || !cold.promoting.compareAndSet(false, true))
+			return;
+		Executor executor = this.compilationExecutor;
+		(executor != null ? executor : ForkJoinPool.commonPool()).execute(() -> {
+			// the tree is the same, only the way it's executed changes
+			CompiledExpression.Linkage hot = link(cold.version, cold.root, true);
+			// expression relinked meanwhile keeps the newer form, an outdated one would be relinked anyway
+			if (compiled.linkage == cold)
+				compiled.linkage = hot;
+		});
+	}
 
+	/**
+	 * Compiles all the expressions of {@link Section} (nested sections and arrays included) together.
+	 * <br>
+	 * Structurally identical subexpressions (e.g. <i>price * rate.factor(region)</i> repeated in many entities)
+	 * become one shared node, ones calling {@link Pure} operators and methods only are evaluated once
+	 * per {@link #compute(CompiledSection)}, variables they read are read once per computation as well.
+	 * Identifiers referencing other expression entities of the section are linked to them (see {@link #evaluate(Section)}).
+	 * Expressions of section are always interpreted.
+	 * @param section - section to compile
+	 * @return compiled section
+	 * @throws IumlsException throws exception if any expression is malformed or references are cyclic
+	 */
+	public CompiledSection compile(Section section) throws IumlsException {
+		CompiledSection compiled = new CompiledSection(section);
+		link(compiled);
+		return compiled;
 	}
 
-	private VariableValue evaluateLibraryOperator(String libraryName, String operatorString, VariableValue[] args) throws IumlsException {
+	/**
+	 * Computes all the expressions of {@link CompiledSection}.
+	 * @param compiled - compiled section to compute
+	 * @return values of expressions in document order
+	 * @throws IumlsException throws exception in any case of problem (for example, no method found or division by zero)
+	 */
+	public Map<Expression, VariableValue> compute(CompiledSection compiled) throws IumlsException {
+		VariableValue[] values = computeValues(linkage(compiled), null, Integer.MAX_VALUE);
+		Map<Expression, VariableValue> map = new LinkedHashMap<Expression, VariableValue>();
+		for (int f = 0; f < values.length; f++) {
+			map.put(compiled.getExpressions().get(f), values[f]);
+		}
+		return map;
+	}
 
-		Library lib = getLibrary(libraryName);
-		Class<?> __class = lib.getClass();
+	/**
+	 * Computes all the expressions of {@link Section} (nested sections and arrays included).
+	 * <br>
+	 * Section is compiled on the first call only (see {@link #compile(Section)}), compiled form is kept
+	 * by 'Computer' and reused as long as the section is referenced.
+	 * <br>
+	 * Expression might reference another expression entity of the section by the path of entity names
+	 * (<i>total = shop.subtotal * 1.2;</i>), array items are referenced by index (<i>prices.0</i>).
+	 * The first name is looked up in the section the expression belongs to, then in the enclosing ones.
+	 * Identifier which is not a path of an expression entity is a library variable as usual.
+	 * Referenced expressions are computed first, cyclic references are reported on compilation.
+	 * <br>
+	 * Independent expressions are computed in parallel by fork/join tasks of
+	 * the common pool (see {@link #setParallelThreshold(int)}), libraries must be thread safe then.
+	 * Result does not depend on the order expressions are computed in, if several expressions fail
+	 * the error of the first one (in document order) is thrown.
+	 * <br>
+	 * Values are kept, so after a change only the affected expressions could be recomputed,
+	 * see {@link #recompute(Section, Expression...)} and {@link #recompute(Section, String, String)}.
+	 * @param section - section to compute
+	 * @return values tree of the same shape as section
+	 * @throws IumlsException throws exception in any case of problem (for example, no method found or division by zero)
+	 */
+	public EntityValue evaluate(Section section) throws IumlsException {
+		VariableValue[] values = computeValues(linkage(getCompiledSection(section)), null, this.parallelThreshold);
+		return entityValue(EntityValue.SECTION, section, section.getEntities(), values, new int[1]);
+	}
 
-		Method[] methods = __class.getMethods();
-		Method method = null;
+	/**
+	 * Recomputes expressions of section which depend on the changed ones (see {@link #evaluate(Section)}).
+	 * <br>
+	 * The changed expressions and everything referencing them (directly or not) are recomputed,
+	 * other values are kept from the previous computation.
+	 * Whole section is computed if it is not computed yet (or libraries of 'Computer' are changed since then).
+	 * @param section - section
+	 * @param expressions - changed expressions of section
+	 * @return recomputed values in document order
+	 * @throws IumlsException throws exception in any case of problem
+	 */
+	public Map<Expression, VariableValue> recompute(Section section, Expression... expressions) throws IumlsException {
+		CompiledSection compiled = getCompiledSection(section);
+		CompiledSection.Linkage linkage = linkage(compiled);
+		Set<Integer> changed = new HashSet<Integer>();
+		for (Expression expression : expressions) {
+			int index = linkage.graph.indexOf(expression);
+			if (index > -1)
+				changed.add(index);
+		}
+		return recompute(compiled, linkage, Collections.<String>emptySet(), changed);
+	}
 
-		boolean found = false;
+	/**
+	 * Recomputes expressions of section which depend on the changed library variable (see {@link #evaluate(Section)}).
+	 * <br>
+	 * Expressions reading the variable and everything referencing them (directly or not) are recomputed,
+	 * other values are kept from the previous computation.
+	 * Whole section is computed if it is not computed yet (or libraries of 'Computer' are changed since then).
+	 * @param section - section
+	 * @param libraryName - name of library
+	 * @param variableName - name of changed variable
+	 * @return recomputed values in document order
+	 * @throws IumlsException throws exception in any case of problem
+	 */
+	public Map<Expression, VariableValue> recompute(Section section, String libraryName, String variableName) throws IumlsException {
+		CompiledSection compiled = getCompiledSection(section);
+		return recompute(compiled, linkage(compiled), Collections.singleton(libraryName + "." + variableName),
+				Collections.<Integer>emptySet());
+	}
 
-		int t = 0;
-		while (!found && (t < methods.length)) {
+	private Map<Expression, VariableValue> recompute(CompiledSection compiled, CompiledSection.Linkage linkage,
+			Set<String> variables, Set<Integer> expressions) throws IumlsException {
+		boolean[] affected = null;
+		if (linkage.values != null)
+			affected = linkage.graph.affected(variables, expressions);
+		VariableValue[] values = computeValues(linkage, affected, this.parallelThreshold);
+		Map<Expression, VariableValue> map = new LinkedHashMap<Expression, VariableValue>();
+		for (int f = 0; f < values.length; f++) {
+			if ((affected == null) || affected[f])
+				map.put(compiled.getExpressions().get(f), values[f]);
+		}
+		return map;
+	}
 
-			method = methods[t];
+	private CompiledSection getCompiledSection(Section section) throws IumlsException {
+		CompiledSection compiled = this.compiledSections.get(section);
+		if (compiled == null) {
+			compiled = compile(section);
+			this.compiledSections.put(section, compiled);
+		}
+		return compiled;
+	}
 
-			if (method.isAnnotationPresent(Operator.class)) {
-				String annotatedOperatorName = "";
-				Operator operatorAnnotation = method.getAnnotation(Operator.class);
-				annotatedOperatorName = operatorAnnotation.value();
+	private static EntityValue entityValue(int kind, Entity entity, List<Entity> entities, VariableValue[] values, int[] index) {
+		List<EntityValue> list = new ArrayList<EntityValue>(entities.size());
+		for (Entity e : entities) {
+			// the same order expressions are collected by SectionGraph
+			if (e instanceof Expression)
+				list.add(new EntityValue(e, values[index[0]++]));
+			else if (e instanceof Section)
+				list.add(entityValue(EntityValue.SECTION, e, ((Section) e).getEntities(), values, index));
+			else if (e instanceof Array)
+				list.add(entityValue(EntityValue.ARRAY, e, ((Array) e).getEntities(), values, index));
+		}
+		return new EntityValue(kind, entity, list);
+	}
 
-				found = (annotatedOperatorName.equals(operatorString)) && (method.getReturnType().getName().equals(VariableValue.class.getName()))
-						&& (method.getParameterTypes().length == 2) && isSupportedType(method.getParameterTypes()[0])
-						&& isSupportedType(method.getParameterTypes()[1]);
+	/**
+	 * Computes expressions level by level of section graph.
+	 * @param selected - expressions to compute (others are taken from the previous computation) or null to compute all
+	 */
+	private VariableValue[] computeValues(CompiledSection.Linkage linkage, boolean[] selected, int threshold) throws IumlsException {
+		int size = linkage.roots.length;
+		// all the expressions of section see the same evaluation context (the same sysdate)
+		EvaluationContext context = EvaluationContext.current();
+		SectionComputation computation = new SectionComputation(
+				selected != null ? linkage.values.clone() : new VariableValue[size], linkage.slots,
+				context != null ? context : new EvaluationContext());
+		IumlsException[] errors = new IumlsException[size];
+		for (int[] level : selected != null ? linkage.graph.levels(selected) : linkage.graph.levels()) {
+			BatchedCall.prefetch(this, linkage.roots, level, computation);
+			SectionTask task = new SectionTask(this, linkage.roots, computation, level, errors, threshold, 0, level.length);
+			if (level.length > threshold)
+				ForkJoinPool.commonPool().invoke(task);
+			else
+				task.invoke();
+			for (IumlsException error : errors) {
+				if (error != null)
+					throw error;
 			}
-
-			t++;
 		}
+		computation.batches = null;
+		linkage.values = computation.values;
+		return computation.values;
+	}
 
-		if (found) {
-			try {
-				Object[] argumentsArray = new Object[2];
+	private CompiledSection.Linkage linkage(CompiledSection compiled) throws IumlsException {
+		CompiledSection.Linkage linkage = compiled.linkage;
+		if ((linkage == null) || (linkage.computer != this) || (linkage.version != this.registry.get().version))
+			linkage = link(compiled);
+		return linkage;
+	}
 
-				argumentsArray[0] = fillWithValue(method.getParameterTypes()[0], args[0]);
-				argumentsArray[1] = fillWithValue(method.getParameterTypes()[1], args[1]);
+	private CompiledSection.Linkage link(CompiledSection compiled) throws IumlsException {
+		int version = this.registry.get().version;
+		SectionGraph graph = new SectionGraph(compiled.getSection());
+		NodeTable table = new NodeTable();
+		Node[] roots = new Node[compiled.getExpressions().size()];
+		for (int f = 0; f < roots.length; f++) {
+			Node root = new ExpressionCompiler(this, graph, f).compile(compiled.getExpressions().get(f).getBaseElement());
+			if (this.constantFolding)
+				root = ConstantFolder.fold(root);
+			graph.addVariables(f, root);
+			roots[f] = table.add(root);
+		}
+		graph.order(roots);
+		for (int f = 0; f < roots.length; f++) {
+			roots[f] = table.wrap(roots[f]);
+		}
+		CompiledSection.Linkage linkage = new CompiledSection.Linkage(this, version, roots, graph, table.getSlots());
+		compiled.linkage = linkage;
+		return linkage;
+	}
 
-				Object obj = method.invoke(lib, argumentsArray);
+	/**
+	 * @return library registered under the name or null
+	 */
+	Library getLibrary(String libraryName) {
+		return this.registry.get().libraries.get(libraryName);
+	}
 
-				return (VariableValue) obj;
-			} catch (Exception e) {
-				Throwable c = e.getCause();
-				if (c instanceof IumlsException) throw (IumlsException) c;
-				else
-					throw new IumlsException("IUMLS::Computer: couldn't extract library variable (library='" + libraryName + "', operatorString='"
-							+ operatorString + "')", c);
-			}
+	LibraryDispatcher getDispatcher(String libraryName) throws IumlsException {
+		LibraryDispatcher dispatcher = this.registry.get().dispatchers.get(libraryName);
+		if (dispatcher != null) {
+			return dispatcher;
+		} else {
+			throw new IumlsException("IUMLS::Computer:: no library '" + libraryName + "' found");
 		}
+	}
 
-		throw new IumlsException("IUMLS::Computer: no operator '" + operatorString + "' found in library '" + libraryName + "'");
-
+	/**
+	 * @return reflection based dispatcher of library (bytecode backend needs actual java members)
+	 */
+	MethodHandleDispatcher getReflectiveDispatcher(String libraryName) throws IumlsException {
+		Registry registry = this.registry.get();
+		LibraryDispatcher dispatcher = registry.dispatchers.get(libraryName);
+		if (dispatcher == null)
+			throw new IumlsException("IUMLS::Computer:: no library '" + libraryName + "' found");
+		if (dispatcher instanceof MethodHandleDispatcher)
+			return (MethodHandleDispatcher) dispatcher;
+		MethodHandleDispatcher reflective = registry.reflectiveDispatchers.get(libraryName);
+		if (reflective == null) {
+			// several threads might scan library at once, one dispatcher is kept
+			reflective = new MethodHandleDispatcher(libraryName, registry.libraries.get(libraryName));
+			MethodHandleDispatcher existing = registry.reflectiveDispatchers.putIfAbsent(libraryName, reflective);
+			if (existing != null)
+				reflective = existing;
+		}
+		return reflective;
 	}
 
-	private VariableValue evaluateOperator(String operatorString, VariableValue[] args) throws IumlsException {
-		OperatorData data = this.operators.get(operatorString);
-		String libraryName = null;
-		if (data != null)
-			libraryName = data.libraryName;
-		else
-			libraryName = "system";
-		return evaluateLibraryOperator(libraryName, operatorString, args);
+	// find* give null for members which are not there, compilation leaves them unlinked without making exceptions
+
+	LibraryMember findMethod(String libraryName, String methodName, int arity) {
+		LibraryDispatcher dispatcher = this.registry.get().dispatchers.get(libraryName);
+		return dispatcher != null ? dispatcher.getMethod(methodName, arity) : null;
 	}
 
-	public int getOperatorPriority(String operatorString) {
-		if (this.operators.containsKey(operatorString)) {
-			return this.operators.get(operatorString).priority;
-		} else {
-			return -1;
-		}
+	LibraryMember findVariable(String libraryName, String variableName) {
+		LibraryDispatcher dispatcher = this.registry.get().dispatchers.get(libraryName);
+		return dispatcher != null ? dispatcher.getVariable(variableName) : null;
 	}
 
-	private Object fillWithValue(Class<?> __class, VariableValue value) {
+	LibraryMember findOperator(String libraryName, String operatorString) {
+		LibraryDispatcher dispatcher = this.registry.get().dispatchers.get(libraryName);
+		return dispatcher != null ? dispatcher.getOperator(operatorString) : null;
+	}
 
-		Object obj = null;
+	LibraryMember resolveMethod(String libraryName, String methodName, int arity) throws IumlsException {
+		LibraryMember member = getDispatcher(libraryName).getMethod(methodName, arity);
+		if (member == null)
+			throw new IumlsException("IUMLS::Computer: no method '" + methodName + "' found in library '" + libraryName + "'");
+		return member;
+	}
 
-		if (__class.getName().equals("int"))
-			obj = value.asInteger();
-		else if (__class.getName().equals("java.lang.Integer"))
-			obj = new Integer(value.asInteger());
-		else if (__class.getName().equals("boolean"))
-			obj = value.asBoolean();
-		else if (__class.getName().equals("java.lang.Boolean"))
-			obj = new Boolean(value.asBoolean());
-		else if (__class.getName().equals("long"))
-			obj = value.asLong();
-		else if (__class.getName().equals("java.lang.Long"))
-			obj = new Long(value.asLong());
-		else if (__class.getName().equals("double"))
-			obj = value.asDouble();
-		else if (__class.getName().equals("java.lang.Double"))
-			obj = new Double(value.asDouble());
-		else if (__class.getName().equals("java.lang.String"))
-			obj = value.asString();
-		else if (__class.getName().equals("org.palettelabs.iumls.VariableValue"))
-			obj = value;
+	LibraryMember resolveVariable(String libraryName, String variableName) throws IumlsException {
+		LibraryMember member = getDispatcher(libraryName).getVariable(variableName);
+		if (member == null)
+			throw new IumlsException("IUMLS::Computer: no variable '" + variableName + "' found in library '" + libraryName + "'");
+		return member;
+	}
 
-		return obj;
+	LibraryMember resolveOperator(String libraryName, String operatorString) throws IumlsException {
+		LibraryMember member = getDispatcher(libraryName).getOperator(operatorString);
+		if (member == null)
+			throw new IumlsException("IUMLS::Computer: no operator '" + operatorString + "' found in library '" + libraryName + "'");
+		return member;
 	}
 
-	private boolean isSupportedType(Class<?> __class) {
-		return isOneOf(__class.getName(), "int", "java.lang.Integer", "boolean", "java.lang.Boolean", "long", "java.lang.Long", "double", "java.lang.Double",
-				"java.lang.String", "org.palettelabs.iumls.VariableValue");
+	String getOperatorLibraryName(String operatorString) {
+		OperatorData data = this.registry.get().operators.get(operatorString);
+		if (data != null)
+			return data.libraryName;
+		else
+			return "system";
 	}
 
-	private boolean isOneOf(String s, String... list) {
-		for (int f = 0; f < list.length; f++) {
-			if (list[f].equals(s))
-				return true;
+	public int getOperatorPriority(String operatorString) {
+		OperatorData data = this.registry.get().operators.get(operatorString);
+		if (data != null) {
+			return data.priority;
+		} else {
+			return -1;
 		}
-		return false;
 	}
 
 }
@@ -0,0 +1,100 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Lazy form of {@link SystemLibrary}, operands are evaluated only if they are needed:
+ * <ul>
+ * 	<li><i>a &amp;&amp; b</i> - <i>b</i> is evaluated if <i>a</i> is true;</li>
+ * 	<li><i>a || b</i> - <i>b</i> is evaluated if <i>a</i> is false;</li>
+ * 	<li><i>if(c, a, b)</i> - either <i>a</i> or <i>b</i> is evaluated;</li>
+ * 	<li><i>coalesce(a, b, ...)</i> - operands are evaluated until the first one which is not null.</li>
+ * </ul>
+ * Compiler builds it instead of a call if the member is the one of {@link SystemLibrary}
+ * (not overridden by a subclass), results are the same the member would give.
+ * <br>
+ * Interpreted chains of <i>&amp;&amp;</i> and <i>||</i> evaluate their pure operands in adaptive order (see {@link BooleanChain}).
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class ConditionalNode extends Node {
+
+	static final int AND = 0;
+	static final int OR = 1;
+	static final int IF = 2;
+	static final int COALESCE = 3;
+
+	private final int kind;
+	private final String libraryName;
+	private final Node[] operands;
+	// chain of && or ||, built on the first evaluation
+	private volatile BooleanChain chain;
+
+	ConditionalNode(ExpressionElement element, int kind, String libraryName, Node[] operands) {
+		super(element);
+		this.kind = kind;
+		this.libraryName = libraryName;
+		this.operands = operands;
+	}
+
+	int getKind() {
+		return this.kind;
+	}
+
+	String getLibraryName() {
+		return this.libraryName;
+	}
+
+	Node[] getOperands() {
+		return this.operands;
+	}
+
+	@Override
+	VariableValue evaluate(Computer computer) throws IumlsException {
+		EvaluationContext.step(this.element);
+		if (((this.kind == AND) || (this.kind == OR)) && computer.isAdaptiveOrdering()) {
+			BooleanChain chain = this.chain;
+			if (chain == null) {
+				// threads building it at once get equal chains
+				chain = BooleanChain.of(this);
+				this.chain = chain;
+			}
+			if (chain != BooleanChain.NONE)
+				return new VariableValue(chain.evaluate(computer));
+		}
+		switch (this.kind) {
+			case AND:
+				return new VariableValue(this.operands[0].evaluate(computer).asBoolean() && this.operands[1].evaluate(computer).asBoolean());
+			case OR:
+				return new VariableValue(this.operands[0].evaluate(computer).asBoolean() || this.operands[1].evaluate(computer).asBoolean());
+			case IF:
+				return this.operands[this.operands[0].evaluate(computer).asBoolean() ? 1 : 2].evaluate(computer);
+			default:
+				VariableValue value = null;
+				for (Node operand : this.operands) {
+					value = operand.evaluate(computer);
+					if (!value.isNull())
+						break;
+				}
+				return value;
+		}
+	}
+
+	/**
+	 * @return the same node with other operands
+	 */
+	ConditionalNode with(Node[] operands) {
+		return new ConditionalNode(this.element, this.kind, this.libraryName, operands);
+	}
+
+	@Override
+	String describe() {
+		if ((this.kind == AND) || (this.kind == OR))
+			return "an operator '" + this.element.getData() + "'";
+		return "a function '" + this.element.getData() + "'";
+	}
+
+}
@@ -0,0 +1,151 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.Arrays;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Folds constant subtrees of compiled expression.
+ * <br>
+ * Operator or method call is replaced with {@link ConstantNode} if its member is {@link Pure}
+ * and all its operands are constants (literals or subtrees folded already), pure variables
+ * (e.g. <i>true</i>) are replaced with their values. So <i>1/2 + math.abs(-10.5)</i> becomes a single number
+ * and is not evaluated on computation at all.
+ * <br>
+ * Lazy forms (see {@link ConditionalNode}) with constant conditions are replaced with the selected operand,
+ * e.g. <i>if(true, a, b)</i> becomes <i>a</i> and <i>false &amp;&amp; b</i> becomes <i>false</i>.
+ * <br>
+ * Members which are not resolved on compilation or are served by default handlers are never folded.
+ * Member failed on folding is left as it is, so the error is reported on computation as before.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class ConstantFolder {
+
+	private ConstantFolder() {
+	}
+
+	/**
+	 * Folds tree.
+	 * @param node - root of tree
+	 * @return root of folded tree (the same node if nothing is folded)
+	 */
+	static Node fold(Node node) {
+		if (node instanceof VariableNode) {
+			VariableNode variable = (VariableNode) node;
+			Node folded = evaluate(node, variable.getMember(), new Node[0]);
+			return folded != null ? folded : node;
+		}
+
+		if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			Node left = fold(operator.getLeft());
+			Node right = fold(operator.getRight());
+			Node folded = evaluate(node, operator.getMember(), new Node[] {left, right});
+			if (folded != null)
+				return folded;
+			if ((left == operator.getLeft()) && (right == operator.getRight()))
+				return node;
+			return new OperatorNode(operator.getElement(), operator.getLibraryName(), operator.getMember(), left, right);
+		}
+
+		if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			Node[] arguments = new Node[function.getArguments().length];
+			boolean changed = false;
+			for (int t = 0; t < arguments.length; t++) {
+				arguments[t] = fold(function.getArguments()[t]);
+				changed |= arguments[t] != function.getArguments()[t];
+			}
+			Node folded = evaluate(node, function.getMember(), arguments);
+			if (folded != null)
+				return folded;
+			if (!changed)
+				return node;
+			return new FunctionNode(function.getElement(), function.getLibraryName(), function.getMethodName(),
+					function.getMember(), arguments);
+		}
+
+		if (node instanceof ConditionalNode) {
+			ConditionalNode conditional = (ConditionalNode) node;
+			Node[] operands = new Node[conditional.getOperands().length];
+			boolean changed = false;
+			for (int t = 0; t < operands.length; t++) {
+				operands[t] = fold(conditional.getOperands()[t]);
+				changed |= operands[t] != conditional.getOperands()[t];
+			}
+			Node folded = select(conditional, operands);
+			if (folded != null)
+				return folded;
+			if (!changed)
+				return node;
+			return conditional.with(operands);
+		}
+
+		return node;
+	}
+
+	/**
+	 * Selects operand of lazy form by constant condition.
+	 * @return node replacing the form or null if it depends on computation
+	 */
+	private static Node select(ConditionalNode node, Node[] operands) {
+		switch (node.getKind()) {
+			case ConditionalNode.AND:
+			case ConditionalNode.OR: {
+				boolean shortCircuit = node.getKind() == ConditionalNode.OR;
+				if (!(operands[0] instanceof ConstantNode))
+					return null;
+				if (((ConstantNode) operands[0]).getValue().asBoolean() == shortCircuit)
+					return new ConstantNode(node, new VariableValue(shortCircuit));
+				if (!(operands[1] instanceof ConstantNode))
+					return null;
+				return new ConstantNode(node, new VariableValue(((ConstantNode) operands[1]).getValue().asBoolean()));
+			}
+			case ConditionalNode.IF:
+				if (!(operands[0] instanceof ConstantNode))
+					return null;
+				return operands[((ConstantNode) operands[0]).getValue().asBoolean() ? 1 : 2];
+			default: {
+				// leading null constants are skipped
+				int first = 0;
+				while ((first < operands.length - 1) && (operands[first] instanceof ConstantNode)
+						&& ((ConstantNode) operands[first]).getValue().isNull()) {
+					first++;
+				}
+				if ((operands[first] instanceof ConstantNode) || (first == operands.length - 1))
+					return operands[first];
+				if (first == 0)
+					return null;
+				return node.with(Arrays.copyOfRange(operands, first, operands.length));
+			}
+		}
+	}
+
+	/**
+	 * Evaluates member if it is pure and all the operands are constants.
+	 * @return constant node or null if node could not be folded
+	 */
+	private static Node evaluate(Node node, LibraryMember member, Node[] operands) {
+		if ((member == null) || member.isTrap() || !member.isPure())
+			return null;
+		VariableValue[] arguments = new VariableValue[operands.length];
+		for (int t = 0; t < operands.length; t++) {
+			if (!(operands[t] instanceof ConstantNode))
+				return null;
+			// libraries are free to change their arguments
+			arguments[t] = new VariableValue(((ConstantNode) operands[t]).getValue());
+		}
+		try {
+			VariableValue value = member.getCall().call(arguments);
+			if (value == null)
+				return null;
+			// members might return their own instances (e.g. fields), keep a copy
+			return new ConstantNode(node, new VariableValue(value));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+}
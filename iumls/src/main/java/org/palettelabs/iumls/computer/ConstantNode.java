@@ -0,0 +1,57 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Number or string literal. Literal text is converted only once (on compilation).
+ * <br>
+ * Constant also replaces subtree folded on compilation (see {@link ConstantFolder}).
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class ConstantNode extends Node {
+
+	private final VariableValue value;
+	// description of folded node, null for literals
+	private final String description;
+
+	ConstantNode(ExpressionElement element, VariableValue value) {
+		super(element);
+		this.value = value;
+		this.description = null;
+	}
+
+	/**
+	 * @param folded - node which is replaced with its value
+	 * @param value - value of node
+	 */
+	ConstantNode(Node folded, VariableValue value) {
+		super(folded.getElement());
+		this.value = value;
+		this.description = folded.describe();
+	}
+
+	VariableValue getValue() {
+		return this.value;
+	}
+
+	@Override
+	VariableValue evaluate(Computer computer) throws IumlsException {
+		// libraries are free to change their arguments, so always give away a copy
+		return new VariableValue(this.value);
+	}
+
+	@Override
+	String describe() {
+		if (this.description != null)
+			return this.description;
+		if (this.element.getType() == ExpressionElement.STRING)
+			return "a string '" + this.element.getData() + "'";
+		else
+			return "a number '" + this.element.getData() + "'";
+	}
+
+}
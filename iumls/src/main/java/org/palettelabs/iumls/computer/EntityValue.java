@@ -0,0 +1,107 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.Entity;
+
+/**
+ * Value of notation entity computed by {@link Computer#evaluate(org.palettelabs.iumls.parser.Section)}.
+ * <br>
+ * Values form a tree of the same shape as the source one:
+ * <ul>
+ * 	<li>expression has its value;</li>
+ * 	<li>section and array have values of their entities in the same order.</li>
+ * </ul>
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class EntityValue {
+
+	public static final int EXPRESSION = 0;
+	public static final int SECTION = 1;
+	public static final int ARRAY = 2;
+
+	private final int kind;
+	private final Entity entity;
+	private final VariableValue value;
+	private final List<EntityValue> entities;
+
+	EntityValue(Entity entity, VariableValue value) {
+		this.kind = EXPRESSION;
+		this.entity = entity;
+		this.value = value;
+		this.entities = Collections.emptyList();
+	}
+
+	EntityValue(int kind, Entity entity, List<EntityValue> entities) {
+		this.kind = kind;
+		this.entity = entity;
+		this.value = null;
+		this.entities = Collections.unmodifiableList(entities);
+	}
+
+	/**
+	 * @return {@link #EXPRESSION}, {@link #SECTION} or {@link #ARRAY}
+	 */
+	public int getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * @return source entity
+	 */
+	public Entity getEntity() {
+		return this.entity;
+	}
+
+	/**
+	 * @return name of source entity
+	 */
+	public String getName() {
+		return this.entity.getName();
+	}
+
+	/**
+	 * @return value of expression or null for section and array
+	 */
+	public VariableValue getValue() {
+		return this.value;
+	}
+
+	/**
+	 * @return values of entities of section or array, empty for expression
+	 */
+	public List<EntityValue> getEntities() {
+		return this.entities;
+	}
+
+	public int size() {
+		return this.entities.size();
+	}
+
+	public EntityValue get(int index) {
+		return this.entities.get(index);
+	}
+
+	/**
+	 * @return value of the first entity of section with the name or null
+	 */
+	public EntityValue get(String name) {
+		for (EntityValue entity : this.entities) {
+			if (name.equals(entity.getName()))
+				return entity;
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		if (this.kind == EXPRESSION)
+			return getName() + " = " + (this.value != null ? this.value.asString() : null);
+		return getName() + " " + this.entities;
+	}
+
+}
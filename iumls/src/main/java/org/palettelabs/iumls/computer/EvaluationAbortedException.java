@@ -0,0 +1,49 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.parser.NotationElement;
+
+/**
+ * Evaluation is aborted by limits of its {@link EvaluationContext}: step budget is exhausted,
+ * deadline has passed or evaluation is cancelled (see {@link #getReason()}).
+ * <br>
+ * Exception is passed through library calls as is, so expression computed from inside of a library call
+ * aborts the outer evaluation too. It's stackless, aborting is expected under load.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class EvaluationAbortedException extends IumlsException {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int BUDGET = 0;
+	public static final int DEADLINE = 1;
+	public static final int CANCELLED = 2;
+
+	private final int reason;
+
+	EvaluationAbortedException(int reason, NotationElement element) {
+		super(message(reason), null, element, false);
+		this.reason = reason;
+	}
+
+	/**
+	 * @return {@link #BUDGET}, {@link #DEADLINE} or {@link #CANCELLED}
+	 */
+	public int getReason() {
+		return this.reason;
+	}
+
+	private static String message(int reason) {
+		switch (reason) {
+			case BUDGET:
+				return "evaluation is aborted, step budget is exhausted";
+			case DEADLINE:
+				return "evaluation is aborted, deadline has passed";
+			default:
+				return "evaluation is cancelled";
+		}
+	}
+
+}
@@ -0,0 +1,248 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.palettelabs.iumls.parser.NotationElement;
+
+/**
+ * State of a single evaluation, so libraries do not keep it in their fields and could be shared
+ * by all the threads using the same 'Computer'.
+ * <br>
+ * Context keeps the time of evaluation (<i>sysdate</i> of {@link SystemLibrary}) and any attributes
+ * libraries need. Library members get the context of the current evaluation with {@link #current()}:
+ * <pre>
+ * &#64;Variable
+ * public VariableValue tenant() {
+ *   EvaluationContext context = EvaluationContext.current();
+ *   return new VariableValue(context != null ? (String) context.getAttribute("tenant") : "default");
+ * }
+ * </pre>
+ * Context is given with {@link Computer#compute(CompiledExpression, EvaluationContext)}, every computation
+ * of a section gets one anyway (see {@link Computer#evaluate(Section)}), so all of its expressions see the same time.
+ * <br>
+ * Context is thread safe, expressions of a section might be computed by several threads at once.
+ * <br>
+ * Context might limit evaluation to keep its latency bounded:
+ * <ul>
+ * 	<li>step budget ({@link #setStepBudget(long)}) - number of operators, functions, identifiers and conditionals
+ * 		evaluated (instructions executed by stack machine), it's shared by all the threads computing with the context;</li>
+ * 	<li>deadline ({@link #setDeadline(long)}) - time evaluation must finish by;</li>
+ * 	<li>cancellation ({@link #setCancellation(BooleanSupplier)}) - token telling evaluation is not needed anymore.</li>
+ * </ul>
+ * Limits are checked on every step, evaluation exceeding them is aborted with {@link EvaluationAbortedException}. Limits are checked by interpreter,
+ * stack machine and batch evaluation (see {@link Computer#compute(CompiledExpression, ColumnBatch)}, a call made for
+ * the whole batch is a step, a call made row by row is a step per row), expressions compiled into bytecode are interpreted
+ * while limits are in use.
+ * Evaluation looks for limits only while some of contexts having them are in use, so there is no cost otherwise.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class EvaluationContext {
+
+	// context of evaluation the current thread takes part in
+	private static final ThreadLocal<EvaluationContext> CURRENT = new ThreadLocal<EvaluationContext>();
+
+	// number of threads using contexts with limits, evaluation looks for limits only if there are some
+	private static final AtomicInteger LIMITED = new AtomicInteger();
+
+	private final long time;
+	private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+
+	// number of threads using context, limits are not changed while it's in use
+	private final AtomicInteger users = new AtomicInteger();
+	private volatile boolean limited = false;
+	// steps left
+	private final AtomicLong steps = new AtomicLong(Long.MAX_VALUE);
+	// 0 if there is no deadline
+	private volatile long deadline = 0;
+	private volatile BooleanSupplier cancellation = null;
+
+	/**
+	 * Creates context of the current time.
+	 */
+	public EvaluationContext() {
+		this(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param time - time of evaluation, milliseconds since epoch
+	 */
+	public EvaluationContext(long time) {
+		this.time = time;
+	}
+
+	/**
+	 * @return time of evaluation, milliseconds since epoch
+	 */
+	public long getTime() {
+		return this.time;
+	}
+
+	/**
+	 * @return value of attribute or null if there is none
+	 */
+	public Object getAttribute(String name) {
+		return this.attributes.get(name);
+	}
+
+	/**
+	 * Sets attribute, null value removes it.
+	 */
+	public EvaluationContext setAttribute(String name, Object value) {
+		if (value != null)
+			this.attributes.put(name, value);
+		else
+			this.attributes.remove(name);
+		return this;
+	}
+
+	//============= limits =============
+
+	/**
+	 * Limits number of steps of evaluation.
+	 * @param steps - number of steps evaluation is allowed to make
+	 * @throws IllegalStateException if context is in use
+	 */
+	public EvaluationContext setStepBudget(long steps) {
+		limit();
+		this.steps.set(steps);
+		return this;
+	}
+
+	/**
+	 * @return number of steps evaluation is still allowed to make (less than 0 if budget is exhausted)
+	 */
+	public long getRemainingSteps() {
+		return this.steps.get();
+	}
+
+	/**
+	 * Sets time evaluation must finish by.
+	 * @param deadline - milliseconds since epoch
+	 * @throws IllegalStateException if context is in use
+	 */
+	public EvaluationContext setDeadline(long deadline) {
+		limit();
+		this.deadline = deadline;
+		return this;
+	}
+
+	/**
+	 * Sets deadline in the given number of milliseconds from now.
+	 * @throws IllegalStateException if context is in use
+	 */
+	public EvaluationContext setTimeout(long timeout) {
+		return setDeadline(System.currentTimeMillis() + timeout);
+	}
+
+	/**
+	 * Sets cancellation token, evaluation is aborted once token gives true
+	 * (e.g. <i>future::isCancelled</i> or <i>flag::get</i> of <i>AtomicBoolean</i>).
+	 * @throws IllegalStateException if context is in use
+	 */
+	public EvaluationContext setCancellation(BooleanSupplier cancellation) {
+		limit();
+		this.cancellation = cancellation;
+		return this;
+	}
+
+	private void limit() {
+		if (this.users.get() != 0)
+			throw new IllegalStateException("limits are not changed while context is in use");
+		this.limited = true;
+	}
+
+	/**
+	 * Counts a step of evaluation.
+	 * @param element - element evaluated
+	 * @throws EvaluationAbortedException if evaluation exceeds limits
+	 */
+	void consume(NotationElement element) throws EvaluationAbortedException {
+		long remaining = this.steps.decrementAndGet();
+		if (remaining < 0)
+			throw new EvaluationAbortedException(EvaluationAbortedException.BUDGET, element);
+		BooleanSupplier cancellation = this.cancellation;
+		if ((cancellation != null) && cancellation.getAsBoolean())
+			throw new EvaluationAbortedException(EvaluationAbortedException.CANCELLED, element);
+		if ((this.deadline != 0) && (System.currentTimeMillis() >= this.deadline))
+			throw new EvaluationAbortedException(EvaluationAbortedException.DEADLINE, element);
+	}
+
+	/**
+	 * Counts a step of evaluation of the current thread if its context has limits.
+	 * @param element - element evaluated
+	 * @throws EvaluationAbortedException if evaluation exceeds limits
+	 */
+	static void step(NotationElement element) throws EvaluationAbortedException {
+		if (LIMITED.get() == 0)
+			return;
+		EvaluationContext context = CURRENT.get();
+		if ((context != null) && context.limited)
+			context.consume(element);
+	}
+
+	/**
+	 * @return context of the current thread if it has limits or null
+	 */
+	static EvaluationContext limited() {
+		if (LIMITED.get() == 0)
+			return null;
+		EvaluationContext context = CURRENT.get();
+		return (context != null) && context.limited ? context : null;
+	}
+
+	//============= current context =============
+
+	/**
+	 * @return context of evaluation the current thread takes part in or null
+	 */
+	public static EvaluationContext current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * @return time of the current evaluation or the current time if there is no evaluation context
+	 */
+	static long currentTime() {
+		EvaluationContext context = CURRENT.get();
+		return context != null ? context.time : System.currentTimeMillis();
+	}
+
+	/**
+	 * Joins context on the current thread.
+	 * @return context which was in use (e.g. expression computed from inside of a library call)
+	 */
+	static EvaluationContext begin(EvaluationContext context) {
+		EvaluationContext previous = CURRENT.get();
+		if (context != null) {
+			context.users.incrementAndGet();
+			if (context.limited)
+				LIMITED.incrementAndGet();
+		}
+		CURRENT.set(context);
+		return previous;
+	}
+
+	/**
+	 * Leaves context.
+	 * @param previous - value returned by {@link #begin(EvaluationContext)}
+	 */
+	static void end(EvaluationContext previous) {
+		EvaluationContext context = CURRENT.get();
+		if (context != null) {
+			if (context.limited)
+				LIMITED.decrementAndGet();
+			context.users.decrementAndGet();
+		}
+		if (previous != null)
+			CURRENT.set(previous);
+		else
+			CURRENT.remove();
+	}
+
+}
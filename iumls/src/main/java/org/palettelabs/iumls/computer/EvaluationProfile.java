@@ -0,0 +1,282 @@
+package org.palettelabs.iumls.computer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.palettelabs.iumls.parser.Expression;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Profile of computations exported by one run of application and loaded by the next one
+ * (see {@link Computer#exportProfile(java.io.OutputStream)} and {@link Computer#loadProfile(java.io.InputStream, java.util.Collection)}).
+ * <br>
+ * Profile is a text file, a line per entry, fields are separated by tabs:
+ * <ul>
+ * 	<li><i>E invocations sites source</i> - expression computed <i>invocations</i> times, <i>sites</i> are combinations
+ * 		of argument types seen by its call sites (see {@link CallSite}) in tree order, sites are separated by ';',
+ * 		combinations of a site by ','; <i>source</i> is the expression text made out of its elements;</li>
+ * 	<li><i>M invocations library kind name</i> - library member and number of computations of expressions calling it.</li>
+ * </ul>
+ * Expressions are matched by source, so the same expression text anywhere in documents shares the entry.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class EvaluationProfile {
+
+	static final String HEADER = "iumls-profile 1";
+
+	final Map<String, ExpressionEntry> expressions = new LinkedHashMap<String, ExpressionEntry>();
+	final Map<String, MemberEntry> members = new LinkedHashMap<String, MemberEntry>();
+
+	static final class ExpressionEntry {
+
+		final String source;
+		long invocations;
+		// type keys by call site
+		long[][] sites;
+
+		ExpressionEntry(String source, long invocations, long[][] sites) {
+			this.source = source;
+			this.invocations = invocations;
+			this.sites = sites;
+		}
+
+	}
+
+	static final class MemberEntry {
+
+		final String libraryName;
+		final int kind;
+		final String name;
+		long invocations;
+
+		MemberEntry(String libraryName, int kind, String name, long invocations) {
+			this.libraryName = libraryName;
+			this.kind = kind;
+			this.name = name;
+			this.invocations = invocations;
+		}
+
+	}
+
+	//============= collecting =============
+
+	/**
+	 * Adds computations of expression linked into tree.
+	 */
+	void add(Expression expression, Node root, long invocations) {
+		String source = source(expression);
+		ExpressionEntry entry = this.expressions.get(source);
+		if (entry == null) {
+			List<CallSite> sites = new ArrayList<CallSite>();
+			sites(root, sites);
+			long[][] keys = new long[sites.size()][];
+			for (int t = 0; t < keys.length; t++) {
+				keys[t] = sites.get(t) != null ? sites.get(t).getKeys() : new long[0];
+			}
+			this.expressions.put(source, new ExpressionEntry(source, invocations, keys));
+		} else {
+			entry.invocations += invocations;
+		}
+		members(root, invocations);
+	}
+
+	private void members(Node node, long invocations) {
+		if (node instanceof VariableNode) {
+			VariableNode variable = (VariableNode) node;
+			member(variable.getLibraryName(), variable.getMember(), invocations);
+		} else if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			member(operator.getLibraryName(), operator.getMember(), invocations);
+			members(operator.getLeft(), invocations);
+			members(operator.getRight(), invocations);
+		} else if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			member(function.getLibraryName(), function.getMember(), invocations);
+			for (Node argument : function.getArguments()) {
+				members(argument, invocations);
+			}
+		} else if (node instanceof ConditionalNode) {
+			for (Node operand : ((ConditionalNode) node).getOperands()) {
+				members(operand, invocations);
+			}
+		}
+	}
+
+	private void member(String libraryName, LibraryMember member, long invocations) {
+		if ((member == null) || member.isTrap())
+			return;
+		String key = libraryName + "\t" + member.getKind() + "\t" + member.getName();
+		MemberEntry entry = this.members.get(key);
+		if (entry == null)
+			this.members.put(key, new MemberEntry(libraryName, member.getKind(), member.getName(), invocations));
+		else
+			entry.invocations += invocations;
+	}
+
+	/**
+	 * Collects call sites of tree in order of evaluation.
+	 */
+	static void sites(Node node, List<CallSite> sites) {
+		if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			sites(operator.getLeft(), sites);
+			sites(operator.getRight(), sites);
+			sites.add(operator.getSite());
+		} else if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			for (Node argument : function.getArguments()) {
+				sites(argument, sites);
+			}
+			sites.add(function.getSite());
+		} else if (node instanceof ConditionalNode) {
+			for (Node operand : ((ConditionalNode) node).getOperands()) {
+				sites(operand, sites);
+			}
+		}
+	}
+
+	/**
+	 * Seeds call sites of tree with combinations of types seen by the previous run.
+	 */
+	static void seed(Node root, long[][] keys) {
+		List<CallSite> sites = new ArrayList<CallSite>();
+		sites(root, sites);
+		// tree differs from the profiled one (e.g. libraries are changed)
+		if (sites.size() != keys.length)
+			return;
+		for (int t = 0; t < keys.length; t++) {
+			if (sites.get(t) == null)
+				continue;
+			for (long key : keys[t]) {
+				sites.get(t).seed(key);
+			}
+		}
+	}
+
+	//============= text =============
+
+	void write(Writer writer) throws IOException {
+		List<ExpressionEntry> expressions = new ArrayList<ExpressionEntry>(this.expressions.values());
+		// hottest first
+		Collections.sort(expressions, new Comparator<ExpressionEntry>() {
+			@Override
+			public int compare(ExpressionEntry e1, ExpressionEntry e2) {
+				return Long.compare(e2.invocations, e1.invocations);
+			}
+		});
+		writer.write(HEADER);
+		writer.write('\n');
+		for (ExpressionEntry entry : expressions) {
+			StringBuilder sites = new StringBuilder();
+			for (int t = 0; t < entry.sites.length; t++) {
+				if (t > 0)
+					sites.append(';');
+				for (int f = 0; f < entry.sites[t].length; f++) {
+					if (f > 0)
+						sites.append(',');
+					sites.append(Long.toHexString(entry.sites[t][f]));
+				}
+			}
+			writer.write("E\t" + entry.invocations + "\t" + sites + "\t" + entry.source + "\n");
+		}
+		for (MemberEntry entry : this.members.values()) {
+			writer.write("M\t" + entry.invocations + "\t" + entry.libraryName + "\t" + entry.kind + "\t" + entry.name + "\n");
+		}
+		writer.flush();
+	}
+
+	static EvaluationProfile read(Reader reader) throws IOException {
+		BufferedReader lines = new BufferedReader(reader);
+		String line = lines.readLine();
+		if (!HEADER.equals(line))
+			throw new IOException("not a profile of computations");
+		EvaluationProfile profile = new EvaluationProfile();
+		while ((line = lines.readLine()) != null) {
+			try {
+				if (line.startsWith("E\t")) {
+					String[] fields = line.split("\t", 4);
+					String[] sites = fields[2].split(";", -1);
+					long[][] keys = new long[fields[2].isEmpty() ? 0 : sites.length][];
+					for (int t = 0; t < keys.length; t++) {
+						String[] combinations = sites[t].isEmpty() ? new String[0] : sites[t].split(",");
+						keys[t] = new long[combinations.length];
+						for (int f = 0; f < combinations.length; f++) {
+							keys[t][f] = Long.parseUnsignedLong(combinations[f], 16);
+						}
+					}
+					profile.expressions.put(fields[3], new ExpressionEntry(fields[3], Long.parseLong(fields[1]), keys));
+				} else if (line.startsWith("M\t")) {
+					String[] fields = line.split("\t", 5);
+					profile.members.put(fields[2] + "\t" + fields[3] + "\t" + fields[4],
+							new MemberEntry(fields[2], Integer.parseInt(fields[3]), fields[4], Long.parseLong(fields[1])));
+				}
+			} catch (RuntimeException e) {
+				// malformed line (e.g. edited by hand) is skipped, profile is a hint only
+			}
+		}
+		return profile;
+	}
+
+	/**
+	 * @return text of expression made out of its elements, it's the same for expressions parsed out of the same text
+	 */
+	static String source(Expression expression) {
+		StringBuilder source = new StringBuilder();
+		source(expression.getBaseElement(), source);
+		return source.toString();
+	}
+
+	private static void source(ExpressionElement element, StringBuilder source) {
+		for (ExpressionElement e : element.getElements()) {
+			if (source.length() > 0)
+				source.append(' ');
+			if (e.getType() == ExpressionElement.STRING) {
+				source.append('"');
+				for (char c : e.getData().toCharArray()) {
+					switch (c) {
+						case '"':
+						case '\\':
+							source.append('\\').append(c);
+							break;
+						case '\t':
+							source.append("\\t");
+							break;
+						case '\n':
+							source.append("\\n");
+							break;
+						case '\r':
+							source.append("\\r");
+							break;
+						default:
+							source.append(c);
+					}
+				}
+				source.append('"');
+			} else if (e.getType() == ExpressionElement.FUNCTION) {
+				source.append(e.getData()).append('(');
+				StringBuilder arguments = new StringBuilder();
+				for (ExpressionElement argument : e.getElements()) {
+					StringBuilder text = new StringBuilder();
+					source(argument, text);
+					if (arguments.length() > 0)
+						arguments.append(", ");
+					arguments.append(text);
+				}
+				source.append(arguments).append(')');
+			} else {
+				source.append(e.getData());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Expression compiled into JVM bytecode (see {@link BytecodeCompiler}).
+ *
+ * @author Nikolay Antipov
+ *
+ */
+interface Executable {
+
+	/**
+	 * Executes expression.
+	 * @param step - the only cell array (one per thread), generated code puts there an index of node
+	 * 	which is being evaluated, so the failed node could be reported in case of exception
+	 * @return result of expression
+	 * @throws Exception any exception of library members
+	 */
+	VariableValue execute(int[] step) throws Exception;
+
+}
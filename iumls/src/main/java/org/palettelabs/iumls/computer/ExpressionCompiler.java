@@ -0,0 +1,237 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+import org.palettelabs.iumls.utils.NumberConverter;
+
+/**
+ * Translates parser elements into a tree of {@link Node}s.
+ * <br>
+ * Infix order is translated with the shunting-yard algorithm (initially designed by Edsger Dijkstra),
+ * operator priorities and libraries are taken from the {@link Computer} at the moment of compilation.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class ExpressionCompiler {
+
+	private final Computer computer;
+	// graph of section the expression belongs to and index of expression there, null for a standalone expression
+	private final SectionGraph graph;
+	private final int expression;
+	// identifiers of parameters of prepared expression (free identifiers are added) and kinds of their values, null otherwise
+	private final List<String> parameters;
+	private final int[] kinds;
+
+	ExpressionCompiler(Computer computer) {
+		this(computer, null, -1);
+	}
+
+	ExpressionCompiler(Computer computer, SectionGraph graph, int expression) {
+		this.computer = computer;
+		this.graph = graph;
+		this.expression = expression;
+		this.parameters = null;
+		this.kinds = null;
+	}
+
+	/**
+	 * Compiler of prepared expression (see {@link PreparedExpression}).
+	 * @param parameters - identifiers of parameters, free identifiers are added there
+	 * @param kinds - kinds of bound values by index of parameter, null if they are not known yet
+	 */
+	ExpressionCompiler(Computer computer, List<String> parameters, int[] kinds) {
+		this.computer = computer;
+		this.graph = null;
+		this.expression = -1;
+		this.parameters = parameters;
+		this.kinds = kinds;
+	}
+
+	Node compile(ExpressionElement element) throws IumlsException {
+
+		// translate to RPN
+		Deque<ExpressionElement> stack = new ArrayDeque<ExpressionElement>();
+		List<ExpressionElement> output = new ArrayList<ExpressionElement>();
+		for (ExpressionElement e : element.getElements()) {
+			switch (e.getType()) {
+				case ExpressionElement.NUMBER:
+				case ExpressionElement.FUNCTION:
+				case ExpressionElement.GENERIC_NODE:
+				case ExpressionElement.IDENTIFIER:
+				case ExpressionElement.STRING:
+					output.add(e);
+					break;
+				case ExpressionElement.OPERATOR:
+					int priority = this.computer.getOperatorPriority(e.getData());
+					while (!stack.isEmpty() && (stack.peek().getType() == ExpressionElement.OPERATOR)
+							&& (priority <= this.computer.getOperatorPriority(stack.peek().getData()))) {
+						output.add(stack.pop());
+					}
+					stack.push(e);
+					break;
+				case ExpressionElement.SYMBOL:
+					if (e.getData().equals("("))
+						stack.push(e);
+					else if (e.getData().equals(")")) {
+						while (!stack.isEmpty() && !isOpeningParenthesis(stack.peek())) {
+							output.add(stack.pop());
+						}
+						if (!stack.isEmpty()) {
+							stack.pop();
+						}
+					} else {
+						output.add(e);
+					}
+					break;
+			}
+		}
+		while (!stack.isEmpty()) {
+			output.add(stack.pop());
+		}
+
+		// build tree out of RPN
+		// members which are not found are left unlinked, nodes report them on evaluation
+		Deque<Node> nodes = new ArrayDeque<Node>();
+		for (ExpressionElement e : output) {
+			switch (e.getType()) {
+				case ExpressionElement.OPERATOR:
+					if (nodes.size() < 2)
+						throw new IumlsException("malformed expression, missing operand for an operator '" + e.getData() + "'", e);
+					Node right = nodes.pop();
+					Node left = nodes.pop();
+					String libraryName = this.computer.getOperatorLibraryName(e.getData());
+					LibraryMember operator = this.computer.findOperator(libraryName, e.getData());
+					int conditional = conditionalKind(libraryName, operator, 2);
+					if (conditional != -1)
+						nodes.push(new ConditionalNode(e, conditional, libraryName, new Node[] {left, right}));
+					else
+						nodes.push(new OperatorNode(e, libraryName, operator, left, right));
+					break;
+				case ExpressionElement.NUMBER:
+					try {
+						nodes.push(new ConstantNode(e, new VariableValue(NumberConverter.toDouble(e.getData()))));
+					} catch (NumberFormatException exc) {
+						throw new IumlsException("malformed number '" + e.getData() + "'", exc, e);
+					}
+					break;
+				case ExpressionElement.STRING:
+					nodes.push(new ConstantNode(e, new VariableValue(e.getData())));
+					break;
+				case ExpressionElement.IDENTIFIER:
+					int target = this.graph != null ? this.graph.resolve(this.expression, e.getData()) : -1;
+					if (target > -1) {
+						nodes.push(new ReferenceNode(e, target));
+						break;
+					}
+					LibraryMember variable = this.computer.findVariable(getLibraryName(e.getData()), getMemberName(e.getData()));
+					int slot = parameterSlot(e.getData(), variable);
+					if (slot > -1) {
+						nodes.push(new ParameterNode(e, slot, this.kinds != null ? this.kinds[slot] : StackMachine.KIND_VALUE));
+						break;
+					}
+					nodes.push(new VariableNode(e, getLibraryName(e.getData()), getMemberName(e.getData()), variable));
+					break;
+				case ExpressionElement.FUNCTION:
+					// function might has an empty argument, it's a known parser behavioral,
+					// so empty arguments are skipped
+					List<Node> arguments = new ArrayList<Node>(e.getElements().size());
+					for (ExpressionElement argumentElement : e.getElements()) {
+						if (!argumentElement.getElements().isEmpty())
+							arguments.add(compile(argumentElement));
+					}
+					LibraryMember method = this.computer.findMethod(getLibraryName(e.getData()), getMemberName(e.getData()), arguments.size());
+					int kind = conditionalKind(getLibraryName(e.getData()), method, arguments.size());
+					if (kind != -1)
+						nodes.push(new ConditionalNode(e, kind, getLibraryName(e.getData()), arguments.toArray(new Node[arguments.size()])));
+					else
+						nodes.push(new FunctionNode(e, getLibraryName(e.getData()), getMemberName(e.getData()), method,
+								arguments.toArray(new Node[arguments.size()])));
+					break;
+				default:
+					break;
+			}
+		}
+
+		if (nodes.isEmpty())
+			throw new IumlsException("malformed expression, nothing to compute", element);
+
+		return nodes.pop();
+	}
+
+	/**
+	 * Parameters of prepared expression stay parameters, other identifiers become parameters
+	 * if they are not resolved or are served by a default handler.
+	 * @return index of parameter or -1 if identifier is a variable
+	 */
+	private int parameterSlot(String identifier, LibraryMember variable) {
+		if (this.parameters == null)
+			return -1;
+		int slot = this.parameters.indexOf(identifier);
+		if ((slot == -1) && ((variable == null) || variable.isTrap())) {
+			this.parameters.add(identifier);
+			slot = this.parameters.size() - 1;
+		}
+		if ((this.kinds != null) && (slot >= this.kinds.length))
+			// not a parameter on preparation, reported by prepared expression
+			return -1;
+		return slot;
+	}
+
+	/**
+	 * Lazy forms replace members of {@link SystemLibrary} unless they are overridden by its subclass.
+	 * @return kind of lazy form (see {@link ConditionalNode}) or -1 if member is called as usual
+	 */
+	private int conditionalKind(String libraryName, LibraryMember member, int arity) {
+		if ((member == null) || member.isTrap())
+			return -1;
+		Library library = this.computer.getLibrary(libraryName);
+		if (!(library instanceof SystemLibrary))
+			return -1;
+		try {
+			if (member.getKind() == LibraryMember.OPERATOR) {
+				if (member.getName().equals("&&") && isDeclared(library, "operatorAnd", boolean.class, boolean.class))
+					return ConditionalNode.AND;
+				if (member.getName().equals("||") && isDeclared(library, "operatorOr", boolean.class, boolean.class))
+					return ConditionalNode.OR;
+			} else if (member.getKind() == LibraryMember.METHOD) {
+				if (member.getName().equals("if") && (arity == 3)
+						&& isDeclared(library, "__if", boolean.class, VariableValue.class, VariableValue.class))
+					return ConditionalNode.IF;
+				if (member.getName().equals("coalesce") && (arity > 0) && isDeclared(library, "coalesce", VariableValue[].class))
+					return ConditionalNode.COALESCE;
+			}
+		} catch (NoSuchMethodException e) {
+			// not there anymore
+		}
+		return -1;
+	}
+
+	static boolean isDeclared(Library library, String methodName, Class<?>... parameters) throws NoSuchMethodException {
+		return library.getClass().getMethod(methodName, parameters).getDeclaringClass() == SystemLibrary.class;
+	}
+
+	private boolean isOpeningParenthesis(ExpressionElement e) {
+		return (e.getType() == ExpressionElement.SYMBOL) && e.getData().equals("(");
+	}
+
+	/**
+	 * Library name is a prefix of identifier, 'system' is used if no prefix presents.
+	 */
+	static String getLibraryName(String identifier) {
+		int dot = identifier.indexOf('.');
+		return dot > -1 ? identifier.substring(0, dot) : "system";
+	}
+
+	static String getMemberName(String identifier) {
+		int dot = identifier.indexOf('.');
+		return dot > -1 ? identifier.substring(dot + 1) : identifier;
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.Expression;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Types of {@link Expression} inferred before computation (see {@link Computer#inferTypes(Expression)})
+ * and type errors found on the way.
+ * <br>
+ * Type of element (literal, identifier, operator or function) is inferred from:
+ * <ul>
+ * 	<li>literals and values of {@link Pure} members with constant arguments (they are evaluated once);</li>
+ * 	<li>primitive forms of members (see {@link LibraryMember#getFunction()}) if arguments are numbers or booleans;</li>
+ * 	<li>types declared by members (see {@link Returns});</li>
+ * 	<li>lazy forms (<i>&amp;&amp;</i>, <i>||</i>, <i>if</i>, <i>coalesce</i>) and the types of their operands.</li>
+ * </ul>
+ * Type of element which could not be inferred is {@link #UNKNOWN}.
+ * <br>
+ * Errors are members which could not be resolved, pure members failing on constant arguments and
+ * arguments which are not numbers passed to methods taking numbers. Each error points to its element.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class ExpressionTypes {
+
+	public static final int UNKNOWN = -1;
+	public static final int NUMBER = 0;
+	public static final int STRING = 1;
+	public static final int BOOLEAN = 2;
+	public static final int DATE = 3;
+	public static final int BUFFER = 4;
+
+	private final int resultType;
+	private final Map<ExpressionElement, Integer> types;
+	private final List<IumlsException> errors;
+
+	ExpressionTypes(int resultType, Map<ExpressionElement, Integer> types, List<IumlsException> errors) {
+		this.resultType = resultType;
+		this.types = types;
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * @return type of value of expression
+	 */
+	public int getResultType() {
+		return this.resultType;
+	}
+
+	/**
+	 * @param element - element of expression
+	 * @return type of element value or {@link #UNKNOWN}
+	 */
+	public int getType(ExpressionElement element) {
+		Integer type = this.types.get(element);
+		return type != null ? type : UNKNOWN;
+	}
+
+	/**
+	 * @return type errors in order of elements
+	 */
+	public List<IumlsException> getErrors() {
+		return this.errors;
+	}
+
+	/**
+	 * @throws IumlsException throws the first type error if any
+	 */
+	public void check() throws IumlsException {
+		if (!this.errors.isEmpty())
+			throw this.errors.get(0);
+	}
+
+	/**
+	 * @return type of value
+	 */
+	static int of(VariableValue value) {
+		if ((value == null) || value.isNull())
+			return UNKNOWN;
+		switch (value.getType()) {
+			case VariableValue.TCP_TYPE_INTEGER:
+			case VariableValue.TCP_TYPE_LONG:
+			case VariableValue.TCP_TYPE_DOUBLE:
+				return NUMBER;
+			case VariableValue.TCP_TYPE_BOOLEAN:
+				return BOOLEAN;
+			case VariableValue.TCP_TYPE_DATE:
+				return DATE;
+			case VariableValue.TCP_TYPE_BUFFER:
+				return BUFFER;
+			default:
+				return STRING;
+		}
+	}
+
+	/**
+	 * @return type name for messages, e.g. "a string"
+	 */
+	static String describe(int type) {
+		switch (type) {
+			case NUMBER:
+				return "a number";
+			case STRING:
+				return "a string";
+			case BOOLEAN:
+				return "a boolean";
+			case DATE:
+				return "a date";
+			case BUFFER:
+				return "a buffer";
+			default:
+				return "a value";
+		}
+	}
+
+}
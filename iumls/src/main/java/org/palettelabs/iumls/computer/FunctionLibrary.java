@@ -0,0 +1,54 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Library built by {@link LibraryBuilder}.
+ * <br>
+ * It is its own {@link LibraryDispatcher}, so 'Computer' calls registered functions directly,
+ * nothing is scanned with reflection. Library is immutable once it is built.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class FunctionLibrary implements Library, LibraryDispatcher {
+
+	// name -> arity -> member
+	private final Map<String, Map<Integer, LibraryMember>> methods;
+	// name -> vararg member
+	private final Map<String, LibraryMember> varargMethods;
+	private final Map<String, LibraryMember> variables;
+	private final Map<String, LibraryMember> operators;
+
+	FunctionLibrary(Map<String, Map<Integer, LibraryMember>> methods, Map<String, LibraryMember> varargMethods,
+			Map<String, LibraryMember> variables, Map<String, LibraryMember> operators) {
+		this.methods = new HashMap<String, Map<Integer, LibraryMember>>();
+		for (Map.Entry<String, Map<Integer, LibraryMember>> entry : methods.entrySet()) {
+			this.methods.put(entry.getKey(), new HashMap<Integer, LibraryMember>(entry.getValue()));
+		}
+		this.varargMethods = new HashMap<String, LibraryMember>(varargMethods);
+		this.variables = new HashMap<String, LibraryMember>(variables);
+		this.operators = new HashMap<String, LibraryMember>(operators);
+	}
+
+	@Override
+	public LibraryMember getMethod(String name, int arity) {
+		Map<Integer, LibraryMember> arities = this.methods.get(name);
+		LibraryMember member = arities != null ? arities.get(arity) : null;
+		if (member != null)
+			return member;
+		return this.varargMethods.get(name);
+	}
+
+	@Override
+	public LibraryMember getVariable(String name) {
+		return this.variables.get(name);
+	}
+
+	@Override
+	public LibraryMember getOperator(String operatorString) {
+		return this.operators.get(operatorString);
+	}
+
+}
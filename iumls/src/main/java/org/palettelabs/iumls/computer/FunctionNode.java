@@ -0,0 +1,78 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Library method call, e.g. <i>math.abs(-10.5)</i>.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class FunctionNode extends Node {
+
+	private final String libraryName;
+	private final String methodName;
+	private final Node[] arguments;
+	private final LibraryMember member;
+	// null if member is not resolved
+	private final CallSite site;
+
+	/**
+	 * @param member - resolved method or null if it could not be resolved on compilation
+	 */
+	FunctionNode(ExpressionElement element, String libraryName, String methodName, LibraryMember member, Node[] arguments) {
+		super(element);
+		this.libraryName = libraryName;
+		this.methodName = methodName;
+		this.member = member;
+		this.site = member != null ? new CallSite(member, arguments.length) : null;
+		this.arguments = arguments;
+	}
+
+	String getLibraryName() {
+		return this.libraryName;
+	}
+
+	String getMethodName() {
+		return this.methodName;
+	}
+
+	LibraryMember getMember() {
+		return this.member;
+	}
+
+	/**
+	 * @return inline cache of the call or null if member is not resolved
+	 */
+	CallSite getSite() {
+		return this.site;
+	}
+
+	Node[] getArguments() {
+		return this.arguments;
+	}
+
+	@Override
+	VariableValue evaluate(Computer computer) throws IumlsException {
+		VariableValue[] args = new VariableValue[this.arguments.length];
+		for (int t = 0; t < this.arguments.length; t++) {
+			args[t] = this.arguments[t].evaluate(computer);
+		}
+		EvaluationContext.step(this.element);
+		try {
+			if (this.site != null)
+				return this.site.call(args);
+			return computer.resolveMethod(this.libraryName, this.methodName, args.length).getCall().call(args);
+		} catch (Exception e) {
+			throw error(e);
+		}
+	}
+
+	@Override
+	String describe() {
+		return "a function '" + this.element.getData() + "'";
+	}
+
+}
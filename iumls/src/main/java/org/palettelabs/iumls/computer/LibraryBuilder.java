@@ -0,0 +1,415 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Builds {@link Library} out of functions, no annotated class is needed.
+ * <br>
+ * Functions are typed by arity and by primitive parameter types, 'Computer' converts
+ * notation arguments right into parameters and calls function directly (no reflection,
+ * no argument arrays of objects). Parameter type is named by the registering method:
+ * <ul>
+ * 	<li>method/operator - {@link VariableValue} parameters;</li>
+ * 	<li>doubleMethod/doubleOperator, longMethod/longOperator, booleanMethod/booleanOperator,
+ * 		stringMethod/stringOperator - primitive (or string) parameters and result;</li>
+ * 	<li>comparisonMethod/comparisonOperator - double parameters, boolean result;</li>
+ * 	<li>varargMethod - any number of {@link VariableValue} parameters;</li>
+ * 	<li>asyncMethod/asyncVarargMethod - {@link VariableValue} parameters, result is a future.</li>
+ * </ul>
+ * <br>
+ * <b>Example 1</b>
+ * <pre>
+ * Library tenant = new LibraryBuilder()
+ *   .doubleMethod("abs", a -&gt; Math.abs(a))
+ *   .longMethod("max", (a, b) -&gt; Math.max(a, b))
+ *   .longOperator("%", (a, b) -&gt; a % b)
+ *   .variable("pi", new VariableValue(Math.PI))
+ *   .build();
+ * computer.addLibrary("tenant", tenant);
+ * </pre>
+ * <br>
+ * Constant variables are pure (see {@link Pure}), functions are marked pure with {@link #pure(boolean)}:
+ * <pre>
+ * new LibraryBuilder()
+ *   .pure(true)
+ *   .doubleMethod("sqrt", a -&gt; Math.sqrt(a))
+ *   .pure(false)
+ *   .method("random", () -&gt; new VariableValue(Math.random()))
+ * </pre>
+ * <br>
+ * Registering the same name (and arity for methods) again replaces the previous function.
+ * Builder could be reused, every {@link #build()} makes an independent library.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class LibraryBuilder {
+
+	//============= functions =============
+
+	public interface ValueFunction0 {
+		VariableValue apply() throws Exception;
+	}
+
+	public interface ValueFunction1 {
+		VariableValue apply(VariableValue a) throws Exception;
+	}
+
+	public interface ValueFunction2 {
+		VariableValue apply(VariableValue a, VariableValue b) throws Exception;
+	}
+
+	/**
+	 * Function of any number of arguments.
+	 */
+	public interface ValueFunctionN {
+		VariableValue apply(VariableValue[] arguments) throws Exception;
+	}
+
+	public interface DoubleFunction1 {
+		double apply(double a) throws Exception;
+	}
+
+	public interface DoubleFunction2 {
+		double apply(double a, double b) throws Exception;
+	}
+
+	public interface DoubleComparison {
+		boolean test(double a, double b) throws Exception;
+	}
+
+	public interface LongFunction1 {
+		long apply(long a) throws Exception;
+	}
+
+	public interface LongFunction2 {
+		long apply(long a, long b) throws Exception;
+	}
+
+	public interface BooleanFunction1 {
+		boolean apply(boolean a) throws Exception;
+	}
+
+	public interface BooleanFunction2 {
+		boolean apply(boolean a, boolean b) throws Exception;
+	}
+
+	public interface StringFunction1 {
+		String apply(String a) throws Exception;
+	}
+
+	public interface StringFunction2 {
+		String apply(String a, String b) throws Exception;
+	}
+
+	public interface AsyncFunction1 {
+		CompletableFuture<VariableValue> apply(VariableValue a) throws Exception;
+	}
+
+	public interface AsyncFunction2 {
+		CompletableFuture<VariableValue> apply(VariableValue a, VariableValue b) throws Exception;
+	}
+
+	/**
+	 * Asynchronous function of any number of arguments.
+	 */
+	public interface AsyncFunctionN {
+		CompletableFuture<VariableValue> apply(VariableValue[] arguments) throws Exception;
+	}
+
+	private Map<String, Map<Integer, LibraryMember>> methods = new HashMap<String, Map<Integer, LibraryMember>>();
+	private Map<String, LibraryMember> varargMethods = new HashMap<String, LibraryMember>();
+	private Map<String, LibraryMember> variables = new HashMap<String, LibraryMember>();
+	private Map<String, LibraryMember> operators = new HashMap<String, LibraryMember>();
+
+	private boolean pure = false;
+
+	/**
+	 * @return new library with all functions registered so far
+	 */
+	public Library build() {
+		return new FunctionLibrary(this.methods, this.varargMethods, this.variables, this.operators);
+	}
+
+	/**
+	 * Marks functions registered after this call as pure or not (see {@link Pure}).
+	 * @param pure - true if result of functions depends on their arguments only and calls change nothing
+	 */
+	public LibraryBuilder pure(boolean pure) {
+		this.pure = pure;
+		return this;
+	}
+
+	//============= variables =============
+
+	/**
+	 * Registers constant variable.
+	 */
+	public LibraryBuilder variable(String name, final VariableValue value) {
+		this.variables.put(name, new LibraryMember(LibraryMember.VARIABLE, name, false, new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return value;
+			}
+		}, null, true));
+		return this;
+	}
+
+	/**
+	 * Registers variable which value is computed on each evaluation.
+	 */
+	public LibraryBuilder variable(String name, final ValueFunction0 function) {
+		return variable(name, new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return function.apply();
+			}
+		});
+	}
+
+	private LibraryBuilder variable(String name, LibraryCall call) {
+		this.variables.put(name, new LibraryMember(LibraryMember.VARIABLE, name, false, call, null, this.pure));
+		return this;
+	}
+
+	//============= methods =============
+
+	public LibraryBuilder method(String name, final ValueFunction0 function) {
+		return method(name, 0, new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return function.apply();
+			}
+		});
+	}
+
+	public LibraryBuilder method(String name, ValueFunction1 function) {
+		return method(name, 1, callValue1(function));
+	}
+
+	public LibraryBuilder method(String name, ValueFunction2 function) {
+		return method(name, 2, callValue2(function));
+	}
+
+	/**
+	 * Registers method of any number of arguments, it is used if no method of exact arity is registered.
+	 */
+	public LibraryBuilder varargMethod(String name, final ValueFunctionN function) {
+		this.varargMethods.put(name, new LibraryMember(LibraryMember.METHOD, name, false, new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return function.apply(arguments);
+			}
+		}, null, this.pure));
+		return this;
+	}
+
+	public LibraryBuilder doubleMethod(String name, final DoubleFunction1 function) {
+		return method(name, 1, new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return new VariableValue(function.apply(arguments[0].asDouble()));
+			}
+		}, function);
+	}
+
+	public LibraryBuilder doubleMethod(String name, DoubleFunction2 function) {
+		return method(name, 2, callDouble2(function), function);
+	}
+
+	public LibraryBuilder comparisonMethod(String name, DoubleComparison function) {
+		return method(name, 2, callComparison(function), function);
+	}
+
+	public LibraryBuilder longMethod(String name, final LongFunction1 function) {
+		return method(name, 1, new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return new VariableValue(function.apply(arguments[0].asLong()));
+			}
+		}, function);
+	}
+
+	public LibraryBuilder longMethod(String name, LongFunction2 function) {
+		return method(name, 2, callLong2(function), function);
+	}
+
+	public LibraryBuilder booleanMethod(String name, final BooleanFunction1 function) {
+		return method(name, 1, new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return new VariableValue(function.apply(arguments[0].asBoolean()));
+			}
+		}, function);
+	}
+
+	public LibraryBuilder booleanMethod(String name, BooleanFunction2 function) {
+		return method(name, 2, callBoolean2(function), function);
+	}
+
+	public LibraryBuilder stringMethod(String name, final StringFunction1 function) {
+		return method(name, 1, new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return new VariableValue(function.apply(arguments[0].asString()));
+			}
+		});
+	}
+
+	public LibraryBuilder stringMethod(String name, StringFunction2 function) {
+		return method(name, 2, callString2(function));
+	}
+
+	/**
+	 * Registers method returning future (see {@link AsyncLibraryCall}), e.g. one doing I/O.
+	 */
+	public LibraryBuilder asyncMethod(String name, final AsyncFunction1 function) {
+		return method(name, 1, new AsyncLibraryCall() {
+			@Override
+			public CompletableFuture<VariableValue> callAsync(VariableValue[] arguments) throws Exception {
+				return function.apply(arguments[0]);
+			}
+		});
+	}
+
+	public LibraryBuilder asyncMethod(String name, final AsyncFunction2 function) {
+		return method(name, 2, new AsyncLibraryCall() {
+			@Override
+			public CompletableFuture<VariableValue> callAsync(VariableValue[] arguments) throws Exception {
+				return function.apply(arguments[0], arguments[1]);
+			}
+		});
+	}
+
+	/**
+	 * Registers method returning future of any number of arguments, it is used if no method of exact arity is registered.
+	 */
+	public LibraryBuilder asyncVarargMethod(String name, final AsyncFunctionN function) {
+		this.varargMethods.put(name, new LibraryMember(LibraryMember.METHOD, name, false, new AsyncLibraryCall() {
+			@Override
+			public CompletableFuture<VariableValue> callAsync(VariableValue[] arguments) throws Exception {
+				return function.apply(arguments);
+			}
+		}, null, this.pure));
+		return this;
+	}
+
+	private LibraryBuilder method(String name, int arity, LibraryCall call) {
+		return method(name, arity, call, null);
+	}
+
+	private LibraryBuilder method(String name, int arity, LibraryCall call, Object function) {
+		Map<Integer, LibraryMember> arities = this.methods.get(name);
+		if (arities == null) {
+			arities = new HashMap<Integer, LibraryMember>();
+			this.methods.put(name, arities);
+		}
+		arities.put(arity, new LibraryMember(LibraryMember.METHOD, name, false, call, function, this.pure));
+		return this;
+	}
+
+	//============= operators =============
+
+	public LibraryBuilder operator(String operatorString, ValueFunction2 function) {
+		return operator(operatorString, callValue2(function));
+	}
+
+	public LibraryBuilder doubleOperator(String operatorString, DoubleFunction2 function) {
+		return operator(operatorString, callDouble2(function), function);
+	}
+
+	public LibraryBuilder comparisonOperator(String operatorString, DoubleComparison function) {
+		return operator(operatorString, callComparison(function), function);
+	}
+
+	public LibraryBuilder longOperator(String operatorString, LongFunction2 function) {
+		return operator(operatorString, callLong2(function), function);
+	}
+
+	public LibraryBuilder booleanOperator(String operatorString, BooleanFunction2 function) {
+		return operator(operatorString, callBoolean2(function), function);
+	}
+
+	public LibraryBuilder stringOperator(String operatorString, StringFunction2 function) {
+		return operator(operatorString, callString2(function));
+	}
+
+	private LibraryBuilder operator(String operatorString, LibraryCall call) {
+		return operator(operatorString, call, null);
+	}
+
+	private LibraryBuilder operator(String operatorString, LibraryCall call, Object function) {
+		this.operators.put(operatorString, new LibraryMember(LibraryMember.OPERATOR, operatorString, false, call, function, this.pure));
+		return this;
+	}
+
+	//============= calls =============
+
+	private static LibraryCall callValue1(final ValueFunction1 function) {
+		return new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return function.apply(arguments[0]);
+			}
+		};
+	}
+
+	private static LibraryCall callValue2(final ValueFunction2 function) {
+		return new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return function.apply(arguments[0], arguments[1]);
+			}
+		};
+	}
+
+	private static LibraryCall callDouble2(final DoubleFunction2 function) {
+		return new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return new VariableValue(function.apply(arguments[0].asDouble(), arguments[1].asDouble()));
+			}
+		};
+	}
+
+	private static LibraryCall callComparison(final DoubleComparison function) {
+		return new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return new VariableValue(function.test(arguments[0].asDouble(), arguments[1].asDouble()));
+			}
+		};
+	}
+
+	private static LibraryCall callLong2(final LongFunction2 function) {
+		return new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return new VariableValue(function.apply(arguments[0].asLong(), arguments[1].asLong()));
+			}
+		};
+	}
+
+	private static LibraryCall callBoolean2(final BooleanFunction2 function) {
+		return new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return new VariableValue(function.apply(arguments[0].asBoolean(), arguments[1].asBoolean()));
+			}
+		};
+	}
+
+	private static LibraryCall callString2(final StringFunction2 function) {
+		return new LibraryCall() {
+			@Override
+			public VariableValue call(VariableValue[] arguments) throws Exception {
+				return new VariableValue(function.apply(arguments[0].asString(), arguments[1].asString()));
+			}
+		};
+	}
+
+}
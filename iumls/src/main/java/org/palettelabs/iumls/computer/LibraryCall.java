@@ -0,0 +1,22 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Ready-to-call library member (method, variable or operator) with all argument conversions
+ * already applied, see {@link LibraryMember}.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public interface LibraryCall {
+
+	/**
+	 * Calls library member.
+	 * @param arguments - notation arguments (empty array for variables, two items for operators)
+	 * @return result of call
+	 * @throws Exception any exception thrown by library member
+	 */
+	VariableValue call(VariableValue[] arguments) throws Exception;
+
+}
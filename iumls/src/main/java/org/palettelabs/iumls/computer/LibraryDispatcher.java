@@ -0,0 +1,34 @@
+package org.palettelabs.iumls.computer;
+
+/**
+ * Resolves notation names into members of a particular {@link Library} instance.
+ * <br>
+ * Dispatcher is created once the library is registered ({@link Computer#addLibrary(String, Library)}),
+ * afterwards names are resolved while expressions are compiled, so evaluation only calls
+ * already resolved {@link LibraryMember}s.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public interface LibraryDispatcher {
+
+	/**
+	 * @param name - notation name of method
+	 * @param arity - number of arguments
+	 * @return method (or default method handler bound to the name) or null if nothing found
+	 */
+	LibraryMember getMethod(String name, int arity);
+
+	/**
+	 * @param name - notation name of variable
+	 * @return variable (or default variable handler bound to the name) or null if nothing found
+	 */
+	LibraryMember getVariable(String name);
+
+	/**
+	 * @param operatorString - operator as string
+	 * @return operator or null if nothing found
+	 */
+	LibraryMember getOperator(String operatorString);
+
+}
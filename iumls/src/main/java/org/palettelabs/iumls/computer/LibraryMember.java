@@ -0,0 +1,124 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.reflect.Member;
+
+/**
+ * Library method, variable or operator resolved by {@link LibraryDispatcher}.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class LibraryMember {
+
+	public static final int METHOD = 0;
+	public static final int VARIABLE = 1;
+	public static final int OPERATOR = 2;
+
+	private final int kind;
+	private final String name;
+	private final boolean trap;
+	private final LibraryCall call;
+	private final Object function;
+	private final boolean pure;
+
+	// java method/field behind the member if any and library instance it belongs to (used by bytecode backend)
+	private Member target;
+	private Library library;
+
+	/**
+	 * Creates member.
+	 * @param kind - {@link #METHOD}, {@link #VARIABLE} or {@link #OPERATOR}
+	 * @param name - notation name of member
+	 * @param trap - true if member is served by {@link DefaultMethodHandler} or {@link DefaultVariableHandler}
+	 * @param call - call of member
+	 */
+	public LibraryMember(int kind, String name, boolean trap, LibraryCall call) {
+		this(kind, name, trap, call, null);
+	}
+
+	/**
+	 * Creates member which has a primitive form.
+	 * @param kind - {@link #METHOD}, {@link #VARIABLE} or {@link #OPERATOR}
+	 * @param name - notation name of member
+	 * @param trap - true if member is served by {@link DefaultMethodHandler} or {@link DefaultVariableHandler}
+	 * @param call - call of member
+	 * @param function - the same member taking and returning primitives, one of {@link LibraryBuilder.DoubleFunction1},
+	 * 	{@link LibraryBuilder.DoubleFunction2}, {@link LibraryBuilder.DoubleComparison}, {@link LibraryBuilder.LongFunction1},
+	 * 	{@link LibraryBuilder.LongFunction2}, {@link LibraryBuilder.BooleanFunction1} or {@link LibraryBuilder.BooleanFunction2}
+	 * 	(or null if there is no such form); it's used by stack machine evaluator when operands are known to be primitives
+	 * 	(see {@link Computer#setStackEvaluation(boolean)})
+	 */
+	public LibraryMember(int kind, String name, boolean trap, LibraryCall call, Object function) {
+		this(kind, name, trap, call, function, false);
+	}
+
+	/**
+	 * Creates member which might be pure.
+	 * @param kind - {@link #METHOD}, {@link #VARIABLE} or {@link #OPERATOR}
+	 * @param name - notation name of member
+	 * @param trap - true if member is served by {@link DefaultMethodHandler} or {@link DefaultVariableHandler}
+	 * @param call - call of member
+	 * @param function - primitive form of member or null (see {@link #LibraryMember(int, String, boolean, LibraryCall, Object)})
+	 * @param pure - true if result of member depends on its arguments only and call changes nothing (see {@link Pure})
+	 */
+	public LibraryMember(int kind, String name, boolean trap, LibraryCall call, Object function, boolean pure) {
+		this.kind = kind;
+		this.name = name;
+		this.trap = trap;
+		this.call = call;
+		this.function = function;
+		this.pure = pure;
+	}
+
+	LibraryMember(int kind, String name, boolean trap, LibraryCall call, Object function, boolean pure, Member target, Library library) {
+		this(kind, name, trap, call, function, pure);
+		this.target = target;
+		this.library = library;
+	}
+
+	public int getKind() {
+		return this.kind;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public boolean isTrap() {
+		return this.trap;
+	}
+
+	public LibraryCall getCall() {
+		return this.call;
+	}
+
+	/**
+	 * @return primitive form of member or null
+	 */
+	public Object getFunction() {
+		return this.function;
+	}
+
+	/**
+	 * @return true if call of member returns a future (see {@link AsyncLibraryCall})
+	 */
+	public boolean isAsync() {
+		return this.call instanceof AsyncLibraryCall;
+	}
+
+	/**
+	 * @return true if member could be evaluated on compilation when its arguments are constants
+	 */
+	public boolean isPure() {
+		return this.pure;
+	}
+
+	Member getTarget() {
+		return this.target;
+	}
+
+	Library getLibrary() {
+		return this.library;
+	}
+
+}
@@ -4,6 +4,7 @@ import org.palettelabs.iumls.VariableValue;
 
 public class MathLibrary implements Library {
 
+	@Pure
 	@Operator("+")
 	public VariableValue operatorPlus(VariableValue v1, VariableValue v2) {
 		VariableValue v = new VariableValue();
@@ -18,27 +19,109 @@ public class MathLibrary implements Library {
 		return v;
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.NUMBER)
 	@Operator("-")
 	public VariableValue operatorMinus(long v1, long v2) {
 		VariableValue v = new VariableValue(v1 - v2);
 		return v;
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.NUMBER)
 	@Operator("*")
 	public VariableValue operatorMultiply(double v1, double v2) {
 		VariableValue v = new VariableValue(v1 * v2);
 		return v;
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.NUMBER)
 	@Operator("/")
 	public VariableValue operatorDivide(double v1, double v2) {
 		VariableValue v = new VariableValue(v1 / v2);
 		return v;
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.NUMBER)
 	@Method
 	public VariableValue abs(double a) {
 		return new VariableValue(Math.abs(a));
 	}
 
+	//============= primitive forms =============
+
+	@Operator("+")
+	public double operatorPlusDouble(double v1, double v2) {
+		return v1 + v2;
+	}
+
+	@Operator("-")
+	public long operatorMinusLong(long v1, long v2) {
+		return v1 - v2;
+	}
+
+	@Operator("*")
+	public double operatorMultiplyDouble(double v1, double v2) {
+		return v1 * v2;
+	}
+
+	@Operator("/")
+	public double operatorDivideDouble(double v1, double v2) {
+		return v1 / v2;
+	}
+
+	@Method("abs")
+	public double absDouble(double a) {
+		return Math.abs(a);
+	}
+
+	//============= column forms =============
+
+	@Operator("+")
+	public double[] operatorPlusColumn(double[] v1, double[] v2) {
+		double[] v = new double[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] + v2[f];
+		}
+		return v;
+	}
+
+	@Operator("-")
+	public long[] operatorMinusColumn(long[] v1, long[] v2) {
+		long[] v = new long[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] - v2[f];
+		}
+		return v;
+	}
+
+	@Operator("*")
+	public double[] operatorMultiplyColumn(double[] v1, double[] v2) {
+		double[] v = new double[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] * v2[f];
+		}
+		return v;
+	}
+
+	@Operator("/")
+	public double[] operatorDivideColumn(double[] v1, double[] v2) {
+		double[] v = new double[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] / v2[f];
+		}
+		return v;
+	}
+
+	@Method("abs")
+	public double[] absColumn(double[] a) {
+		double[] v = new double[a.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = Math.abs(a[f]);
+		}
+		return v;
+	}
+
 }
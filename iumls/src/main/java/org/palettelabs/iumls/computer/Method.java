@@ -39,6 +39,10 @@ import java.lang.annotation.Target;
  *   return new VariableValue(getClass().getName());
  * }
  * </pre>
+ * <br>
+ * Method might also return <i>double</i>, <i>long</i> or <i>boolean</i>, primitive-only methods are used as
+ * primitive forms of methods of the same name and arity (see {@link Operator}), methods of primitive
+ * arrays are column forms of them.
  * 
  * @author Nikolay Antipov
  *
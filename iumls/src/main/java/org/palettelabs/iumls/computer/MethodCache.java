@@ -0,0 +1,273 @@
+package org.palettelabs.iumls.computer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Call of {@link Cacheable} method memoizing its results by values of arguments.
+ * <br>
+ * Cache is split into stripes by hash of arguments, every stripe is a small LRU map guarded by its own lock,
+ * so concurrent evaluations rarely wait for each other. Results are bounded by the size of cache
+ * (least recently used ones are evicted first) and by time to live.
+ * Threads missing the same arguments at once call the method both, the last result is kept.
+ * <br>
+ * Arguments are equal if they have the same type and value (1 and 1.0 are different arguments),
+ * every call gets a copy of the cached result.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class MethodCache implements LibraryCall {
+
+	private static final int MAX_STRIPES = 16;
+
+	private final LibraryCall call;
+	private final long ttl;
+	private final int[] key;
+	private final Stripe[] stripes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private static class Entry {
+
+		final VariableValue value;
+		// System.nanoTime() the entry expires at, or 0
+		final long expires;
+
+		Entry(VariableValue value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+
+	}
+
+	private class Stripe extends LinkedHashMap<List<Object>, Entry> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+			if (size() <= this.capacity)
+				return false;
+			MethodCache.this.evictions.increment();
+			return true;
+		}
+
+	}
+
+	/**
+	 * @param call - call of method
+	 * @param size - maximum number of results kept
+	 * @param ttl - milliseconds result is kept for, 0 - until it's evicted
+	 * @param key - indexes of arguments making the key, all the arguments if empty
+	 */
+	protected MethodCache(LibraryCall call, int size, long ttl, int[] key) {
+		this.call = call;
+		this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+		this.key = key.length > 0 ? key.clone() : null;
+		int stripes = 1;
+		while ((stripes < MAX_STRIPES) && (stripes * 2 <= size)) {
+			stripes *= 2;
+		}
+		this.stripes = new Stripe[stripes];
+		for (int f = 0; f < stripes; f++) {
+			this.stripes[f] = new Stripe(Math.max(1, (size + stripes - 1) / stripes));
+		}
+	}
+
+	/**
+	 * Creates cache of call, it's used by dispatchers (generated ones as well) for {@link Cacheable} methods.
+	 * @return cache, asynchronous one (see {@link AsyncLibraryCall}) if call is asynchronous
+	 */
+	public static MethodCache of(LibraryCall call, int size, long ttl, int[] key) {
+		if (call instanceof AsyncLibraryCall)
+			return new Async((AsyncLibraryCall) call, size, ttl, key);
+		return new MethodCache(call, size, ttl, key);
+	}
+
+	@Override
+	public VariableValue call(VariableValue[] arguments) throws Exception {
+		List<Object> key = key(arguments);
+		VariableValue value = get(key);
+		if (value != null)
+			return value;
+		value = this.call.call(arguments);
+		put(key, value);
+		return value;
+	}
+
+	/**
+	 * @return number of calls answered by cache
+	 */
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * @return number of calls made to method
+	 */
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * @return number of results evicted because cache was full
+	 */
+	public long getEvictionCount() {
+		return this.evictions.sum();
+	}
+
+	/**
+	 * @return number of results kept (expired ones included until they are looked up)
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Drops all the results, e.g. when data behind the method has changed.
+	 */
+	public void invalidateAll() {
+		for (Stripe stripe : this.stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return copy of cached result or null
+	 */
+	protected VariableValue get(List<Object> key) {
+		Stripe stripe = stripe(key);
+		Entry entry;
+		synchronized (stripe) {
+			entry = stripe.get(key);
+			if ((entry != null) && (entry.expires != 0) && (entry.expires - System.nanoTime() <= 0)) {
+				stripe.remove(key);
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			this.misses.increment();
+			return null;
+		}
+		this.hits.increment();
+		return new VariableValue(entry.value);
+	}
+
+	protected void put(List<Object> key, VariableValue value) {
+		if (value == null)
+			return;
+		// libraries are free to change the result they return, keep a copy
+		Entry entry = new Entry(new VariableValue(value), this.ttl > 0 ? Math.max(1, System.nanoTime() + this.ttl) : 0);
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			stripe.put(key, entry);
+		}
+	}
+
+	private Stripe stripe(List<Object> key) {
+		int hash = key.hashCode();
+		return this.stripes[(hash ^ (hash >>> 16)) & (this.stripes.length - 1)];
+	}
+
+	/**
+	 * @return key of arguments, made before the call (libraries are free to change their arguments)
+	 */
+	protected List<Object> key(VariableValue[] arguments) {
+		List<Object> key = new ArrayList<Object>(arguments.length * 2);
+		if (this.key == null) {
+			for (VariableValue argument : arguments) {
+				add(key, argument);
+			}
+		} else {
+			for (int index : this.key) {
+				add(key, index < arguments.length ? arguments[index] : null);
+			}
+		}
+		return key;
+	}
+
+	static void add(List<Object> key, VariableValue value) {
+		if ((value == null) || value.isNull()) {
+			key.add(-1);
+			key.add(null);
+			return;
+		}
+		key.add(value.getType());
+		switch (value.getType()) {
+			case VariableValue.TCP_TYPE_INTEGER:
+				key.add(value.asInteger());
+				break;
+			case VariableValue.TCP_TYPE_LONG:
+				key.add(value.asLong());
+				break;
+			case VariableValue.TCP_TYPE_DOUBLE:
+				key.add(value.asDouble());
+				break;
+			case VariableValue.TCP_TYPE_DATE:
+				key.add(value.asDate().getTime());
+				break;
+			case VariableValue.TCP_TYPE_BOOLEAN:
+				key.add(value.asBoolean());
+				break;
+			case VariableValue.TCP_TYPE_BUFFER:
+				key.add(ByteBuffer.wrap(value.asBuffer().clone()));
+				break;
+			default:
+				key.add(value.asString());
+				break;
+		}
+	}
+
+	/**
+	 * Cache of asynchronous method, result is cached once its future is completed.
+	 */
+	private static class Async extends MethodCache implements AsyncLibraryCall {
+
+		private final AsyncLibraryCall call;
+
+		Async(AsyncLibraryCall call, int size, long ttl, int[] key) {
+			super(call, size, ttl, key);
+			this.call = call;
+		}
+
+		@Override
+		public CompletableFuture<VariableValue> callAsync(VariableValue[] arguments) throws Exception {
+			final List<Object> key = key(arguments);
+			VariableValue value = get(key);
+			if (value != null)
+				return CompletableFuture.completedFuture(value);
+			return this.call.callAsync(arguments).thenApply(v -> {
+				put(key, v);
+				return v;
+			});
+		}
+
+	}
+
+}
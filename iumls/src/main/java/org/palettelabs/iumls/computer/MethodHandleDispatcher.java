@@ -0,0 +1,630 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Reflection based {@link LibraryDispatcher}.
+ * <br>
+ * Library class is scanned only once (on creation), every annotated member is turned into
+ * a {@link MethodHandle} of type <i>(VariableValue[])VariableValue</i> with argument conversions
+ * and vararg packing already built in.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class MethodHandleDispatcher implements LibraryDispatcher {
+
+	private static final MethodType CALL_TYPE = MethodType.methodType(VariableValue.class, VariableValue[].class);
+	private static final MethodType ASYNC_CALL_TYPE = MethodType.methodType(CompletableFuture.class, VariableValue[].class);
+	private static final MethodType BULK_TYPE = MethodType.methodType(VariableValue[].class, VariableValue[].class);
+
+	private final String libraryName;
+	private final Library library;
+	private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	// name -> arity -> member
+	private Map<String, Map<Integer, LibraryMember>> methods = new HashMap<String, Map<Integer, LibraryMember>>();
+	// name -> methods with the last vararg parameter
+	private Map<String, List<Method>> varargMethods = new HashMap<String, List<Method>>();
+	// name + arity -> vararg members adapted to particular arity
+	private Map<String, LibraryMember> varargMembers = new ConcurrentHashMap<String, LibraryMember>();
+	private Map<String, LibraryMember> variables = new HashMap<String, LibraryMember>();
+	private Map<String, LibraryMember> operators = new HashMap<String, LibraryMember>();
+
+	// "kind:name:arity" -> column form
+	private Map<String, MethodHandle> columnForms = new HashMap<String, MethodHandle>();
+	private MethodHandle defaultMethodHandler;
+	private MethodHandle defaultVariableHandler;
+
+	/**
+	 * Scans library.
+	 * @param libraryName - name the library is registered with
+	 * @param library - library to scan
+	 */
+	MethodHandleDispatcher(String libraryName, Library library) {
+		this.libraryName = libraryName;
+		this.library = library;
+
+		Class<?> __class = library.getClass();
+
+		for (Field field : __class.getFields()) {
+			if (field.isAnnotationPresent(Variable.class) && (field.getType() == VariableValue.class)) {
+				String name = annotatedName(field.getAnnotation(Variable.class).value(), field.getName());
+				MethodHandle getter = unreflectGetter(field);
+				if ((getter != null) && !this.variables.containsKey(name))
+					this.variables.put(name, new LibraryMember(LibraryMember.VARIABLE, name, false,
+							new FieldCall(getter, libraryName + "." + name), null, field.isAnnotationPresent(Pure.class), field, library));
+			}
+		}
+
+		// java members are collected first, those returning VariableValue are preferred,
+		// ones of the same notation name taking and returning primitives become primitive forms
+		Map<String, Map<Integer, Method>> methodTargets = new HashMap<String, Map<Integer, Method>>();
+		Map<String, Map<Integer, Method>> methodFunctions = new HashMap<String, Map<Integer, Method>>();
+		Map<String, Method> variableTargets = new HashMap<String, Method>();
+		Map<String, Method> operatorTargets = new HashMap<String, Method>();
+		Map<String, Method> operatorFunctions = new HashMap<String, Method>();
+		Map<String, Method> batchedTargets = new HashMap<String, Method>();
+
+		for (Method method : __class.getMethods()) {
+			Class<?>[] parameters = method.getParameterTypes();
+
+			if (isSupportedResult(method.getReturnType())) {
+
+				if (method.isAnnotationPresent(org.palettelabs.iumls.computer.Method.class) && isSupportedSignature(parameters)) {
+					String name = annotatedName(method.getAnnotation(org.palettelabs.iumls.computer.Method.class).value(), method.getName());
+					if (isLastVararg(parameters)) {
+						List<Method> list = this.varargMethods.get(name);
+						if (list == null) {
+							list = new ArrayList<Method>();
+							this.varargMethods.put(name, list);
+						}
+						if (method.getReturnType() == VariableValue.class)
+							list.add(0, method);
+						else
+							list.add(method);
+					} else {
+						put(methodTargets, name, parameters.length, method, false);
+						put(methodFunctions, name, parameters.length, method, true);
+					}
+				}
+
+				if (method.isAnnotationPresent(Variable.class) && (parameters.length == 0) && !isAsyncResult(method.getReturnType())) {
+					String name = annotatedName(method.getAnnotation(Variable.class).value(), method.getName());
+					if (isPreferred(method, variableTargets.get(name)))
+						variableTargets.put(name, method);
+				}
+
+				if (method.isAnnotationPresent(Operator.class) && (parameters.length == 2) && !isAsyncResult(method.getReturnType())
+						&& isSupportedType(parameters[0]) && isSupportedType(parameters[1])) {
+					String name = method.getAnnotation(Operator.class).value();
+					if (isPreferred(method, operatorTargets.get(name)))
+						operatorTargets.put(name, method);
+					if ((getFunctionType(method) != null) && !operatorFunctions.containsKey(name))
+						operatorFunctions.put(name, method);
+				}
+
+			}
+
+			if (method.isAnnotationPresent(Batched.class) && method.isAnnotationPresent(org.palettelabs.iumls.computer.Method.class)
+					&& isBulkSignature(method)) {
+				String name = annotatedName(method.getAnnotation(org.palettelabs.iumls.computer.Method.class).value(), method.getName());
+				if (!batchedTargets.containsKey(name))
+					batchedTargets.put(name, method);
+			}
+
+			if (isColumnForm(method)) {
+				String key = null;
+				if (method.isAnnotationPresent(org.palettelabs.iumls.computer.Method.class))
+					key = columnKey(LibraryMember.METHOD,
+							annotatedName(method.getAnnotation(org.palettelabs.iumls.computer.Method.class).value(), method.getName()), parameters.length);
+				else if (method.isAnnotationPresent(Operator.class) && (parameters.length == 2))
+					key = columnKey(LibraryMember.OPERATOR, method.getAnnotation(Operator.class).value(), 2);
+				MethodHandle handle = key != null ? unreflect(method) : null;
+				if ((handle != null) && !this.columnForms.containsKey(key))
+					this.columnForms.put(key, handle);
+			}
+
+			if (method.isAnnotationPresent(DefaultMethodHandler.class) && (this.defaultMethodHandler == null)
+					&& (method.getReturnType() == VariableValue.class)
+					&& (parameters.length == 2) && (parameters[0] == String.class) && (parameters[1] == VariableValue[].class)) {
+				this.defaultMethodHandler = unreflect(method);
+			}
+
+			if (method.isAnnotationPresent(DefaultVariableHandler.class) && (this.defaultVariableHandler == null)
+					&& (method.getReturnType() == VariableValue.class)
+					&& (parameters.length == 1) && (parameters[0] == String.class)) {
+				this.defaultVariableHandler = unreflect(method);
+			}
+		}
+
+		for (Map.Entry<String, Map<Integer, Method>> entry : methodTargets.entrySet()) {
+			Map<Integer, LibraryMember> arities = new HashMap<Integer, LibraryMember>();
+			Map<Integer, Method> functions = methodFunctions.get(entry.getKey());
+			for (Map.Entry<Integer, Method> arity : entry.getValue().entrySet()) {
+				MethodHandle handle = adapt(arity.getValue(), arity.getKey());
+				if (handle != null)
+					// primitive form would bypass cache
+					arities.put(arity.getKey(), new LibraryMember(LibraryMember.METHOD, entry.getKey(), false, call(arity.getValue(), handle),
+							arity.getValue().isAnnotationPresent(Cacheable.class) ? null : function(functions != null ? functions.get(arity.getKey()) : null),
+							arity.getValue().isAnnotationPresent(Pure.class), arity.getValue(), library));
+			}
+			this.methods.put(entry.getKey(), arities);
+		}
+
+		// batched method takes a single key in notation, method of the same name taking one argument goes first
+		for (Map.Entry<String, Method> entry : batchedTargets.entrySet()) {
+			Map<Integer, LibraryMember> arities = this.methods.get(entry.getKey());
+			if (arities == null) {
+				arities = new HashMap<Integer, LibraryMember>();
+				this.methods.put(entry.getKey(), arities);
+			}
+			MethodHandle handle = unreflect(entry.getValue());
+			if ((handle != null) && !arities.containsKey(1))
+				arities.put(1, new LibraryMember(LibraryMember.METHOD, entry.getKey(), false, new BatchedCall(new HandleBulk(handle)),
+						null, false, entry.getValue(), library));
+		}
+
+		for (Map.Entry<String, Method> entry : variableTargets.entrySet()) {
+			MethodHandle handle = adapt(entry.getValue(), 0);
+			if ((handle != null) && !this.variables.containsKey(entry.getKey()))
+				this.variables.put(entry.getKey(), new LibraryMember(LibraryMember.VARIABLE, entry.getKey(), false, new HandleCall(handle),
+						null, entry.getValue().isAnnotationPresent(Pure.class), entry.getValue(), library));
+		}
+
+		for (Map.Entry<String, Method> entry : operatorTargets.entrySet()) {
+			MethodHandle handle = adapt(entry.getValue(), 2);
+			if (handle != null)
+				this.operators.put(entry.getKey(), new LibraryMember(LibraryMember.OPERATOR, entry.getKey(), false, new HandleCall(handle),
+						function(operatorFunctions.get(entry.getKey())), entry.getValue().isAnnotationPresent(Pure.class),
+						entry.getValue(), library));
+		}
+	}
+
+	@Override
+	public LibraryMember getMethod(String name, int arity) {
+		Map<Integer, LibraryMember> arities = this.methods.get(name);
+		LibraryMember member = arities != null ? arities.get(arity) : null;
+		if (member != null)
+			return member;
+
+		List<Method> list = this.varargMethods.get(name);
+		if (list != null) {
+			String key = name + "/" + arity;
+			member = this.varargMembers.get(key);
+			if (member != null)
+				return member;
+			for (Method method : list) {
+				if (method.getParameterTypes().length - 1 <= arity) {
+					MethodHandle handle = adapt(method, arity);
+					if (handle != null) {
+						member = new LibraryMember(LibraryMember.METHOD, name, false, call(method, handle), null,
+								method.isAnnotationPresent(Pure.class), method, this.library);
+						this.varargMembers.put(key, member);
+						return member;
+					}
+				}
+			}
+		}
+
+		if (this.defaultMethodHandler != null) {
+			MethodHandle handle = MethodHandles.insertArguments(this.defaultMethodHandler, 0, name);
+			return new LibraryMember(LibraryMember.METHOD, name, true, new HandleCall(handle));
+		}
+
+		return null;
+	}
+
+	@Override
+	public LibraryMember getVariable(String name) {
+		LibraryMember member = this.variables.get(name);
+		if (member != null)
+			return member;
+
+		if (this.defaultVariableHandler != null) {
+			MethodHandle handle = MethodHandles.dropArguments(MethodHandles.insertArguments(this.defaultVariableHandler, 0, name),
+					0, VariableValue[].class);
+			return new LibraryMember(LibraryMember.VARIABLE, name, true, new HandleCall(handle));
+		}
+
+		return null;
+	}
+
+	@Override
+	public LibraryMember getOperator(String operatorString) {
+		return this.operators.get(operatorString);
+	}
+
+	@Override
+	public String toString() {
+		return "library '" + this.libraryName + "' (" + this.library.getClass().getName() + ")";
+	}
+
+	//============= method handles =============
+
+	private MethodHandle unreflect(Method method) {
+		try {
+			return this.lookup.unreflect(method).bindTo(this.library);
+		} catch (IllegalAccessException e) {
+			try {
+				method.setAccessible(true);
+				return this.lookup.unreflect(method).bindTo(this.library);
+			} catch (Exception e0) {
+				return null;
+			}
+		}
+	}
+
+	private MethodHandle unreflectGetter(Field field) {
+		try {
+			return this.lookup.unreflectGetter(field).bindTo(this.library);
+		} catch (IllegalAccessException e) {
+			try {
+				field.setAccessible(true);
+				return this.lookup.unreflectGetter(field).bindTo(this.library);
+			} catch (Exception e0) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Adapts method to type <i>(VariableValue[])VariableValue</i>.
+	 * @param method - library method
+	 * @param arity - number of notation arguments (might be greater than number of parameters for vararg methods)
+	 * @return adapted method handle or null if method is not accessible
+	 */
+	private MethodHandle adapt(Method method, int arity) {
+		MethodHandle handle = unreflect(method);
+		if (handle == null)
+			return null;
+
+		Class<?>[] parameters = method.getParameterTypes();
+		if (isLastVararg(parameters)) {
+			// collect the tail of arguments into array
+			Class<?> arrayType = parameters[parameters.length - 1];
+			handle = handle.asCollector(arrayType, arity - parameters.length + 1);
+		}
+
+		MethodHandle[] filters = new MethodHandle[arity];
+		Class<?>[] types = handle.type().parameterArray();
+		for (int n = 0; n < arity; n++) {
+			filters[n] = converter(types[n]);
+		}
+		handle = MethodHandles.filterArguments(handle, 0, filters);
+		if (isAsyncResult(method.getReturnType()))
+			return handle.asSpreader(VariableValue[].class, arity).asType(ASYNC_CALL_TYPE);
+		if (method.getReturnType() != VariableValue.class)
+			handle = MethodHandles.filterReturnValue(handle, boxer(method.getReturnType()));
+		return handle.asSpreader(VariableValue[].class, arity).asType(CALL_TYPE);
+	}
+
+	/**
+	 * @return handle which converts {@link VariableValue} into the specified type or null if no conversion needed
+	 */
+	static MethodHandle converter(Class<?> type) {
+		if (type == VariableValue.class)
+			return null;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodHandle handle;
+			if ((type == int.class) || (type == Integer.class))
+				handle = lookup.findVirtual(VariableValue.class, "asInteger", MethodType.methodType(int.class));
+			else if ((type == boolean.class) || (type == Boolean.class))
+				handle = lookup.findVirtual(VariableValue.class, "asBoolean", MethodType.methodType(boolean.class));
+			else if ((type == long.class) || (type == Long.class))
+				handle = lookup.findVirtual(VariableValue.class, "asLong", MethodType.methodType(long.class));
+			else if ((type == double.class) || (type == Double.class))
+				handle = lookup.findVirtual(VariableValue.class, "asDouble", MethodType.methodType(double.class));
+			else
+				handle = lookup.findVirtual(VariableValue.class, "asString", MethodType.methodType(String.class));
+			// boxing if needed
+			return handle.asType(MethodType.methodType(type, VariableValue.class));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return handle which wraps primitive result into {@link VariableValue}
+	 */
+	static MethodHandle boxer(Class<?> type) {
+		try {
+			return MethodHandles.publicLookup().findConstructor(VariableValue.class, MethodType.methodType(void.class, type));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//============= primitive forms =============
+
+	/**
+	 * @return function interface (see {@link LibraryMember#getFunction()}) matching signature of method
+	 * 	or null if method has no primitive form
+	 */
+	static Class<?> getFunctionType(Method method) {
+		Class<?> result = method.getReturnType();
+		Class<?>[] parameters = method.getParameterTypes();
+		if (parameters.length == 1) {
+			if ((result == double.class) && (parameters[0] == double.class))
+				return LibraryBuilder.DoubleFunction1.class;
+			if ((result == long.class) && (parameters[0] == long.class))
+				return LibraryBuilder.LongFunction1.class;
+			if ((result == boolean.class) && (parameters[0] == boolean.class))
+				return LibraryBuilder.BooleanFunction1.class;
+		} else if (parameters.length == 2) {
+			if ((result == double.class) && (parameters[0] == double.class) && (parameters[1] == double.class))
+				return LibraryBuilder.DoubleFunction2.class;
+			if ((result == boolean.class) && (parameters[0] == double.class) && (parameters[1] == double.class))
+				return LibraryBuilder.DoubleComparison.class;
+			if ((result == long.class) && (parameters[0] == long.class) && (parameters[1] == long.class))
+				return LibraryBuilder.LongFunction2.class;
+			if ((result == boolean.class) && (parameters[0] == boolean.class) && (parameters[1] == boolean.class))
+				return LibraryBuilder.BooleanFunction2.class;
+		}
+		return null;
+	}
+
+	/**
+	 * Implements function interface with library method, so calls of it are as cheap as a lambda call.
+	 * @return function or null if method has no primitive form (or it's not accessible)
+	 */
+	private Object function(Method method) {
+		Class<?> type = method != null ? getFunctionType(method) : null;
+		if (type == null)
+			return null;
+		try {
+			MethodHandle target = this.lookup.unreflect(method);
+			MethodType signature = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+			String name = type == LibraryBuilder.DoubleComparison.class ? "test" : "apply";
+			CallSite site = LambdaMetafactory.metafactory(this.lookup, name, MethodType.methodType(type, method.getDeclaringClass()),
+					signature, target, signature);
+			return site.getTarget().invoke(this.library);
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	//============= column forms =============
+
+	/**
+	 * @return column form of member (see {@link ColumnEvaluator}) or null if library has none
+	 */
+	MethodHandle getColumnForm(int kind, String name, int arity) {
+		return this.columnForms.get(columnKey(kind, name, arity));
+	}
+
+	private static String columnKey(int kind, String name, int arity) {
+		return kind + ":" + name + ":" + arity;
+	}
+
+	/**
+	 * @return true if method takes and returns primitive arrays only
+	 */
+	private static boolean isColumnForm(Method method) {
+		if (!isColumnType(method.getReturnType()) || method.isVarArgs())
+			return false;
+		for (Class<?> parameter : method.getParameterTypes()) {
+			if (!isColumnType(parameter))
+				return false;
+		}
+		return method.getParameterTypes().length > 0;
+	}
+
+	private static boolean isColumnType(Class<?> __class) {
+		return (__class == double[].class) || (__class == long[].class) || (__class == boolean[].class);
+	}
+
+	//============= signature checks =============
+
+	private static String annotatedName(String annotatedName, String javaName) {
+		if ((annotatedName == null) || annotatedName.isEmpty())
+			return javaName;
+		else
+			return annotatedName;
+	}
+
+	private static boolean isSupportedSignature(Class<?>[] parameters) {
+		boolean isLastVararg = isLastVararg(parameters);
+		for (int n = 0; n < parameters.length; n++) {
+			if (!isSupportedType(parameters[n]) && !((n == parameters.length - 1) && isLastVararg))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isSupportedResult(Class<?> __class) {
+		return (__class == VariableValue.class) || (__class == double.class) || (__class == long.class) || (__class == boolean.class)
+				|| isAsyncResult(__class);
+	}
+
+	/**
+	 * @return true if method takes and returns arrays of values (see {@link Batched})
+	 */
+	private static boolean isBulkSignature(Method method) {
+		Class<?>[] parameters = method.getParameterTypes();
+		return (method.getReturnType() == VariableValue[].class) && (parameters.length == 1) && (parameters[0] == VariableValue[].class);
+	}
+
+	/**
+	 * @return true if method returns future of value (methods only, see {@link AsyncLibraryCall})
+	 */
+	private static boolean isAsyncResult(Class<?> __class) {
+		return __class == CompletableFuture.class;
+	}
+
+	/**
+	 * @return true if method should be taken instead of existing one
+	 */
+	private static boolean isPreferred(Method method, Method existing) {
+		return (existing == null)
+				|| ((existing.getReturnType() != VariableValue.class) && (method.getReturnType() == VariableValue.class));
+	}
+
+	/**
+	 * Puts method as a member target (functions is false) or as a primitive form (functions is true).
+	 */
+	private static void put(Map<String, Map<Integer, Method>> map, String name, int arity, Method method, boolean functions) {
+		if (functions && (getFunctionType(method) == null))
+			return;
+		Map<Integer, Method> arities = map.get(name);
+		if (arities == null) {
+			arities = new HashMap<Integer, Method>();
+			map.put(name, arities);
+		}
+		if (functions ? !arities.containsKey(arity) : isPreferred(method, arities.get(arity)))
+			arities.put(arity, method);
+	}
+
+	static boolean isLastVararg(Class<?>[] parameters) {
+		return (parameters.length > 0)
+				&& parameters[parameters.length - 1].isArray()
+				&& isSupportedType(parameters[parameters.length - 1].getComponentType());
+	}
+
+	static boolean isSupportedType(Class<?> __class) {
+		return (__class == int.class) || (__class == Integer.class) || (__class == boolean.class) || (__class == Boolean.class)
+				|| (__class == long.class) || (__class == Long.class) || (__class == double.class) || (__class == Double.class)
+				|| (__class == String.class) || (__class == VariableValue.class);
+	}
+
+	//============= calls =============
+
+	/**
+	 * @return call of adapted method handle, memoized one for {@link Cacheable} method
+	 */
+	private static LibraryCall call(Method method, MethodHandle handle) {
+		LibraryCall call = isAsyncResult(method.getReturnType()) ? new AsyncHandleCall(handle) : new HandleCall(handle);
+		Cacheable cacheable = method.getAnnotation(Cacheable.class);
+		if (cacheable != null)
+			return MethodCache.of(call, cacheable.size(), cacheable.ttl(), cacheable.key());
+		return call;
+	}
+
+	/**
+	 * Call of an adapted method handle.
+	 */
+	private static class HandleCall implements LibraryCall {
+
+		private final MethodHandle handle;
+
+		HandleCall(MethodHandle handle) {
+			this.handle = handle.asType(CALL_TYPE);
+		}
+
+		@Override
+		public VariableValue call(VariableValue[] arguments) throws Exception {
+			try {
+				return (VariableValue) this.handle.invokeExact(arguments);
+			} catch (Exception e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Call of an adapted method handle returning future.
+	 */
+	private static class AsyncHandleCall implements AsyncLibraryCall {
+
+		private final MethodHandle handle;
+
+		AsyncHandleCall(MethodHandle handle) {
+			this.handle = handle.asType(ASYNC_CALL_TYPE);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public CompletableFuture<VariableValue> callAsync(VariableValue[] arguments) throws Exception {
+			try {
+				return (CompletableFuture<VariableValue>) this.handle.invokeExact(arguments);
+			} catch (Exception e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Bulk lookup of {@link Batched} method.
+	 */
+	private static class HandleBulk implements BatchedCall.Bulk {
+
+		private final MethodHandle handle;
+
+		HandleBulk(MethodHandle handle) {
+			this.handle = handle.asType(BULK_TYPE);
+		}
+
+		@Override
+		public VariableValue[] call(VariableValue[] keys) throws Exception {
+			try {
+				return (VariableValue[]) this.handle.invokeExact(keys);
+			} catch (Exception e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Variable field, value is named after the library and the variable.
+	 */
+	private static class FieldCall implements LibraryCall {
+
+		private final MethodHandle getter;
+		private final String name;
+
+		FieldCall(MethodHandle getter, String name) {
+			this.getter = getter.asType(MethodType.methodType(VariableValue.class));
+			this.name = name;
+		}
+
+		@Override
+		public VariableValue call(VariableValue[] arguments) throws Exception {
+			try {
+				VariableValue v = (VariableValue) this.getter.invokeExact();
+				// value is shared by threads, it's written only once
+				if (!this.name.equals(v.getName()))
+					v.setName(this.name);
+				return v;
+			} catch (Exception e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Node of compiled expression tree (see {@link CompiledExpression}).
+ * <br>
+ * Tree is built once from parser elements, all the library and operator
+ * names are already resolved, so evaluation does not touch parser structures
+ * anymore.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+abstract class Node {
+
+	protected static final VariableValue[] NO_ARGUMENTS = new VariableValue[0];
+
+	protected final ExpressionElement element;
+
+	protected Node(ExpressionElement element) {
+		this.element = element;
+	}
+
+	public ExpressionElement getElement() {
+		return this.element;
+	}
+
+	/**
+	 * Evaluates node.
+	 * @param computer - computer which holds libraries
+	 * @return value of node
+	 * @throws IumlsException throws exception in any case of problem
+	 */
+	abstract VariableValue evaluate(Computer computer) throws IumlsException;
+
+	/**
+	 * Describes node for error messages, e.g. "an operator '+'".
+	 * @return human readable description of node
+	 */
+	abstract String describe();
+
+	protected IumlsException error(Exception e) {
+		// aborted evaluation is not a problem of node, it's passed as is through nested computations
+		if (e instanceof EvaluationAbortedException)
+			return (EvaluationAbortedException) e;
+		// description is made only if message is asked for, expected failures are stackless all the way up
+		boolean stackless = (e instanceof IumlsException) && ((IumlsException) e).isStackless();
+		return new IumlsException(() -> "runtime exception on evaluating " + describe(), e, this.element, !stackless);
+	}
+
+}
@@ -0,0 +1,251 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Hash-consing table of expression trees (see {@link Computer#compile(org.palettelabs.iumls.parser.Section)}).
+ * <br>
+ * Structurally identical subtrees of all the interned trees become one shared node,
+ * so e.g. <i>price * rate.factor(region)</i> repeated in dozens of expressions of a section is kept once.
+ * Subtrees are equal if they have the same constants, names and resolved members and their children
+ * are the same shared nodes. Shared node keeps parser element of its first occurrence.
+ * <br>
+ * Shared subtrees made of pure operators and methods (see {@link Pure}) and variables are wrapped
+ * with {@link SharedNode}, so they are evaluated once per section computation.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class NodeTable {
+
+	/**
+	 * Structural key of node, children are already shared so they are compared by reference.
+	 */
+	private static class Key {
+
+		private final Class<?> type;
+		private final String library;
+		private final String name;
+		private final LibraryMember member;
+		private final Node[] children;
+
+		Key(Class<?> type, String library, String name, LibraryMember member, Node[] children) {
+			this.type = type;
+			this.library = library;
+			this.name = name;
+			this.member = member;
+			this.children = children;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key key = (Key) obj;
+			if ((this.type != key.type) || (this.member != key.member) || (this.children.length != key.children.length)
+					|| !this.library.equals(key.library) || !this.name.equals(key.name))
+				return false;
+			for (int t = 0; t < this.children.length; t++) {
+				if (this.children[t] != key.children[t])
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = this.type.hashCode() * 31 + this.library.hashCode();
+			hash = hash * 31 + this.name.hashCode();
+			hash = hash * 31 + System.identityHashCode(this.member);
+			for (Node child : this.children) {
+				hash = hash * 31 + System.identityHashCode(child);
+			}
+			return hash;
+		}
+
+	}
+
+	private final Map<Key, Node> nodes = new HashMap<Key, Node>();
+	// shared node -> number of references to it (from parent nodes and roots)
+	private final Map<Node, Integer> uses = new IdentityHashMap<Node, Integer>();
+	// shared node -> node wrapped for evaluation
+	private final Map<Node, Node> wrapped = new IdentityHashMap<Node, Node>();
+	private int slots = 0;
+
+	/**
+	 * Interns tree as a root of expression.
+	 * @param root - root of tree
+	 * @return shared root
+	 */
+	Node add(Node root) {
+		Node node = intern(root);
+		use(node);
+		return node;
+	}
+
+	/**
+	 * Wraps shared subtrees worth caching, must be called after all the trees are added.
+	 * @param root - shared root returned by {@link #add(Node)}
+	 * @return root to evaluate
+	 */
+	Node wrap(Node root) {
+		Node node = this.wrapped.get(root);
+		if (node != null)
+			return node;
+		node = root;
+		if (root instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) root;
+			Node left = wrap(operator.getLeft());
+			Node right = wrap(operator.getRight());
+			if ((left != operator.getLeft()) || (right != operator.getRight()))
+				node = new OperatorNode(operator.getElement(), operator.getLibraryName(), operator.getMember(), left, right);
+		} else if (root instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) root;
+			Node[] arguments = new Node[function.getArguments().length];
+			boolean changed = false;
+			for (int t = 0; t < arguments.length; t++) {
+				arguments[t] = wrap(function.getArguments()[t]);
+				changed |= arguments[t] != function.getArguments()[t];
+			}
+			if (changed)
+				node = new FunctionNode(function.getElement(), function.getLibraryName(), function.getMethodName(),
+						function.getMember(), arguments);
+		} else if (root instanceof ConditionalNode) {
+			ConditionalNode conditional = (ConditionalNode) root;
+			Node[] operands = new Node[conditional.getOperands().length];
+			boolean changed = false;
+			for (int t = 0; t < operands.length; t++) {
+				operands[t] = wrap(conditional.getOperands()[t]);
+				changed |= operands[t] != conditional.getOperands()[t];
+			}
+			if (changed)
+				node = conditional.with(operands);
+		}
+		if ((this.uses.get(root) > 1) && isCacheable(root))
+			node = new SharedNode(node, this.slots++);
+		this.wrapped.put(root, node);
+		return node;
+	}
+
+	/**
+	 * @return number of shared subtrees cached on evaluation
+	 */
+	int getSlots() {
+		return this.slots;
+	}
+
+	private static LibraryMember keyMember(LibraryMember member) {
+		// members served by default handlers are created on each lookup, they are equal if names are
+		return (member != null) && member.isTrap() ? null : member;
+	}
+
+	private Node intern(Node node) {
+		Key key;
+		Node[] children;
+		if (node instanceof ConstantNode) {
+			ConstantNode constant = (ConstantNode) node;
+			children = new Node[0];
+			key = new Key(ConstantNode.class, constant.getValue().isNull() ? "null" : String.valueOf(constant.getValue().getType()),
+					String.valueOf(constant.getValue().asString()), null, children);
+		} else if (node instanceof VariableNode) {
+			VariableNode variable = (VariableNode) node;
+			children = new Node[0];
+			key = new Key(VariableNode.class, variable.getLibraryName(), variable.getVariableName(), keyMember(variable.getMember()), children);
+		} else if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			children = new Node[] {intern(operator.getLeft()), intern(operator.getRight())};
+			key = new Key(OperatorNode.class, operator.getLibraryName(), operator.getOperatorString(), keyMember(operator.getMember()), children);
+		} else if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			children = new Node[function.getArguments().length];
+			for (int t = 0; t < children.length; t++) {
+				children[t] = intern(function.getArguments()[t]);
+			}
+			key = new Key(FunctionNode.class, function.getLibraryName(), function.getMethodName(), keyMember(function.getMember()), children);
+		} else if (node instanceof ConditionalNode) {
+			ConditionalNode conditional = (ConditionalNode) node;
+			children = new Node[conditional.getOperands().length];
+			for (int t = 0; t < children.length; t++) {
+				children[t] = intern(conditional.getOperands()[t]);
+			}
+			key = new Key(ConditionalNode.class, conditional.getLibraryName(), String.valueOf(conditional.getKind()), null, children);
+		} else {
+			return node;
+		}
+
+		Node shared = this.nodes.get(key);
+		if (shared != null)
+			return shared;
+
+		if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			if ((children[0] != operator.getLeft()) || (children[1] != operator.getRight()))
+				node = new OperatorNode(operator.getElement(), operator.getLibraryName(), operator.getMember(), children[0], children[1]);
+		} else if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			if (!Arrays.equals(children, function.getArguments()))
+				node = new FunctionNode(function.getElement(), function.getLibraryName(), function.getMethodName(),
+						function.getMember(), children);
+		} else if (node instanceof ConditionalNode) {
+			ConditionalNode conditional = (ConditionalNode) node;
+			if (!Arrays.equals(children, conditional.getOperands()))
+				node = conditional.with(children);
+		}
+		for (Node child : children) {
+			use(child);
+		}
+		this.nodes.put(key, node);
+		this.uses.put(node, 0);
+		return node;
+	}
+
+	private void use(Node node) {
+		Integer count = this.uses.get(node);
+		this.uses.put(node, count != null ? count + 1 : 1);
+	}
+
+	/**
+	 * Subtree is cached if it calls pure operators and methods only, variables are read once per section computation.
+	 */
+	private static boolean isCacheable(Node node) {
+		// constants are not worth it
+		return !(node instanceof ConstantNode) && isStable(node);
+	}
+
+	private static boolean isStable(Node node) {
+		if (node instanceof ConstantNode)
+			return true;
+		if (node instanceof VariableNode)
+			return ((VariableNode) node).getMember() != null;
+		if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			return isPure(operator.getMember()) && isStable(operator.getLeft()) && isStable(operator.getRight());
+		}
+		if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			if (!isPure(function.getMember()))
+				return false;
+			for (Node argument : function.getArguments()) {
+				if (!isStable(argument))
+					return false;
+			}
+			return true;
+		}
+		if (node instanceof ConditionalNode) {
+			for (Node operand : ((ConditionalNode) node).getOperands()) {
+				if (!isStable(operand))
+					return false;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private static boolean isPure(LibraryMember member) {
+		return (member != null) && !member.isTrap() && member.isPure();
+	}
+
+}
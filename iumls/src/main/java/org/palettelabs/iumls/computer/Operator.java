@@ -28,6 +28,15 @@ import java.lang.annotation.Target;
  *   return new VariableValue(a + b);
  * }
  * </pre>
+ * <br>
+ * Operator might also return <i>double</i>, <i>long</i> or <i>boolean</i>. Method taking and returning
+ * primitives only (e.g. <i>double plus(double a, double b)</i>) is used as a primitive form of
+ * the operator of the same name: stack machine evaluator calls it with no {@link org.palettelabs.iumls.VariableValue}
+ * created if operands are known to be numbers (see {@link Computer#setStackEvaluation(boolean)}).
+ * <br>
+ * Method taking and returning arrays of primitives (<i>double[]</i>, <i>long[]</i>, <i>boolean[]</i>)
+ * is a column form of the operator: batch evaluation calls it once for whole columns of numbers
+ * (see {@link Computer#compute(CompiledExpression, ColumnBatch)}), result must have the length of arguments.
  * 
  * @author Nikolay Antipov
  *
@@ -0,0 +1,83 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Binary infix operator, e.g. <i>a + b</i>.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class OperatorNode extends Node {
+
+	private final String operatorString;
+	private final String libraryName;
+	private final Node left;
+	private final Node right;
+	private final LibraryMember member;
+	// null if member is not resolved
+	private final CallSite site;
+
+	/**
+	 * @param member - resolved operator or null if it could not be resolved on compilation
+	 */
+	OperatorNode(ExpressionElement element, String libraryName, LibraryMember member, Node left, Node right) {
+		super(element);
+		this.operatorString = element.getData();
+		this.libraryName = libraryName;
+		this.member = member;
+		this.site = member != null ? new CallSite(member, 2) : null;
+		this.left = left;
+		this.right = right;
+	}
+
+	String getOperatorString() {
+		return this.operatorString;
+	}
+
+	String getLibraryName() {
+		return this.libraryName;
+	}
+
+	LibraryMember getMember() {
+		return this.member;
+	}
+
+	/**
+	 * @return inline cache of the call or null if member is not resolved
+	 */
+	CallSite getSite() {
+		return this.site;
+	}
+
+	Node getLeft() {
+		return this.left;
+	}
+
+	Node getRight() {
+		return this.right;
+	}
+
+	@Override
+	VariableValue evaluate(Computer computer) throws IumlsException {
+		VariableValue[] args = new VariableValue[2];
+		args[0] = this.left.evaluate(computer);
+		args[1] = this.right.evaluate(computer);
+		EvaluationContext.step(this.element);
+		try {
+			if (this.site != null)
+				return this.site.call(args);
+			return computer.resolveOperator(this.libraryName, this.operatorString).getCall().call(args);
+		} catch (Exception e) {
+			throw error(e);
+		}
+	}
+
+	@Override
+	String describe() {
+		return "an operator '" + this.operatorString + "'";
+	}
+
+}
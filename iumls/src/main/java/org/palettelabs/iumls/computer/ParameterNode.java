@@ -0,0 +1,53 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Parameter slot of {@link PreparedExpression}, a free identifier of expression (e.g. <i>price</i>)
+ * which is bound by the caller before execution.
+ * <br>
+ * Stack machine pushes bound primitives directly, interpreter takes the value out of
+ * prepared expression executed on the current thread.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class ParameterNode extends Node {
+
+	private final int slot;
+	private final int kind;
+
+	/**
+	 * @param slot - index of parameter
+	 * @param kind - kind of bound value (see {@link StackMachine#KIND_VALUE}), the program is compiled for
+	 */
+	ParameterNode(ExpressionElement element, int slot, int kind) {
+		super(element);
+		this.slot = slot;
+		this.kind = kind;
+	}
+
+	int getSlot() {
+		return this.slot;
+	}
+
+	int getKind() {
+		return this.kind;
+	}
+
+	@Override
+	VariableValue evaluate(Computer computer) throws IumlsException {
+		PreparedExpression prepared = PreparedExpression.current();
+		if (prepared == null)
+			throw new IumlsException(describe() + " is used out of its prepared expression", this.element);
+		return prepared.getValue(this.slot);
+	}
+
+	@Override
+	String describe() {
+		return "a parameter '" + this.element.getData() + "'";
+	}
+
+}
@@ -0,0 +1,313 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.Expression;
+
+/**
+ * {@link Expression} whose free identifiers are numbered parameter slots, values are bound by the caller
+ * before every execution (like parameters of JDBC <i>PreparedStatement</i>), see {@link Computer#prepare(Expression)}.
+ * <br>
+ * Free identifier is the one which is not resolved to a library variable on preparation or is served
+ * by a default handler (see {@link DefaultVariableHandler}), e.g. <i>price</i> and <i>order.total</i> of
+ * <i>price * 2 + order.total</i> are parameters 0 and 1 (in order of their first appearance).
+ * Identifiers are resolved once, execution takes values out of slots instead of looking names up.
+ * <br>
+ * Slots are typed by the setters: primitives are kept in primitive slots (no {@link VariableValue} is made
+ * for them) and expression is compiled for the kinds of bound values, program is compiled again
+ * if they change. Prepared expression is always executed by stack machine (see {@link Computer#setStackEvaluation(boolean)}),
+ * it's interpreted if some of members are not resolved.
+ * <br>
+ * Prepared expression keeps bound values, so it's used by a single thread at a time,
+ * {@link #copy()} gives an independent one sharing compiled programs.
+ * <br>
+ * <b>Example 1</b>
+ * <pre>
+ * PreparedExpression prepared = computer.prepare(expression); // price * quantity &gt; limit
+ * prepared.setDouble("price", 10.5);
+ * prepared.setLong("quantity", 3);
+ * prepared.setDouble(2, 25);
+ * VariableValue value = prepared.execute();
+ * </pre>
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class PreparedExpression {
+
+	private static final int UNBOUND = -1;
+
+	private static final ThreadLocal<PreparedExpression> CURRENT = new ThreadLocal<PreparedExpression>();
+
+	private final Computer computer;
+	private final Expression expression;
+	private final String[] names;
+	private final Map<String, Integer> indexes;
+	// programs by kinds of parameters, shared by copies
+	private final ConcurrentMap<String, Program> programs;
+
+	// bound values, kind of slot (see StackMachine) tells the array keeping its value,
+	// booleans are kept in long slots as 0 or 1
+	private final int[] kinds;
+	private final double[] doubles;
+	private final long[] longs;
+	private final VariableValue[] values;
+
+	private Program program;
+
+	/**
+	 * Expression compiled for one combination of kinds of parameters.
+	 */
+	private static final class Program {
+
+		final int version;
+		final int[] kinds;
+		final Node root;
+		// null if tree is evaluated
+		final StackMachine machine;
+
+		Program(int version, int[] kinds, Node root, StackMachine machine) {
+			this.version = version;
+			this.kinds = kinds;
+			this.root = root;
+			this.machine = machine;
+		}
+
+	}
+
+	PreparedExpression(Computer computer, Expression expression, String[] names) {
+		this(computer, expression, names, new ConcurrentHashMap<String, Program>());
+	}
+
+	private PreparedExpression(Computer computer, Expression expression, String[] names, ConcurrentMap<String, Program> programs) {
+		this.computer = computer;
+		this.expression = expression;
+		this.names = names;
+		this.indexes = new HashMap<String, Integer>();
+		for (int t = 0; t < names.length; t++) {
+			this.indexes.put(names[t], t);
+		}
+		this.programs = programs;
+		this.kinds = new int[names.length];
+		Arrays.fill(this.kinds, UNBOUND);
+		this.doubles = new double[names.length];
+		this.longs = new long[names.length];
+		this.values = new VariableValue[names.length];
+	}
+
+	/**
+	 * @return source expression
+	 */
+	public Expression getExpression() {
+		return this.expression;
+	}
+
+	/**
+	 * @return number of parameters
+	 */
+	public int getParameterCount() {
+		return this.names.length;
+	}
+
+	/**
+	 * @param index - index of parameter
+	 * @return identifier of parameter
+	 */
+	public String getParameterName(int index) {
+		return this.names[index];
+	}
+
+	/**
+	 * @param name - identifier of parameter (e.g. <i>order.total</i>)
+	 * @return index of parameter or -1 if expression has no such parameter
+	 */
+	public int getParameterIndex(String name) {
+		Integer index = this.indexes.get(name);
+		return index != null ? index : -1;
+	}
+
+	//============= binding =============
+
+	// setters bind values to parameters by index (0 based) or by identifier, value is kept until it's bound again
+
+	public PreparedExpression setDouble(int index, double value) {
+		this.doubles[index] = value;
+		this.values[index] = null;
+		this.kinds[index] = StackMachine.KIND_DOUBLE;
+		return this;
+	}
+
+	public PreparedExpression setLong(int index, long value) {
+		this.longs[index] = value;
+		this.values[index] = null;
+		this.kinds[index] = StackMachine.KIND_LONG;
+		return this;
+	}
+
+	public PreparedExpression setBoolean(int index, boolean value) {
+		this.longs[index] = value ? 1 : 0;
+		this.values[index] = null;
+		this.kinds[index] = StackMachine.KIND_BOOLEAN;
+		return this;
+	}
+
+	public PreparedExpression setString(int index, String value) {
+		return setValue(index, value != null ? new VariableValue(value) : new VariableValue());
+	}
+
+	/**
+	 * Binds value of any type, expression gets a copy of it on every execution.
+	 */
+	public PreparedExpression setValue(int index, VariableValue value) {
+		this.values[index] = value != null ? value : new VariableValue();
+		this.kinds[index] = StackMachine.KIND_VALUE;
+		return this;
+	}
+
+	public PreparedExpression setDouble(String name, double value) throws IumlsException {
+		return setDouble(index(name), value);
+	}
+
+	public PreparedExpression setLong(String name, long value) throws IumlsException {
+		return setLong(index(name), value);
+	}
+
+	public PreparedExpression setBoolean(String name, boolean value) throws IumlsException {
+		return setBoolean(index(name), value);
+	}
+
+	public PreparedExpression setString(String name, String value) throws IumlsException {
+		return setString(index(name), value);
+	}
+
+	public PreparedExpression setValue(String name, VariableValue value) throws IumlsException {
+		return setValue(index(name), value);
+	}
+
+	/**
+	 * Unbinds all the parameters.
+	 */
+	public void clearParameters() {
+		Arrays.fill(this.kinds, UNBOUND);
+		Arrays.fill(this.values, null);
+	}
+
+	private int index(String name) throws IumlsException {
+		int index = getParameterIndex(name);
+		if (index == -1)
+			throw new IumlsException("no parameter '" + name + "' in prepared expression");
+		return index;
+	}
+
+	/**
+	 * @return value bound to parameter, a copy of it (libraries are free to change their arguments)
+	 */
+	VariableValue getValue(int index) {
+		switch (this.kinds[index]) {
+			case StackMachine.KIND_DOUBLE:
+				return new VariableValue(this.doubles[index]);
+			case StackMachine.KIND_LONG:
+				return new VariableValue(this.longs[index]);
+			case StackMachine.KIND_BOOLEAN:
+				return new VariableValue(this.longs[index] != 0);
+			default:
+				return new VariableValue(this.values[index]);
+		}
+	}
+
+	double getDouble(int index) {
+		return this.doubles[index];
+	}
+
+	long getLong(int index) {
+		return this.longs[index];
+	}
+
+	/**
+	 * @return prepared expression executed by the current thread or null
+	 */
+	static PreparedExpression current() {
+		return CURRENT.get();
+	}
+
+	//============= execution =============
+
+	/**
+	 * Executes expression with the bound parameters.
+	 * @return value of expression
+	 * @throws IumlsException throws exception if some parameter is not bound or in any case of problem of computation
+	 */
+	public VariableValue execute() throws IumlsException {
+		Program program = program();
+		if (program.machine != null)
+			return program.machine.execute(this);
+		return evaluate(program.root);
+	}
+
+	/**
+	 * Interprets tree with the bound parameters (e.g. rules of {@link RuleSet}).
+	 * @return value of tree
+	 */
+	VariableValue evaluate(Node root) throws IumlsException {
+		PreparedExpression previous = CURRENT.get();
+		CURRENT.set(this);
+		try {
+			return root.evaluate(this.computer);
+		} finally {
+			if (previous != null)
+				CURRENT.set(previous);
+			else
+				CURRENT.remove();
+		}
+	}
+
+	/**
+	 * @return independent prepared expression with no parameters bound, it shares compiled programs with this one
+	 */
+	public PreparedExpression copy() {
+		return new PreparedExpression(this.computer, this.expression, this.names, this.programs);
+	}
+
+	/**
+	 * @return program compiled for kinds of bound values and the current version of libraries
+	 */
+	private Program program() throws IumlsException {
+		int version = this.computer.getVersion();
+		Program program = this.program;
+		if ((program != null) && (program.version == version) && Arrays.equals(program.kinds, this.kinds))
+			return program;
+		for (int t = 0; t < this.kinds.length; t++) {
+			if (this.kinds[t] == UNBOUND)
+				throw new IumlsException("parameter '" + this.names[t] + "' is not bound", this.expression.getBaseElement());
+		}
+		String key = Arrays.toString(this.kinds);
+		program = this.programs.get(key);
+		if ((program == null) || (program.version != version)) {
+			program = compile(version, this.kinds.clone());
+			this.programs.put(key, program);
+		}
+		this.program = program;
+		return program;
+	}
+
+	private Program compile(int version, int[] kinds) throws IumlsException {
+		List<String> names = new ArrayList<String>(Arrays.asList(this.names));
+		Node root = new ExpressionCompiler(this.computer, names, kinds).compile(this.expression.getBaseElement());
+		// variable resolved on preparation might be gone since then
+		if (names.size() > this.names.length)
+			throw new IumlsException("identifier '" + names.get(this.names.length) + "' is not a parameter of prepared expression",
+					this.expression.getBaseElement());
+		if (this.computer.isConstantFolding())
+			root = ConstantFolder.fold(root);
+		return new Program(version, kinds, root, StackMachine.compile(root));
+	}
+
+}
@@ -0,0 +1,44 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ *
+ * Marks library method, operator or variable as pure: result depends on arguments only and
+ * nothing else is changed by the call. Call of pure member with constant arguments is evaluated
+ * once on compilation and replaced with its result (see {@link Computer#setConstantFolding(boolean)}).
+ * <br>
+ * Pure variable (field or method) is a constant, its value is read once on compilation,
+ * so changes made to the field later are not seen by already compiled expressions
+ * (until libraries of 'Computer' are changed).
+ * <br>
+ * Members which print something, depend on time (<i>sysout</i>, <i>sysdate</i>) or on any other
+ * state must not be marked.
+ * <br>
+ * <b>Example 1</b>
+ * <pre>
+ * &#64;Pure
+ * &#64;Method
+ * public VariableValue sqrt(double a) {
+ *   return new VariableValue(Math.sqrt(a));
+ * }
+ * </pre>
+ * <br>
+ * <b>Example 2</b>
+ * <pre>
+ * &#64;Pure
+ * &#64;Variable
+ * public VariableValue gravityConstant = new VariableValue(9.81);
+ * </pre>
+ *
+ * @author Nikolay Antipov
+ *
+ */
+@Target(value = {ElementType.METHOD, ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Pure {
+
+}
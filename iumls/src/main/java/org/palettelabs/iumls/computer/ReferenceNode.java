@@ -0,0 +1,47 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Reference to another expression entity of the same section, e.g. <i>shop.subtotal</i>
+ * (see {@link SectionGraph}).
+ * <br>
+ * Referenced expression is always computed first, so its value is just taken from the section computation.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class ReferenceNode extends Node {
+
+	private final int target;
+
+	/**
+	 * @param target - index of referenced expression in its {@link CompiledSection}
+	 */
+	ReferenceNode(ExpressionElement element, int target) {
+		super(element);
+		this.target = target;
+	}
+
+	int getTarget() {
+		return this.target;
+	}
+
+	@Override
+	VariableValue evaluate(Computer computer) throws IumlsException {
+		SectionComputation computation = SectionComputation.current();
+		VariableValue value = computation != null ? computation.values[this.target] : null;
+		if (value == null)
+			throw new IumlsException(describe() + " is used out of its section computation", this.element);
+		// libraries are free to change their arguments, so always give away a copy
+		return new VariableValue(value);
+	}
+
+	@Override
+	String describe() {
+		return "an entity reference '" + this.element.getData() + "'";
+	}
+
+}
@@ -0,0 +1,35 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ *
+ * Declares type of value returned by library method, operator or variable
+ * (one of {@link ExpressionTypes#NUMBER}, {@link ExpressionTypes#STRING}, {@link ExpressionTypes#BOOLEAN},
+ * {@link ExpressionTypes#DATE} or {@link ExpressionTypes#BUFFER}), so type of expression using it is known
+ * before computation (see {@link Computer#inferTypes(org.palettelabs.iumls.parser.Expression)}).
+ * <br>
+ * Member which returns values of several types (e.g. <i>+</i> of numbers and strings) must not be marked.
+ * <br>
+ * <b>Example 1</b>
+ * <pre>
+ * &#64;Returns(ExpressionTypes.BOOLEAN)
+ * &#64;Method
+ * public VariableValue isWeekend(String date) {
+ *   return new VariableValue(this.calendar.isWeekend(date));
+ * }
+ * </pre>
+ *
+ * @author Nikolay Antipov
+ *
+ */
+@Target(value = {ElementType.METHOD, ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Returns {
+
+	int value();
+
+}
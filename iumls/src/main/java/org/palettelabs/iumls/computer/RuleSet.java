@@ -0,0 +1,563 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.Expression;
+
+/**
+ * Many boolean expressions (rules) matched against one record at a time, see {@link Computer#createRuleSet()}.
+ * <br>
+ * Free identifiers of rules are fields of record (like parameters of {@link PreparedExpression}).
+ * Rules are split into conjuncts of <i>&amp;&amp;</i>, comparisons of a field with a constant
+ * (<i>==</i>, <i>&gt;</i>, <i>&gt;=</i>, <i>&lt;</i>, <i>&lt;=</i> of {@link SystemLibrary}, e.g. <i>(category == "fruit")</i>
+ * or <i>10 &lt; price</i>) are predicates indexed by field: equalities are kept in hash index, ranges in sorted arrays.
+ * Equal predicates of different rules are one predicate.
+ * <br>
+ * Matching looks up predicates satisfied by the record in indexes and counts them per rule, only rules having
+ * all their predicates satisfied are candidates, the rest of their conjuncts is evaluated then. So the cost depends
+ * on the number of satisfied predicates and candidates rather than on the number of rules.
+ * Indexes give the same results as the operators, values they could not compare the way operators do
+ * (e.g. string field compared with a number) are compared by operators themselves.
+ * <br>
+ * Predicates are checked before the rest of conjuncts, so rule failing on evaluation of some conjunct
+ * fails only if its predicates are satisfied.
+ * <br>
+ * Rules are added by a single thread, matching is thread safe.
+ * <br>
+ * <b>Example 1</b>
+ * <pre>
+ * RuleSet rules = computer.createRuleSet();
+ * rules.add("r1", expression1); // (category == "fruit") &amp;&amp; price &gt; 10
+ * rules.add("r2", expression2); // price &lt;= 10 || discount
+ * List&lt;String&gt; matched = rules.match(record); // record maps "category", "price" and "discount" to values
+ * </pre>
+ *
+ * @author Nikolay Antipov
+ *
+ */
+public class RuleSet {
+
+	// comparisons with field on the left side
+	private static final int EQUAL = 0;
+	private static final int GREATER = 1;
+	private static final int GREATER_OR_EQUAL = 2;
+	private static final int LESS = 3;
+	private static final int LESS_OR_EQUAL = 4;
+
+	private static final String[] OPERATORS = {"==", ">", ">=", "<", "<="};
+	private static final String[] METHODS = {"operatorEqual", "operatorGreater", "operatorGreaterOrEqual", "operatorLess", "operatorLessOrEqual"};
+
+	private final Computer computer;
+	private final Map<String, Expression> rules = new LinkedHashMap<String, Expression>();
+
+	private volatile Index index;
+
+	/**
+	 * Rule split into indexed predicates and the rest of conjuncts.
+	 */
+	private static final class Rule {
+
+		final String id;
+		final int predicates;
+		final Node[] residual;
+
+		Rule(String id, int predicates, Node[] residual) {
+			this.id = id;
+			this.predicates = predicates;
+			this.residual = residual;
+		}
+
+	}
+
+	/**
+	 * Comparison of field with constant shared by rules.
+	 */
+	private static final class Predicate {
+
+		final int slot;
+		final int operator;
+		final VariableValue constant;
+		// operator is called for values indexes could not compare, field is its right operand if flipped
+		final OperatorNode comparison;
+		final boolean flipped;
+		int[] rules = new int[0];
+
+		Predicate(int slot, int operator, VariableValue constant, OperatorNode comparison, boolean flipped) {
+			this.slot = slot;
+			this.operator = operator;
+			this.constant = constant;
+			this.comparison = comparison;
+			this.flipped = flipped;
+		}
+
+		boolean test(VariableValue value) throws IumlsException {
+			VariableValue[] arguments = this.flipped ? new VariableValue[] {new VariableValue(this.constant), new VariableValue(value)}
+					: new VariableValue[] {new VariableValue(value), new VariableValue(this.constant)};
+			try {
+				return this.comparison.getMember().getCall().call(arguments).asBoolean();
+			} catch (Exception e) {
+				throw this.comparison.error(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Range predicates of a field of one operator, sorted by constant.
+	 * Numeric constants are compared as longs unless field is a string, string ones are compared as strings.
+	 */
+	private static final class Range {
+
+		final int operator;
+		final long[] numbers;
+		final String[] strings;
+		final int[] predicates;
+
+		Range(int operator, List<Predicate> predicates, List<Integer> ids, boolean strings) {
+			this.operator = operator;
+			Integer[] order = ids.toArray(new Integer[ids.size()]);
+			if (strings)
+				Arrays.sort(order, (a, b) -> predicates.get(a).constant.asString().compareTo(predicates.get(b).constant.asString()));
+			else
+				Arrays.sort(order, (a, b) -> Long.compare(predicates.get(a).constant.asLong(), predicates.get(b).constant.asLong()));
+			this.numbers = strings ? null : new long[order.length];
+			this.strings = strings ? new String[order.length] : null;
+			this.predicates = new int[order.length];
+			for (int t = 0; t < order.length; t++) {
+				if (strings)
+					this.strings[t] = predicates.get(order[t]).constant.asString();
+				else
+					this.numbers[t] = predicates.get(order[t]).constant.asLong();
+				this.predicates[t] = order[t];
+			}
+		}
+
+		/**
+		 * @return index of the first constant not less (lower) or greater (upper) than value
+		 */
+		private int bound(VariableValue value, boolean upper) {
+			int low = 0;
+			int high = this.predicates.length;
+			long number = this.numbers != null ? value.asLong() : 0;
+			String string = this.strings != null ? value.asString() : null;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				int compared = this.numbers != null ? Long.compare(this.numbers[middle], number) : this.strings[middle].compareTo(string);
+				if ((compared < 0) || (upper && (compared == 0)))
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+
+		void satisfied(VariableValue value, Matching matching) throws IumlsException {
+			switch (this.operator) {
+				case GREATER:
+					matching.satisfied(this.predicates, 0, bound(value, false));
+					break;
+				case GREATER_OR_EQUAL:
+					matching.satisfied(this.predicates, 0, bound(value, true));
+					break;
+				case LESS:
+					matching.satisfied(this.predicates, bound(value, true), this.predicates.length);
+					break;
+				default:
+					matching.satisfied(this.predicates, bound(value, false), this.predicates.length);
+			}
+		}
+
+	}
+
+	/**
+	 * Indexes of a field.
+	 */
+	private static final class Field {
+
+		final Map<String, int[]> equal = new HashMap<String, int[]>();
+		final List<Range> numbers = new ArrayList<Range>();
+		final List<Range> strings = new ArrayList<Range>();
+		// predicates of numeric ranges, they are tested one by one if field is a string
+		int[] numeric = new int[0];
+
+	}
+
+	/**
+	 * Rules compiled against a version of libraries.
+	 */
+	private static final class Index {
+
+		final int version;
+		final String[] names;
+		final Rule[] rules;
+		final Predicate[] predicates;
+		final Field[] fields;
+		// rules having no predicates, they are candidates for every record
+		final int[] unindexed;
+		// counts of satisfied predicates by rule, touched ones are reset after matching
+		final ThreadLocal<int[]> counts;
+
+		Index(int version, String[] names, Rule[] rules, Predicate[] predicates, Field[] fields, int[] unindexed) {
+			this.version = version;
+			this.names = names;
+			this.rules = rules;
+			this.predicates = predicates;
+			this.fields = fields;
+			this.unindexed = unindexed;
+			this.counts = ThreadLocal.withInitial(() -> new int[rules.length]);
+		}
+
+	}
+
+	RuleSet(Computer computer) {
+		this.computer = computer;
+	}
+
+	/**
+	 * Adds rule, rule added with the same id replaces the previous one.
+	 * @param id - id of rule returned by {@link #match(Map)}
+	 * @param expression - boolean expression
+	 */
+	public RuleSet add(String id, Expression expression) {
+		this.rules.put(id, expression);
+		this.index = null;
+		return this;
+	}
+
+	/**
+	 * Removes rule.
+	 */
+	public RuleSet remove(String id) {
+		this.rules.remove(id);
+		this.index = null;
+		return this;
+	}
+
+	/**
+	 * @return number of rules
+	 */
+	public int size() {
+		return this.rules.size();
+	}
+
+	/**
+	 * @return number of distinct indexed predicates of rules
+	 * @throws IumlsException throws exception if some of rules is malformed
+	 */
+	public int getPredicateCount() throws IumlsException {
+		return index().predicates.length;
+	}
+
+	//============= matching =============
+
+	/**
+	 * State of one matching.
+	 */
+	private static final class Matching {
+
+		final Index index;
+		final PreparedExpression record;
+		final int[] counts;
+		int[] touched = new int[16];
+		int touchedCount = 0;
+		final boolean[] matched;
+		boolean any = false;
+
+		Matching(Index index, PreparedExpression record) {
+			this.index = index;
+			this.record = record;
+			this.counts = index.counts.get();
+			this.matched = new boolean[index.rules.length];
+		}
+
+		void satisfied(int[] predicates, int from, int to) throws IumlsException {
+			for (int t = from; t < to; t++) {
+				satisfied(predicates[t]);
+			}
+		}
+
+		void satisfied(int predicate) throws IumlsException {
+			for (int rule : this.index.predicates[predicate].rules) {
+				if (this.counts[rule]++ == 0) {
+					if (this.touchedCount == this.touched.length)
+						this.touched = Arrays.copyOf(this.touched, this.touched.length * 2);
+					this.touched[this.touchedCount++] = rule;
+				}
+				if (this.counts[rule] == this.index.rules[rule].predicates)
+					candidate(rule);
+			}
+		}
+
+		void candidate(int rule) throws IumlsException {
+			for (Node conjunct : this.index.rules[rule].residual) {
+				if (!this.record.evaluate(conjunct).asBoolean())
+					return;
+			}
+			this.matched[rule] = true;
+			this.any = true;
+		}
+
+		void reset() {
+			for (int t = 0; t < this.touchedCount; t++) {
+				this.counts[this.touched[t]] = 0;
+			}
+		}
+
+	}
+
+	/**
+	 * Matches record against rules.
+	 * @param record - values of fields by identifier, fields which are not there are null values
+	 * @return ids of matched rules in order they are added
+	 * @throws IumlsException throws exception if some of rules is malformed or fails on evaluation
+	 */
+	public List<String> match(Map<String, VariableValue> record) throws IumlsException {
+		Index index = index();
+		// record is bound to fields like parameters, it's never executed as a whole
+		PreparedExpression bound = new PreparedExpression(this.computer, null, index.names);
+		VariableValue[] values = new VariableValue[index.names.length];
+		for (int t = 0; t < values.length; t++) {
+			VariableValue value = record.get(index.names[t]);
+			values[t] = value != null ? value : new VariableValue();
+			bound.setValue(t, values[t]);
+		}
+
+		Matching matching = new Matching(index, bound);
+		try {
+			for (int t = 0; t < index.fields.length; t++) {
+				Field field = index.fields[t];
+				if (field == null)
+					continue;
+				VariableValue value = values[t];
+				int[] equal = field.equal.get(value.asString());
+				if (equal != null)
+					matching.satisfied(equal, 0, equal.length);
+				if (value.getType() == VariableValue.TCP_TYPE_STRING) {
+					for (int predicate : field.numeric) {
+						if (index.predicates[predicate].test(value))
+							matching.satisfied(predicate);
+					}
+				} else {
+					for (Range range : field.numbers) {
+						range.satisfied(value, matching);
+					}
+				}
+				for (Range range : field.strings) {
+					range.satisfied(value, matching);
+				}
+			}
+			for (int rule : index.unindexed) {
+				matching.candidate(rule);
+			}
+		} finally {
+			matching.reset();
+		}
+
+		List<String> matched = new ArrayList<String>();
+		if (matching.any) {
+			for (int t = 0; t < index.rules.length; t++) {
+				if (matching.matched[t])
+					matched.add(index.rules[t].id);
+			}
+		}
+		return matched;
+	}
+
+	//============= indexing =============
+
+	/**
+	 * @return index of rules compiled against the current version of libraries
+	 */
+	private Index index() throws IumlsException {
+		Index index = this.index;
+		int version = this.computer.getVersion();
+		if ((index == null) || (index.version != version)) {
+			synchronized (this) {
+				index = this.index;
+				if ((index == null) || (index.version != version)) {
+					index = build(version);
+					this.index = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	private Index build(int version) throws IumlsException {
+		List<String> names = new ArrayList<String>();
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		Map<String, Integer> keys = new HashMap<String, Integer>();
+		List<Set<Integer>> rulePredicates = new ArrayList<Set<Integer>>();
+		List<Node[]> residuals = new ArrayList<Node[]>();
+
+		for (Expression expression : this.rules.values()) {
+			Node root = new ExpressionCompiler(this.computer, names, null).compile(expression.getBaseElement());
+			if (this.computer.isConstantFolding())
+				root = ConstantFolder.fold(root);
+			List<Node> conjuncts = new ArrayList<Node>();
+			conjuncts(root, conjuncts);
+			Set<Integer> indexed = new LinkedHashSet<Integer>();
+			List<Node> residual = new ArrayList<Node>();
+			for (Node conjunct : conjuncts) {
+				Predicate predicate = predicate(conjunct);
+				if (predicate == null) {
+					residual.add(conjunct);
+					continue;
+				}
+				// predicates are shared by rules
+				String key = predicate.slot + "\t" + predicate.operator + "\t" + predicate.constant.getType() + "\t" + predicate.constant.asString();
+				Integer id = keys.get(key);
+				if (id == null) {
+					id = predicates.size();
+					keys.put(key, id);
+					predicates.add(predicate);
+				}
+				indexed.add(id);
+			}
+			rulePredicates.add(indexed);
+			residuals.add(residual.toArray(new Node[residual.size()]));
+		}
+
+		Rule[] rules = new Rule[residuals.size()];
+		List<String> ids = new ArrayList<String>(this.rules.keySet());
+		List<List<Integer>> predicateRules = new ArrayList<List<Integer>>();
+		for (int t = 0; t < predicates.size(); t++) {
+			predicateRules.add(new ArrayList<Integer>());
+		}
+		List<Integer> unindexed = new ArrayList<Integer>();
+		for (int t = 0; t < rules.length; t++) {
+			rules[t] = new Rule(ids.get(t), rulePredicates.get(t).size(), residuals.get(t));
+			for (int id : rulePredicates.get(t)) {
+				predicateRules.get(id).add(t);
+			}
+			if (rulePredicates.get(t).isEmpty())
+				unindexed.add(t);
+		}
+		for (int t = 0; t < predicates.size(); t++) {
+			predicates.get(t).rules = toArray(predicateRules.get(t));
+		}
+
+		Field[] fields = new Field[names.size()];
+		for (int slot = 0; slot < fields.length; slot++) {
+			// predicates of field by operator, numeric ones and string ones
+			List<List<Integer>> numbers = new ArrayList<List<Integer>>();
+			List<List<Integer>> strings = new ArrayList<List<Integer>>();
+			for (int t = 0; t < OPERATORS.length; t++) {
+				numbers.add(new ArrayList<Integer>());
+				strings.add(new ArrayList<Integer>());
+			}
+			Map<String, List<Integer>> equal = new HashMap<String, List<Integer>>();
+			List<Integer> numeric = new ArrayList<Integer>();
+			for (int t = 0; t < predicates.size(); t++) {
+				Predicate predicate = predicates.get(t);
+				if (predicate.slot != slot)
+					continue;
+				if (predicate.operator == EQUAL) {
+					equal.computeIfAbsent(predicate.constant.asString(), k -> new ArrayList<Integer>()).add(t);
+				} else if (predicate.constant.getType() == VariableValue.TCP_TYPE_STRING) {
+					strings.get(predicate.operator).add(t);
+				} else {
+					numbers.get(predicate.operator).add(t);
+					numeric.add(t);
+				}
+			}
+			if (equal.isEmpty() && numeric.isEmpty() && strings.stream().allMatch(List::isEmpty))
+				continue;
+			Field field = new Field();
+			for (Map.Entry<String, List<Integer>> entry : equal.entrySet()) {
+				field.equal.put(entry.getKey(), toArray(entry.getValue()));
+			}
+			for (int t = GREATER; t < OPERATORS.length; t++) {
+				if (!numbers.get(t).isEmpty())
+					field.numbers.add(new Range(t, predicates, numbers.get(t), false));
+				if (!strings.get(t).isEmpty())
+					field.strings.add(new Range(t, predicates, strings.get(t), true));
+			}
+			field.numeric = toArray(numeric);
+			fields[slot] = field;
+		}
+
+		return new Index(version, names.toArray(new String[names.size()]), rules,
+				predicates.toArray(new Predicate[predicates.size()]), fields, toArray(unindexed));
+	}
+
+	/**
+	 * Splits tree into operands of nested <i>&amp;&amp;</i>.
+	 */
+	private static void conjuncts(Node node, List<Node> conjuncts) {
+		if ((node instanceof ConditionalNode) && (((ConditionalNode) node).getKind() == ConditionalNode.AND)) {
+			for (Node operand : ((ConditionalNode) node).getOperands()) {
+				conjuncts(operand, conjuncts);
+			}
+		} else {
+			conjuncts.add(node);
+		}
+	}
+
+	/**
+	 * @return predicate if node compares field with constant by operator of {@link SystemLibrary}, null otherwise
+	 */
+	private Predicate predicate(Node node) {
+		if (!(node instanceof OperatorNode))
+			return null;
+		OperatorNode comparison = (OperatorNode) node;
+		LibraryMember member = comparison.getMember();
+		if ((member == null) || member.isTrap())
+			return null;
+		int operator = Arrays.asList(OPERATORS).indexOf(comparison.getOperatorString());
+		if (operator == -1)
+			return null;
+		Library library = this.computer.getLibrary(comparison.getLibraryName());
+		try {
+			// indexes know the semantics of system operators only
+			if (!(library instanceof SystemLibrary)
+					|| !ExpressionCompiler.isDeclared(library, METHODS[operator], VariableValue.class, VariableValue.class))
+				return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+		Node left = comparison.getLeft();
+		Node right = comparison.getRight();
+		if ((left instanceof ParameterNode) && (right instanceof ConstantNode))
+			return new Predicate(((ParameterNode) left).getSlot(), operator, ((ConstantNode) right).getValue(), comparison, false);
+		if ((left instanceof ConstantNode) && (right instanceof ParameterNode))
+			return new Predicate(((ParameterNode) right).getSlot(), flip(operator), ((ConstantNode) left).getValue(), comparison, true);
+		return null;
+	}
+
+	/**
+	 * @return operator giving the same result with operands swapped
+	 */
+	private static int flip(int operator) {
+		switch (operator) {
+			case GREATER:
+				return LESS;
+			case GREATER_OR_EQUAL:
+				return LESS_OR_EQUAL;
+			case LESS:
+				return GREATER;
+			case LESS_OR_EQUAL:
+				return GREATER_OR_EQUAL;
+			default:
+				return operator;
+		}
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int t = 0; t < array.length; t++) {
+			array[t] = list.get(t);
+		}
+		return array;
+	}
+
+}
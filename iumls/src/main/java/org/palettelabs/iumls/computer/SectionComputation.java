@@ -0,0 +1,84 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * State of a single computation of {@link CompiledSection}, shared by all the threads computing it:
+ * <ul>
+ * 	<li>values of expressions, read by entity references ({@link ReferenceNode});</li>
+ * 	<li>slots of shared subtrees ({@link SharedNode});</li>
+ * 	<li>evaluation context ({@link EvaluationContext});</li>
+ * 	<li>results of batched calls looked up ahead for the level being computed ({@link BatchedCall}).</li>
+ * </ul>
+ * Thread joins computation with {@link #begin(SectionComputation)} before evaluating its expressions.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class SectionComputation {
+
+	// computation the current thread takes part in
+	private static final ThreadLocal<SectionComputation> CURRENT = new ThreadLocal<SectionComputation>();
+
+	final VariableValue[] values;
+	final AtomicReferenceArray<VariableValue> slots;
+	final EvaluationContext context;
+	// batched call -> key -> result, replaced level by level
+	volatile Map<BatchedCall, Map<List<Object>, VariableValue>> batches;
+
+	/**
+	 * @param values - values of expressions, values of expressions which are not recomputed are taken from there
+	 * @param slots - number of shared subtrees
+	 * @param context - evaluation context of all the expressions
+	 */
+	SectionComputation(VariableValue[] values, int slots, EvaluationContext context) {
+		this.values = values;
+		this.slots = new AtomicReferenceArray<VariableValue>(slots);
+		this.context = context;
+	}
+
+	/**
+	 * @return result of batched call looked up ahead or null
+	 */
+	VariableValue batched(BatchedCall call, List<Object> key) {
+		Map<BatchedCall, Map<List<Object>, VariableValue>> batches = this.batches;
+		if (batches == null)
+			return null;
+		Map<List<Object>, VariableValue> results = batches.get(call);
+		return results != null ? results.get(key) : null;
+	}
+
+	/**
+	 * @return computation the current thread takes part in or null
+	 */
+	static SectionComputation current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Joins computation on the current thread.
+	 * @return computation which was in progress (section computed from inside of a library call
+	 * 	or another task run by the same pool thread)
+	 */
+	static SectionComputation begin(SectionComputation computation) {
+		SectionComputation previous = CURRENT.get();
+		CURRENT.set(computation);
+		return previous;
+	}
+
+	/**
+	 * Leaves computation.
+	 * @param previous - value returned by {@link #begin(SectionComputation)}
+	 */
+	static void end(SectionComputation previous) {
+		if (previous != null)
+			CURRENT.set(previous);
+		else
+			CURRENT.remove();
+	}
+
+}
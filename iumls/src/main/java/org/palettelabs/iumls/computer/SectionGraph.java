@@ -0,0 +1,263 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.parser.Array;
+import org.palettelabs.iumls.parser.Entity;
+import org.palettelabs.iumls.parser.Expression;
+import org.palettelabs.iumls.parser.Section;
+
+/**
+ * Dependency graph of expressions of {@link CompiledSection}.
+ * <br>
+ * Identifier of expression might reference another expression entity of the section by the path of
+ * entity names (array items are referenced by their indexes): <i>total = shop.subtotal * 1.2</i>.
+ * The first name is looked up in the section (or array) the expression belongs to, then in the enclosing ones
+ * up to the root section. Entity never references itself, identifier which is not a path of an expression entity
+ * is a library variable as usual.
+ * <br>
+ * Graph orders expressions by levels: expressions of a level depend on the ones of previous levels only,
+ * so a level is computed in parallel. Cyclic references are reported on compilation.
+ * Graph also keeps library variables read by expressions, so after a change of a variable or an entity
+ * only the affected expressions are recomputed.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class SectionGraph {
+
+	private final List<Expression> expressions;
+	private final Map<Expression, Integer> indexes = new IdentityHashMap<Expression, Integer>();
+	// containers (sections and arrays) of expression, the innermost first
+	private final List<List<Entity>> scopes = new ArrayList<List<Entity>>();
+
+	// expression -> expressions it references
+	private final List<Set<Integer>> dependencies = new ArrayList<Set<Integer>>();
+	// expression -> expressions referencing it
+	private final List<Set<Integer>> dependents = new ArrayList<Set<Integer>>();
+	// "library.variable" -> expressions reading it
+	private final Map<String, Set<Integer>> readers = new HashMap<String, Set<Integer>>();
+
+	// expression -> its level
+	private int[] levels;
+
+	SectionGraph(Section section) {
+		this.expressions = new ArrayList<Expression>();
+		List<Entity> scope = new ArrayList<Entity>();
+		scope.add(section);
+		collect(section.getEntities(), scope);
+	}
+
+	private void collect(List<Entity> entities, List<Entity> scope) {
+		for (Entity entity : entities) {
+			if (entity instanceof Expression) {
+				this.indexes.put((Expression) entity, this.expressions.size());
+				this.expressions.add((Expression) entity);
+				this.scopes.add(scope);
+				this.dependencies.add(new HashSet<Integer>());
+				this.dependents.add(new HashSet<Integer>());
+			} else if ((entity instanceof Section) || (entity instanceof Array)) {
+				List<Entity> nested = new ArrayList<Entity>(scope.size() + 1);
+				nested.add(entity);
+				nested.addAll(scope);
+				collect(entity instanceof Section ? ((Section) entity).getEntities() : ((Array) entity).getEntities(), nested);
+			}
+		}
+	}
+
+	/**
+	 * @return expressions in document order
+	 */
+	List<Expression> getExpressions() {
+		return this.expressions;
+	}
+
+	/**
+	 * @return index of expression or -1
+	 */
+	int indexOf(Expression expression) {
+		Integer index = this.indexes.get(expression);
+		return index != null ? index : -1;
+	}
+
+	//============= references =============
+
+	/**
+	 * Resolves identifier of expression as an entity reference and adds dependency on it.
+	 * @param from - index of expression
+	 * @param identifier - identifier, e.g. <i>shop.subtotal</i>
+	 * @return index of referenced expression or -1 if identifier is not a reference
+	 */
+	int resolve(int from, String identifier) {
+		String[] path = identifier.split("\\.");
+		Expression self = this.expressions.get(from);
+		for (Entity container : this.scopes.get(from)) {
+			Entity entity = find(container, path[0], self);
+			if (entity == null)
+				continue;
+			for (int t = 1; (t < path.length) && (entity != null); t++) {
+				entity = find(entity, path[t], self);
+			}
+			Integer target = entity instanceof Expression ? this.indexes.get(entity) : null;
+			if (target == null)
+				return -1;
+			this.dependencies.get(from).add(target);
+			this.dependents.get(target).add(from);
+			return target;
+		}
+		return -1;
+	}
+
+	private static Entity find(Entity container, String name, Expression self) {
+		if (container instanceof Section) {
+			for (Entity entity : ((Section) container).getEntities()) {
+				if ((entity != self) && name.equals(entity.getName()))
+					return entity;
+			}
+		} else if (container instanceof Array) {
+			List<Entity> entities = ((Array) container).getEntities();
+			try {
+				int index = Integer.parseInt(name);
+				if ((index >= 0) && (index < entities.size()) && (entities.get(index) != self))
+					return entities.get(index);
+			} catch (NumberFormatException e) {
+				// not an index
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Remembers library variables read by expression.
+	 * @param from - index of expression
+	 * @param root - root of expression tree
+	 */
+	void addVariables(int from, Node root) {
+		if (root instanceof VariableNode) {
+			VariableNode variable = (VariableNode) root;
+			String key = variable.getLibraryName() + "." + variable.getVariableName();
+			Set<Integer> set = this.readers.get(key);
+			if (set == null) {
+				set = new HashSet<Integer>();
+				this.readers.put(key, set);
+			}
+			set.add(from);
+		} else if (root instanceof OperatorNode) {
+			addVariables(from, ((OperatorNode) root).getLeft());
+			addVariables(from, ((OperatorNode) root).getRight());
+		} else if (root instanceof FunctionNode) {
+			for (Node argument : ((FunctionNode) root).getArguments()) {
+				addVariables(from, argument);
+			}
+		} else if (root instanceof ConditionalNode) {
+			for (Node operand : ((ConditionalNode) root).getOperands()) {
+				addVariables(from, operand);
+			}
+		}
+	}
+
+	//============= ordering =============
+
+	/**
+	 * Orders expressions topologically.
+	 * @param roots - compiled expressions (cycles are reported against their elements)
+	 * @throws IumlsException throws exception if references are cyclic
+	 */
+	void order(Node[] roots) throws IumlsException {
+		int size = this.expressions.size();
+		int[] levels = new int[size];
+		int[] pending = new int[size];
+		List<Integer> queue = new ArrayList<Integer>(size);
+		for (int f = 0; f < size; f++) {
+			pending[f] = this.dependencies.get(f).size();
+			if (pending[f] == 0)
+				queue.add(f);
+		}
+		for (int q = 0; q < queue.size(); q++) {
+			int f = queue.get(q);
+			for (int dependent : this.dependents.get(f)) {
+				levels[dependent] = Math.max(levels[dependent], levels[f] + 1);
+				if (--pending[dependent] == 0)
+					queue.add(dependent);
+			}
+		}
+		if (queue.size() < size) {
+			for (int f = 0; f < size; f++) {
+				if (pending[f] > 0)
+					throw new IumlsException("cyclic reference of entity '" + this.expressions.get(f).getName() + "'",
+							roots[f].getElement());
+			}
+		}
+		this.levels = levels;
+	}
+
+	/**
+	 * @return indexes of all the expressions by levels
+	 */
+	int[][] levels() {
+		boolean[] all = new boolean[this.expressions.size()];
+		Arrays.fill(all, true);
+		return levels(all);
+	}
+
+	/**
+	 * @param selected - expressions to order
+	 * @return indexes of the selected expressions by levels, document order inside of level
+	 */
+	int[][] levels(boolean[] selected) {
+		int depth = 0;
+		for (int f = 0; f < selected.length; f++) {
+			if (selected[f])
+				depth = Math.max(depth, this.levels[f] + 1);
+		}
+		int[] counts = new int[depth];
+		for (int f = 0; f < selected.length; f++) {
+			if (selected[f])
+				counts[this.levels[f]]++;
+		}
+		int[][] result = new int[depth][];
+		for (int l = 0; l < depth; l++) {
+			result[l] = new int[counts[l]];
+			counts[l] = 0;
+		}
+		for (int f = 0; f < selected.length; f++) {
+			if (selected[f])
+				result[this.levels[f]][counts[this.levels[f]]++] = f;
+		}
+		return result;
+	}
+
+	//============= changes =============
+
+	/**
+	 * @param variables - changed library variables ("library.variable")
+	 * @param expressions - changed expressions
+	 * @return changed expressions, expressions reading the variables and everything downstream of them
+	 */
+	boolean[] affected(Set<String> variables, Set<Integer> expressions) {
+		boolean[] affected = new boolean[this.expressions.size()];
+		List<Integer> queue = new ArrayList<Integer>(expressions);
+		for (String variable : variables) {
+			Set<Integer> set = this.readers.get(variable);
+			if (set != null)
+				queue.addAll(set);
+		}
+		for (int q = 0; q < queue.size(); q++) {
+			int f = queue.get(q);
+			if (affected[f])
+				continue;
+			affected[f] = true;
+			queue.addAll(this.dependents.get(f));
+		}
+		return affected;
+	}
+
+}
@@ -0,0 +1,74 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.concurrent.RecursiveAction;
+
+import org.palettelabs.iumls.IumlsException;
+
+/**
+ * Fork/join task computing a range of independent expressions of {@link CompiledSection}
+ * (e.g. a level of {@link SectionGraph}).
+ * <br>
+ * Range is split in halves until it is not longer than the threshold, every value and error is put
+ * to the position of its expression, so results do not depend on the order tasks are run in.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class SectionTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Computer computer;
+	private final Node[] roots;
+	private final SectionComputation computation;
+	private final int[] order;
+	private final IumlsException[] errors;
+	private final int threshold;
+	private final int from;
+	private final int to;
+
+	/**
+	 * @param computation - computation values are put to
+	 * @param order - indexes of expressions to compute, range is a range of this array
+	 * @param errors - errors of expressions, the first error of a range stops its computation
+	 * @param threshold - length of range which is not split anymore
+	 */
+	SectionTask(Computer computer, Node[] roots, SectionComputation computation, int[] order,
+			IumlsException[] errors, int threshold, int from, int to) {
+		this.computer = computer;
+		this.roots = roots;
+		this.computation = computation;
+		this.order = order;
+		this.errors = errors;
+		this.threshold = Math.max(threshold, 1);
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+		if (this.to - this.from > this.threshold) {
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new SectionTask(this.computer, this.roots, this.computation, this.order, this.errors, this.threshold, this.from, middle),
+					new SectionTask(this.computer, this.roots, this.computation, this.order, this.errors, this.threshold, middle, this.to));
+			return;
+		}
+		SectionComputation previous = SectionComputation.begin(this.computation);
+		EvaluationContext previousContext = EvaluationContext.begin(this.computation.context);
+		try {
+			for (int f = this.from; f < this.to; f++) {
+				int index = this.order[f];
+				try {
+					this.computation.values[index] = this.roots[index].evaluate(this.computer);
+				} catch (IumlsException e) {
+					this.errors[index] = e;
+					break;
+				}
+			}
+		} finally {
+			EvaluationContext.end(previousContext);
+			SectionComputation.end(previous);
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Subtree shared by several expressions of a section (see {@link NodeTable}).
+ * <br>
+ * While section is computed its value is evaluated once and kept in a slot of the section computation,
+ * every other use gets a copy of it. Slots are shared by all the threads computing the section
+ * (see {@link SectionComputation}), two threads might evaluate the same
+ * subtree at once, pure subtree gives the same value anyway. Out of section computation subtree is just evaluated.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class SharedNode extends Node {
+
+	private final Node node;
+	private final int slot;
+
+	SharedNode(Node node, int slot) {
+		super(node.getElement());
+		this.node = node;
+		this.slot = slot;
+	}
+
+	Node getNode() {
+		return this.node;
+	}
+
+	@Override
+	VariableValue evaluate(Computer computer) throws IumlsException {
+		SectionComputation computation = SectionComputation.current();
+		AtomicReferenceArray<VariableValue> slots = computation != null ? computation.slots : null;
+		if ((slots == null) || (this.slot >= slots.length()))
+			return this.node.evaluate(computer);
+		VariableValue value = slots.get(this.slot);
+		if (value == null) {
+			value = this.node.evaluate(computer);
+			if (!slots.compareAndSet(this.slot, null, value))
+				value = slots.get(this.slot);
+		}
+		// libraries are free to change their arguments, so always give away a copy
+		return new VariableValue(value);
+	}
+
+	@Override
+	String describe() {
+		return this.node.describe();
+	}
+
+}
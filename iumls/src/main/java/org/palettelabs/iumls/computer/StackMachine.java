@@ -0,0 +1,677 @@
+package org.palettelabs.iumls.computer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+
+/**
+ * Flat stack machine program compiled from expression tree.
+ * <br>
+ * Every value has a static kind: numbers and booleans are kept in primitive slots of
+ * <i>double[]</i>/<i>long[]</i> operand stacks, everything else is {@link VariableValue}.
+ * Operators and methods with a primitive form ({@link LibraryMember#getFunction()}) are called
+ * with primitives if all their operands are primitives, so {@link VariableValue} is created only
+ * on the boundary of a library which has no primitive form and for the final result.
+ * <br>
+ * Operand stacks are allocated once per thread and reused, a program reserves
+ * the depth it needs on top of them (so expressions computed from inside of a library call are safe).
+ * Program is executed by a single loop, nested function calls are not recursive.
+ * Lazy forms (see {@link ConditionalNode}) are forward jumps over operands which are not needed.
+ * Parameters of {@link PreparedExpression} are read out of its slots by their kinds.
+ * <br>
+ * Conversions between primitive kinds follow the ones of {@link VariableValue}
+ * (e.g. <i>asLong()</i> of double truncates it, <i>asBoolean()</i> of double is true if it's positive).
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class StackMachine {
+
+	static final int KIND_DOUBLE = 0;
+	static final int KIND_LONG = 1;
+	// kept in long slots as 0 or 1
+	static final int KIND_BOOLEAN = 2;
+	static final int KIND_VALUE = 3;
+
+	private static final int PUSH_DOUBLE = 0;
+	private static final int PUSH_VALUE = 1;
+	private static final int VARIABLE = 2;
+	private static final int CALL = 3;
+	private static final int DOUBLE_FUNCTION1 = 4;
+	private static final int DOUBLE_FUNCTION2 = 5;
+	private static final int DOUBLE_COMPARISON = 6;
+	private static final int LONG_FUNCTION1 = 7;
+	private static final int LONG_FUNCTION2 = 8;
+	private static final int BOOLEAN_FUNCTION1 = 9;
+	private static final int BOOLEAN_FUNCTION2 = 10;
+	private static final int DOUBLE_TO_LONG = 11;
+	private static final int LONG_TO_DOUBLE = 12;
+	private static final int DOUBLE_TO_BOOLEAN = 13;
+	private static final int LONG_TO_BOOLEAN = 14;
+	private static final int BOX_DOUBLE = 15;
+	private static final int BOX_LONG = 16;
+	private static final int BOX_BOOLEAN = 17;
+	private static final int PUSH_LONG = 18;
+	private static final int UNBOX_BOOLEAN = 19;
+	private static final int JUMP = 20;
+	private static final int JUMP_IF_FALSE = 21;
+	// jump keeping the value on stack or pop it
+	private static final int JUMP_IF_FALSE_OR_POP = 22;
+	private static final int JUMP_IF_TRUE_OR_POP = 23;
+	private static final int JUMP_IF_NOT_NULL_OR_POP = 24;
+	// parameters of prepared expression, primitive ones are pushed as they are bound
+	private static final int PARAMETER_DOUBLE = 25;
+	private static final int PARAMETER_LONG = 26;
+	private static final int PARAMETER_VALUE = 27;
+
+	private static final ThreadLocal<Stacks> STACKS = new ThreadLocal<Stacks>() {
+		@Override
+		protected Stacks initialValue() {
+			return new Stacks();
+		}
+	};
+
+	/**
+	 * Operand stacks of a thread.
+	 */
+	private static class Stacks {
+		double[] doubles = new double[16];
+		long[] longs = new long[16];
+		VariableValue[] values = new VariableValue[16];
+		int doubleTop = 0;
+		int longTop = 0;
+		int valueTop = 0;
+	}
+
+	// instructions
+	private int[] opcodes;
+	private int[] operands;
+	private int[] arities;
+	private Node[] nodes;
+
+	// operands of instructions
+	private double[] doubles;
+	private long[] longs;
+	private VariableValue[] values;
+	private Object[] calls;
+
+	private int maxDoubles = 0;
+	private int maxLongs = 0;
+	private int maxValues = 0;
+	private int resultKind;
+
+	private StackMachine() {
+	}
+
+	//============= compilation =============
+
+	/**
+	 * Compiles tree into program.
+	 * @param root - root of expression tree
+	 * @return program or null if tree has unresolved members (interpreter reports them)
+	 */
+	static StackMachine compile(Node root) {
+		Compiler compiler = new Compiler();
+		if (!compiler.isResolved(root))
+			return null;
+		StackMachine machine = new StackMachine();
+		machine.resultKind = compiler.emit(root);
+		int size = compiler.opcodes.size();
+		machine.opcodes = new int[size];
+		machine.operands = new int[size];
+		machine.arities = new int[size];
+		for (int f = 0; f < size; f++) {
+			machine.opcodes[f] = compiler.opcodes.get(f);
+			machine.operands[f] = compiler.operands.get(f);
+			machine.arities[f] = compiler.arities.get(f);
+		}
+		machine.nodes = compiler.nodes.toArray(new Node[size]);
+		machine.doubles = new double[compiler.doubles.size()];
+		for (int f = 0; f < machine.doubles.length; f++) {
+			machine.doubles[f] = compiler.doubles.get(f);
+		}
+		machine.longs = new long[compiler.longs.size()];
+		for (int f = 0; f < machine.longs.length; f++) {
+			machine.longs[f] = compiler.longs.get(f);
+		}
+		machine.values = compiler.values.toArray(new VariableValue[compiler.values.size()]);
+		machine.calls = compiler.calls.toArray();
+		machine.maxDoubles = compiler.maxDoubles;
+		machine.maxLongs = compiler.maxLongs;
+		machine.maxValues = compiler.maxValues;
+		return machine;
+	}
+
+	private static class Compiler {
+
+		List<Integer> opcodes = new ArrayList<Integer>();
+		List<Integer> operands = new ArrayList<Integer>();
+		List<Integer> arities = new ArrayList<Integer>();
+		List<Node> nodes = new ArrayList<Node>();
+		List<Double> doubles = new ArrayList<Double>();
+		List<Long> longs = new ArrayList<Long>();
+		List<VariableValue> values = new ArrayList<VariableValue>();
+		List<Object> calls = new ArrayList<Object>();
+
+		Map<Node, Integer> kinds = new IdentityHashMap<Node, Integer>();
+
+		int doubleDepth = 0;
+		int longDepth = 0;
+		int valueDepth = 0;
+		int maxDoubles = 0;
+		int maxLongs = 0;
+		int maxValues = 0;
+
+		boolean isResolved(Node node) {
+			if (node instanceof VariableNode)
+				return ((VariableNode) node).getMember() != null;
+			if (node instanceof OperatorNode) {
+				OperatorNode operator = (OperatorNode) node;
+				return (operator.getMember() != null) && isResolved(operator.getLeft()) && isResolved(operator.getRight());
+			}
+			if (node instanceof FunctionNode) {
+				FunctionNode function = (FunctionNode) node;
+				if (function.getMember() == null)
+					return false;
+				for (Node argument : function.getArguments()) {
+					if (!isResolved(argument))
+						return false;
+				}
+				return true;
+			}
+			if (node instanceof ConditionalNode) {
+				for (Node operand : ((ConditionalNode) node).getOperands()) {
+					if (!isResolved(operand))
+						return false;
+				}
+				return true;
+			}
+			return (node instanceof ConstantNode) || (node instanceof ParameterNode);
+		}
+
+		/**
+		 * @return kind of node value
+		 */
+		int kind(Node node) {
+			Integer kind = this.kinds.get(node);
+			if (kind != null)
+				return kind;
+			int k = KIND_VALUE;
+			if (node instanceof ConstantNode) {
+				k = constantKind(((ConstantNode) node).getValue());
+			} else if (node instanceof ParameterNode) {
+				k = ((ParameterNode) node).getKind();
+			} else if ((node instanceof OperatorNode) || (node instanceof FunctionNode)) {
+				Object function = primitiveFunction(node);
+				if (function != null)
+					k = functionKind(function);
+			} else if (node instanceof ConditionalNode) {
+				ConditionalNode conditional = (ConditionalNode) node;
+				if ((conditional.getKind() == ConditionalNode.AND) || (conditional.getKind() == ConditionalNode.OR))
+					k = KIND_BOOLEAN;
+				else if ((conditional.getKind() == ConditionalNode.IF)
+						&& (kind(conditional.getOperands()[1]) == kind(conditional.getOperands()[2])))
+					k = kind(conditional.getOperands()[1]);
+			}
+			this.kinds.put(node, k);
+			return k;
+		}
+
+		/**
+		 * @return kind of constant (literal or folded one)
+		 */
+		int constantKind(VariableValue value) {
+			if (value.isNull())
+				return KIND_VALUE;
+			if (value.getType() == VariableValue.TCP_TYPE_DOUBLE)
+				return KIND_DOUBLE;
+			if (value.getType() == VariableValue.TCP_TYPE_LONG)
+				return KIND_LONG;
+			if (value.getType() == VariableValue.TCP_TYPE_BOOLEAN)
+				return KIND_BOOLEAN;
+			return KIND_VALUE;
+		}
+
+		/**
+		 * @return primitive form of member if it is applicable to operands of node or null
+		 */
+		Object primitiveFunction(Node node) {
+			LibraryMember member;
+			Node[] arguments;
+			if (node instanceof OperatorNode) {
+				OperatorNode operator = (OperatorNode) node;
+				member = operator.getMember();
+				arguments = new Node[] {operator.getLeft(), operator.getRight()};
+			} else {
+				FunctionNode function = (FunctionNode) node;
+				member = function.getMember();
+				arguments = function.getArguments();
+			}
+			Object function = member.isTrap() ? null : member.getFunction();
+			if ((function == null) || (functionArity(function) != arguments.length))
+				return null;
+			// primitive form might differ from the general one for other kinds (e.g. "+" of strings)
+			for (Node argument : arguments) {
+				if (kind(argument) == KIND_VALUE)
+					return null;
+			}
+			return function;
+		}
+
+		/**
+		 * Emits node.
+		 * @return kind of value left on stack
+		 */
+		int emit(Node node) {
+			if (node instanceof ConstantNode) {
+				VariableValue value = ((ConstantNode) node).getValue();
+				if (kind(node) == KIND_DOUBLE) {
+					this.doubles.add(value.asDouble());
+					add(PUSH_DOUBLE, this.doubles.size() - 1, node);
+				} else if (kind(node) == KIND_LONG) {
+					this.longs.add(value.asLong());
+					add(PUSH_LONG, this.longs.size() - 1, node);
+				} else if (kind(node) == KIND_BOOLEAN) {
+					this.longs.add(value.asBoolean() ? 1L : 0L);
+					add(PUSH_LONG, this.longs.size() - 1, node);
+				} else {
+					this.values.add(value);
+					add(PUSH_VALUE, this.values.size() - 1, node);
+				}
+				push(kind(node));
+				return kind(node);
+			}
+
+			if (node instanceof VariableNode) {
+				this.calls.add(((VariableNode) node).getMember().getCall());
+				add(VARIABLE, this.calls.size() - 1, node);
+				push(KIND_VALUE);
+				return KIND_VALUE;
+			}
+
+			if (node instanceof ParameterNode) {
+				int kind = kind(node);
+				add(kind == KIND_DOUBLE ? PARAMETER_DOUBLE : (kind == KIND_VALUE ? PARAMETER_VALUE : PARAMETER_LONG),
+						((ParameterNode) node).getSlot(), node);
+				push(kind);
+				return kind;
+			}
+
+			if (node instanceof ConditionalNode)
+				return emitConditional((ConditionalNode) node);
+
+			LibraryMember member;
+			Node[] arguments;
+			if (node instanceof OperatorNode) {
+				OperatorNode operator = (OperatorNode) node;
+				member = operator.getMember();
+				arguments = new Node[] {operator.getLeft(), operator.getRight()};
+			} else {
+				FunctionNode function = (FunctionNode) node;
+				member = function.getMember();
+				arguments = function.getArguments();
+			}
+
+			Object function = primitiveFunction(node);
+			if (function != null) {
+				int parameterKind = functionParameterKind(function);
+				for (Node argument : arguments) {
+					convert(emit(argument), parameterKind, argument);
+				}
+				this.calls.add(function);
+				add(functionOpcode(function), this.calls.size() - 1, node);
+				for (int f = 0; f < arguments.length; f++) {
+					pop(parameterKind);
+				}
+				push(functionKind(function));
+				return functionKind(function);
+			}
+
+			for (Node argument : arguments) {
+				convert(emit(argument), KIND_VALUE, argument);
+			}
+			this.calls.add(member.getCall());
+			add(CALL, this.calls.size() - 1, node);
+			this.arities.set(this.arities.size() - 1, arguments.length);
+			for (int f = 0; f < arguments.length; f++) {
+				pop(KIND_VALUE);
+			}
+			push(KIND_VALUE);
+			return KIND_VALUE;
+		}
+
+		/**
+		 * Emits lazy form, operands which are not needed are jumped over.
+		 * @return kind of value left on stack
+		 */
+		int emitConditional(ConditionalNode node) {
+			Node[] operands = node.getOperands();
+			int kind = kind(node);
+			switch (node.getKind()) {
+				case ConditionalNode.AND:
+				case ConditionalNode.OR: {
+					convert(emit(operands[0]), KIND_BOOLEAN, operands[0]);
+					int end = jump(node.getKind() == ConditionalNode.AND ? JUMP_IF_FALSE_OR_POP : JUMP_IF_TRUE_OR_POP, node);
+					pop(KIND_BOOLEAN);
+					convert(emit(operands[1]), KIND_BOOLEAN, operands[1]);
+					bind(end);
+					return KIND_BOOLEAN;
+				}
+				case ConditionalNode.IF: {
+					convert(emit(operands[0]), KIND_BOOLEAN, operands[0]);
+					int otherwise = jump(JUMP_IF_FALSE, node);
+					pop(KIND_BOOLEAN);
+					convert(emit(operands[1]), kind, operands[1]);
+					int end = jump(JUMP, node);
+					// the other operand starts with the same stacks
+					pop(kind);
+					bind(otherwise);
+					convert(emit(operands[2]), kind, operands[2]);
+					bind(end);
+					return kind;
+				}
+				default: {
+					List<Integer> ends = new ArrayList<Integer>();
+					for (int t = 0; t < operands.length - 1; t++) {
+						convert(emit(operands[t]), KIND_VALUE, operands[t]);
+						ends.add(jump(JUMP_IF_NOT_NULL_OR_POP, node));
+						pop(KIND_VALUE);
+					}
+					convert(emit(operands[operands.length - 1]), KIND_VALUE, operands[operands.length - 1]);
+					for (int end : ends) {
+						bind(end);
+					}
+					return KIND_VALUE;
+				}
+			}
+		}
+
+		/**
+		 * @return index of jump instruction, its target is set by {@link #bind(int)}
+		 */
+		int jump(int opcode, Node node) {
+			add(opcode, -1, node);
+			return this.opcodes.size() - 1;
+		}
+
+		/**
+		 * Makes jump target the next instruction.
+		 */
+		void bind(int jump) {
+			this.operands.set(jump, this.opcodes.size());
+		}
+
+		void convert(int from, int to, Node node) {
+			if (from == to)
+				return;
+			if (from == KIND_VALUE) {
+				// lazy forms only take conditions out of values
+				add(UNBOX_BOOLEAN, 0, node);
+			} else if (to == KIND_VALUE) {
+				add(from == KIND_DOUBLE ? BOX_DOUBLE : (from == KIND_LONG ? BOX_LONG : BOX_BOOLEAN), 0, node);
+			} else if (to == KIND_DOUBLE) {
+				// long and boolean are both in long slots, boolean is 0 or 1 there
+				add(LONG_TO_DOUBLE, 0, node);
+			} else if (to == KIND_LONG) {
+				if (from == KIND_DOUBLE)
+					add(DOUBLE_TO_LONG, 0, node);
+			} else {
+				add(from == KIND_DOUBLE ? DOUBLE_TO_BOOLEAN : LONG_TO_BOOLEAN, 0, node);
+			}
+			pop(from);
+			push(to);
+		}
+
+		void add(int opcode, int operand, Node node) {
+			this.opcodes.add(opcode);
+			this.operands.add(operand);
+			this.arities.add(0);
+			this.nodes.add(node);
+		}
+
+		void push(int kind) {
+			if (kind == KIND_DOUBLE)
+				this.maxDoubles = Math.max(this.maxDoubles, ++this.doubleDepth);
+			else if (kind == KIND_VALUE)
+				this.maxValues = Math.max(this.maxValues, ++this.valueDepth);
+			else
+				this.maxLongs = Math.max(this.maxLongs, ++this.longDepth);
+		}
+
+		void pop(int kind) {
+			if (kind == KIND_DOUBLE)
+				this.doubleDepth--;
+			else if (kind == KIND_VALUE)
+				this.valueDepth--;
+			else
+				this.longDepth--;
+		}
+
+	}
+
+	//============= primitive forms =============
+
+	private static int functionArity(Object function) {
+		if ((function instanceof LibraryBuilder.DoubleFunction1) || (function instanceof LibraryBuilder.LongFunction1)
+				|| (function instanceof LibraryBuilder.BooleanFunction1))
+			return 1;
+		if ((function instanceof LibraryBuilder.DoubleFunction2) || (function instanceof LibraryBuilder.DoubleComparison)
+				|| (function instanceof LibraryBuilder.LongFunction2) || (function instanceof LibraryBuilder.BooleanFunction2))
+			return 2;
+		return -1;
+	}
+
+	private static int functionParameterKind(Object function) {
+		if ((function instanceof LibraryBuilder.DoubleFunction1) || (function instanceof LibraryBuilder.DoubleFunction2)
+				|| (function instanceof LibraryBuilder.DoubleComparison))
+			return KIND_DOUBLE;
+		if ((function instanceof LibraryBuilder.LongFunction1) || (function instanceof LibraryBuilder.LongFunction2))
+			return KIND_LONG;
+		return KIND_BOOLEAN;
+	}
+
+	private static int functionKind(Object function) {
+		if ((function instanceof LibraryBuilder.DoubleFunction1) || (function instanceof LibraryBuilder.DoubleFunction2))
+			return KIND_DOUBLE;
+		if ((function instanceof LibraryBuilder.LongFunction1) || (function instanceof LibraryBuilder.LongFunction2))
+			return KIND_LONG;
+		return KIND_BOOLEAN;
+	}
+
+	private static int functionOpcode(Object function) {
+		if (function instanceof LibraryBuilder.DoubleFunction1)
+			return DOUBLE_FUNCTION1;
+		if (function instanceof LibraryBuilder.DoubleFunction2)
+			return DOUBLE_FUNCTION2;
+		if (function instanceof LibraryBuilder.DoubleComparison)
+			return DOUBLE_COMPARISON;
+		if (function instanceof LibraryBuilder.LongFunction1)
+			return LONG_FUNCTION1;
+		if (function instanceof LibraryBuilder.LongFunction2)
+			return LONG_FUNCTION2;
+		if (function instanceof LibraryBuilder.BooleanFunction1)
+			return BOOLEAN_FUNCTION1;
+		return BOOLEAN_FUNCTION2;
+	}
+
+	//============= execution =============
+
+	/**
+	 * Executes program.
+	 * @return value of expression
+	 * @throws IumlsException throws exception in any case of problem
+	 */
+	VariableValue execute() throws IumlsException {
+		return execute(null);
+	}
+
+	/**
+	 * Executes program of prepared expression.
+	 * @param parameters - prepared expression keeping values of parameters
+	 * @return value of expression
+	 * @throws IumlsException throws exception in any case of problem
+	 */
+	VariableValue execute(PreparedExpression parameters) throws IumlsException {
+		Stacks stacks = STACKS.get();
+
+		// reserve slots on top of stacks, nested executions go above them
+		int doubleBase = stacks.doubleTop;
+		int longBase = stacks.longTop;
+		int valueBase = stacks.valueTop;
+		if (doubleBase + this.maxDoubles > stacks.doubles.length)
+			stacks.doubles = Arrays.copyOf(stacks.doubles, Math.max(stacks.doubles.length * 2, doubleBase + this.maxDoubles));
+		if (longBase + this.maxLongs > stacks.longs.length)
+			stacks.longs = Arrays.copyOf(stacks.longs, Math.max(stacks.longs.length * 2, longBase + this.maxLongs));
+		if (valueBase + this.maxValues > stacks.values.length)
+			stacks.values = Arrays.copyOf(stacks.values, Math.max(stacks.values.length * 2, valueBase + this.maxValues));
+		double[] ds = stacks.doubles;
+		long[] ls = stacks.longs;
+		VariableValue[] vs = stacks.values;
+		stacks.doubleTop = doubleBase + this.maxDoubles;
+		stacks.longTop = longBase + this.maxLongs;
+		stacks.valueTop = valueBase + this.maxValues;
+
+		int d = doubleBase;
+		int l = longBase;
+		int v = valueBase;
+		int pc = 0;
+		// limits are looked for once per execution
+		EvaluationContext context = EvaluationContext.limited();
+		try {
+			for (int size = this.opcodes.length; pc < size; pc++) {
+				if (context != null)
+					context.consume(this.nodes[pc].getElement());
+				switch (this.opcodes[pc]) {
+					case PUSH_DOUBLE:
+						ds[d++] = this.doubles[this.operands[pc]];
+						break;
+					case PUSH_LONG:
+						ls[l++] = this.longs[this.operands[pc]];
+						break;
+					case PUSH_VALUE:
+						// libraries are free to change their arguments, so always give away a copy
+						vs[v++] = new VariableValue(this.values[this.operands[pc]]);
+						break;
+					case PARAMETER_DOUBLE:
+						ds[d++] = parameters.getDouble(this.operands[pc]);
+						break;
+					case PARAMETER_LONG:
+						ls[l++] = parameters.getLong(this.operands[pc]);
+						break;
+					case PARAMETER_VALUE:
+						vs[v++] = parameters.getValue(this.operands[pc]);
+						break;
+					case VARIABLE:
+						vs[v++] = ((LibraryCall) this.calls[this.operands[pc]]).call(Node.NO_ARGUMENTS);
+						break;
+					case CALL: {
+						int arity = this.arities[pc];
+						VariableValue[] arguments = new VariableValue[arity];
+						v -= arity;
+						System.arraycopy(vs, v, arguments, 0, arity);
+						vs[v++] = ((LibraryCall) this.calls[this.operands[pc]]).call(arguments);
+						break;
+					}
+					case DOUBLE_FUNCTION1:
+						ds[d - 1] = ((LibraryBuilder.DoubleFunction1) this.calls[this.operands[pc]]).apply(ds[d - 1]);
+						break;
+					case DOUBLE_FUNCTION2:
+						d--;
+						ds[d - 1] = ((LibraryBuilder.DoubleFunction2) this.calls[this.operands[pc]]).apply(ds[d - 1], ds[d]);
+						break;
+					case DOUBLE_COMPARISON:
+						d -= 2;
+						ls[l++] = ((LibraryBuilder.DoubleComparison) this.calls[this.operands[pc]]).test(ds[d], ds[d + 1]) ? 1 : 0;
+						break;
+					case LONG_FUNCTION1:
+						ls[l - 1] = ((LibraryBuilder.LongFunction1) this.calls[this.operands[pc]]).apply(ls[l - 1]);
+						break;
+					case LONG_FUNCTION2:
+						l--;
+						ls[l - 1] = ((LibraryBuilder.LongFunction2) this.calls[this.operands[pc]]).apply(ls[l - 1], ls[l]);
+						break;
+					case BOOLEAN_FUNCTION1:
+						ls[l - 1] = ((LibraryBuilder.BooleanFunction1) this.calls[this.operands[pc]]).apply(ls[l - 1] != 0) ? 1 : 0;
+						break;
+					case BOOLEAN_FUNCTION2:
+						l--;
+						ls[l - 1] = ((LibraryBuilder.BooleanFunction2) this.calls[this.operands[pc]]).apply(ls[l - 1] != 0, ls[l] != 0) ? 1 : 0;
+						break;
+					case DOUBLE_TO_LONG:
+						ls[l++] = (long) ds[--d];
+						break;
+					case LONG_TO_DOUBLE:
+						ds[d++] = ls[--l];
+						break;
+					case DOUBLE_TO_BOOLEAN:
+						ls[l++] = ds[--d] > 0 ? 1 : 0;
+						break;
+					case LONG_TO_BOOLEAN:
+						ls[l - 1] = ls[l - 1] != 0 ? 1 : 0;
+						break;
+					case BOX_DOUBLE:
+						vs[v++] = new VariableValue(ds[--d]);
+						break;
+					case BOX_LONG:
+						vs[v++] = new VariableValue(ls[--l]);
+						break;
+					case BOX_BOOLEAN:
+						vs[v++] = new VariableValue(ls[--l] != 0);
+						break;
+					case UNBOX_BOOLEAN:
+						ls[l++] = vs[--v].asBoolean() ? 1 : 0;
+						break;
+					case JUMP:
+						pc = this.operands[pc] - 1;
+						break;
+					case JUMP_IF_FALSE:
+						if (ls[--l] == 0)
+							pc = this.operands[pc] - 1;
+						break;
+					case JUMP_IF_FALSE_OR_POP:
+						if (ls[l - 1] == 0)
+							pc = this.operands[pc] - 1;
+						else
+							l--;
+						break;
+					case JUMP_IF_TRUE_OR_POP:
+						if (ls[l - 1] != 0)
+							pc = this.operands[pc] - 1;
+						else
+							l--;
+						break;
+					case JUMP_IF_NOT_NULL_OR_POP:
+						if (!vs[v - 1].isNull())
+							pc = this.operands[pc] - 1;
+						else
+							v--;
+						break;
+				}
+			}
+
+			if (this.resultKind == KIND_DOUBLE)
+				return new VariableValue(ds[d - 1]);
+			else if (this.resultKind == KIND_LONG)
+				return new VariableValue(ls[l - 1]);
+			else if (this.resultKind == KIND_BOOLEAN)
+				return new VariableValue(ls[l - 1] != 0);
+			else
+				return vs[v - 1];
+		} catch (Exception e) {
+			throw this.nodes[pc].error(e);
+		} finally {
+			// do not hold values of finished computation
+			if (this.maxValues > 0)
+				Arrays.fill(vs, valueBase, valueBase + this.maxValues, null);
+			stacks.doubleTop = doubleBase;
+			stacks.longTop = longBase;
+			stacks.valueTop = valueBase;
+		}
+	}
+
+}
@@ -7,19 +7,22 @@ import org.palettelabs.iumls.VariableValue;
 
 public class SystemLibrary implements Library {
 
+	@Pure
 	@Variable("true")
 	public VariableValue __true = new VariableValue(true);
 
+	@Pure
 	@Variable("false")
 	public VariableValue __false = new VariableValue(false);
 
+	@Pure
 	@Variable("null")
 	public VariableValue __null  = new VariableValue();
 
 	@Variable
 	public VariableValue namedVariable = new VariableValue("hey");
 
-	private VariableValue sysdate = new VariableValue();
+	// sysout, syserr and sysdate are not pure, they are evaluated on each computation
 
 	@Method
 	public VariableValue sysout(VariableValue v) {
@@ -33,18 +36,24 @@ public class SystemLibrary implements Library {
 		return v;
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.BOOLEAN)
 	@Operator("==")
 	public VariableValue operatorEqual(VariableValue v1, VariableValue v2) {
 		if (v1.asString().equals(v2.asString())) return __true;
 		else return __false;
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.BOOLEAN)
 	@Operator("!=")
 	public VariableValue operatorNotEqual(VariableValue v1, VariableValue v2) {
 		if (!v1.asString().equals(v2.asString())) return __true;
 		else return __false;
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.BOOLEAN)
 	@Operator(">")
 	public VariableValue operatorGreater(VariableValue v1, VariableValue v2) {
 		if ((v1.getType() == VariableValue.TCP_TYPE_STRING) || (v2.getType() == VariableValue.TCP_TYPE_STRING)) {
@@ -54,57 +63,156 @@ public class SystemLibrary implements Library {
 		}
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.BOOLEAN)
 	@Operator("<")
 	public VariableValue operatorLess(VariableValue v1, VariableValue v2) {
 		if ((v1.getType() == VariableValue.TCP_TYPE_STRING) || (v2.getType() == VariableValue.TCP_TYPE_STRING)) {
 			return v1.asString().compareTo(v2.asString()) < 0 ? this.__true : this.__false;
 		} else {
-			return v1.asLong() > v2.asLong() ? this.__true : this.__false;
+			return v1.asLong() < v2.asLong() ? this.__true : this.__false;
 		}
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.BOOLEAN)
 	@Operator(">=")
 	public VariableValue operatorGreaterOrEqual(VariableValue v1, VariableValue v2) {
 		if ((v1.getType() == VariableValue.TCP_TYPE_STRING) || (v2.getType() == VariableValue.TCP_TYPE_STRING)) {
 			return v1.asString().compareTo(v2.asString()) >= 0 ? this.__true : this.__false;
 		} else {
-			return v1.asLong() > v2.asLong() ? this.__true : this.__false;
+			return v1.asLong() >= v2.asLong() ? this.__true : this.__false;
 		}
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.BOOLEAN)
 	@Operator("<=")
 	public VariableValue operatorLessOrEqual(VariableValue v1, VariableValue v2) {
 		if ((v1.getType() == VariableValue.TCP_TYPE_STRING) || (v2.getType() == VariableValue.TCP_TYPE_STRING)) {
 			return v1.asString().compareTo(v2.asString()) <= 0 ? this.__true : this.__false;
 		} else {
-			return v1.asLong() > v2.asLong() ? this.__true : this.__false;
+			return v1.asLong() <= v2.asLong() ? this.__true : this.__false;
 		}
 	}
 
+	// &&, ||, if and coalesce are compiled into lazy forms (see ConditionalNode), operands are evaluated only if needed,
+	// methods are called by other ways of calling (e.g. from java code) and give the same results
+
+	@Pure
+	@Returns(ExpressionTypes.BOOLEAN)
 	@Operator("&&")
 	public VariableValue operatorAnd(boolean v1, boolean v2) {
 		return v1 && v2 ? this.__true : this.__false;
 	}	
 
+	@Pure
+	@Returns(ExpressionTypes.BOOLEAN)
 	@Operator("||")
 	public VariableValue operatorOr(boolean v1, boolean v2) {
 		return v1 || v2 ? this.__true : this.__false;
 	}
 
+	@Pure
+	@Method("if")
+	public VariableValue __if(boolean c, VariableValue v1, VariableValue v2) {
+		return c ? v1 : v2;
+	}
+
+	@Pure
+	@Method
+	public VariableValue coalesce(VariableValue... v) {
+		for (VariableValue value : v) {
+			if (!value.isNull())
+				return value;
+		}
+		return v.length > 0 ? v[v.length - 1] : this.__null;
+	}
+
+	// time of the current evaluation in milliseconds (see EvaluationContext), library keeps no per-evaluation state
+	@Returns(ExpressionTypes.NUMBER)
 	@Variable
 	public VariableValue sysdate() {
-		this.sysdate.set(System.currentTimeMillis());
-		return this.sysdate;
+		return new VariableValue(EvaluationContext.currentTime());
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.DATE)
 	@Method
 	public VariableValue toDate(String v, String f) throws ParseException {
 		return new VariableValue(new SimpleDateFormat(f).parse(v));
 	}
 
+	@Pure
+	@Returns(ExpressionTypes.BOOLEAN)
 	@Method
 	public VariableValue not(boolean v) {
 		return !v ? this.__true : this.__false;
 	}
 
+	//============= column forms =============
+
+	@Operator(">")
+	public boolean[] operatorGreaterColumn(long[] v1, long[] v2) {
+		boolean[] v = new boolean[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] > v2[f];
+		}
+		return v;
+	}
+
+	@Operator("<")
+	public boolean[] operatorLessColumn(long[] v1, long[] v2) {
+		boolean[] v = new boolean[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] < v2[f];
+		}
+		return v;
+	}
+
+	@Operator(">=")
+	public boolean[] operatorGreaterOrEqualColumn(long[] v1, long[] v2) {
+		boolean[] v = new boolean[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] >= v2[f];
+		}
+		return v;
+	}
+
+	@Operator("<=")
+	public boolean[] operatorLessOrEqualColumn(long[] v1, long[] v2) {
+		boolean[] v = new boolean[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] <= v2[f];
+		}
+		return v;
+	}
+
+	@Operator("&&")
+	public boolean[] operatorAndColumn(boolean[] v1, boolean[] v2) {
+		boolean[] v = new boolean[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] && v2[f];
+		}
+		return v;
+	}
+
+	@Operator("||")
+	public boolean[] operatorOrColumn(boolean[] v1, boolean[] v2) {
+		boolean[] v = new boolean[v1.length];
+		for (int f = 0; f < v.length; f++) {
+			v[f] = v1[f] || v2[f];
+		}
+		return v;
+	}
+
+	@Method("not")
+	public boolean[] notColumn(boolean[] v) {
+		boolean[] result = new boolean[v.length];
+		for (int f = 0; f < result.length; f++) {
+			result[f] = !v[f];
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,264 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+import org.palettelabs.iumls.utils.NumberConverter;
+
+/**
+ * Infers types of compiled expression tree bottom up (see {@link ExpressionTypes}).
+ * <br>
+ * Tree is not folded, pure members with constant arguments are evaluated by inference itself,
+ * so every element gets a type of its own and failures of such calls are reported.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class TypeInference {
+
+	private final Computer computer;
+	private final Map<ExpressionElement, Integer> types = new IdentityHashMap<ExpressionElement, Integer>();
+	private final List<IumlsException> errors = new ArrayList<IumlsException>();
+	// values of nodes which are constants (literals and pure members with constant arguments)
+	private final Map<Node, VariableValue> constants = new IdentityHashMap<Node, VariableValue>();
+
+	TypeInference(Computer computer) {
+		this.computer = computer;
+	}
+
+	ExpressionTypes infer(Node root) {
+		int type = type(root);
+		return new ExpressionTypes(type, this.types, this.errors);
+	}
+
+	/**
+	 * @return type of node value
+	 */
+	private int type(Node node) {
+		int type = ExpressionTypes.UNKNOWN;
+		if (node instanceof ConstantNode) {
+			VariableValue value = ((ConstantNode) node).getValue();
+			this.constants.put(node, value);
+			type = ExpressionTypes.of(value);
+		} else if (node instanceof VariableNode) {
+			VariableNode variable = (VariableNode) node;
+			if (variable.getMember() == null) {
+				try {
+					this.computer.resolveVariable(variable.getLibraryName(), variable.getVariableName());
+				} catch (IumlsException e) {
+					unresolved(node, e);
+				}
+			} else {
+				type = type(node, variable.getLibraryName(), variable.getMember(), new Node[0], new int[0]);
+			}
+		} else if (node instanceof OperatorNode) {
+			OperatorNode operator = (OperatorNode) node;
+			Node[] operands = {operator.getLeft(), operator.getRight()};
+			int[] operandTypes = {type(operands[0]), type(operands[1])};
+			if (operator.getMember() == null) {
+				try {
+					this.computer.resolveOperator(operator.getLibraryName(), operator.getOperatorString());
+				} catch (IumlsException e) {
+					unresolved(node, e);
+				}
+			} else {
+				type = type(node, operator.getLibraryName(), operator.getMember(), operands, operandTypes);
+			}
+		} else if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			Node[] arguments = function.getArguments();
+			int[] argumentTypes = new int[arguments.length];
+			for (int t = 0; t < arguments.length; t++) {
+				argumentTypes[t] = type(arguments[t]);
+			}
+			if (function.getMember() == null) {
+				try {
+					this.computer.resolveMethod(function.getLibraryName(), function.getMethodName(), arguments.length);
+				} catch (IumlsException e) {
+					unresolved(node, e);
+				}
+			} else {
+				type = type(node, function.getLibraryName(), function.getMember(), arguments, argumentTypes);
+			}
+		} else if (node instanceof ConditionalNode) {
+			type = conditionalType((ConditionalNode) node);
+		}
+		this.types.put(node.getElement(), type);
+		return type;
+	}
+
+	private int conditionalType(ConditionalNode node) {
+		Node[] operands = node.getOperands();
+		int[] types = new int[operands.length];
+		for (int t = 0; t < operands.length; t++) {
+			types[t] = type(operands[t]);
+		}
+		switch (node.getKind()) {
+			case ConditionalNode.AND:
+			case ConditionalNode.OR:
+				return ExpressionTypes.BOOLEAN;
+			case ConditionalNode.IF:
+				VariableValue condition = this.constants.get(operands[0]);
+				if (condition != null)
+					return types[condition.asBoolean() ? 1 : 2];
+				return types[1] == types[2] ? types[1] : ExpressionTypes.UNKNOWN;
+			default:
+				// null constants are skipped by coalesce
+				int type = ExpressionTypes.UNKNOWN;
+				for (int t = 0; t < operands.length; t++) {
+					VariableValue value = this.constants.get(operands[t]);
+					if ((value != null) && value.isNull() && (t < operands.length - 1))
+						continue;
+					if ((type != ExpressionTypes.UNKNOWN) && (type != types[t]))
+						return ExpressionTypes.UNKNOWN;
+					type = types[t];
+					if (type == ExpressionTypes.UNKNOWN)
+						return type;
+				}
+				return type;
+		}
+	}
+
+	/**
+	 * Checks arguments of resolved member and infers type of its value.
+	 * @return type of member value
+	 */
+	private int type(Node node, String libraryName, LibraryMember member, Node[] operands, int[] types) {
+		if (member.isTrap())
+			return ExpressionTypes.UNKNOWN;
+		Member target = target(libraryName, member, operands.length);
+		if (!check(node, target, operands, types))
+			return ExpressionTypes.UNKNOWN;
+
+		VariableValue value = evaluate(node, member, operands);
+		if (value != null)
+			return ExpressionTypes.of(value);
+
+		Object function = member.getFunction();
+		if (function != null) {
+			boolean primitive = true;
+			for (int type : types) {
+				primitive &= (type == ExpressionTypes.NUMBER) || (type == ExpressionTypes.BOOLEAN);
+			}
+			if (primitive)
+				return functionType(function);
+		}
+
+		if (target instanceof AccessibleObject) {
+			Returns returns = ((AccessibleObject) target).getAnnotation(Returns.class);
+			if (returns != null)
+				return returns.value();
+		}
+		return ExpressionTypes.UNKNOWN;
+	}
+
+	/**
+	 * Arguments which are known not to be numbers (strings which are not numeric, dates and buffers)
+	 * must not be passed to parameters taking numbers.
+	 * @return true if arguments are fine
+	 */
+	private boolean check(Node node, Member target, Node[] operands, int[] types) {
+		if (!(target instanceof Method) || ((Method) target).isVarArgs())
+			return true;
+		Class<?>[] parameters = ((Method) target).getParameterTypes();
+		if (parameters.length != operands.length)
+			return true;
+		boolean fine = true;
+		for (int t = 0; t < parameters.length; t++) {
+			if (!isNumber(parameters[t]) || (types[t] == ExpressionTypes.UNKNOWN)
+					|| (types[t] == ExpressionTypes.NUMBER) || (types[t] == ExpressionTypes.BOOLEAN))
+				continue;
+			VariableValue value = this.constants.get(operands[t]);
+			if ((value != null) && (types[t] == ExpressionTypes.STRING) && isNumeric(value.asString()))
+				continue;
+			this.errors.add(new IumlsException("argument " + (t + 1) + " of " + node.describe() + " is "
+					+ ExpressionTypes.describe(types[t]) + ", a number is expected", operands[t].getElement()));
+			fine = false;
+		}
+		return fine;
+	}
+
+	/**
+	 * Evaluates pure member with constant arguments.
+	 * @return value or null if member is not evaluated
+	 */
+	private VariableValue evaluate(Node node, LibraryMember member, Node[] operands) {
+		if (!member.isPure())
+			return null;
+		VariableValue[] arguments = new VariableValue[operands.length];
+		for (int t = 0; t < operands.length; t++) {
+			VariableValue value = this.constants.get(operands[t]);
+			if (value == null)
+				return null;
+			// libraries are free to change their arguments
+			arguments[t] = new VariableValue(value);
+		}
+		try {
+			VariableValue value = member.getCall().call(arguments);
+			if (value == null)
+				return null;
+			value = new VariableValue(value);
+			this.constants.put(node, value);
+			return value;
+		} catch (Exception e) {
+			this.errors.add(new IumlsException(node.describe() + " fails on constant arguments", e, node.getElement()));
+			return null;
+		}
+	}
+
+	private void unresolved(Node node, IumlsException e) {
+		this.errors.add(new IumlsException(node.describe() + " is not resolved", e, node.getElement()));
+	}
+
+	/**
+	 * @return java method or field behind the member or null
+	 */
+	private Member target(String libraryName, LibraryMember member, int arity) {
+		if (member.getTarget() != null)
+			return member.getTarget();
+		try {
+			// generated dispatcher has no java members, take them out of reflective one
+			MethodHandleDispatcher reflective = this.computer.getReflectiveDispatcher(libraryName);
+			LibraryMember scanned;
+			if (member.getKind() == LibraryMember.METHOD)
+				scanned = reflective.getMethod(member.getName(), arity);
+			else if (member.getKind() == LibraryMember.OPERATOR)
+				scanned = reflective.getOperator(member.getName());
+			else
+				scanned = reflective.getVariable(member.getName());
+			return scanned != null ? scanned.getTarget() : null;
+		} catch (IumlsException e) {
+			return null;
+		}
+	}
+
+	private static boolean isNumber(Class<?> type) {
+		return (type == double.class) || (type == Double.class) || (type == long.class) || (type == Long.class)
+				|| (type == int.class) || (type == Integer.class);
+	}
+
+	private static boolean isNumeric(String value) {
+		try {
+			NumberConverter.toDouble(value);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static int functionType(Object function) {
+		if ((function instanceof LibraryBuilder.DoubleComparison) || (function instanceof LibraryBuilder.BooleanFunction1)
+				|| (function instanceof LibraryBuilder.BooleanFunction2))
+			return ExpressionTypes.BOOLEAN;
+		return ExpressionTypes.NUMBER;
+	}
+
+}
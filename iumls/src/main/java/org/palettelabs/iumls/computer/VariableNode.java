@@ -0,0 +1,57 @@
+package org.palettelabs.iumls.computer;
+
+import org.palettelabs.iumls.IumlsException;
+import org.palettelabs.iumls.VariableValue;
+import org.palettelabs.iumls.parser.ExpressionElement;
+
+/**
+ * Library variable (identifier), e.g. <i>math.pi</i> or <i>true</i>.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class VariableNode extends Node {
+
+	private final String libraryName;
+	private final String variableName;
+	private final LibraryMember member;
+
+	/**
+	 * @param member - resolved variable or null if it could not be resolved on compilation
+	 */
+	VariableNode(ExpressionElement element, String libraryName, String variableName, LibraryMember member) {
+		super(element);
+		this.libraryName = libraryName;
+		this.variableName = variableName;
+		this.member = member;
+	}
+
+	String getLibraryName() {
+		return this.libraryName;
+	}
+
+	String getVariableName() {
+		return this.variableName;
+	}
+
+	LibraryMember getMember() {
+		return this.member;
+	}
+
+	@Override
+	VariableValue evaluate(Computer computer) throws IumlsException {
+		EvaluationContext.step(this.element);
+		try {
+			LibraryMember member = this.member != null ? this.member : computer.resolveVariable(this.libraryName, this.variableName);
+			return member.getCall().call(NO_ARGUMENTS);
+		} catch (Exception e) {
+			throw error(e);
+		}
+	}
+
+	@Override
+	String describe() {
+		return "an identifier '" + this.element.getData() + "'";
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.palettelabs.iumls.computer;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent cache of compiled forms, keys are held weakly and compared by identity,
+ * values are held softly (value references its key, so it must not hold the key strongly).
+ * <br>
+ * Entries of collected keys are removed on the next {@link #put(Object, Object)}.
+ *
+ * @author Nikolay Antipov
+ *
+ */
+class WeakCache<K, V> {
+
+	private final ConcurrentMap<Key<K>, SoftReference<V>> map = new ConcurrentHashMap<Key<K>, SoftReference<V>>();
+	private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+	private static final class Key<K> extends WeakReference<K> {
+
+		private final int hash;
+
+		Key(K key, ReferenceQueue<K> queue) {
+			super(key, queue);
+			this.hash = System.identityHashCode(key);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			Object key = get();
+			return (key != null) && (key == ((Key<?>) o).get());
+		}
+
+	}
+
+	/**
+	 * @return cached value or null if there is none (or it is collected)
+	 */
+	V get(K key) {
+		SoftReference<V> reference = this.map.get(new Key<K>(key, null));
+		return reference != null ? reference.get() : null;
+	}
+
+	void put(K key, V value) {
+		expunge();
+		this.map.put(new Key<K>(key, this.queue), new SoftReference<V>(value));
+	}
+
+	private void expunge() {
+		Reference<? extends K> reference;
+		while ((reference = this.queue.poll()) != null) {
+			this.map.remove(reference);
+		}
+	}
+
+}
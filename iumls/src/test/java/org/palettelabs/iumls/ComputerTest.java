@@ -1,10 +1,52 @@
 package org.palettelabs.iumls;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
+import org.palettelabs.iumls.computer.Batched;
+import org.palettelabs.iumls.computer.Cacheable;
+import org.palettelabs.iumls.computer.Column;
+import org.palettelabs.iumls.computer.ColumnBatch;
+import org.palettelabs.iumls.computer.CompiledExpression;
+import org.palettelabs.iumls.computer.CompiledSection;
 import org.palettelabs.iumls.computer.Computer;
+import org.palettelabs.iumls.computer.DefaultMethodHandler;
+import org.palettelabs.iumls.computer.DefaultVariableHandler;
+import org.palettelabs.iumls.computer.EntityValue;
+import org.palettelabs.iumls.computer.EvaluationAbortedException;
+import org.palettelabs.iumls.computer.EvaluationContext;
+import org.palettelabs.iumls.computer.ExpressionTypes;
+import org.palettelabs.iumls.computer.Library;
+import org.palettelabs.iumls.computer.LibraryBuilder;
+import org.palettelabs.iumls.computer.LibraryDispatcher;
+import org.palettelabs.iumls.computer.MathLibrary;
+import org.palettelabs.iumls.computer.Method;
+import org.palettelabs.iumls.computer.MethodCache;
+import org.palettelabs.iumls.computer.PreparedExpression;
+import org.palettelabs.iumls.computer.RuleSet;
+import org.palettelabs.iumls.computer.SystemLibrary;
+import org.palettelabs.iumls.computer.Variable;
 import org.palettelabs.iumls.parser.Expression;
+import org.palettelabs.iumls.parser.ExpressionElement;
 import org.palettelabs.iumls.parser.Parser;
 
 public class ComputerTest {
@@ -22,4 +64,1147 @@ public class ComputerTest {
 		Assert.assertEquals(11, value.asInteger());
 	}
 
+	@Test
+	public void compiled_expression_relink_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = 1 + 2 * 3;}");
+		p.parse();
+		Expression exp = (Expression) p.getRootSection().get(0);
+		Computer c = new Computer();
+		CompiledExpression compiled = c.compile(exp);
+		Assert.assertEquals(7, c.compute(compiled).asInteger());
+		Assert.assertEquals(7, c.compute(compiled).asInteger());
+		// operators table changed, expression must be relinked with new precedence
+		c.registerOperator("+", "math", 7);
+		Assert.assertEquals(9, c.compute(compiled).asInteger());
+		Assert.assertEquals(9, c.compute(exp).asInteger());
+	}
+
+	public static class ConfigLibrary implements Library {
+
+		@Variable
+		public VariableValue limit = new VariableValue(5);
+
+		// broken library method, its result fails to be converted
+		@Method
+		public VariableValue missing() {
+			return null;
+		}
+
+	}
+
+	@Test
+	public void bytecode_generation_test() throws IumlsException {
+		// long enough to be split into several methods
+		StringBuilder sum = new StringBuilder("1");
+		for (int f = 2; f <= 300; f++) {
+			sum.append(" + math.abs(-").append(f).append(")");
+		}
+		Parser p = new Parser("#root{ a = 1/2 + math.abs(-10.5); b = " + sum + "; c = true && 1 > 0; d = 1 / unknown.x; e = 1 + toDate(\"a\", \"b\"); g = config.limit * 2; h = math.abs(config.missing());}");
+		p.parse();
+		Computer c = new Computer();
+		c.setBytecodeGeneration(true);
+		ConfigLibrary config = new ConfigLibrary();
+		c.addLibrary("config", config);
+
+		CompiledExpression a = c.compile((Expression) p.getRootSection().get(0));
+		Assert.assertTrue(a.isBytecodeCompiled());
+		Assert.assertNull(a.getBytecodeFallback());
+		Assert.assertEquals(11, c.compute(a).asInteger());
+
+		CompiledExpression b = c.compile((Expression) p.getRootSection().get(1));
+		Assert.assertTrue(b.isBytecodeCompiled());
+		Assert.assertEquals(45150, c.compute(b).asInteger());
+
+		CompiledExpression d = c.compile((Expression) p.getRootSection().get(2));
+		Assert.assertTrue(d.isBytecodeCompiled());
+		Assert.assertTrue(c.compute(d).asBoolean());
+
+		// unknown library is left to interpreter to report
+		CompiledExpression e = c.compile((Expression) p.getRootSection().get(3));
+		Assert.assertFalse(e.isBytecodeCompiled());
+		Assert.assertNotNull(e.getBytecodeFallback());
+		try {
+			c.compute(e);
+			Assert.fail();
+		} catch (IumlsException exc) {
+			Assert.assertNotNull(exc.getElement());
+		}
+
+		// failed library call is reported by generated code as well
+		CompiledExpression f = c.compile((Expression) p.getRootSection().get(4));
+		Assert.assertTrue(f.isBytecodeCompiled());
+		try {
+			c.compute(f);
+			Assert.fail();
+		} catch (IumlsException exc) {
+			Assert.assertEquals("toDate", ((ExpressionElement) exc.getElement()).getData());
+		}
+
+		// shared value of variable field is named once
+		CompiledExpression g = c.compile((Expression) p.getRootSection().get(5));
+		Assert.assertTrue(g.isBytecodeCompiled());
+		Assert.assertEquals(10, c.compute(g).asInteger());
+		Assert.assertEquals("config.limit", config.limit.getName());
+
+		// failed conversion of argument is reported by the consuming call, as the interpreter reports it
+		CompiledExpression h = c.compile((Expression) p.getRootSection().get(6));
+		Assert.assertTrue(h.isBytecodeCompiled());
+		try {
+			c.compute(h);
+			Assert.fail();
+		} catch (IumlsException exc) {
+			Assert.assertEquals("math.abs", ((ExpressionElement) exc.getElement()).getData());
+		}
+	}
+
+	public static class TrapLibrary implements Library {
+
+		@Method
+		public VariableValue sum(long... values) {
+			long result = 0;
+			for (long value : values) {
+				result += value;
+			}
+			return new VariableValue(result);
+		}
+
+		@DefaultMethodHandler
+		public VariableValue handleMethod(String methodName, VariableValue... values) {
+			return new VariableValue(methodName + values.length);
+		}
+
+		@DefaultVariableHandler
+		public VariableValue handleVariable(String variableName) {
+			return new VariableValue(variableName.length());
+		}
+
+	}
+
+	// generated dispatcher is not made for private classes, reflection is used
+	private static class ReflectiveTrapLibrary extends TrapLibrary {
+	}
+
+	@Test
+	public void library_dispatch_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = trap.sum(1, 2, 3) + trap.sum(); b = trap.concat(1, 2); c = trap.abc + 1;}");
+		p.parse();
+		for (TrapLibrary trap : new TrapLibrary[] {new TrapLibrary(), new ReflectiveTrapLibrary()}) {
+			Computer c = new Computer();
+			c.addLibrary("trap", trap);
+			Assert.assertEquals(6, c.compute((Expression) p.getRootSection().get(0)).asInteger());
+			Assert.assertEquals("concat2", c.compute((Expression) p.getRootSection().get(1)).asString());
+			Assert.assertEquals(4, c.compute((Expression) p.getRootSection().get(2)).asInteger());
+		}
+	}
+
+	@Test
+	public void generated_dispatcher_test() throws Exception {
+		// dispatchers are generated by iumls-processor for main and test libraries
+		Assert.assertNotNull(Class.forName("org.palettelabs.iumls.computer.SystemLibrary_Dispatcher"));
+		Assert.assertNotNull(Class.forName("org.palettelabs.iumls.computer.MathLibrary_Dispatcher"));
+		LibraryDispatcher dispatcher = new ComputerTest_TrapLibrary_Dispatcher("trap", new TrapLibrary());
+		Assert.assertFalse(dispatcher.getMethod("sum", 3).isTrap());
+		Assert.assertTrue(dispatcher.getMethod("concat", 2).isTrap());
+		Assert.assertEquals(6, dispatcher.getMethod("sum", 3).getCall()
+				.call(new VariableValue[] {new VariableValue(1), new VariableValue(2), new VariableValue(3)}).asInteger());
+		Assert.assertNull(dispatcher.getOperator("+"));
+	}
+
+	@Test
+	public void library_builder_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = tenant.abs(-2.5) + tenant.max(3, 4) + tenant.pi; b = tenant.concat(\"a\", \"b\") + tenant.count(1, 2, 3); c = 7 * 3;}");
+		p.parse();
+		Computer c = new Computer();
+		c.addLibrary("tenant", new LibraryBuilder()
+				.doubleMethod("abs", a -> Math.abs(a))
+				.longMethod("max", (a, b) -> Math.max(a, b))
+				.stringMethod("concat", (a, b) -> a + b)
+				.varargMethod("count", arguments -> new VariableValue(arguments.length))
+				.longOperator("*", (a, b) -> a * b + 1)
+				.variable("pi", new VariableValue(3.5))
+				.build());
+		Assert.assertEquals(10.0, c.compute((Expression) p.getRootSection().get(0)).asDouble(), 0.0);
+		Assert.assertEquals("ab3", c.compute((Expression) p.getRootSection().get(1)).asString());
+		c.registerOperator("*", "tenant", 6);
+		Assert.assertEquals(22, c.compute((Expression) p.getRootSection().get(2)).asInteger());
+	}
+
+	@Test
+	public void stack_evaluation_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = 1/2 + math.abs(-10.5); b = 7.9 - 2 * 3; c = \"a\" + 1 / 2; d = tenant.over(1, 2) + tenant.neg(3 - 1); e = 1 / unknown.x;}");
+		p.parse();
+		Computer tree = new Computer();
+		Computer stack = new Computer();
+		stack.setStackEvaluation(true);
+		for (Computer c : new Computer[] {tree, stack}) {
+			c.addLibrary("tenant", new LibraryBuilder()
+					.comparisonMethod("over", (a, b) -> a > b)
+					.longMethod("neg", a -> -a)
+					.build());
+		}
+		for (int f = 0; f < 4; f++) {
+			Expression exp = (Expression) p.getRootSection().get(f);
+			CompiledExpression compiled = stack.compile(exp);
+			Assert.assertTrue(compiled.isStackCompiled());
+			// the same result as tree walking gives
+			Assert.assertEquals(tree.compute(exp).asString(), stack.compute(compiled).asString());
+			Assert.assertEquals(tree.compute(exp).getType(), stack.compute(compiled).getType());
+		}
+		Assert.assertEquals(11, stack.compute((Expression) p.getRootSection().get(0)).asInteger());
+		Assert.assertEquals(1, stack.compute((Expression) p.getRootSection().get(1)).asInteger());
+		// unresolved members are left to tree walking
+		Assert.assertFalse(stack.compile((Expression) p.getRootSection().get(4)).isStackCompiled());
+	}
+
+	@Test
+	public void constant_folding_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = tenant.twice(1/2 + math.abs(-10.5)) + tenant.tick(); b = tenant.twice(tenant.tick()); }");
+		p.parse();
+		final int[] calls = new int[2];
+		Computer c = new Computer();
+		c.addLibrary("tenant", new LibraryBuilder()
+				.pure(true)
+				.doubleMethod("twice", a -> {
+					calls[0]++;
+					return a * 2;
+				})
+				.pure(false)
+				.method("tick", () -> new VariableValue(++calls[1]))
+				.build());
+		Expression a = (Expression) p.getRootSection().get(0);
+		for (int f = 1; f <= 3; f++) {
+			Assert.assertEquals(22.0 + f, c.compute(a).asDouble(), 0.0);
+		}
+		// pure call of constants is evaluated once on compilation, impure one on each computation
+		Assert.assertEquals(1, calls[0]);
+		Assert.assertEquals(3, calls[1]);
+		// argument is not a constant
+		Assert.assertEquals(8.0, c.compute((Expression) p.getRootSection().get(1)).asDouble(), 0.0);
+		Assert.assertEquals(2, calls[0]);
+		c.setConstantFolding(false);
+		c.compute(a);
+		Assert.assertEquals(3, calls[0]);
+	}
+
+	@Test
+	public void compiled_section_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = price * tenant.factor(region) + 1; b = [price * tenant.factor(region), 2];"
+				+ " c = #inner{ d = price * tenant.factor(region) - tenant.tick(); e = tenant.tick() * 2 + tenant.tick() * 2; }; }");
+		p.parse();
+		final int[] calls = new int[3];
+		Computer c = new Computer();
+		c.addLibrary("tenant", new LibraryBuilder()
+				.pure(true)
+				.method("factor", (VariableValue region) -> {
+					calls[0]++;
+					return new VariableValue(region.asString().length());
+				})
+				.pure(false)
+				.method("tick", () -> new VariableValue(++calls[1]))
+				.build());
+		c.addLibrary("system", new SystemLibrary() {
+			@DefaultVariableHandler
+			public VariableValue variable(String name) {
+				calls[2]++;
+				return name.equals("price") ? new VariableValue(10.0) : new VariableValue("west");
+			}
+		});
+		CompiledSection compiled = c.compile(p.getRootSection());
+		Assert.assertEquals(5, compiled.getExpressions().size());
+		Assert.assertTrue(compiled.getSharedCount() > 0);
+		for (int f = 0; f < 2; f++) {
+			Map<Expression, VariableValue> values = c.compute(compiled);
+			Assert.assertEquals(41.0, values.get(compiled.getExpressions().get(0)).asDouble(), 0.0);
+			Assert.assertEquals(40.0, values.get(compiled.getExpressions().get(1)).asDouble(), 0.0);
+			Assert.assertEquals(2.0, values.get(compiled.getExpressions().get(2)).asDouble(), 0.0);
+			Assert.assertEquals(40.0 - (3 * f + 1), values.get(compiled.getExpressions().get(3)).asDouble(), 0.0);
+			// impure calls are never shared
+			Assert.assertEquals(4 * (3 * f + 2) + 2, values.get(compiled.getExpressions().get(4)).asDouble(), 0.0);
+		}
+		// shared pure subexpression and the variables it reads are evaluated once per computation
+		Assert.assertEquals(2, calls[0]);
+		Assert.assertEquals(4, calls[2]);
+	}
+
+	@Test
+	public void parallel_evaluation_test() throws IumlsException {
+		StringBuilder text = new StringBuilder("#root{ first = \"a\" + 1; list = [1, #item{ x = 2 * 3; }, [4]]; nested = #nested{");
+		for (int f = 0; f < 1000; f++) {
+			text.append(" e").append(f).append(" = math.abs(-").append(f).append(") * tenant.twice(").append(f).append(");");
+		}
+		text.append(" }; }");
+		Parser p = new Parser(text.toString());
+		p.parse();
+		Computer c = new Computer();
+		c.addLibrary("tenant", new LibraryBuilder()
+				.doubleMethod("twice", a -> a * 2)
+				.build());
+		c.setParallelThreshold(16);
+		EntityValue root = c.evaluate(p.getRootSection());
+		Assert.assertEquals(3, root.size());
+		Assert.assertEquals("a1.0", root.get("first").getValue().asString());
+		Assert.assertEquals(EntityValue.ARRAY, root.get("list").getKind());
+		Assert.assertEquals(6, root.get("list").get(1).get("x").getValue().asInteger());
+		Assert.assertEquals(4, root.get("list").get(2).get(0).getValue().asInteger());
+		EntityValue nested = root.get("nested");
+		Assert.assertEquals(1000, nested.size());
+		for (int f = 0; f < 1000; f++) {
+			Assert.assertEquals("e" + f, nested.get(f).getName());
+			Assert.assertEquals(2.0 * f * f, nested.get(f).getValue().asDouble(), 0.0);
+		}
+
+		// the first error in document order is reported
+		p = new Parser("#root{ a = 1; b = 1 / first.x; c = [2, 1 / second.y]; }");
+		p.parse();
+		c.setParallelThreshold(1);
+		try {
+			c.evaluate(p.getRootSection());
+			Assert.fail();
+		} catch (IumlsException e) {
+			Assert.assertTrue(e.getCause().getMessage().contains("'first'"));
+		}
+	}
+
+	@Test
+	public void entity_references_test() throws IumlsException {
+		Parser p = new Parser("#root{ shop = #shop{ subtotal = price * 2; tax = subtotal * 0.2; };"
+				+ " total = shop.subtotal + shop.tax; items = [1, 2]; first = items.0 + items.1; price = price + 1; }");
+		p.parse();
+		final double[] price = {10.0};
+		Computer c = new Computer();
+		c.addLibrary("system", new SystemLibrary() {
+			@DefaultVariableHandler
+			public VariableValue variable(String name) {
+				return new VariableValue(price[0]);
+			}
+		});
+		EntityValue root = c.evaluate(p.getRootSection());
+		// "price" of section "shop" is the entity of root section
+		Assert.assertEquals(26.4, root.get("total").getValue().asDouble(), 1e-9);
+		Assert.assertEquals(3.0, root.get("first").getValue().asDouble(), 0.0);
+		// entity never references itself
+		Assert.assertEquals(11.0, root.get("price").getValue().asDouble(), 0.0);
+
+		// only expressions reading the variable and their dependents are recomputed
+		price[0] = 20.0;
+		Map<Expression, VariableValue> values = c.recompute(p.getRootSection(), "system", "price");
+		Assert.assertEquals(4, values.size());
+		Expression total = (Expression) p.getRootSection().get(1);
+		Assert.assertEquals(50.4, values.get(total).asDouble(), 1e-9);
+		values = c.recompute(p.getRootSection(), total);
+		Assert.assertEquals(1, values.size());
+
+		p = new Parser("#root{ a = b.c + 1; b = #b{ c = a * 2; }; }");
+		p.parse();
+		try {
+			c.evaluate(p.getRootSection());
+			Assert.fail();
+		} catch (IumlsException e) {
+			Assert.assertTrue(e.getMessage().contains("cyclic"));
+		}
+	}
+
+	@Test
+	public void comparison_operators_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = 3 < 5; b = 5 < 3; c = 5 >= 5; d = 3 >= 5; e = 5 <= 3; f = 5 <= 5; g = 5 > 3; "
+				+ "h = \"a\" < \"b\"; i = \"b\" <= \"a\"; }");
+		p.parse();
+		boolean[] results = {true, false, true, false, false, true, true, true, false};
+		for (int mode = 0; mode < 3; mode++) {
+			Computer c = new Computer();
+			c.setConstantFolding(false);
+			c.setStackEvaluation(mode == 1);
+			c.setBytecodeGeneration(mode == 2);
+			for (int f = 0; f < results.length; f++) {
+				Assert.assertEquals(results[f], c.compute((Expression) p.getRootSection().get(f)).asBoolean());
+			}
+		}
+	}
+
+	@Test
+	public void columnar_batch_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = (row.price * row.quantity - 1) / 2 + math.abs(row.delta); "
+				+ "b = row.price > 15 && not(row.flag); c = tenant.rate(row.region) * row.price; d = row.region + \"-\" + row.quantity; "
+				+ "e = row.quantity < 3; f = row.quantity >= 2 && row.price <= 20; }");
+		p.parse();
+		final double[] prices = {10.5, 20, 30.25, 7};
+		final long[] quantities = {1, 2, 3, 4};
+		final double[] deltas = {-1, 2.5, -3, 0};
+		final boolean[] flags = {false, false, true, false};
+		final String[] regions = {"west", "east"};
+		final int[] codes = {0, 1, 0, 0};
+		final int[] row = new int[1];
+		final int[] calls = new int[1];
+		Computer c = new Computer();
+		c.addLibrary("row", new LibraryBuilder()
+				.variable("price", () -> new VariableValue(prices[row[0]]))
+				.variable("quantity", () -> new VariableValue(quantities[row[0]]))
+				.variable("delta", () -> new VariableValue(deltas[row[0]]))
+				.variable("flag", () -> new VariableValue(flags[row[0]]))
+				.variable("region", () -> new VariableValue(regions[codes[row[0]]]))
+				.build());
+		c.addLibrary("tenant", new LibraryBuilder()
+				.pure(true)
+				.method("rate", (VariableValue region) -> {
+					calls[0]++;
+					return new VariableValue(region.asString().equals("west") ? 1.5 : 2.0);
+				})
+				.build());
+		ColumnBatch batch = new ColumnBatch(prices.length)
+				.bind("row.price", prices)
+				.bind("row.quantity", quantities)
+				.bind("row.delta", deltas)
+				.bind("row.flag", flags)
+				.bind("row.region", codes, regions);
+		for (int t = 0; t < 6; t++) {
+			CompiledExpression compiled = c.compile((Expression) p.getRootSection().get(t));
+			Column column = c.compute(compiled, batch);
+			Assert.assertEquals(prices.length, column.size());
+			for (int f = 0; f < prices.length; f++) {
+				row[0] = f;
+				Assert.assertEquals(c.compute(compiled).asString(), column.get(f).asString());
+			}
+		}
+		Assert.assertEquals(Column.DOUBLE, c.compute(c.compile((Expression) p.getRootSection().get(0)), batch).getKind());
+		Assert.assertEquals(Column.BOOLEAN, c.compute(c.compile((Expression) p.getRootSection().get(1)), batch).getKind());
+		Assert.assertEquals(Column.STRING, c.compute(c.compile((Expression) p.getRootSection().get(3)), batch).getKind());
+		Assert.assertEquals(Column.BOOLEAN, c.compute(c.compile((Expression) p.getRootSection().get(4)), batch).getKind());
+		Assert.assertEquals(Column.BOOLEAN, c.compute(c.compile((Expression) p.getRootSection().get(5)), batch).getKind());
+		// pure method of dictionary encoded column is called once per distinct string
+		calls[0] = 0;
+		c.compute(c.compile((Expression) p.getRootSection().get(2)), batch);
+		Assert.assertEquals(regions.length, calls[0]);
+		try {
+			batch.bind("row.price", new double[1]);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		// all the rows see the same evaluation context
+		c.addLibrary("clock", new LibraryBuilder()
+				.method("time", (VariableValue a) -> {
+					Thread.sleep(2);
+					EvaluationContext context = EvaluationContext.current();
+					return new VariableValue(context != null ? context.getTime() : -1L);
+				})
+				.build());
+		p = new Parser("#root{ a = clock.time(row.quantity); }");
+		p.parse();
+		long[] times = c.compute(c.compile((Expression) p.getRootSection().get(0)), batch).getLongs();
+		Assert.assertTrue(times[0] > 0);
+		for (long time : times) {
+			Assert.assertEquals(times[0], time);
+		}
+	}
+
+	@Test
+	public void concurrent_computer_test() throws Exception {
+		Parser p = new Parser("#root{ a = (tenant.rate * 2 + 1) * 3; b = sysdate; c = [sysdate, sysdate]; }");
+		p.parse();
+		final Computer c = new Computer();
+		c.setStackEvaluation(true);
+		c.addLibrary("tenant", new LibraryBuilder().variable("rate", new VariableValue(1.5)).build());
+		final CompiledExpression a = c.compile((Expression) p.getRootSection().get(0));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Future<?>[] futures = new Future<?>[8];
+			for (int t = 0; t < futures.length; t++) {
+				final int thread = t;
+				futures[t] = executor.submit(() -> {
+					for (int f = 0; f < 2000; f++) {
+						if ((thread == 0) && (f % 100 == 0)) {
+							// libraries are replaced while others compute, result is the same for any snapshot
+							c.addLibrary("tenant", new LibraryBuilder().variable("rate", new VariableValue(1.5)).build());
+							c.setBytecodeGeneration(f % 200 == 0);
+						}
+						Assert.assertEquals(12.0, c.compute(a).asDouble(), 0.0);
+					}
+					return null;
+				});
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		// per-evaluation state lives in context, not in library
+		CompiledExpression b = c.compile((Expression) p.getRootSection().get(1));
+		Assert.assertEquals(12345L, c.compute(b, new EvaluationContext(12345L)).asLong());
+		Assert.assertEquals(54321L, c.compute(b, new EvaluationContext(54321L)).asLong());
+		Assert.assertTrue(c.compute(b).asLong() > 54321L);
+		// all the expressions of section see the same time
+		EntityValue values = c.evaluate(p.getRootSection());
+		Assert.assertEquals(values.get(1).getValue().asLong(), values.get(2).get(0).getValue().asLong());
+		Assert.assertEquals(values.get(1).getValue().asLong(), values.get(2).get(1).getValue().asLong());
+	}
+
+	public static class StoreLibrary implements Library {
+
+		// every call waits for the others, so it answers true only if calls are made concurrently
+		public CountDownLatch calls;
+
+		@Method
+		public VariableValue read(String key) throws InterruptedException {
+			this.calls.countDown();
+			return new VariableValue(this.calls.await(5, TimeUnit.SECONDS) ? key : "timeout");
+		}
+
+		@Method
+		public CompletableFuture<VariableValue> fetch(final String key) {
+			if (key.isEmpty())
+				return CompletableFuture.failedFuture(new IllegalArgumentException("empty key"));
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					return read(key);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+		}
+
+	}
+
+	@Test
+	public void async_compute_test() throws Exception {
+		Parser p = new Parser("#root{ a = store.read(\"x\") + store.read(\"y\") + store.fetch(\"z\"); b = store.fetch(\"\"); }");
+		p.parse();
+		StoreLibrary store = new StoreLibrary();
+		Computer c = new Computer();
+		c.addLibrary("store", store);
+		CompiledExpression a = c.compile((Expression) p.getRootSection().get(0));
+		// two blocking arguments and one future are in flight at once
+		store.calls = new CountDownLatch(3);
+		Assert.assertEquals("xyz", c.computeAsync(a).get(10, TimeUnit.SECONDS).asString());
+		// synchronous computation waits for future
+		store.calls = new CountDownLatch(1);
+		Assert.assertEquals("xyz", c.compute(a).asString());
+		try {
+			c.computeAsync(c.compile((Expression) p.getRootSection().get(1))).get(10, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IumlsException);
+		}
+		// the same with library built by LibraryBuilder
+		final CountDownLatch calls = new CountDownLatch(2);
+		c.addLibrary("tenant", new LibraryBuilder()
+				.asyncMethod("rate", region -> CompletableFuture.supplyAsync(() -> {
+					calls.countDown();
+					try {
+						return new VariableValue(calls.await(5, TimeUnit.SECONDS) ? 2.0 : 0.0);
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+				}))
+				.build());
+		p = new Parser("#root{ a = tenant.rate(\"west\") * tenant.rate(\"east\"); }");
+		p.parse();
+		Assert.assertEquals(4.0, c.computeAsync(c.compile((Expression) p.getRootSection().get(0))).get(10, TimeUnit.SECONDS).asDouble(), 0.0);
+		// variables which are not pure might block as well
+		final CountDownLatch reads = new CountDownLatch(2);
+		LibraryBuilder.ValueFunction0 read = () -> {
+			reads.countDown();
+			return new VariableValue(reads.await(5, TimeUnit.SECONDS) ? 2.0 : 0.0);
+		};
+		c.addLibrary("region", new LibraryBuilder()
+				.variable("west", read)
+				.variable("east", read)
+				.build());
+		p = new Parser("#root{ a = region.west * region.east; }");
+		p.parse();
+		Assert.assertEquals(4.0, c.computeAsync(c.compile((Expression) p.getRootSection().get(0))).get(10, TimeUnit.SECONDS).asDouble(), 0.0);
+	}
+
+	public static class ProbeLibrary implements Library {
+
+		public int hits = 0;
+
+		@Method
+		public synchronized VariableValue hit(VariableValue v) {
+			this.hits++;
+			return v;
+		}
+
+	}
+
+	@Test
+	public void short_circuit_test() throws Exception {
+		Parser p = new Parser("#root{ a = probe.hit(false) && probe.hit(true); b = probe.hit(1) > 0 || probe.hit(true); "
+				+ "c = if(probe.hit(true), 10, probe.hit(20)); d = coalesce(null, probe.hit(null), probe.hit(5), probe.hit(6)); "
+				+ "e = if(probe.hit(0) > 1, 1, 2) + 1; }");
+		p.parse();
+		Object[] results = {false, true, 10, 5, 3};
+		int[] hits = {1, 1, 1, 2, 1};
+		for (int mode = 0; mode < 4; mode++) {
+			ProbeLibrary probe = new ProbeLibrary();
+			Computer c = new Computer();
+			c.addLibrary("probe", probe);
+			c.setStackEvaluation(mode == 1);
+			c.setBytecodeGeneration(mode == 2);
+			for (int f = 0; f < results.length; f++) {
+				CompiledExpression compiled = c.compile((Expression) p.getRootSection().get(f));
+				Assert.assertEquals(mode == 1, compiled.isStackCompiled());
+				Assert.assertEquals(mode == 2, compiled.isBytecodeCompiled());
+				probe.hits = 0;
+				VariableValue value = mode == 3 ? c.computeAsync(compiled).get(10, TimeUnit.SECONDS) : c.compute(compiled);
+				if (results[f] instanceof Boolean)
+					Assert.assertEquals(results[f], value.asBoolean());
+				else
+					Assert.assertEquals(results[f], value.asInteger());
+				Assert.assertEquals(hits[f], probe.hits);
+			}
+		}
+		// right operand is evaluated over the rows which need it only
+		ProbeLibrary probe = new ProbeLibrary();
+		Computer c = new Computer();
+		c.addLibrary("probe", probe);
+		p = new Parser("#root{ a = x > 0 && probe.hit(x > 1); b = if(x > 1, x, probe.hit(0 - x)); }");
+		p.parse();
+		ColumnBatch batch = new ColumnBatch(4).bind("x", new long[] {1, -1, 2, 3});
+		Column a = c.compute(c.compile((Expression) p.getRootSection().get(0)), batch);
+		Assert.assertEquals("[false, false, true, true]", Arrays.toString(a.getBooleans()));
+		Assert.assertEquals(3, probe.hits);
+		Column b = c.compute(c.compile((Expression) p.getRootSection().get(1)), batch);
+		Assert.assertEquals("[-1, 1, 2, 3]", Arrays.toString(b.getLongs()));
+		Assert.assertEquals(5, probe.hits);
+	}
+
+	public static class RatesLibrary implements Library {
+
+		public int calls = 0;
+
+		@Cacheable
+		@Method
+		public synchronized VariableValue rate(String currency) {
+			this.calls++;
+			return new VariableValue(currency.equals("usd") ? 1.0 : 2.0);
+		}
+
+		@Cacheable(size = 1, key = {0})
+		@Method
+		public synchronized VariableValue region(String code, String comment) {
+			this.calls++;
+			return new VariableValue(code.toUpperCase());
+		}
+
+		@Cacheable(ttl = 1)
+		@Method
+		public synchronized VariableValue now(String zone) {
+			this.calls++;
+			return new VariableValue(System.nanoTime());
+		}
+
+	}
+
+	@Test
+	public void method_cache_test() throws Exception {
+		Parser p = new Parser("#root{ a = rates.rate(\"usd\") + rates.rate(\"usd\") + rates.rate(\"eur\"); "
+				+ "b = rates.region(\"eu\", \"x\") + rates.region(\"eu\", \"y\") + rates.region(\"us\", \"z\") + rates.region(\"eu\", \"w\"); "
+				+ "c = rates.now(\"utc\"); }");
+		p.parse();
+		for (int mode = 0; mode < 3; mode++) {
+			RatesLibrary rates = new RatesLibrary();
+			Computer c = new Computer();
+			c.addLibrary("rates", rates);
+			c.setStackEvaluation(mode == 1);
+			c.setBytecodeGeneration(mode == 2);
+			CompiledExpression a = c.compile((Expression) p.getRootSection().get(0));
+			Assert.assertEquals(mode == 2, a.isBytecodeCompiled());
+			Assert.assertEquals(4.0, c.compute(a).asDouble(), 0.0);
+			Assert.assertEquals(4.0, c.compute(a).asDouble(), 0.0);
+			Assert.assertEquals(2, rates.calls);
+			MethodCache cache = c.getMethodCache("rates", "rate", 1);
+			Assert.assertEquals(2, cache.getMissCount());
+			Assert.assertEquals(4, cache.getHitCount());
+			Assert.assertEquals(2, cache.size());
+			cache.invalidateAll();
+			Assert.assertEquals(4.0, c.compute(a).asDouble(), 0.0);
+			Assert.assertEquals(4, rates.calls);
+
+			// keyed by the first argument only, one result is kept
+			rates.calls = 0;
+			Assert.assertEquals("EUEUUSEU", c.compute(c.compile((Expression) p.getRootSection().get(1))).asString());
+			Assert.assertEquals(3, rates.calls);
+			Assert.assertEquals(2, c.getMethodCache("rates", "region", 2).getEvictionCount());
+
+			// result expires
+			rates.calls = 0;
+			CompiledExpression now = c.compile((Expression) p.getRootSection().get(2));
+			c.compute(now);
+			Thread.sleep(5);
+			c.compute(now);
+			Assert.assertEquals(2, rates.calls);
+			Assert.assertNull(c.getMethodCache("system", "not", 1));
+		}
+	}
+
+	@Test
+	public void prepared_expression_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = price * quantity > limit; b = if(vip, price * 0.9, price) + order.total + math.abs(price); }");
+		p.parse();
+		Computer c = new Computer();
+		PreparedExpression a = c.prepare((Expression) p.getRootSection().get(0));
+		Assert.assertEquals(3, a.getParameterCount());
+		Assert.assertEquals("quantity", a.getParameterName(1));
+		Assert.assertEquals(2, a.getParameterIndex("limit"));
+		Assert.assertEquals(-1, a.getParameterIndex("true"));
+		a.setDouble("price", 10.5).setLong("quantity", 3).setDouble(2, 25);
+		Assert.assertTrue(a.execute().asBoolean());
+		a.setDouble(2, 40);
+		Assert.assertFalse(a.execute().asBoolean());
+		// other kinds of values
+		a.setValue("quantity", new VariableValue(5)).setString(2, "50");
+		Assert.assertTrue(a.execute().asBoolean());
+
+		// copy has nothing bound
+		try {
+			a.copy().execute();
+			Assert.fail();
+		} catch (IumlsException e) {
+			Assert.assertTrue(e.getMessage().contains("'price' is not bound"));
+		}
+		try {
+			a.setDouble("rate", 1);
+			Assert.fail();
+		} catch (IumlsException e) {
+		}
+
+		PreparedExpression b = c.prepare((Expression) p.getRootSection().get(1));
+		Assert.assertEquals(3, b.getParameterCount());
+		Assert.assertEquals("order.total", b.getParameterName(2));
+		b.setBoolean("vip", true).setDouble("price", 100).setLong("order.total", 7);
+		Assert.assertEquals(197.0, b.execute().asDouble(), 0.0);
+		b.setBoolean("vip", false);
+		Assert.assertEquals(207.0, b.execute().asDouble(), 0.0);
+
+		// programs are compiled again for other libraries
+		c.addLibrary("order", new LibraryBuilder().variable("total", new VariableValue(1000)).build());
+		Assert.assertEquals(207.0, b.execute().asDouble(), 0.0);
+	}
+
+	@Test
+	public void call_site_cache_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = v.x + 1; b = math.abs(v.x) - 1; }");
+		p.parse();
+		final VariableValue[] values = {new VariableValue(1.5), new VariableValue(2L), new VariableValue(1.5), new VariableValue("a"),
+				new VariableValue(true), new VariableValue(3), new VariableValue(-7.5), new VariableValue(2L), new VariableValue("b")};
+		final int[] index = {0};
+		Computer c = new Computer();
+		c.addLibrary("v", new LibraryBuilder().variable("x", () -> new VariableValue(values[index[0]])).build());
+		CompiledExpression a = c.compile((Expression) p.getRootSection().get(0));
+		CompiledExpression b = c.compile((Expression) p.getRootSection().get(1));
+		MathLibrary math = new MathLibrary();
+		// monomorphic, polymorphic and megamorphic call sites give the same results as members
+		for (int round = 0; round < 2; round++) {
+			for (index[0] = 0; index[0] < values.length; index[0]++) {
+				VariableValue x = values[index[0]];
+				Assert.assertEquals(math.operatorPlus(new VariableValue(x), new VariableValue(1.0)).asString(), c.compute(a).asString());
+				Assert.assertEquals(math.operatorMinus(math.abs(x.asDouble()).asLong(), 1).asString(), c.compute(b).asString());
+			}
+		}
+	}
+
+	@Test
+	public void type_inference_test() throws IumlsException {
+		Parser p = new Parser("#root{ a = (shop.price * 2 > 10) && not(false); b = if(flag, \"x\", \"y\"); c = 1 + \"a\"; "
+				+ "d = \"abc\" * 2 + math.abs(toDate(\"2020\", \"yyyy\")) + foo.bar(1) + math.abs(\"12\"); "
+				+ "e = math.abs(sysdate) - sysdate + 1000 > 0; }");
+		p.parse();
+		Computer c = new Computer();
+		c.addLibrary("shop", new LibraryBuilder().variable("price", new VariableValue(7.5)).build());
+		ExpressionTypes a = c.inferTypes((Expression) p.getRootSection().get(0));
+		Assert.assertEquals(ExpressionTypes.BOOLEAN, a.getResultType());
+		Assert.assertTrue(a.getErrors().isEmpty());
+		ExpressionElement multiply = ((Expression) p.getRootSection().get(0)).getBaseElement().getElements().get(2);
+		Assert.assertEquals(ExpressionTypes.NUMBER, a.getType(multiply));
+		a.check();
+
+		Assert.assertEquals(ExpressionTypes.STRING, c.inferTypes((Expression) p.getRootSection().get(1)).getResultType());
+		Assert.assertEquals(ExpressionTypes.STRING, c.inferTypes((Expression) p.getRootSection().get(2)).getResultType());
+
+		// "abc" is not a number, a date is not a number, foo is not a library, "12" is fine
+		ExpressionTypes d = c.inferTypes((Expression) p.getRootSection().get(3));
+		Assert.assertEquals(3, d.getErrors().size());
+		Assert.assertTrue(d.getErrors().get(0).getMessage().contains("argument 1 of an operator '*' is a string"));
+		Assert.assertTrue(d.getErrors().get(1).getMessage().contains("argument 1 of a function 'math.abs' is a date"));
+		Assert.assertTrue(d.getErrors().get(2).getMessage().contains("a function 'foo.bar' is not resolved"));
+		try {
+			d.check();
+			Assert.fail();
+		} catch (IumlsException e) {
+			Assert.assertSame(d.getErrors().get(0), e);
+		}
+
+		// sysdate is time in milliseconds
+		ExpressionTypes e = c.inferTypes((Expression) p.getRootSection().get(4));
+		Assert.assertEquals(ExpressionTypes.BOOLEAN, e.getResultType());
+		Assert.assertTrue(e.getErrors().isEmpty());
+		e.check();
+		Assert.assertTrue(c.compute((Expression) p.getRootSection().get(4)).asBoolean());
+	}
+
+	@Test
+	public void tiered_compilation_test() throws Exception {
+		Parser p = new Parser("#root{ a = math.abs(x.y - 10) * 2; }");
+		p.parse();
+		for (int mode = 0; mode < 2; mode++) {
+			Computer c = new Computer();
+			c.addLibrary("x", new LibraryBuilder().variable("y", () -> new VariableValue(3L)).build());
+			c.setBytecodeGeneration(mode == 1);
+			c.setTieredCompilation(3);
+			c.setCompilationExecutor(Runnable::run);
+			CompiledExpression a = c.compile((Expression) p.getRootSection().get(0));
+			for (int t = 0; t < 2; t++) {
+				Assert.assertEquals(14.0, c.compute(a).asDouble(), 0.0);
+				Assert.assertTrue(a.isCold());
+				Assert.assertFalse(a.isStackCompiled() || a.isBytecodeCompiled());
+			}
+			Assert.assertEquals(14.0, c.compute(a).asDouble(), 0.0);
+			Assert.assertFalse(a.isCold());
+			// variable of built library has no java member behind, bytecode backend gives it to stack machine
+			Assert.assertTrue(a.isStackCompiled());
+			Assert.assertEquals(14.0, c.compute(a).asDouble(), 0.0);
+
+			// relinked expression is still hot, it's promoted again at once
+			c.addLibrary("x", new LibraryBuilder().variable("y", () -> new VariableValue(20L)).build());
+			Assert.assertEquals(20.0, c.compute(a).asDouble(), 0.0);
+			Assert.assertFalse(a.isCold());
+		}
+
+		// promoted on a background thread
+		Computer c = new Computer();
+		c.addLibrary("x", new LibraryBuilder().variable("y", () -> new VariableValue(3L)).build());
+		c.setTieredCompilation(1);
+		CompiledExpression a = c.compile((Expression) p.getRootSection().get(0));
+		Assert.assertEquals(14.0, c.compute(a).asDouble(), 0.0);
+		for (int t = 0; (t < 500) && a.isCold(); t++) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(a.isStackCompiled());
+		Assert.assertEquals(14.0, c.compute(a).asDouble(), 0.0);
+	}
+
+	@Test
+	public void evaluation_profile_test() throws Exception {
+		String text = "#root{ a = math.abs(x.y - 10) * 2; b = x.y + \"u\"; c = x.y * 3; }";
+		Parser p = new Parser(text);
+		p.parse();
+		Computer c = new Computer();
+		c.addLibrary("x", new LibraryBuilder().variable("y", () -> new VariableValue(3.5)).build());
+		c.setProfiling(true);
+		for (int t = 0; t < 5; t++) {
+			c.compute((Expression) p.getRootSection().get(0));
+		}
+		c.compute((Expression) p.getRootSection().get(1));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		c.exportProfile(out);
+		String profile = out.toString("UTF-8");
+		Assert.assertTrue(profile.startsWith("iumls-profile 1\nE\t5\t"));
+		// types seen by call sites are there
+		Assert.assertFalse(profile.startsWith("iumls-profile 1\nE\t5\t\t"));
+		Assert.assertTrue(profile.contains("\tmath.abs(x.y - 10) * 2\n"));
+		Assert.assertTrue(profile.contains("\tx.y + \"u\"\n"));
+		Assert.assertTrue(profile.contains("M\t6\tx\t1\ty\n"));
+		Assert.assertFalse(profile.contains("x.y * 3"));
+
+		// the next run, expressions are parsed again
+		Parser next = new Parser(text);
+		next.parse();
+		Computer n = new Computer();
+		n.addLibrary("x", new LibraryBuilder().variable("y", () -> new VariableValue(3.5)).build());
+		n.setTieredCompilation(1000);
+		List<Expression> expressions = new ArrayList<Expression>();
+		for (int t = 0; t < 3; t++) {
+			expressions.add((Expression) next.getRootSection().get(t));
+		}
+		Assert.assertEquals(2, n.loadProfile(new ByteArrayInputStream(out.toByteArray()), expressions).get().intValue());
+		Assert.assertEquals(14.0, n.compute(expressions.get(0)).asDouble(), 0.0);
+		Assert.assertEquals("3.5u", n.compute(expressions.get(1)).asString());
+		Assert.assertEquals(10.5, n.compute(expressions.get(2)).asDouble(), 0.0);
+
+		try {
+			n.loadProfile(new ByteArrayInputStream("nothing".getBytes("UTF-8")), expressions);
+			Assert.fail();
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void evaluation_limits_test() throws Exception {
+		Parser p = new Parser("#root{ a = x.y + x.y * 2 + x.y; b = x.call(1); c = x.id(v) + 1; }");
+		p.parse();
+		final Computer c = new Computer();
+		final Expression nested = (Expression) p.getRootSection().get(0);
+		c.addLibrary("x", new LibraryBuilder()
+				.variable("y", () -> new VariableValue(3.0))
+				.method("call", (VariableValue a) -> c.compute(nested))
+				.method("id", (VariableValue a) -> a)
+				.build());
+		for (boolean stack : new boolean[] {false, true}) {
+			c.setStackEvaluation(stack);
+			CompiledExpression compiled = c.compile((Expression) p.getRootSection().get(0));
+			Assert.assertEquals(12.0, c.compute(compiled, new EvaluationContext().setStepBudget(100)).asDouble(), 0.0);
+			try {
+				c.compute(compiled, new EvaluationContext().setStepBudget(3));
+				Assert.fail();
+			} catch (EvaluationAbortedException e) {
+				Assert.assertEquals(EvaluationAbortedException.BUDGET, e.getReason());
+			}
+			try {
+				c.compute(compiled, new EvaluationContext().setCancellation(new AtomicBoolean(true)::get));
+				Assert.fail();
+			} catch (EvaluationAbortedException e) {
+				Assert.assertEquals(EvaluationAbortedException.CANCELLED, e.getReason());
+			}
+			try {
+				c.compute(compiled, new EvaluationContext().setDeadline(1));
+				Assert.fail();
+			} catch (EvaluationAbortedException e) {
+				Assert.assertEquals(EvaluationAbortedException.DEADLINE, e.getReason());
+			}
+			Assert.assertEquals(12.0, c.compute(compiled, new EvaluationContext().setTimeout(60000)).asDouble(), 0.0);
+		}
+
+		// expression computed by a library call shares the budget and aborts the outer one as is
+		CompiledExpression outer = c.compile((Expression) p.getRootSection().get(1));
+		EvaluationContext context = new EvaluationContext().setStepBudget(4);
+		try {
+			c.compute(outer, context);
+			Assert.fail();
+		} catch (EvaluationAbortedException e) {
+			Assert.assertEquals(EvaluationAbortedException.BUDGET, e.getReason());
+		}
+		Assert.assertTrue(context.getRemainingSteps() < 0);
+		// no limits
+		Assert.assertEquals(12.0, c.compute(outer).asDouble(), 0.0);
+
+		// batch evaluation counts calls made row by row
+		CompiledExpression rows = c.compile((Expression) p.getRootSection().get(2));
+		ColumnBatch batch = new ColumnBatch(1000).bind("v", new long[1000]);
+		Assert.assertEquals(1000, c.compute(rows, batch, new EvaluationContext().setStepBudget(2000)).size());
+		try {
+			c.compute(rows, batch, new EvaluationContext().setStepBudget(100));
+			Assert.fail();
+		} catch (EvaluationAbortedException e) {
+			Assert.assertEquals(EvaluationAbortedException.BUDGET, e.getReason());
+		}
+		try {
+			c.compute(rows, batch, new EvaluationContext().setDeadline(1));
+			Assert.fail();
+		} catch (EvaluationAbortedException e) {
+			Assert.assertEquals(EvaluationAbortedException.DEADLINE, e.getReason());
+		}
+	}
+
+	@Test
+	public void stackless_exception_test() throws Exception {
+		Parser p = new Parser("#root{ a = x.find(1) + 1; b = x.fail(1) + 1; }");
+		p.parse();
+		Computer c = new Computer();
+		c.addLibrary("x", new LibraryBuilder()
+				.method("find", (VariableValue a) -> {
+					throw new IumlsException("nothing found", false);
+				})
+				.method("fail", (VariableValue a) -> {
+					throw new IllegalStateException("broken");
+				})
+				.build());
+		try {
+			c.compute((Expression) p.getRootSection().get(0));
+			Assert.fail();
+		} catch (IumlsException e) {
+			// expected failure stays stackless when it's wrapped
+			Assert.assertTrue(e.isStackless());
+			Assert.assertEquals(0, e.getStackTrace().length);
+			Assert.assertTrue(e.getCause() instanceof IumlsException);
+			Assert.assertTrue(e.getMessage().startsWith("runtime exception on evaluating a function 'x.find'\n at line "));
+		}
+		try {
+			c.compute((Expression) p.getRootSection().get(1));
+			Assert.fail();
+		} catch (IumlsException e) {
+			Assert.assertFalse(e.isStackless());
+			Assert.assertTrue(e.getStackTrace().length > 0);
+			Assert.assertTrue(e.getMessage().startsWith("runtime exception on evaluating a function 'x.fail'"));
+		}
+	}
+
+	@Test
+	public void rule_set_test() throws IumlsException {
+		Parser p = new Parser("#root{ r1 = (category == \"fruit\") && price > 10; r2 = price <= 10 || discount;"
+				+ " r3 = 10 < price && (category == \"fruit\"); r4 = price >= 20 && price < 100 && (name != \"x\");"
+				+ " r5 = category == \"veg\"; r6 = price < 5; }");
+		p.parse();
+		Computer c = new Computer();
+		RuleSet rules = c.createRuleSet();
+		List<PreparedExpression> prepared = new ArrayList<PreparedExpression>();
+		for (int t = 0; t < 6; t++) {
+			Expression expression = (Expression) p.getRootSection().get(t);
+			rules.add("r" + (t + 1), expression);
+			prepared.add(c.prepare(expression));
+		}
+		// r1 and r3 share their predicates, r4 has a residual one
+		Assert.assertEquals(6, rules.getPredicateCount());
+
+		Map<String, VariableValue> record = new HashMap<String, VariableValue>();
+		record.put("category", new VariableValue("fruit"));
+		record.put("price", new VariableValue(15));
+		Assert.assertEquals(Arrays.asList("r1", "r3"), rules.match(record));
+		record.put("price", new VariableValue(25));
+		record.put("discount", new VariableValue(true));
+		Assert.assertEquals(Arrays.asList("r1", "r2", "r3", "r4"), rules.match(record));
+		// string field is compared as string with numbers ("3" > "10")
+		record.clear();
+		record.put("category", new VariableValue("veg"));
+		record.put("price", new VariableValue("3"));
+		Assert.assertEquals(Arrays.asList("r5", "r6"), rules.match(record));
+
+		// index agrees with evaluation of rules
+		Object[] categories = {"fruit", "veg", "", 10};
+		Object[] prices = {3, 5, 10, 10.5, 20, 99, 100, 150, "3", "15", "abc", null};
+		for (Object category : categories) {
+			for (Object price : prices) {
+				record.clear();
+				record.put("category", value(category));
+				record.put("price", value(price));
+				List<String> expected = new ArrayList<String>();
+				for (int t = 0; t < prepared.size(); t++) {
+					PreparedExpression rule = prepared.get(t);
+					for (int f = 0; f < rule.getParameterCount(); f++) {
+						VariableValue value = record.get(rule.getParameterName(f));
+						rule.setValue(f, value != null ? value : new VariableValue());
+					}
+					if (rule.execute().asBoolean())
+						expected.add("r" + (t + 1));
+				}
+				Assert.assertEquals(category + " " + price, expected, rules.match(record));
+			}
+		}
+
+		// rule is replaced
+		rules.add("r5", (Expression) p.getRootSection().get(5));
+		Assert.assertEquals(Arrays.asList("r2", "r5", "r6"), rules.match(Collections.singletonMap("price", new VariableValue(1))));
+	}
+
+	private static VariableValue value(Object value) {
+		if (value instanceof String)
+			return new VariableValue((String) value);
+		if (value instanceof Integer)
+			return new VariableValue((Integer) value);
+		if (value instanceof Double)
+			return new VariableValue((Double) value);
+		return new VariableValue();
+	}
+
+	@Test
+	public void adaptive_ordering_test() throws IumlsException {
+		final AtomicInteger expensive = new AtomicInteger();
+		final boolean[] guard = {true};
+		Computer c = new Computer();
+		// calls are not folded, so they are evaluated on every computation
+		c.setConstantFolding(false);
+		Library library = new LibraryBuilder()
+				.pure(true)
+				.method("expensive", (VariableValue a) -> {
+					expensive.incrementAndGet();
+					double sum = 0;
+					for (int t = 0; t < 2000; t++) {
+						sum += Math.sqrt(t);
+					}
+					return new VariableValue(guard[0] && (sum > 0));
+				})
+				.method("selective", (VariableValue a) -> {
+					if (!guard[0])
+						throw new IllegalStateException("not guarded");
+					return new VariableValue(false);
+				})
+				.build();
+		c.addLibrary("x", library);
+		Parser p = new Parser("#root{ a = x.expensive(1) && x.selective(1); }");
+		p.parse();
+		Expression expression = (Expression) p.getRootSection().get(0);
+		for (int t = 0; t < 4096; t++) {
+			Assert.assertFalse(c.compute(expression).asBoolean());
+		}
+		// cheap and selective operand goes first
+		expensive.set(0);
+		for (int t = 0; t < 1000; t++) {
+			Assert.assertFalse(c.compute(expression).asBoolean());
+		}
+		Assert.assertEquals(0, expensive.get());
+
+		// moved operand fails without its guard, source order decides and is kept
+		guard[0] = false;
+		Assert.assertFalse(c.compute(expression).asBoolean());
+		Assert.assertEquals(1, expensive.get());
+		Assert.assertFalse(c.compute(expression).asBoolean());
+		Assert.assertEquals(2, expensive.get());
+
+		// source order
+		Computer s = new Computer();
+		s.setConstantFolding(false);
+		s.setAdaptiveOrdering(false);
+		s.addLibrary("x", library);
+		guard[0] = true;
+		expensive.set(0);
+		for (int t = 0; t < 2048; t++) {
+			s.compute(expression);
+		}
+		Assert.assertEquals(2048, expensive.get());
+	}
+
+	public static class LookupLibrary implements Library {
+
+		// sizes of bulk lookups
+		public List<Integer> lookups = Collections.synchronizedList(new ArrayList<Integer>());
+
+		@Batched
+		@Method
+		public VariableValue[] lookup(VariableValue[] ids) {
+			this.lookups.add(ids.length);
+			VariableValue[] values = new VariableValue[ids.length];
+			for (int t = 0; t < ids.length; t++) {
+				values[t] = new VariableValue("v" + ids[t].asLong());
+			}
+			return values;
+		}
+
+	}
+
+	// generated dispatcher is not made for private classes, reflection is used
+	private static class ReflectiveLookupLibrary extends LookupLibrary {
+	}
+
+	@Test
+	public void batched_method_test() throws Exception {
+		Parser p = new Parser("#root{ a = 1; b = 2; f = if(store.lookup(3) == \"v3\", store.lookup(4), store.lookup(5)); "
+				+ "g = store.lookup(3) + store.lookup(6); c = store.lookup(a); d = store.lookup(b) + store.lookup(a); "
+				+ "e = store.lookup(if(c == \"v1\", 7, 8)); }");
+		p.parse();
+		for (LookupLibrary store : new LookupLibrary[] {new LookupLibrary(), new ReflectiveLookupLibrary()}) {
+			Computer c = new Computer();
+			c.addLibrary("store", store);
+			EntityValue values = c.evaluate(p.getRootSection());
+			Assert.assertEquals("v4", values.get(2).getValue().asString());
+			Assert.assertEquals("v3v6", values.get(3).getValue().asString());
+			Assert.assertEquals("v1", values.get(4).getValue().asString());
+			Assert.assertEquals("v2v1", values.get(5).getValue().asString());
+			Assert.assertEquals("v7", values.get(6).getValue().asString());
+			// level of constants and independent expressions: 3 and 6 at once, branch taken alone;
+			// level of references: 1 and 2 at once; the last level makes a single call
+			Assert.assertEquals("[2, 1, 2, 1]", store.lookups.toString());
+
+			// column of keys is looked up at once
+			store.lookups.clear();
+			Parser q = new Parser("#root{ a = store.lookup(x); b = store.lookup(9); }");
+			q.parse();
+			Column column = c.compute(c.compile((Expression) q.getRootSection().get(0)), new ColumnBatch(4).bind("x", new long[] {1, 2, 1, 3}));
+			Assert.assertEquals("[v1, v2, v1, v3]", Arrays.toString(column.getStrings()));
+			Assert.assertEquals("[3]", store.lookups.toString());
+
+			// call out of evaluation wave looks up its own key
+			Assert.assertEquals("v9", c.compute((Expression) q.getRootSection().get(1)).asString());
+			Assert.assertEquals("[3, 1]", store.lookups.toString());
+		}
+	}
+
 }